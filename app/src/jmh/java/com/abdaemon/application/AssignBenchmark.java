@@ -0,0 +1,105 @@
+package com.abdaemon.application;
+
+import com.abdaemon.domain.*;
+import com.abdaemon.ports.outbound.ConfigRepository;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AssignTreatmentUseCase across config sizes and targeting shapes.
+ * - open: no targeting, full traffic
+ * - country: country allow-list
+ * - country_appver: country + minimum app version
+ * - rule: compiled targeting rule (set, semver range, numeric bound, negated prefix)
+ * - gated: 30% traffic, most subjects stop at the gate
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 1)
+@Fork(3)
+public class AssignBenchmark {
+    private static final int SUBJECTS = 1024;
+
+    @Param({"1", "10", "100"})
+    public int experiments;
+
+    @Param({"open", "country", "country_appver", "rule", "gated"})
+    public String shape;
+
+    @Param({"sha256", "murmur3"})
+    public String hashing;
+
+    private AssignTreatmentUseCase useCase;
+    private ExperimentKey[] keys;
+    private final Subject[] subjects = new Subject[SUBJECTS];
+    private final Map<String, String> ctx = Map.of("country", "US", "app_ver", "300",
+            "platform", "ios", "os_ver", "17.4.1", "age", "34", "locale", "en-US");
+    private int i;
+
+    @Setup
+    public void setup() {
+        var list = new ArrayList<Experiment>(experiments);
+        keys = new ExperimentKey[experiments];
+        for (int e = 0; e < experiments; e++) {
+            keys[e] = new ExperimentKey("exp_" + e);
+            list.add(experiment(keys[e], shape, hashing));
+        }
+        var snap = ConfigSnapshot.of("1", list);
+        useCase = new AssignTreatmentUseCase(new ConfigRepository() {
+            @Override public String version() { return snap.version(); }
+            @Override public List<Experiment> all() { return List.copyOf(snap.experiments().values()); }
+            @Override public Optional<Experiment> find(ExperimentKey key) { return snap.find(key); }
+            @Override public ConfigSnapshot snapshot() { return snap; }
+        }, new Bucketer());
+        for (int k = 0; k < SUBJECTS; k++) subjects[k] = Subject.of(new UserId("user-" + k * 7919), null, null);
+    }
+
+    static Experiment experiment(ExperimentKey key, String shape, String hashing) {
+        Targets targets = switch (shape) {
+            case "country" -> new Targets(List.of("US", "CA", "GB", "DE"), null);
+            case "country_appver" -> new Targets(List.of("US", "CA", "GB", "DE"), 200);
+            case "rule" -> new Targets(List.of(), null, all(
+                    attr("platform", List.of("ios", "android"), null, null, null),
+                    attr("os_ver", null, ">=16.2 <18 || ^19.1", null, null),
+                    attr("age", null, null, 18.0, null),
+                    not(attr("locale", null, null, null, List.of("fr")))));
+            default -> Targets.none();
+        };
+        double traffic = "gated".equals(shape) ? 0.3 : 1.0;
+        return new Experiment(key, "running", "salt-" + key.value(), traffic, 0.0,
+                List.of(new Variant("control", 0.5), new Variant("treatment-1", 0.3), new Variant("treatment-2", 0.2)),
+                targets, Instant.parse("2020-01-01T00:00:00Z"), Instant.parse("2099-01-01T00:00:00Z"), hashing);
+    }
+
+    private static TargetingRule all(TargetingRule... rules) {
+        return new TargetingRule(List.of(rules), null, null, null, null, null, null, null, null, null, null, null, null);
+    }
+
+    private static TargetingRule not(TargetingRule rule) {
+        return new TargetingRule(null, null, rule, null, null, null, null, null, null, null, null, null, null);
+    }
+
+    private static TargetingRule attr(String name, List<String> in, String semver, Double gte, List<String> prefix) {
+        return new TargetingRule(null, null, null, name, in, null, prefix, null, gte, null, null, semver, null);
+    }
+
+    @Benchmark
+    public AssignmentDecision assign() {
+        int n = i++;
+        return useCase.assign(keys[n % keys.length], subjects[n & (SUBJECTS - 1)], ctx);
+    }
+
+    /** Every running experiment for one subject. */
+    @Benchmark
+    public AssignTreatmentUseCase.Batch assignAll() {
+        return useCase.assignAll(null, subjects[i++ & (SUBJECTS - 1)], ctx);
+    }
+}
@@ -0,0 +1,56 @@
+package com.abdaemon.application;
+
+import com.abdaemon.domain.Hashing;
+import com.abdaemon.domain.Subject;
+import com.abdaemon.domain.UserId;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/** Subject hashing: legacy single bucket, packed gate+variant per strategy, stable key derivation. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 1)
+@Fork(3)
+public class BucketerBenchmark {
+    private static final int SUBJECTS = 1024;
+
+    private final Bucketer bucketer = new Bucketer();
+    private final String[] keys = new String[SUBJECTS];
+    private final Subject[] subjects = new Subject[SUBJECTS];
+    private int i;
+
+    @Setup
+    public void setup() {
+        for (int k = 0; k < SUBJECTS; k++) {
+            subjects[k] = Subject.of(new UserId("user-" + k * 7919), null, null);
+            keys[k] = Bucketer.stableSubjectKey(subjects[k]);
+        }
+    }
+
+    private int next() {
+        return i = (i + 1) & (SUBJECTS - 1);
+    }
+
+    @Benchmark
+    public int bucketLegacy() {
+        return bucketer.bucket("b8c6e2", keys[next()]);
+    }
+
+    @Benchmark
+    public long bucketsSha256() {
+        return bucketer.buckets(Hashing.SHA256, "b8c6e2", keys[next()]);
+    }
+
+    @Benchmark
+    public long bucketsMurmur3() {
+        return bucketer.buckets(Hashing.MURMUR3, "b8c6e2", keys[next()]);
+    }
+
+    @Benchmark
+    public String stableSubjectKey() {
+        return Bucketer.stableSubjectKey(subjects[next()]);
+    }
+}
@@ -0,0 +1,80 @@
+package com.abdaemon.bench;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares a JMH JSON result file against a committed baseline.
+ * - entries match on benchmark name + params
+ * - thrpt/ss direction from the mode: throughput higher is better, time modes lower is better
+ * - a regression is a change worse than the threshold that also exceeds the two runs' combined
+ *   score error (JMH's 99.9% interval), so noisy benchmarks do not flap
+ * - exits 1 when any benchmark regressed
+ *
+ * Usage: RegressionCheck <baseline.json> <results.json> [threshold, default 0.10]
+ */
+public final class RegressionCheck {
+
+    private record Score(String mode, double score, double error, String unit) {}
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: RegressionCheck <baseline.json> <results.json> [threshold]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 0.10;
+        var baseline = load(new File(args[0]));
+        var current = load(new File(args[1]));
+
+        int regressions = 0, compared = 0;
+        for (var e : current.entrySet()) {
+            Score base = baseline.get(e.getKey());
+            Score now = e.getValue();
+            if (base == null) {
+                System.out.printf("NEW   %-90s %12.3f %s%n", e.getKey(), now.score, now.unit);
+                continue;
+            }
+            compared++;
+            boolean higherIsBetter = "thrpt".equals(now.mode);
+            double change = (now.score - base.score) / base.score;
+            double worse = higherIsBetter ? -change : change;
+            double noise = Double.isNaN(base.error) || Double.isNaN(now.error) ? 0 : base.error + now.error;
+            boolean significant = Math.abs(now.score - base.score) > noise;
+            String tag = !significant ? "ok" : worse > threshold ? "REGR" : worse < -threshold ? "IMPR" : "ok";
+            if (tag.equals("REGR")) regressions++;
+            System.out.printf("%-5s %-90s %12.3f -> %12.3f %s (%+.1f%%)%n",
+                    tag, e.getKey(), base.score, now.score, now.unit, change * 100);
+        }
+        for (var k : baseline.keySet()) {
+            if (!current.containsKey(k)) System.out.printf("GONE  %s%n", k);
+        }
+        System.out.printf("%d compared, %d regression(s) beyond %.0f%%%n", compared, regressions, threshold * 100);
+        if (regressions > 0) System.exit(1);
+    }
+
+    private static Map<String, Score> load(File f) throws Exception {
+        var out = new LinkedHashMap<String, Score>();
+        for (JsonNode r : new ObjectMapper().readTree(f)) {
+            var key = new StringBuilder(r.get("benchmark").asText());
+            JsonNode params = r.get("params");
+            if (params != null) {
+                var sorted = new TreeMap<String, String>();
+                for (Iterator<Map.Entry<String, JsonNode>> it = params.fields(); it.hasNext(); ) {
+                    var p = it.next();
+                    sorted.put(p.getKey(), p.getValue().asText());
+                }
+                sorted.forEach((k, v) -> key.append(' ').append(k).append('=').append(v));
+            }
+            JsonNode m = r.get("primaryMetric");
+            out.put(key.toString(), new Score(r.get("mode").asText(), m.get("score").asDouble(),
+                    m.get("scoreError").asDouble(), m.get("scoreUnit").asText()));
+        }
+        return out;
+    }
+}
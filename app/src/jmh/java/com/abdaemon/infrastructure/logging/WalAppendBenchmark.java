@@ -0,0 +1,61 @@
+package com.abdaemon.infrastructure.logging;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * One exposure through WalEventSink into a temp dir, per write mode, format and fsync setting.
+ * Group mode measures the producer-side cost; the writer thread's fsync runs concurrently.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 1)
+@Fork(3)
+public class WalAppendBenchmark {
+
+    @Param({"false", "true"})
+    public boolean fsync;
+
+    @Param({"direct", "group"})
+    public String mode;
+
+    @Param({"ndjson", "binary"})
+    public String format;
+
+    private Path dir;
+    private WalEventSink sink;
+    private final Map<String, String> ctx = Map.of("country", "US", "app_ver", "300");
+    private final Instant ts = Instant.parse("2025-01-01T00:00:00Z");
+    private int i;
+
+    @Setup(Level.Trial)
+    public void open() throws IOException {
+        dir = Files.createTempDirectory("wal-bench");
+        var group = "group".equals(mode) ? new WalEventSink.GroupCommit(65536, 4096, Duration.ofMillis(2)) : null;
+        sink = new WalEventSink(dir, 64L << 20, fsync, group, WalFormat.of(format), false);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        sink.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void enqueueExposure() {
+        sink.enqueueExposure("checkout_color", "treatment-1", "u:user-" + (i++ & 1023), ts, ctx);
+    }
+}
@@ -0,0 +1,80 @@
+package com.abdaemon.infrastructure.server;
+
+import com.abdaemon.domain.AssignmentDecision;
+import com.abdaemon.domain.ExperimentKey;
+import com.abdaemon.domain.TargetingAttributes;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request parsing and response serialization on both HTTP engines.
+ * - jdk: parseQuery into a HashMap; response via Jackson over Map.of (the pre-template path)
+ * - nio: request head + query decoded in place; response via JsonBytes
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 1)
+@Fork(3)
+public class HttpCodecBenchmark {
+    private static final String QUERY = "exp=checkout_color&user=u%C3%AFser-42&country=US&app_ver=300";
+    private static final byte[] REQUEST = ("GET /assign?" + QUERY + " HTTP/1.1\r\nHost: 127.0.0.1:8080\r\n"
+            + "User-Agent: bench\r\nAccept: */*\r\nConnection: keep-alive\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final HttpRequestHead head = new HttpRequestHead();
+    private final QueryParams query = new QueryParams();
+    private final JsonBytes json = new JsonBytes();
+    private final AssignmentDecision decision = new AssignmentDecision(new ExperimentKey("checkout_color"),
+            "treatment-1", AssignmentDecision.Decision.ASSIGNED, List.of(), "1792298304934");
+    private byte[] template;
+    private final Instant now = Instant.parse("2025-06-01T12:34:56.789123Z");
+
+    @Setup
+    public void setup() {
+        json.reset().raw('{')
+                .field("experiment").string(decision.experiment().value()).raw(',')
+                .field("treatment").string(decision.treatment()).raw(',')
+                .field("decision").string(decision.decision().name()).raw(',')
+                .field("reasons").strings(decision.reasons()).raw(',')
+                .field("configVersion").string(decision.configVersion()).raw(',')
+                .field("ts").raw('"');
+        template = java.util.Arrays.copyOf(json.buf, json.len);
+    }
+
+    @Benchmark
+    public Map<String, String> parseJdk() {
+        return HttpAssignmentServer.parseQuery(QUERY);
+    }
+
+    @Benchmark
+    public String parseNio() {
+        head.parse(REQUEST, 0, REQUEST.length);
+        query.parse(head.buf, head.queryOff, head.queryLen, TargetingAttributes.NONE);
+        return query.user;
+    }
+
+    @Benchmark
+    public byte[] serializeJackson() throws Exception {
+        return mapper.writeValueAsBytes(Map.of(
+                "experiment", decision.experiment().value(),
+                "treatment", decision.treatment(),
+                "decision", decision.decision().name(),
+                "reasons", decision.reasons(),
+                "configVersion", decision.configVersion(),
+                "ts", now.toString()));
+    }
+
+    @Benchmark
+    public int serializeTemplate() {
+        json.reset().raw(template).instant(now).raw('"').raw('}');
+        return json.len;
+    }
+}
@@ -1,8 +1,10 @@
 package com.abdaemon.application;
 
 import com.abdaemon.domain.*;
+import com.abdaemon.ports.outbound.ConfigListener;
 import com.abdaemon.ports.outbound.ConfigRepository;
-import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -10,44 +12,139 @@ import java.util.Map;
 public final class AssignTreatmentUseCase {
     private final ConfigRepository config;
     private final Bucketer bucketer;
+    private final AssignmentCache cache;     // null = no caching
 
     public AssignTreatmentUseCase(ConfigRepository config, Bucketer bucketer) {
-        this.config = config; this.bucketer = bucketer;
+        this(config, bucketer, null);
     }
 
+    public AssignTreatmentUseCase(ConfigRepository config, Bucketer bucketer, AssignmentCache cache) {
+        this.config = config; this.bucketer = bucketer; this.cache = cache;
+    }
+
+    /** The config snapshot decisions are currently taken from. */
+    public ConfigSnapshot snapshot() { return config.snapshot(); }
+
+    /** Whether the config source has loaded a valid snapshot yet. */
+    public boolean ready() { return config.ready(); }
+
+    /** Notifies {@code listener} of snapshots the config source publishes from now on. */
+    public void addListener(ConfigListener listener) { config.addListener(listener); }
+
+    /** Null when caching is off. */
+    public AssignmentCache cache() { return cache; }
+
     public AssignmentDecision assign(ExperimentKey key, Subject subject, Map<String,String> ctx) {
-        var expOpt = config.find(key);
-        if (expOpt.isEmpty() || !expOpt.get().isRunning())
-            return new AssignmentDecision(key, "control", AssignmentDecision.Decision.FALLBACK, List.of("not_running_or_missing"), config.version());
-
-        var exp = expOpt.get();
-        var now = Instant.now();
-        if (now.isBefore(exp.start()) || now.isAfter(exp.end()))
-            return new AssignmentDecision(key, "control", AssignmentDecision.Decision.INELIGIBLE, List.of("out_of_window"), config.version());
-
-        if (!exp.targets().countries().isEmpty()) {
-            var c = ctx.getOrDefault("country", "");
-            if (!exp.targets().countries().contains(c))
-                return new AssignmentDecision(key, "control", AssignmentDecision.Decision.INELIGIBLE, List.of("country_targeting"), config.version());
+        var snap = config.snapshot();
+        var exp = snap.compiled(key);
+        if (exp == null) return CompiledExperiment.missing(key, snap.version());
+        return assign(exp, Bucketer.stableSubjectKey(subject), ctx);
+    }
+
+    /**
+     * Evaluates several experiments for one subject against a single config snapshot.
+     * A null {@code keys} means every running experiment in the snapshot.
+     * The subject is hashed once per layer, however many of its experiments are asked for.
+     */
+    public Batch assignAll(List<ExperimentKey> keys, Subject subject, Map<String,String> ctx) {
+        var snap = config.snapshot();
+        var stableKey = Bucketer.stableSubjectKey(subject);
+        var segments = snap.layers().isEmpty() ? null : new HashMap<String, Integer>();
+        if (keys == null) {
+            var out = new ArrayList<AssignmentDecision>(snap.size());
+            for (var exp : snap.compiled().values())
+                if (exp.isRunning()) out.add(assign(exp, stableKey, ctx, segment(exp, stableKey, segments)));
+            return new Batch(snap.version(), stableKey, out);
         }
-        if (exp.targets().minAppVersion() != null) {
-            int v = Integer.parseInt(ctx.getOrDefault("app_ver", "0"));
-            if (v < exp.targets().minAppVersion())
-                return new AssignmentDecision(key, "control", AssignmentDecision.Decision.INELIGIBLE, List.of("min_app_version"), config.version());
+        var out = new ArrayList<AssignmentDecision>(keys.size());
+        for (var key : keys) {
+            var exp = snap.compiled(key);
+            out.add(exp == null ? CompiledExperiment.missing(key, snap.version())
+                    : assign(exp, stableKey, ctx, segment(exp, stableKey, segments)));
         }
+        return new Batch(snap.version(), stableKey, out);
+    }
 
+    private int segment(CompiledExperiment exp, String stableKey, Map<String, Integer> segments) {
+        var layer = exp.layer();
+        if (layer == null) return NO_SEGMENT;
+        return segments.computeIfAbsent(layer.name(), n -> bucketer.segment(exp.layerSalt(), stableKey));
+    }
+
+    /**
+     * The subject's experiment in {@code layer}: one hash to a segment, one array lookup to its
+     * owner, then the owner's plan. Null when the layer is not in the config.
+     */
+    public LayerAssignment assignLayer(String layer, Subject subject, Map<String,String> ctx) {
+        var snap = config.snapshot();
+        var l = snap.layer(layer);
+        if (l == null) return null;
         var stableKey = Bucketer.stableSubjectKey(subject);
-        int gate = bucketer.bucket(exp.salt(), "gate:" + stableKey);
-        if (gate / 10000.0 > exp.traffic())
-            return new AssignmentDecision(key, "control", AssignmentDecision.Decision.TRAFFIC_GATE, List.of(), config.version());
-
-        int b = bucketer.bucket(exp.salt(), stableKey);
-        int acc = 0, bound = 10000;
-        for (var v : exp.variants()) {
-            acc += (int)Math.round(v.weight() * bound);
-            if (b < acc)
-                return new AssignmentDecision(key, v.name(), AssignmentDecision.Decision.ASSIGNED, List.of(), config.version());
+        int segment = bucketer.segment(l.salt(), stableKey);
+        var owner = l.owner(segment);
+        var decision = owner == null ? null : assign(owner, stableKey, ctx, segment);
+        return new LayerAssignment(layer, segment, decision, snap.version(), stableKey);
+    }
+
+    /** @param decision null when the subject's segment is not allocated to any experiment */
+    public record LayerAssignment(String layer, int segment, AssignmentDecision decision,
+                                  String configVersion, String subjectKey) {}
+
+    /** Decisions for one subject, all taken from the snapshot identified by {@code configVersion}. */
+    public record Batch(String configVersion, String subjectKey, List<AssignmentDecision> decisions) {}
+
+    /** Evaluates a precompiled plan; only lookups, compares, the rule tree and a binary search. */
+    public AssignmentDecision assign(CompiledExperiment exp, String stableKey, Map<String,String> ctx) {
+        return assign(exp, stableKey, ctx, NO_SEGMENT);
+    }
+
+    /** @param segment the subject's segment in the experiment's layer, if already hashed */
+    private AssignmentDecision assign(CompiledExperiment exp, String stableKey, Map<String,String> ctx, int segment) {
+        if (!exp.isRunning()) return exp.notRunning();
+        if (!exp.inWindow(System.currentTimeMillis())) return exp.outOfWindow();
+
+        var layer = exp.layer();
+        if (layer != null) {
+            if (segment == NO_SEGMENT) segment = bucketer.segment(exp.layerSalt(), stableKey);
+            if (!layer.contains(segment)) return exp.otherSegment();
+        }
+
+        if (exp.targetsCountries() && !exp.countryAllowed(ctx.getOrDefault("country", "")))
+            return exp.countryMismatch();
+        if (exp.hasMinAppVersion()) {
+            int v = Integer.parseInt(ctx.getOrDefault("app_ver", "0"));
+            if (v < exp.minAppVersion()) return exp.appVersionTooLow();
+        }
+        if (exp.hasRule() && !exp.ruleMatches(ctx)) return exp.ruleMismatch();
+
+        int outcome;
+        if (cache == null) {
+            outcome = bucketOutcome(exp, stableKey);
+        } else {
+            String exKey = exp.key().value();
+            outcome = cache.get(exKey, exp.revision(), stableKey);
+            if (outcome == AssignmentCache.MISS) {
+                outcome = bucketOutcome(exp, stableKey);
+                cache.put(exKey, exp.revision(), stableKey, outcome);
+            }
         }
-        return new AssignmentDecision(key, "control", AssignmentDecision.Decision.WEIGHTS_ERROR, List.of(), config.version());
+        return switch (outcome) {
+            case GATED -> exp.trafficGate();
+            case UNCOVERED -> exp.weightsError();
+            default -> exp.assigned(outcome);
+        };
+    }
+
+    private static final int NO_SEGMENT = -1;
+
+    private static final int GATED = -2;
+    private static final int UNCOVERED = -1;
+
+    /** Variant index, {@link #GATED} or {@link #UNCOVERED}; depends only on the plan and the subject. */
+    private int bucketOutcome(CompiledExperiment exp, String stableKey) {
+        long buckets = bucketer.buckets(exp.hashing(), exp.salt(), stableKey);
+        if (!exp.passesTrafficGate(Bucketer.gateBucket(buckets))) return GATED;
+        int idx = exp.variantIndex(Bucketer.variantBucket(buckets));
+        return idx < 0 ? UNCOVERED : idx;
     }
 }
@@ -0,0 +1,301 @@
+package com.abdaemon.application;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded cache of bucketing outcomes per (experiment, stable subject key).
+ * - caches only the hash-derived part (traffic gate + variant index); targeting still runs
+ *   per request because it depends on the request context and the clock
+ * - entries are stamped with the experiment's revision (config version of its last change);
+ *   once a reload changes the experiment older entries read as misses and are overwritten in
+ *   place or aged out, while unchanged experiments keep their entries
+ * - memory cap in approximate heap bytes, split across lock stripes
+ * - eviction: LRU, or W-TinyLFU (small LRU admission window in front of a segmented LRU,
+ *   admission decided by a 4-bit count-min frequency sketch)
+ */
+public final class AssignmentCache {
+    /** Returned by {@link #get} when there is no current entry. */
+    public static final int MISS = Integer.MIN_VALUE;
+
+    private static final int STRIPES = 64;
+    private static final int ENTRY_OVERHEAD = 160;   // node + key + map entry + table slot + string headers
+
+    public enum Policy {
+        LRU, TINYLFU;
+
+        public static Policy parse(String s) {
+            return switch (s == null ? "" : s.trim().toLowerCase(Locale.ROOT)) {
+                case "lru" -> LRU;
+                case "tinylfu", "w-tinylfu", "wtinylfu" -> TINYLFU;
+                default -> throw new IllegalArgumentException("Unknown cache policy: " + s + " (expected lru|tinylfu)");
+            };
+        }
+    }
+
+    public record Stats(long hits, long misses, long evictions, long size, long bytes, long maxBytes) {
+        public double hitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+    }
+
+    private final Policy policy;
+    private final long maxBytes;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public AssignmentCache(Policy policy, long maxBytes) {
+        if (maxBytes < STRIPES * 1024L) throw new IllegalArgumentException("AssignmentCache.maxBytes must be >= " + STRIPES * 1024);
+        this.policy = policy;
+        this.maxBytes = maxBytes;
+        for (int i = 0; i < STRIPES; i++) stripes[i] = new Stripe(maxBytes / STRIPES, policy == Policy.TINYLFU);
+    }
+
+    public Policy policy() { return policy; }
+
+    /** Cached outcome for the subject under {@code revision}, or {@link #MISS}. */
+    public int get(String experiment, String revision, String subjectKey) {
+        int h = hash(experiment, subjectKey);
+        int v = stripes[h & (STRIPES - 1)].get(new Key(experiment, subjectKey), h, revision);
+        if (v == MISS) misses.increment(); else hits.increment();
+        return v;
+    }
+
+    public void put(String experiment, String revision, String subjectKey, int outcome) {
+        int h = hash(experiment, subjectKey);
+        evictions.add(stripes[h & (STRIPES - 1)].put(new Key(experiment, subjectKey), h, revision, outcome));
+    }
+
+    public Stats stats() {
+        long size = 0, bytes = 0;
+        for (var s : stripes) {
+            s.lock.lock();
+            try { size += s.map.size(); bytes += s.bytes(); }
+            finally { s.lock.unlock(); }
+        }
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), size, bytes, maxBytes);
+    }
+
+    private static int hash(String experiment, String subjectKey) {
+        int h = experiment.hashCode() * 31 + subjectKey.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private record Key(String experiment, String subject) {}
+
+    private static final int WINDOW = 0, PROBATION = 1, PROTECTED = 2;
+
+    private static final class Node {
+        final Key key;
+        final int hash;
+        final int weight;
+        String version;
+        int outcome;
+        int queue;
+        Node prev, next;
+
+        Node(Key key, int hash, int weight) {
+            this.key = key; this.hash = hash; this.weight = weight;
+        }
+    }
+
+    /** Intrusive doubly linked list, head = least recently used. */
+    private static final class Queue {
+        Node head, tail;
+        long bytes;
+
+        void addLast(Node n) {
+            n.prev = tail; n.next = null;
+            if (tail == null) head = n; else tail.next = n;
+            tail = n;
+            bytes += n.weight;
+        }
+
+        void remove(Node n) {
+            if (n.prev == null) head = n.next; else n.prev.next = n.next;
+            if (n.next == null) tail = n.prev; else n.next.prev = n.prev;
+            n.prev = n.next = null;
+            bytes -= n.weight;
+        }
+
+        void moveToLast(Node n) {
+            if (tail == n) return;
+            remove(n);
+            addLast(n);
+        }
+    }
+
+    /**
+     * One lock stripe. LRU keeps everything in {@code window}; W-TinyLFU sizes the window at
+     * 1% of the stripe and splits the rest 20/80 into probation and protected.
+     */
+    private static final class Stripe {
+        final ReentrantLock lock = new ReentrantLock();
+        final HashMap<Key, Node> map = new HashMap<>();
+        final Queue window = new Queue(), probation = new Queue(), protectedQ = new Queue();
+        final FrequencySketch sketch;
+        final long maxBytes, windowMax, protectedMax;
+
+        Stripe(long maxBytes, boolean tinyLfu) {
+            this.maxBytes = maxBytes;
+            this.sketch = tinyLfu ? new FrequencySketch(maxBytes / ENTRY_OVERHEAD) : null;
+            this.windowMax = tinyLfu ? Math.max(ENTRY_OVERHEAD * 2L, maxBytes / 100) : maxBytes;
+            this.protectedMax = (maxBytes - windowMax) * 8 / 10;
+        }
+
+        long bytes() { return window.bytes + probation.bytes + protectedQ.bytes; }
+
+        int get(Key key, int hash, String version) {
+            lock.lock();
+            try {
+                if (sketch != null) sketch.increment(hash);
+                Node n = map.get(key);
+                if (n == null || !n.version.equals(version)) return MISS;
+                onHit(n);
+                return n.outcome;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** @return number of entries evicted */
+        int put(Key key, int hash, String version, int outcome) {
+            lock.lock();
+            try {
+                Node n = map.get(key);
+                if (n != null) {
+                    n.version = version;
+                    n.outcome = outcome;
+                    onHit(n);
+                    return 0;
+                }
+                n = new Node(key, hash, ENTRY_OVERHEAD + key.subject().length());
+                n.version = version;
+                n.outcome = outcome;
+                map.put(key, n);
+                n.queue = WINDOW;
+                window.addLast(n);
+                return sketch == null ? evictLru() : evictTinyLfu();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void onHit(Node n) {
+            switch (n.queue) {
+                case WINDOW -> window.moveToLast(n);
+                case PROTECTED -> protectedQ.moveToLast(n);
+                default -> {                        // probation hit: promote, demote protected overflow
+                    probation.remove(n);
+                    n.queue = PROTECTED;
+                    protectedQ.addLast(n);
+                    while (protectedQ.bytes > protectedMax && protectedQ.head != n) {
+                        Node d = protectedQ.head;
+                        protectedQ.remove(d);
+                        d.queue = PROBATION;
+                        probation.addLast(d);
+                    }
+                }
+            }
+        }
+
+        private int evictLru() {
+            int evicted = 0;
+            while (window.bytes > maxBytes && window.head != window.tail) {
+                evict(window, window.head);
+                evicted++;
+            }
+            return evicted;
+        }
+
+        /** Window overflow moves to probation; while main is over budget the colder of victim/candidate goes. */
+        private int evictTinyLfu() {
+            while (window.bytes > windowMax && window.head != null) {
+                Node c = window.head;
+                window.remove(c);
+                c.queue = PROBATION;
+                probation.addLast(c);
+            }
+            int evicted = 0;
+            long mainMax = maxBytes - windowMax;
+            while (probation.bytes + protectedQ.bytes > mainMax) {
+                Node victim = probation.head != null ? probation.head : protectedQ.head;
+                Node candidate = probation.tail;
+                if (victim == null) break;
+                if (candidate == null || candidate == victim) {
+                    evict(victim.queue == PROBATION ? probation : protectedQ, victim);
+                } else if (sketch.frequency(candidate.hash) > sketch.frequency(victim.hash)) {
+                    evict(probation, victim);
+                } else {
+                    evict(probation, candidate);
+                }
+                evicted++;
+            }
+            return evicted;
+        }
+
+        private void evict(Queue q, Node n) {
+            q.remove(n);
+            map.remove(n.key);
+        }
+    }
+
+    /** Count-min sketch of 4-bit counters, 4 rows packed per long; halves all counts every 10×width additions. */
+    private static final class FrequencySketch {
+        private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(long expectedEntries) {
+            int width = Integer.highestOneBit((int) Math.max(16, Math.min(1 << 24, expectedEntries)) - 1) << 1;
+            this.table = new long[width];
+            this.mask = width - 1;
+            this.sampleSize = 10 * width;
+        }
+
+        int frequency(int hash) {
+            int min = 15;
+            for (int i = 0; i < 4; i++) {
+                min = Math.min(min, (int) (table[index(hash, i)] >>> offset(hash, i)) & 0xF);
+            }
+            return min;
+        }
+
+        void increment(int hash) {
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int idx = index(hash, i);
+                int off = offset(hash, i);
+                if (((table[idx] >>> off) & 0xF) != 0xF) {
+                    table[idx] += 1L << off;
+                    added = true;
+                }
+            }
+            if (added && ++additions == sampleSize) reset();
+        }
+
+        private int index(int hash, int row) {
+            long h = (hash + SEEDS[row]) * SEEDS[row];
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+
+        /** Each long holds 16 counters; row i uses counters 4i..4i+3, picked by the hash. */
+        private static int offset(int hash, int row) {
+            return ((row << 2) + ((hash >>> (row << 3)) & 3)) << 2;
+        }
+
+        private void reset() {
+            for (int i = 0; i < table.length; i++) table[i] = (table[i] >>> 1) & RESET_MASK;
+            additions = sampleSize / 2;
+        }
+    }
+}
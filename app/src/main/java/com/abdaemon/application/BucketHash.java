@@ -0,0 +1,18 @@
+package com.abdaemon.application;
+
+/**
+ * Hash strategy behind {@link Bucketer}. Implementations must be deterministic,
+ * thread-safe and must not allocate per call on the hot path.
+ */
+public interface BucketHash {
+
+    /** Bucket in [0, 9999] for {@code salt:key}. */
+    int bucket(String salt, String key);
+
+    /**
+     * Gate and variant buckets for one subject from a single pass where possible.
+     * Packed as {@code (gate << 32) | variant}; unpack with {@link Bucketer#gateBucket}
+     * and {@link Bucketer#variantBucket}.
+     */
+    long buckets(String salt, String stableKey);
+}
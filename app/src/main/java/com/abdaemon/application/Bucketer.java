@@ -1,13 +1,25 @@
 package com.abdaemon.application;
 
+import com.abdaemon.domain.Hashing;
 import com.abdaemon.domain.Subject;
-import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
 import java.util.UUID;
 
-/** Deterministic 0..9999 bucketer using SHA-256 + salt. */
+/**
+ * Deterministic 0..9999 bucketer with a pluggable hash per experiment.
+ * - SHA256: legacy salt + SHA-256, reproduces existing assignments
+ * - MURMUR3: seeded 64-bit hash, one pass yields gate + variant buckets
+ */
 public final class Bucketer {
+    private final BucketHash sha256;
+    private final BucketHash murmur3;
+
+    public Bucketer() {
+        this(new Sha256BucketHash(), new Murmur3BucketHash());
+    }
+
+    public Bucketer(BucketHash sha256, BucketHash murmur3) {
+        this.sha256 = sha256; this.murmur3 = murmur3;
+    }
 
     public static String stableSubjectKey(Subject s) {
         return s.userId().map(u -> "u:" + u.value())
@@ -16,18 +28,29 @@ public final class Bucketer {
                 .orElse("anon:" + UUID.randomUUID());
     }
 
+    /** Legacy single bucket (SHA-256) for {@code salt:key}. */
     public int bucket(String salt, String key) {
-        try {
-            var md = MessageDigest.getInstance("SHA-256");
-            md.update(salt.getBytes(StandardCharsets.UTF_8));
-            md.update((byte) ':');
-            md.update(key.getBytes(StandardCharsets.UTF_8));
-            byte[] h = md.digest();
-            long v = ByteBuffer.wrap(h, 0, 8).getLong();
-            if (v < 0) v = ~v;
-            return (int)(v % 10000);
-        } catch (Exception e) {
-            return Math.abs((salt + key).hashCode()) % 10000;
-        }
+        return sha256.bucket(salt, key);
+    }
+
+    /** Gate + variant buckets for a subject under the experiment's hashing mode. */
+    public long buckets(Hashing hashing, String salt, String stableKey) {
+        return strategy(hashing).buckets(salt, stableKey);
+    }
+
+    /** Layer segment 0..9999 for a subject: murmur3 under the layer's salt. */
+    public int segment(String layerSalt, String stableKey) {
+        return variantBucket(murmur3.buckets(layerSalt, stableKey));
+    }
+
+    public BucketHash strategy(Hashing hashing) {
+        return hashing == Hashing.MURMUR3 ? murmur3 : sha256;
+    }
+
+    public static int gateBucket(long packed)    { return (int) (packed >>> 32); }
+    public static int variantBucket(long packed) { return (int) packed; }
+
+    static long pack(int gate, int variant) {
+        return ((long) gate << 32) | (variant & 0xffffffffL);
     }
 }
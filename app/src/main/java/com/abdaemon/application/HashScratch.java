@@ -0,0 +1,69 @@
+package com.abdaemon.application;
+
+import com.abdaemon.domain.ScratchPool;
+
+import java.util.Arrays;
+
+/**
+ * Pooled, growable byte buffer used to UTF-8 encode salt and key without
+ * allocating. Encoding matches {@code String.getBytes(UTF_8)}, including '?'
+ * for unpaired surrogates, so legacy hashes stay bit-identical.
+ * {@link #take()} and {@link #give} back in a finally block.
+ */
+final class HashScratch {
+    private static final ScratchPool<HashScratch> POOL = new ScratchPool<>(HashScratch::new);
+
+    byte[] buf = new byte[256];
+    int len;
+
+    static HashScratch take() {
+        HashScratch s = POOL.take();
+        s.len = 0;
+        return s;
+    }
+
+    static void give(HashScratch s) {
+        POOL.give(s);
+    }
+
+    HashScratch put(byte b) {
+        ensure(1);
+        buf[len++] = b;
+        return this;
+    }
+
+    HashScratch putUtf8(String s) {
+        ensure(s.length() * 3);
+        byte[] b = buf;
+        int n = len;
+        for (int i = 0, L = s.length(); i < L; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                b[n++] = (byte) c;
+            } else if (c < 0x800) {
+                b[n++] = (byte) (0xC0 | (c >> 6));
+                b[n++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < L && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    b[n++] = (byte) (0xF0 | (cp >> 18));
+                    b[n++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    b[n++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    b[n++] = (byte) (0x80 | (cp & 0x3F));
+                } else {
+                    b[n++] = (byte) '?';
+                }
+            } else {
+                b[n++] = (byte) (0xE0 | (c >> 12));
+                b[n++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                b[n++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        len = n;
+        return this;
+    }
+
+    private void ensure(int extra) {
+        if (len + extra > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + extra));
+    }
+}
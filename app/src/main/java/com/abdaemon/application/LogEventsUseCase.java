@@ -0,0 +1,51 @@
+package com.abdaemon.application;
+
+import com.abdaemon.domain.ExperimentKey;
+import com.abdaemon.domain.Subject;
+import com.abdaemon.ports.inbound.LoggingApi;
+import com.abdaemon.ports.outbound.EventSink;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/** Client-reported exposures and goals, keyed by the same stable subject key as assignment. */
+public final class LogEventsUseCase implements LoggingApi {
+    private final EventSink sink;
+
+    public LogEventsUseCase(EventSink sink) {
+        this.sink = sink;
+    }
+
+    @Override
+    public void logExposure(ExperimentKey experiment, String treatment, Subject subject, Instant ts, Map<String, String> ctx) {
+        sink.enqueueExposure(experiment.value(), treatment, Bucketer.stableSubjectKey(subject), ts, ctx);
+    }
+
+    @Override
+    public void logGoal(ExperimentKey experiment, String treatment, Subject subject, String goal, Double value,
+                        Instant ts, Map<String, String> ctx) {
+        sink.enqueueGoal(experiment.value(), treatment, Bucketer.stableSubjectKey(subject), goal, value, ts, ctx);
+    }
+
+    @Override
+    public void logExposures(List<Exposure> exposures) {
+        var out = new ArrayList<EventSink.Exposure>(exposures.size());
+        for (var e : exposures) {
+            out.add(new EventSink.Exposure(e.experiment().value(), e.treatment(),
+                    Bucketer.stableSubjectKey(e.subject()), e.ts(), e.ctx()));
+        }
+        sink.enqueueExposures(out);
+    }
+
+    @Override
+    public void logGoals(List<Goal> goals) {
+        var out = new ArrayList<EventSink.Goal>(goals.size());
+        for (var g : goals) {
+            out.add(new EventSink.Goal(g.experiment().value(), g.treatment(),
+                    Bucketer.stableSubjectKey(g.subject()), g.goal(), g.value(), g.ts(), g.ctx()));
+        }
+        sink.enqueueGoals(out);
+    }
+}
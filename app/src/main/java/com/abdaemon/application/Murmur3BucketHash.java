@@ -0,0 +1,99 @@
+package com.abdaemon.application;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Seeded MurmurHash3 x64/128 bucketing.
+ * One pass over {@code salt:key} yields two independent 64-bit halves:
+ * h1 picks the variant bucket, h2 picks the traffic-gate bucket.
+ */
+final class Murmur3BucketHash implements BucketHash {
+    static final long DEFAULT_SEED = 0x9747b28cL;
+
+    private static final VarHandle LE_LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private final long seed;
+
+    Murmur3BucketHash() { this(DEFAULT_SEED); }
+    Murmur3BucketHash(long seed) { this.seed = seed; }
+
+    @Override
+    public int bucket(String salt, String key) {
+        return Bucketer.variantBucket(buckets(salt, key));
+    }
+
+    @Override
+    public long buckets(String salt, String stableKey) {
+        var s = HashScratch.take();
+        try {
+            s.putUtf8(salt).put((byte) ':').putUtf8(stableKey);
+            return hash(s.buf, s.len);
+        } finally {
+            HashScratch.give(s);
+        }
+    }
+
+    @SuppressWarnings("fallthrough")
+    private long hash(byte[] data, int len) {
+        long h1 = seed, h2 = seed;
+        int blocks = len >>> 4;
+        for (int i = 0; i < blocks; i++) {
+            long k1 = (long) LE_LONG.get(data, i << 4);
+            long k2 = (long) LE_LONG.get(data, (i << 4) + 8);
+
+            k1 *= C1; k1 = Long.rotateLeft(k1, 31); k1 *= C2; h1 ^= k1;
+            h1 = Long.rotateLeft(h1, 27); h1 += h2; h1 = h1 * 5 + 0x52dce729;
+
+            k2 *= C2; k2 = Long.rotateLeft(k2, 33); k2 *= C1; h2 ^= k2;
+            h2 = Long.rotateLeft(h2, 31); h2 += h1; h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        int tail = blocks << 4;
+        long k1 = 0, k2 = 0;
+        switch (len & 15) {
+            case 15: k2 ^= (long) (data[tail + 14] & 0xff) << 48;
+            case 14: k2 ^= (long) (data[tail + 13] & 0xff) << 40;
+            case 13: k2 ^= (long) (data[tail + 12] & 0xff) << 32;
+            case 12: k2 ^= (long) (data[tail + 11] & 0xff) << 24;
+            case 11: k2 ^= (long) (data[tail + 10] & 0xff) << 16;
+            case 10: k2 ^= (long) (data[tail + 9] & 0xff) << 8;
+            case 9:  k2 ^= (data[tail + 8] & 0xff);
+                     k2 *= C2; k2 = Long.rotateLeft(k2, 33); k2 *= C1; h2 ^= k2;
+            case 8:  k1 ^= (long) (data[tail + 7] & 0xff) << 56;
+            case 7:  k1 ^= (long) (data[tail + 6] & 0xff) << 48;
+            case 6:  k1 ^= (long) (data[tail + 5] & 0xff) << 40;
+            case 5:  k1 ^= (long) (data[tail + 4] & 0xff) << 32;
+            case 4:  k1 ^= (long) (data[tail + 3] & 0xff) << 24;
+            case 3:  k1 ^= (long) (data[tail + 2] & 0xff) << 16;
+            case 2:  k1 ^= (long) (data[tail + 1] & 0xff) << 8;
+            case 1:  k1 ^= (data[tail] & 0xff);
+                     k1 *= C1; k1 = Long.rotateLeft(k1, 31); k1 *= C2; h1 ^= k1;
+            default: break;
+        }
+
+        h1 ^= len; h2 ^= len;
+        h1 += h2; h2 += h1;
+        h1 = fmix64(h1); h2 = fmix64(h2);
+        h1 += h2; h2 += h1;
+
+        return Bucketer.pack(toBucket(h2), toBucket(h1));
+    }
+
+    /** Unsigned multiply-shift range reduction onto [0, 9999]. */
+    private static int toBucket(long h) {
+        return (int) Math.unsignedMultiplyHigh(h, 10000L);
+    }
+
+    private static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -0,0 +1,82 @@
+package com.abdaemon.application;
+
+import com.abdaemon.domain.ScratchPool;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Legacy SHA-256 bucketing; bit-identical to the original Bucketer.
+ * - pooled MessageDigest and output buffer (no getInstance per call)
+ * - gate input {@code salt:gate:key} is fed in pieces instead of concatenated
+ */
+final class Sha256BucketHash implements BucketHash {
+    private static final VarHandle BE_LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+    private static final byte[] GATE = {'g', 'a', 't', 'e', ':'};
+
+    private static final ScratchPool<Digest> DIGESTS = new ScratchPool<>(Digest::new);
+
+    private static final class Digest {
+        final MessageDigest md;
+        final byte[] out = new byte[32];
+        Digest() {
+            try { md = MessageDigest.getInstance("SHA-256"); }
+            catch (NoSuchAlgorithmException e) { throw new IllegalStateException(e); }
+        }
+    }
+
+    @Override
+    public int bucket(String salt, String key) {
+        var s = HashScratch.take();
+        var d = DIGESTS.take();
+        try {
+            s.putUtf8(salt).put((byte) ':').putUtf8(key);
+            d.md.update(s.buf, 0, s.len);
+            return toBucket(d);
+        } catch (Exception e) {
+            d.md.reset();
+            return Math.abs((salt + key).hashCode()) % 10000;
+        } finally {
+            DIGESTS.give(d);
+            HashScratch.give(s);
+        }
+    }
+
+    @Override
+    public long buckets(String salt, String stableKey) {
+        int gate, variant;
+        var s = HashScratch.take();
+        var d = DIGESTS.take();
+        try {
+            s.putUtf8(salt).put((byte) ':');
+            int prefix = s.len;
+            s.putUtf8(stableKey);
+
+            d.md.update(s.buf, 0, prefix);
+            d.md.update(GATE);
+            d.md.update(s.buf, prefix, s.len - prefix);
+            gate = toBucket(d);
+
+            d.md.update(s.buf, 0, s.len);
+            variant = toBucket(d);
+        } catch (Exception e) {
+            d.md.reset();
+            gate = Math.abs((salt + "gate:" + stableKey).hashCode()) % 10000;
+            variant = Math.abs((salt + stableKey).hashCode()) % 10000;
+        } finally {
+            DIGESTS.give(d);
+            HashScratch.give(s);
+        }
+        return Bucketer.pack(gate, variant);
+    }
+
+    private static int toBucket(Digest d) throws Exception {
+        d.md.digest(d.out, 0, 32);
+        long v = (long) BE_LONG.get(d.out, 0);
+        if (v < 0) v = ~v;
+        return (int) (v % 10000);
+    }
+}
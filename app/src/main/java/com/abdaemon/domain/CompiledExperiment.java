@@ -0,0 +1,216 @@
+package com.abdaemon.domain;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Evaluation plan for one {@link Experiment}, built once per config snapshot.
+ * - cumulative bucket boundaries (binary-searched per request)
+ * - hashed country set, epoch-millis window, integer traffic gate
+ * - targeting rule compiled to a {@link CompiledRule} predicate tree
+ * - layer segments, when the experiment is one of a layer's mutually exclusive experiments
+ * - canonical {@link AssignmentDecision} instances for every outcome
+ * - revision: config version in which the experiment last changed; a reload that leaves the
+ *   experiment untouched rebinds the plan to the new version and keeps the revision
+ */
+public final class CompiledExperiment {
+    public static final int BUCKETS = 10000;
+
+    private static final List<String> NOT_RUNNING = List.of("not_running_or_missing");
+    private static final List<String> OUT_OF_WINDOW = List.of("out_of_window");
+    private static final List<String> COUNTRY = List.of("country_targeting");
+    private static final List<String> MIN_APP_VERSION = List.of("min_app_version");
+    private static final List<String> RULE = List.of("targeting_rule");
+    private static final List<String> LAYER = List.of("layer_segment");
+
+    private final Experiment experiment;
+    private final String configVersion;
+    private final String revision;
+    private final boolean running;
+    private final Hashing hashing;
+    private final long startMillis;
+    private final long endMillis;
+    private final Set<String> countries;     // empty = no country targeting
+    private final boolean hasMinAppVersion;
+    private final int minAppVersion;
+    private final CompiledRule rule;         // null = no rule
+    private final LayerAllocation layer;     // null = not layered
+    private final String layerSalt;
+    private final int maxGateBucket;         // gate buckets <= this pass the traffic gate
+    private final int[] boundaries;          // cumulative, exclusive upper bound per variant
+
+    private final Decisions decisions;
+
+    /** Canonical decisions of one experiment under one config version. */
+    private record Decisions(AssignmentDecision notRunning, AssignmentDecision outOfWindow,
+                             AssignmentDecision countryMismatch, AssignmentDecision appVersionTooLow,
+                             AssignmentDecision ruleMismatch, AssignmentDecision otherSegment,
+                             AssignmentDecision trafficGate, AssignmentDecision weightsError,
+                             AssignmentDecision[] assigned) {
+
+        static Decisions of(Experiment e, String configVersion) {
+            var variants = e.variants();
+            var assigned = new AssignmentDecision[variants.size()];
+            for (int i = 0; i < assigned.length; i++) {
+                assigned[i] = decision(e, variants.get(i).name(), AssignmentDecision.Decision.ASSIGNED, List.of(), configVersion);
+            }
+            return new Decisions(
+                    decision(e, "control", AssignmentDecision.Decision.FALLBACK, NOT_RUNNING, configVersion),
+                    decision(e, "control", AssignmentDecision.Decision.INELIGIBLE, OUT_OF_WINDOW, configVersion),
+                    decision(e, "control", AssignmentDecision.Decision.INELIGIBLE, COUNTRY, configVersion),
+                    decision(e, "control", AssignmentDecision.Decision.INELIGIBLE, MIN_APP_VERSION, configVersion),
+                    decision(e, "control", AssignmentDecision.Decision.INELIGIBLE, RULE, configVersion),
+                    decision(e, "control", AssignmentDecision.Decision.INELIGIBLE, LAYER, configVersion),
+                    decision(e, "control", AssignmentDecision.Decision.TRAFFIC_GATE, List.of(), configVersion),
+                    decision(e, "control", AssignmentDecision.Decision.WEIGHTS_ERROR, List.of(), configVersion),
+                    assigned);
+        }
+    }
+
+    private CompiledExperiment(Experiment e, String configVersion) {
+        this.experiment = e;
+        this.configVersion = configVersion;
+        this.revision = configVersion;
+        this.running = e.isRunning();
+        this.hashing = e.hashingMode();
+        this.startMillis = toMillis(e.start());
+        this.endMillis = toMillis(e.end());
+        this.countries = Set.copyOf(e.targets().countries());
+        this.hasMinAppVersion = e.targets().minAppVersion() != null;
+        this.minAppVersion = hasMinAppVersion ? e.targets().minAppVersion() : 0;
+        this.rule = e.targets().rule() == null ? null : CompiledRule.compile(e.targets().rule());
+        this.layer = e.layer();
+        this.layerSalt = layer == null ? null : CompiledLayer.salt(layer.name());
+        this.maxGateBucket = maxGateBucket(e.traffic());
+
+        var variants = e.variants();
+        this.boundaries = new int[variants.size()];
+        int acc = 0;
+        for (int i = 0; i < variants.size(); i++) {
+            acc += (int) Math.round(variants.get(i).weight() * BUCKETS);
+            boundaries[i] = acc;
+        }
+
+        this.decisions = Decisions.of(e, configVersion);
+    }
+
+    /** Same plan and revision, decisions stamped with {@code configVersion}. */
+    private CompiledExperiment(CompiledExperiment plan, String configVersion) {
+        var e = plan.experiment;
+        this.experiment = e;
+        this.configVersion = configVersion;
+        this.revision = plan.revision;
+        this.running = plan.running;
+        this.hashing = plan.hashing;
+        this.startMillis = plan.startMillis;
+        this.endMillis = plan.endMillis;
+        this.countries = plan.countries;
+        this.hasMinAppVersion = plan.hasMinAppVersion;
+        this.minAppVersion = plan.minAppVersion;
+        this.rule = plan.rule;
+        this.layer = plan.layer;
+        this.layerSalt = plan.layerSalt;
+        this.maxGateBucket = plan.maxGateBucket;
+        this.boundaries = plan.boundaries;
+
+        this.decisions = Decisions.of(e, configVersion);
+    }
+
+    public static CompiledExperiment compile(Experiment e, String configVersion) {
+        return new CompiledExperiment(e, configVersion);
+    }
+
+    /** This plan under a newer config version; the experiment itself must be unchanged. */
+    public CompiledExperiment rebind(String configVersion) {
+        return configVersion.equals(this.configVersion) ? this : new CompiledExperiment(this, configVersion);
+    }
+
+    /** Decision for a key that is absent from the snapshot (not cacheable per experiment). */
+    public static AssignmentDecision missing(ExperimentKey key, String configVersion) {
+        return new AssignmentDecision(key, "control", AssignmentDecision.Decision.FALLBACK, NOT_RUNNING, configVersion);
+    }
+
+    public Experiment experiment() { return experiment; }
+    public ExperimentKey key()     { return experiment.key(); }
+    public String configVersion()  { return configVersion; }
+    public String revision()       { return revision; }
+    public String salt()           { return experiment.salt(); }
+    public Hashing hashing()       { return hashing; }
+    public boolean isRunning()     { return running; }
+
+    public boolean inWindow(long nowMillis) {
+        return nowMillis >= startMillis && nowMillis <= endMillis;
+    }
+
+    public boolean targetsCountries()            { return !countries.isEmpty(); }
+    public boolean countryAllowed(String country) { return countries.contains(country); }
+
+    public boolean hasMinAppVersion() { return hasMinAppVersion; }
+    public int minAppVersion()        { return minAppVersion; }
+
+    public boolean hasRule()                          { return rule != null; }
+    public boolean ruleMatches(Map<String,String> ctx) { return rule.matches(ctx); }
+    public List<String> ruleAttributes()               { return rule == null ? List.of() : rule.attributes(); }
+
+    /** Null unless the experiment belongs to a layer. */
+    public LayerAllocation layer()           { return layer; }
+    public String layerSalt()                { return layerSalt; }
+
+    public boolean passesTrafficGate(int gateBucket) { return gateBucket <= maxGateBucket; }
+
+    /** Variant index for a 0..9999 bucket, or -1 when the rounded weights leave it uncovered. */
+    public int variantIndex(int bucket) {
+        int lo = 0, hi = boundaries.length - 1;
+        if (bucket >= boundaries[hi]) return -1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (bucket < boundaries[mid]) hi = mid; else lo = mid + 1;
+        }
+        return lo;
+    }
+
+    public AssignmentDecision notRunning()       { return decisions.notRunning; }
+    public AssignmentDecision outOfWindow()      { return decisions.outOfWindow; }
+    public AssignmentDecision countryMismatch()  { return decisions.countryMismatch; }
+    public AssignmentDecision appVersionTooLow() { return decisions.appVersionTooLow; }
+    public AssignmentDecision ruleMismatch()     { return decisions.ruleMismatch; }
+    public AssignmentDecision otherSegment()     { return decisions.otherSegment; }
+    public AssignmentDecision trafficGate()      { return decisions.trafficGate; }
+    public AssignmentDecision weightsError()     { return decisions.weightsError; }
+    public AssignmentDecision assigned(int variantIndex) { return decisions.assigned[variantIndex]; }
+
+    /** Every canonical decision this plan can return. */
+    public List<AssignmentDecision> outcomes() {
+        var d = decisions;
+        var all = new ArrayList<AssignmentDecision>(d.assigned.length + 8);
+        all.addAll(List.of(d.notRunning, d.outOfWindow, d.otherSegment, d.countryMismatch, d.appVersionTooLow,
+                d.ruleMismatch, d.trafficGate, d.weightsError));
+        all.addAll(Arrays.asList(d.assigned));
+        return all;
+    }
+
+    private static AssignmentDecision decision(Experiment e, String treatment, AssignmentDecision.Decision d,
+                                               List<String> reasons, String configVersion) {
+        return new AssignmentDecision(e.key(), treatment, d, reasons, configVersion);
+    }
+
+    /** Largest bucket g with !(g / 10000.0 > traffic), matching the original double comparison exactly. */
+    private static int maxGateBucket(double traffic) {
+        int g = (int) Math.min(BUCKETS, Math.floor(traffic * BUCKETS));
+        while (g + 1 < BUCKETS && (g + 1) / (double) BUCKETS <= traffic) g++;
+        while (g >= 0 && g / (double) BUCKETS > traffic) g--;
+        return g;
+    }
+
+    private static long toMillis(Instant t) {
+        try {
+            return t.toEpochMilli();
+        } catch (ArithmeticException overflow) {
+            return t.isBefore(Instant.EPOCH) ? Long.MIN_VALUE : Long.MAX_VALUE;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.abdaemon.domain;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One layer (namespace) of mutually exclusive experiments, built per config snapshot.
+ * - a subject hashes once per layer, with the layer's salt, to a segment in 0..{@value #SEGMENTS}-1
+ * - {@link #owner} is an array lookup from segment to the experiment that holds it (null = free)
+ * - built by {@link #build}, which rejects overlapping allocations so a bad reload keeps the
+ *   last good config
+ */
+public final class CompiledLayer {
+    public static final int SEGMENTS = 10000;
+
+    private final String name;
+    private final String salt;
+    private final CompiledExperiment[] owners;
+    private final List<CompiledExperiment> experiments;
+    private final int allocated;
+
+    private CompiledLayer(String name, List<CompiledExperiment> experiments) {
+        this.name = name;
+        this.salt = salt(name);
+        this.experiments = List.copyOf(experiments);
+        this.owners = new CompiledExperiment[SEGMENTS];
+        int n = 0;
+        for (var e : experiments) {
+            var a = e.experiment().layer();
+            for (int s = a.from(); s <= a.to(); s++) owners[s] = e;
+            n += a.size();
+        }
+        this.allocated = n;
+    }
+
+    /** Layers of {@code compiled} by name; throws IllegalArgumentException on overlapping segments. */
+    static Map<String, CompiledLayer> build(Collection<CompiledExperiment> compiled) {
+        var byLayer = new HashMap<String, List<CompiledExperiment>>();
+        for (var e : compiled) {
+            var a = e.experiment().layer();
+            if (a != null) byLayer.computeIfAbsent(a.name(), k -> new ArrayList<>()).add(e);
+        }
+        var out = new HashMap<String, CompiledLayer>(byLayer.size() * 2);
+        for (var entry : byLayer.entrySet()) {
+            var members = entry.getValue();
+            members.sort(Comparator.comparingInt(e -> e.experiment().layer().from()));
+            for (int i = 1; i < members.size(); i++) {
+                var prev = members.get(i - 1).experiment();
+                var next = members.get(i).experiment();
+                if (next.layer().from() <= prev.layer().to()) {
+                    throw new IllegalArgumentException("Layer '" + entry.getKey() + "': experiments " + prev.key().value()
+                            + " and " + next.key().value() + " both allocate segment " + next.layer().from());
+                }
+            }
+            out.put(entry.getKey(), new CompiledLayer(entry.getKey(), members));
+        }
+        return out;
+    }
+
+    /** Salt of the subject-to-segment hash for layer {@code name}. */
+    public static String salt(String name) { return "layer:" + name; }
+
+    public String name() { return name; }
+
+    /** Shared by every experiment in the layer. */
+    public String salt() { return salt; }
+
+    /** Experiment holding {@code segment}, or null when the segment is unallocated. */
+    public CompiledExperiment owner(int segment) { return owners[segment]; }
+
+    /** Members ordered by first segment. */
+    public List<CompiledExperiment> experiments() { return experiments; }
+
+    /** Segments held by some experiment. */
+    public int allocated() { return allocated; }
+}
@@ -0,0 +1,314 @@
+package com.abdaemon.domain;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link TargetingRule} compiled into a predicate tree over attribute slots.
+ * - slots are numbered per rule, in order of first reference; nothing is shared between
+ *   rules or snapshots, so a config that drops an attribute drops its slot with the plan
+ * - leaves hold a slot index and pre-built match data: a bitset for two-letter codes (countries,
+ *   languages), an open-addressing string set otherwise, numeric bounds, semver intervals
+ * - nested all/any are flattened, single children unwrapped, and children ordered so cheap,
+ *   decisive tests run first: by cost / P(fail) under all, cost / P(pass) under any. Cost and
+ *   pass rate are static estimates from the node's shape (set size, operator)
+ * - {@link #matches} walks fixed arrays; attribute reads go through a pooled {@link RuleInput}
+ */
+public final class CompiledRule {
+    private static final ScratchPool<RuleInput> INPUTS = new ScratchPool<>(RuleInput::new);
+
+    private final Node root;
+    private final String[] attributes;      // by slot
+
+    private CompiledRule(Node root, String[] attributes) { this.root = root; this.attributes = attributes; }
+
+    public static CompiledRule compile(TargetingRule rule) {
+        var slots = new LinkedHashMap<String, Integer>();
+        var root = node(rule, slots);
+        return new CompiledRule(root, slots.keySet().toArray(String[]::new));
+    }
+
+    public boolean matches(Map<String, String> ctx) {
+        var in = INPUTS.take();
+        try {
+            return root.test(in.reset(ctx, attributes));
+        } finally {
+            in.release();
+            INPUTS.give(in);
+        }
+    }
+
+    /** Request attributes the rule reads, in slot order. */
+    public List<String> attributes() { return List.of(attributes); }
+
+    /** The optimised tree, for logs and debugging. */
+    @Override
+    public String toString() { return root.toString(); }
+
+    // ---- compilation ----
+
+    private static Node node(TargetingRule r, Map<String, Integer> slots) {
+        if (r.all() != null) return combine(true, r.all(), slots);
+        if (r.any() != null) return combine(false, r.any(), slots);
+        if (r.not() != null) return negate(node(r.not(), slots));
+
+        int slot = slots.computeIfAbsent(r.attr(), k -> slots.size());
+        String a = r.attr();
+        var tests = new ArrayList<Node>();
+        if (r.present() != null) tests.add(new Present(slot, a, r.present()));
+        if (r.in() != null) tests.add(StringIn.of(slot, a, r.in()));
+        if (r.eq() != null) tests.add(StringIn.of(slot, a, List.of(r.eq())));
+        if (r.prefix() != null) tests.add(new Prefix(slot, a, r.prefix().toArray(String[]::new)));
+        if (r.gt() != null || r.gte() != null || r.lt() != null || r.lte() != null) tests.add(NumberRange.of(slot, a, r));
+        if (r.semver() != null) tests.add(new SemverRange(slot, a, Semver.range(r.semver())));
+        return tests.size() == 1 ? tests.get(0) : order(new All(tests.toArray(Node[]::new)));
+    }
+
+    private static Node combine(boolean all, List<TargetingRule> rules, Map<String, Integer> slots) {
+        var children = new ArrayList<Node>();
+        for (var r : rules) {
+            Node n = node(r, slots);
+            if (all && n instanceof All a) children.addAll(Arrays.asList(a.children));
+            else if (!all && n instanceof Any a) children.addAll(Arrays.asList(a.children));
+            else children.add(n);
+        }
+        if (children.size() == 1) return children.get(0);
+        var arr = children.toArray(Node[]::new);
+        return order(all ? new All(arr) : new Any(arr));
+    }
+
+    private static Node negate(Node n) {
+        return n instanceof Not not ? not.child : new Not(n);
+    }
+
+    private static Node order(Node n) {
+        if (n instanceof All a) Arrays.sort(a.children, Comparator.comparingDouble(c -> c.cost() / Math.max(1e-3, 1 - c.pass())));
+        if (n instanceof Any a) Arrays.sort(a.children, Comparator.comparingDouble(c -> c.cost() / Math.max(1e-3, c.pass())));
+        return n;
+    }
+
+    // ---- nodes ----
+
+    private abstract static class Node {
+        abstract boolean test(RuleInput a);
+        /** Rough evaluation cost, in units of one slot read. */
+        abstract double cost();
+        /** Estimated probability the test passes. */
+        abstract double pass();
+    }
+
+    private static final class All extends Node {
+        final Node[] children;
+        All(Node[] children) { this.children = children; }
+
+        @Override boolean test(RuleInput a) {
+            for (Node c : children) if (!c.test(a)) return false;
+            return true;
+        }
+
+        @Override double cost() {
+            double cost = 0, reach = 1;
+            for (Node c : children) { cost += reach * c.cost(); reach *= c.pass(); }
+            return cost;
+        }
+
+        @Override double pass() {
+            double p = 1;
+            for (Node c : children) p *= c.pass();
+            return p;
+        }
+
+        @Override public String toString() { return "all" + Arrays.toString(children); }
+    }
+
+    private static final class Any extends Node {
+        final Node[] children;
+        Any(Node[] children) { this.children = children; }
+
+        @Override boolean test(RuleInput a) {
+            for (Node c : children) if (c.test(a)) return true;
+            return false;
+        }
+
+        @Override double cost() {
+            double cost = 0, reach = 1;
+            for (Node c : children) { cost += reach * c.cost(); reach *= 1 - c.pass(); }
+            return cost;
+        }
+
+        @Override double pass() {
+            double q = 1;
+            for (Node c : children) q *= 1 - c.pass();
+            return 1 - q;
+        }
+
+        @Override public String toString() { return "any" + Arrays.toString(children); }
+    }
+
+    private static final class Not extends Node {
+        final Node child;
+        Not(Node child) { this.child = child; }
+
+        @Override boolean test(RuleInput a) { return !child.test(a); }
+        @Override double cost() { return child.cost(); }
+        @Override double pass() { return 1 - child.pass(); }
+        @Override public String toString() { return "not(" + child + ")"; }
+    }
+
+    private static final class Present extends Node {
+        final int slot;
+        final String attr;
+        final boolean present;
+        Present(int slot, String attr, boolean present) { this.slot = slot; this.attr = attr; this.present = present; }
+
+        @Override boolean test(RuleInput a) { return (a.value(slot) != null) == present; }
+        @Override double cost() { return 1; }
+        @Override double pass() { return 0.5; }
+        @Override public String toString() { return attr + (present ? " present" : " absent"); }
+    }
+
+    /** Exact membership: 52x52-bit set when every member is two ASCII letters, hashed otherwise. */
+    private abstract static class StringIn extends Node {
+        final int slot;
+        final String attr;
+        final int size;
+        StringIn(int slot, String attr, int size) { this.slot = slot; this.attr = attr; this.size = size; }
+
+        static StringIn of(int slot, String attr, List<String> members) {
+            boolean codes = members.stream().allMatch(m -> m.length() == 2 && letter(m.charAt(0)) >= 0 && letter(m.charAt(1)) >= 0);
+            return codes ? new CodeBitset(slot, attr, members) : new HashedSet(slot, attr, members);
+        }
+
+        @Override double pass() { return Math.min(0.9, 0.1 * size); }
+        @Override public String toString() { return attr + " in(" + size + ")"; }
+    }
+
+    private static final class CodeBitset extends StringIn {
+        final long[] bits = new long[(52 * 52 + 63) / 64];
+
+        CodeBitset(int slot, String attr, List<String> members) {
+            super(slot, attr, (int) members.stream().distinct().count());
+            for (String m : members) {
+                int i = letter(m.charAt(0)) * 52 + letter(m.charAt(1));
+                bits[i >>> 6] |= 1L << i;
+            }
+        }
+
+        @Override boolean test(RuleInput a) {
+            String v = a.value(slot);
+            if (v == null || v.length() != 2) return false;
+            int hi = letter(v.charAt(0)), lo = letter(v.charAt(1));
+            if (hi < 0 || lo < 0) return false;
+            int i = hi * 52 + lo;
+            return (bits[i >>> 6] & (1L << i)) != 0;
+        }
+
+        @Override double cost() { return 1.5; }
+    }
+
+    /** 0..51 for A-Z, a-z; -1 otherwise. */
+    private static int letter(char c) {
+        if (c >= 'A' && c <= 'Z') return c - 'A';
+        if (c >= 'a' && c <= 'z') return 26 + c - 'a';
+        return -1;
+    }
+
+    private static final class HashedSet extends StringIn {
+        final String[] table;
+        final int mask;
+
+        HashedSet(int slot, String attr, List<String> members) {
+            super(slot, attr, (int) members.stream().distinct().count());
+            int cap = Integer.highestOneBit(Math.max(2, size * 2 - 1)) << 1;
+            table = new String[cap];
+            mask = cap - 1;
+            for (String m : members) {
+                int i = spread(m.hashCode()) & mask;
+                while (table[i] != null && !table[i].equals(m)) i = (i + 1) & mask;
+                table[i] = m;
+            }
+        }
+
+        @Override boolean test(RuleInput a) {
+            String v = a.value(slot);
+            if (v == null) return false;
+            for (int i = spread(v.hashCode()) & mask; ; i = (i + 1) & mask) {
+                String t = table[i];
+                if (t == null) return false;
+                if (t.equals(v)) return true;
+            }
+        }
+
+        @Override double cost() { return 2.5; }
+
+        private static int spread(int h) { return h ^ (h >>> 16); }
+    }
+
+    private static final class Prefix extends Node {
+        final int slot;
+        final String attr;
+        final String[] prefixes;
+        Prefix(int slot, String attr, String[] prefixes) { this.slot = slot; this.attr = attr; this.prefixes = prefixes; }
+
+        @Override boolean test(RuleInput a) {
+            String v = a.value(slot);
+            if (v == null) return false;
+            for (String p : prefixes) if (v.startsWith(p)) return true;
+            return false;
+        }
+
+        @Override double cost() { return 1 + prefixes.length; }
+        @Override double pass() { return Math.min(0.9, 0.15 * prefixes.length); }
+        @Override public String toString() { return attr + " prefix" + Arrays.toString(prefixes); }
+    }
+
+    private static final class NumberRange extends Node {
+        final int slot;
+        final String attr;
+        final double lo, hi;
+        final boolean loInclusive, hiInclusive;
+        final int bounds;
+
+        private NumberRange(int slot, String attr, double lo, boolean loInclusive, double hi, boolean hiInclusive, int bounds) {
+            this.slot = slot; this.attr = attr; this.lo = lo; this.loInclusive = loInclusive;
+            this.hi = hi; this.hiInclusive = hiInclusive; this.bounds = bounds;
+        }
+
+        /** Tightest of gt/gte and of lt/lte. */
+        static NumberRange of(int slot, String attr, TargetingRule r) {
+            double lo = Double.NEGATIVE_INFINITY, hi = Double.POSITIVE_INFINITY;
+            boolean loIn = true, hiIn = true;
+            if (r.gte() != null) lo = r.gte();
+            if (r.gt() != null && r.gt() >= lo) { lo = r.gt(); loIn = false; }
+            if (r.lte() != null) hi = r.lte();
+            if (r.lt() != null && r.lt() <= hi) { hi = r.lt(); hiIn = false; }
+            int bounds = (lo > Double.NEGATIVE_INFINITY ? 1 : 0) + (hi < Double.POSITIVE_INFINITY ? 1 : 0);
+            return new NumberRange(slot, attr, lo, loIn, hi, hiIn, bounds);
+        }
+
+        @Override boolean test(RuleInput a) {
+            double v = a.number(slot);     // NaN fails every compare
+            return (loInclusive ? v >= lo : v > lo) && (hiInclusive ? v <= hi : v < hi);
+        }
+
+        @Override double cost() { return 3; }
+        @Override double pass() { return bounds == 2 ? 0.3 : 0.5; }
+        @Override public String toString() { return attr + (loInclusive ? " [" : " (") + lo + "," + hi + (hiInclusive ? "]" : ")"); }
+    }
+
+    private static final class SemverRange extends Node {
+        final int slot;
+        final String attr;
+        final long[] intervals;
+        SemverRange(int slot, String attr, long[] intervals) { this.slot = slot; this.attr = attr; this.intervals = intervals; }
+
+        @Override boolean test(RuleInput a) { return Semver.contains(intervals, a.semver(slot)); }
+        @Override double cost() { return 4; }
+        @Override double pass() { return 0.5; }
+        @Override public String toString() { return attr + " semver(" + intervals.length / 2 + ")"; }
+    }
+}
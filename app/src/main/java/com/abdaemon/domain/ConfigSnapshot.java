@@ -0,0 +1,88 @@
+package com.abdaemon.domain;
+
+import java.util.*;
+
+/**
+ * Immutable view of one loaded config: version + raw and compiled experiments + layers +
+ * the request attributes its targeting rules read.
+ * Swapped atomically by repositories so readers always see a consistent set.
+ */
+public record ConfigSnapshot(String version,
+                             Map<String, Experiment> experiments,
+                             Map<String, CompiledExperiment> compiled,
+                             Map<String, CompiledLayer> layers,
+                             TargetingAttributes attributes) {
+
+    public ConfigSnapshot {
+        experiments = Map.copyOf(experiments);
+        compiled = Map.copyOf(compiled);
+        layers = Map.copyOf(layers);
+    }
+
+    /** Layers and attributes derived from {@code compiled}; throws IllegalArgumentException on overlapping segments. */
+    public ConfigSnapshot(String version, Map<String, Experiment> experiments, Map<String, CompiledExperiment> compiled) {
+        this(version, experiments, compiled, CompiledLayer.build(compiled.values()), TargetingAttributes.of(compiled.values()));
+    }
+
+    public static ConfigSnapshot empty(String version) {
+        return new ConfigSnapshot(version, Map.of(), Map.of(), Map.of(), TargetingAttributes.NONE);
+    }
+
+    /** Compiles every experiment against {@code version}; duplicate keys are rejected. */
+    public static ConfigSnapshot of(String version, Collection<Experiment> experiments) {
+        return of(version, experiments, null);
+    }
+
+    /**
+     * Like {@link #of(String, Collection)}, reusing the plans of experiments that are equal to
+     * their counterpart in {@code previous} (rebound to {@code version}, revision kept).
+     */
+    public static ConfigSnapshot of(String version, Collection<Experiment> experiments, ConfigSnapshot previous) {
+        var raw = new LinkedHashMap<String, Experiment>();
+        for (var e : experiments) {
+            if (raw.putIfAbsent(e.key().value(), e) != null)
+                throw new IllegalArgumentException("Duplicate experiment key: " + e.key().value());
+        }
+        var compiled = new HashMap<String, CompiledExperiment>(raw.size() * 2);
+        for (var e : raw.values()) {
+            String k = e.key().value();
+            var old = previous == null ? null : previous.compiled.get(k);
+            compiled.put(k, old != null && Objects.equals(old.experiment(), e)
+                    ? old.rebind(version)
+                    : CompiledExperiment.compile(e, version));
+        }
+        return new ConfigSnapshot(version, raw, compiled);
+    }
+
+    /** Experiments added, modified or removed since {@code previous}, ordered by key. */
+    public List<ExperimentChange> diff(ConfigSnapshot previous) {
+        var changes = new ArrayList<ExperimentChange>();
+        for (var e : experiments.values()) {
+            var before = previous.experiments.get(e.key().value());
+            if (before == null) changes.add(new ExperimentChange(e.key(), ExperimentChange.Kind.ADDED, null, e));
+            else if (!Objects.equals(before, e)) changes.add(new ExperimentChange(e.key(), ExperimentChange.Kind.MODIFIED, before, e));
+        }
+        for (var before : previous.experiments.values()) {
+            if (!experiments.containsKey(before.key().value()))
+                changes.add(new ExperimentChange(before.key(), ExperimentChange.Kind.REMOVED, before, null));
+        }
+        changes.sort(Comparator.comparing(c -> c.key().value()));
+        return changes;
+    }
+
+    public Optional<Experiment> find(ExperimentKey key) {
+        return Optional.ofNullable(experiments.get(key.value()));
+    }
+
+    /** Hot-path lookup; null when absent. */
+    public CompiledExperiment compiled(ExperimentKey key) {
+        return compiled.get(key.value());
+    }
+
+    /** Null when absent. */
+    public CompiledLayer layer(String name) {
+        return layers.get(name);
+    }
+
+    public int size() { return experiments.size(); }
+}
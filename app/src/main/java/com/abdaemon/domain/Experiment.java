@@ -13,7 +13,9 @@ public record Experiment(
         List<Variant> variants,  // weights must sum to 1.0
         Targets targets,         // optional eligibility
         Instant start,           // inclusive
-        Instant end              // inclusive
+        Instant end,             // inclusive
+        String hashing,          // "sha256" (default, legacy) | "murmur3"
+        LayerAllocation layer    // optional; segments held in a layer of mutually exclusive experiments
 ) {
     public Experiment {
         if (key == null) throw new IllegalArgumentException("Experiment.key is required");
@@ -27,9 +29,19 @@ public record Experiment(
         targets = (targets == null) ? Targets.none() : targets;
         if (start == null || end == null) throw new IllegalArgumentException("Experiment.start/end required");
         if (start.isAfter(end)) throw new IllegalArgumentException("Experiment.start must be <= end");
+        hashing = Hashing.parse(hashing).id();
+    }
+
+    public Experiment(ExperimentKey key, String status, String salt, double traffic, double holdout,
+                      List<Variant> variants, Targets targets, Instant start, Instant end, String hashing) {
+        this(key, status, salt, traffic, holdout, variants, targets, start, end, hashing, null);
     }
 
     public boolean isRunning() {
         return "running".equalsIgnoreCase(status);
     }
+
+    public Hashing hashingMode() {
+        return Hashing.parse(hashing);
+    }
 }
@@ -0,0 +1,13 @@
+package com.abdaemon.domain;
+
+/**
+ * One experiment that differs between two config snapshots.
+ * {@code before} is null for ADDED, {@code after} is null for REMOVED.
+ */
+public record ExperimentChange(ExperimentKey key, Kind kind, Experiment before, Experiment after) {
+    public enum Kind { ADDED, MODIFIED, REMOVED }
+
+    public ExperimentChange {
+        if (key == null || kind == null) throw new IllegalArgumentException("ExperimentChange.key/kind required");
+    }
+}
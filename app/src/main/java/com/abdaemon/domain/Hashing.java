@@ -0,0 +1,27 @@
+package com.abdaemon.domain;
+
+import java.util.Locale;
+
+/**
+ * Bucketing hash selected per experiment.
+ * SHA256 reproduces the original assignments and stays the default so running
+ * experiments are never re-bucketed; MURMUR3 is the fast path for new experiments.
+ */
+public enum Hashing {
+    SHA256("sha256"),
+    MURMUR3("murmur3");
+
+    private final String id;
+
+    Hashing(String id) { this.id = id; }
+
+    public String id() { return id; }
+
+    /** Parses the config value; null/blank means the legacy default. */
+    public static Hashing parse(String value) {
+        if (value == null || value.isBlank()) return SHA256;
+        String v = value.trim().toLowerCase(Locale.ROOT);
+        for (Hashing h : values()) if (h.id.equals(v)) return h;
+        throw new IllegalArgumentException("Unknown hashing: " + value + " (expected sha256|murmur3)");
+    }
+}
@@ -0,0 +1,18 @@
+package com.abdaemon.domain;
+
+/**
+ * Segments of a layer owned by one experiment: {@code from..to} inclusive, out of
+ * {@link CompiledLayer#SEGMENTS}. Experiments in the same layer must not overlap, so a
+ * subject (hashed once per layer) is in at most one of them.
+ */
+public record LayerAllocation(String name, int from, int to) {
+    public LayerAllocation {
+        if (name == null || name.isBlank()) throw new IllegalArgumentException("LayerAllocation.name is required");
+        if (from < 0 || to >= CompiledLayer.SEGMENTS || from > to)
+            throw new IllegalArgumentException("LayerAllocation segments must satisfy 0 <= from <= to < " + CompiledLayer.SEGMENTS);
+    }
+
+    public boolean contains(int segment) { return segment >= from && segment <= to; }
+
+    public int size() { return to - from + 1; }
+}
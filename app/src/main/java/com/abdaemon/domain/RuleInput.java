@@ -0,0 +1,111 @@
+package com.abdaemon.domain;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Request attributes as seen by one {@link CompiledRule} evaluation.
+ * - reads each of the rule's slots from the request context at most once and caches its
+ *   string, number and semver forms
+ * - pooled by {@link CompiledRule}; arrays grow to the largest rule seen, nothing is
+ *   allocated per request once warm
+ */
+final class RuleInput {
+    private static final byte LOADED = 1, NUMBER = 2, SEMVER = 4;
+
+    private Map<String, String> ctx;
+    private String[] names;
+    private byte[] state = new byte[8];
+    private String[] values = new String[8];
+    private double[] numbers = new double[8];
+    private long[] semvers = new long[8];
+
+    /** Starts an evaluation of a rule reading {@code names} (by slot) from {@code ctx}. */
+    RuleInput reset(Map<String, String> ctx, String[] names) {
+        int n = names.length;
+        if (state.length < n) {
+            state = new byte[n];
+            values = new String[n];
+            numbers = new double[n];
+            semvers = new long[n];
+        } else {
+            Arrays.fill(state, 0, n, (byte) 0);
+        }
+        this.ctx = ctx;
+        this.names = names;
+        return this;
+    }
+
+    /** Drops references to the request before the input goes back to the pool. */
+    void release() {
+        if (names != null) Arrays.fill(values, 0, names.length, null);
+        ctx = null;
+        names = null;
+    }
+
+    /** Raw value, null when absent. */
+    String value(int slot) {
+        if (state[slot] == 0) {
+            state[slot] = LOADED;
+            values[slot] = ctx.get(names[slot]);
+        }
+        return values[slot];
+    }
+
+    /** Decimal value; NaN when absent or not a number. */
+    double number(int slot) {
+        String v = value(slot);
+        if ((state[slot] & NUMBER) == 0) {
+            state[slot] |= NUMBER;
+            numbers[slot] = parseNumber(v);
+        }
+        return numbers[slot];
+    }
+
+    /** Semver key; {@link Semver#INVALID} when absent or not a version. */
+    long semver(int slot) {
+        String v = value(slot);
+        if ((state[slot] & SEMVER) == 0) {
+            state[slot] |= SEMVER;
+            semvers[slot] = Semver.parse(v);
+        }
+        return semvers[slot];
+    }
+
+    /** Plain decimals ("-12", "3.25") parsed in place; anything else goes through Double.parseDouble. */
+    static double parseNumber(String s) {
+        if (s == null || s.isEmpty()) return Double.NaN;
+        int i = 0, n = s.length();
+        boolean neg = false;
+        if (s.charAt(0) == '-' || s.charAt(0) == '+') { neg = s.charAt(0) == '-'; i++; }
+        long mantissa = 0;
+        int digits = 0, scale = 0;
+        boolean dot = false;
+        for (; i < n; i++) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (++digits > 15) return slowNumber(s);
+                mantissa = mantissa * 10 + (c - '0');
+                if (dot) scale++;
+            } else if (c == '.' && !dot) {
+                dot = true;
+            } else {
+                return slowNumber(s);
+            }
+        }
+        if (digits == 0) return Double.NaN;
+        double d = scale == 0 ? mantissa : mantissa / POW10[scale];
+        return neg ? -d : d;
+    }
+
+    private static final double[] POW10 = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15};
+
+    private static double slowNumber(String s) {
+        try {
+            double d = Double.parseDouble(s.trim());
+            return Double.isFinite(d) ? d : Double.NaN;
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.abdaemon.domain;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+/**
+ * Bounded pool of reusable per-call scratch objects (encoders, digests, buffers).
+ * - replaces ThreadLocal scratch where requests may run on virtual threads: a ThreadLocal
+ *   there builds a fresh instance per request and drops it when the thread ends
+ * - a few CAS probes over a small slot array, starting at a hash of the thread id; nothing
+ *   is allocated while instances circulate, a miss creates one and a full pool drops it
+ * - callers {@link #take()} and {@link #give} back in a finally block; an instance is used by
+ *   one caller at a time and must not escape the call
+ */
+public final class ScratchPool<T> {
+    private static final int PROBES = 4;
+
+    private final Supplier<T> factory;
+    private final AtomicReferenceArray<T> slots;
+    private final int mask;
+
+    public ScratchPool(Supplier<T> factory) {
+        this(factory, Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    public ScratchPool(Supplier<T> factory, int capacity) {
+        int size = Integer.highestOneBit(Math.max(PROBES, capacity) - 1) << 1;
+        this.factory = factory;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    public T take() {
+        int start = start();
+        for (int i = 0; i < PROBES; i++) {
+            int s = (start + i) & mask;
+            T t = slots.getPlain(s);
+            if (t != null && slots.compareAndSet(s, t, null)) return t;
+        }
+        return factory.get();
+    }
+
+    public void give(T t) {
+        int start = start();
+        for (int i = 0; i < PROBES; i++) {
+            int s = (start + i) & mask;
+            if (slots.getPlain(s) == null && slots.compareAndSet(s, null, t)) return;
+        }
+    }
+
+    private static int start() {
+        long h = Thread.currentThread().threadId() * 0x9e3779b97f4a7c15L;
+        return (int) (h >>> 32);
+    }
+}
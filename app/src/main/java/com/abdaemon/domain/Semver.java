@@ -0,0 +1,149 @@
+package com.abdaemon.domain;
+
+import java.util.ArrayList;
+
+/**
+ * Semantic versions packed into a sortable long, and ranges over them.
+ * - key = (major:20 | minor:21 | patch:21) * 2 + release bit, so a pre-release ({@code 1.2.0-rc1})
+ *   sorts just below its release (tags are not ordered among themselves); build metadata is
+ *   ignored; a leading 'v' is allowed
+ * - a range is a sorted list of half-open [lo, hi) key intervals; {@link #parse} on the request
+ *   value reads chars in place and allocates nothing
+ */
+final class Semver {
+    static final long INVALID = -1;
+    private static final int MAJOR_MAX = (1 << 20) - 1, PART_MAX = (1 << 21) - 1;
+
+    private Semver() { }
+
+    /** Key of a request value; {@link #INVALID} if it is not a (partial) version. */
+    static long parse(String s) {
+        if (s == null) return INVALID;
+        int n = s.length(), i = 0;
+        if (i < n && (s.charAt(i) == 'v' || s.charAt(i) == 'V')) i++;
+        long major = -1, minor = 0, patch = 0;
+        int part = 0;
+        long cur = -1;
+        for (; i < n; i++) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                cur = (cur < 0 ? 0 : cur) * 10 + (c - '0');
+                if (cur > PART_MAX) return INVALID;
+            } else if (c == '.' && cur >= 0 && part < 2) {
+                if (part == 0) major = cur; else minor = cur;
+                part++;
+                cur = -1;
+            } else {
+                break;
+            }
+        }
+        if (cur < 0) return INVALID;
+        if (part == 0) major = cur; else if (part == 1) minor = cur; else patch = cur;
+        if (major > MAJOR_MAX) return INVALID;
+        boolean release = true;
+        if (i < n) {
+            char c = s.charAt(i);
+            if (c == '-') release = false;
+            else if (c != '+') return INVALID;
+        }
+        return key(major, minor, patch, release);
+    }
+
+    static long key(long major, long minor, long patch, boolean release) {
+        return ((major << 42) | (minor << 21) | patch) << 1 | (release ? 1 : 0);
+    }
+
+    /** Intervals matching a range expression; throws IllegalArgumentException on bad syntax. */
+    static long[] range(String expr) {
+        if (expr == null || expr.isBlank()) throw new IllegalArgumentException("semver range is empty");
+        var union = new ArrayList<long[]>();
+        for (String alt : expr.split("\\|\\|", -1)) {
+            long lo = 0, hi = Long.MAX_VALUE;
+            String[] comparators = alt.trim().split("\\s+");
+            if (comparators.length == 1 && comparators[0].isEmpty())
+                throw new IllegalArgumentException("semver range '" + expr + "' has an empty alternative");
+            for (String c : comparators) {
+                long[] iv = comparator(c, expr);
+                lo = Math.max(lo, iv[0]);
+                hi = Math.min(hi, iv[1]);
+            }
+            if (lo < hi) union.add(new long[]{lo, hi});
+        }
+        union.sort((a, b) -> Long.compare(a[0], b[0]));
+        var merged = new ArrayList<long[]>();
+        for (long[] iv : union) {
+            long[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && iv[0] <= last[1]) last[1] = Math.max(last[1], iv[1]);
+            else merged.add(iv);
+        }
+        long[] out = new long[merged.size() * 2];
+        for (int i = 0; i < merged.size(); i++) {
+            out[2 * i] = merged.get(i)[0];
+            out[2 * i + 1] = merged.get(i)[1];
+        }
+        return out;
+    }
+
+    /** True when {@code key} falls in one of the intervals. */
+    static boolean contains(long[] intervals, long key) {
+        if (key < 0) return false;
+        for (int i = 0; i < intervals.length; i += 2) {
+            if (key < intervals[i]) return false;
+            if (key < intervals[i + 1]) return true;
+        }
+        return false;
+    }
+
+    private static long[] comparator(String c, String expr) {
+        String op;
+        if (c.startsWith(">=") || c.startsWith("<=")) op = c.substring(0, 2);
+        else if (c.startsWith(">") || c.startsWith("<") || c.startsWith("=") || c.startsWith("^") || c.startsWith("~")) op = c.substring(0, 1);
+        else op = "";
+        var v = Version.of(c.substring(op.length()), expr);
+        long at = key(v.major, v.minor, v.patch, !v.prerelease);
+        return switch (op) {
+            case ">=" -> new long[]{at, Long.MAX_VALUE};
+            case ">" -> new long[]{v.parts == 3 ? at + 1 : v.next(v.parts), Long.MAX_VALUE};
+            case "<" -> new long[]{0, at};
+            case "<=" -> new long[]{0, v.parts == 3 ? at + 1 : v.next(v.parts)};
+            case "^" -> new long[]{at, v.next(v.major > 0 || v.parts == 1 ? 1 : v.minor > 0 || v.parts == 2 ? 2 : 3)};
+            case "~" -> new long[]{at, v.next(v.parts == 1 ? 1 : 2)};
+            default -> new long[]{at, v.parts == 3 ? at + 1 : v.next(v.parts)};   // "=" or bare: exact, or x-range when partial
+        };
+    }
+
+    /** A version as written in a range: 1 to 3 numeric parts, optional pre-release. */
+    private record Version(long major, long minor, long patch, int parts, boolean prerelease) {
+        static Version of(String s, String expr) {
+            String core = s.startsWith("v") || s.startsWith("V") ? s.substring(1) : s;
+            int plus = core.indexOf('+');
+            if (plus >= 0) core = core.substring(0, plus);
+            int dash = core.indexOf('-');
+            boolean pre = dash >= 0;
+            if (pre) core = core.substring(0, dash);
+            String[] p = core.split("\\.", -1);
+            if (p.length > 3 || core.isEmpty()) throw new IllegalArgumentException("bad version '" + s + "' in semver range '" + expr + "'");
+            long[] n = new long[3];
+            for (int i = 0; i < p.length; i++) {
+                if (p[i].isEmpty() || !p[i].chars().allMatch(Character::isDigit) || p[i].length() > 7)
+                    throw new IllegalArgumentException("bad version '" + s + "' in semver range '" + expr + "'");
+                n[i] = Long.parseLong(p[i]);
+                if (n[i] > (i == 0 ? MAJOR_MAX : PART_MAX))
+                    throw new IllegalArgumentException("version part too large in semver range '" + expr + "'");
+            }
+            return new Version(n[0], n[1], n[2], p.length, pre);
+        }
+
+        /**
+         * Lowest key above every version sharing the first {@code level} parts (pre-releases
+         * included); a minor or patch at its maximum carries into the part above.
+         */
+        long next(int level) {
+            return switch (level) {
+                case 1 -> major == MAJOR_MAX ? Long.MAX_VALUE : key(major + 1, 0, 0, false);
+                case 2 -> key(major, minor + 1, 0, false);
+                default -> key(major, minor, patch + 1, false);
+            };
+        }
+    }
+}
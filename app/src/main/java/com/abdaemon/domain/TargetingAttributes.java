@@ -0,0 +1,53 @@
+package com.abdaemon.domain;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Names of the request attributes that some targeting rule of one snapshot reads.
+ * - built with the snapshot from its compiled rules, so names no config uses any more are
+ *   released with the snapshot that referenced them
+ * - servers use {@link #contains} / {@link #nameBytes()} to pass only referenced query
+ *   parameters through to the context; they ask the current snapshot, so a parameter only a
+ *   newer snapshot's rule reads can be dropped by a request that races the reload
+ */
+public final class TargetingAttributes {
+    public static final TargetingAttributes NONE = new TargetingAttributes(Set.of());
+
+    private final Set<String> names;
+    private final String[] byIndex;
+    private final byte[][] nameBytes;
+
+    private TargetingAttributes(Set<String> names) {
+        this.names = Set.copyOf(names);
+        this.byIndex = names.toArray(String[]::new);
+        this.nameBytes = new byte[byIndex.length][];
+        for (int i = 0; i < byIndex.length; i++) nameBytes[i] = byIndex[i].getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Attributes read by the rules of {@code plans}. */
+    static TargetingAttributes of(Collection<CompiledExperiment> plans) {
+        var names = new TreeSet<String>();
+        for (var p : plans) names.addAll(p.ruleAttributes());
+        return names.isEmpty() ? NONE : new TargetingAttributes(names);
+    }
+
+    /** True when some compiled rule reads {@code name}. */
+    public boolean contains(String name) {
+        return names.contains(name);
+    }
+
+    /** UTF-8 names; index with {@link #name(int)}. Not to be modified. */
+    public byte[][] nameBytes() {
+        return nameBytes;
+    }
+
+    /** Name at an index of {@link #nameBytes()}. */
+    public String name(int index) {
+        return byIndex[index];
+    }
+
+    public int size() { return byIndex.length; }
+}
@@ -0,0 +1,78 @@
+package com.abdaemon.domain;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Eligibility rule from the experiment config; compiled into a {@link CompiledRule} per snapshot.
+ * A node is either a combinator ({@code all}, {@code any} or {@code not}) or a test of one
+ * request attribute; several operators on one attribute must all hold:
+ * <pre>
+ * {"all": [
+ *   {"attr": "platform", "in": ["ios", "android"]},
+ *   {"attr": "os_ver", "semver": "&gt;=16.2 &lt;18 || ^19.1"},
+ *   {"attr": "age", "gte": 18, "lt": 65},
+ *   {"not": {"attr": "locale", "prefix": ["fr"]}},
+ *   {"any": [{"attr": "beta", "eq": "true"}, {"attr": "tier", "present": true}]}]}
+ * </pre>
+ * - {@code in} / {@code eq}: exact string match; {@code prefix}: starts with any of
+ * - {@code gt} / {@code gte} / {@code lt} / {@code lte}: decimal number compare
+ * - {@code semver}: space-separated comparators (=, &gt;, &gt;=, &lt;, &lt;=, ^, ~, bare or
+ *   partial versions), alternatives separated by {@code ||}
+ * - {@code present}: attribute given (true) or absent (false)
+ * An absent attribute fails every test but {@code present: false}.
+ */
+public record TargetingRule(
+        List<TargetingRule> all,
+        List<TargetingRule> any,
+        TargetingRule not,
+        String attr,
+        List<String> in,
+        String eq,
+        List<String> prefix,
+        Double gt,
+        Double gte,
+        Double lt,
+        Double lte,
+        String semver,
+        Boolean present
+) {
+    /** Query parameters that select the experiment or subject, never targeting attributes. */
+    static final Set<String> RESERVED = Set.of("exp", "exps", "layer", "user", "device", "req");
+    static final int MAX_DEPTH = 16;
+
+    public TargetingRule {
+        all = all == null ? null : List.copyOf(all);
+        any = any == null ? null : List.copyOf(any);
+        in = in == null ? null : List.copyOf(in);
+        prefix = prefix == null ? null : List.copyOf(prefix);
+
+        int combinators = (all != null ? 1 : 0) + (any != null ? 1 : 0) + (not != null ? 1 : 0);
+        boolean hasOp = in != null || eq != null || prefix != null || gt != null || gte != null
+                || lt != null || lte != null || semver != null || present != null;
+        if (combinators > 1) throw new IllegalArgumentException("TargetingRule: use one of all/any/not per node");
+        if (combinators == 1) {
+            if (attr != null || hasOp) throw new IllegalArgumentException("TargetingRule: all/any/not cannot be mixed with attr tests");
+            if ((all != null && all.isEmpty()) || (any != null && any.isEmpty()))
+                throw new IllegalArgumentException("TargetingRule: all/any must not be empty");
+        } else {
+            if (attr == null || attr.isBlank()) throw new IllegalArgumentException("TargetingRule: attr or all/any/not is required");
+            if (RESERVED.contains(attr)) throw new IllegalArgumentException("TargetingRule: '" + attr + "' is not a targeting attribute");
+            if (!hasOp) throw new IllegalArgumentException("TargetingRule: attr '" + attr + "' has no test");
+            if (in != null && in.isEmpty()) throw new IllegalArgumentException("TargetingRule: attr '" + attr + "' has an empty in list");
+            if (prefix != null && prefix.isEmpty()) throw new IllegalArgumentException("TargetingRule: attr '" + attr + "' has an empty prefix list");
+            for (Double d : new Double[]{gt, gte, lt, lte})
+                if (d != null && !Double.isFinite(d)) throw new IllegalArgumentException("TargetingRule: attr '" + attr + "' bound must be finite");
+            if (semver != null) Semver.range(semver);   // throws on bad syntax
+        }
+        if (depth() > MAX_DEPTH) throw new IllegalArgumentException("TargetingRule: nested deeper than " + MAX_DEPTH);
+    }
+
+    private int depth() {
+        int d = 0;
+        if (all != null) for (var r : all) d = Math.max(d, r.depth());
+        if (any != null) for (var r : any) d = Math.max(d, r.depth());
+        if (not != null) d = not.depth();
+        return d + 1;
+    }
+}
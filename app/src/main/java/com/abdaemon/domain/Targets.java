@@ -2,13 +2,20 @@ package com.abdaemon.domain;
 
 import java.util.List;
 
-/** Optional targeting criteria such as country or minimum app version. */
-public record Targets(List<String> countries, Integer minAppVersion) {
+/**
+ * Optional targeting criteria: country allow-list, minimum app version, and a
+ * general {@link TargetingRule} over request attributes (null = none).
+ */
+public record Targets(List<String> countries, Integer minAppVersion, TargetingRule rule) {
     public Targets {
         countries = (countries == null) ? List.of() : List.copyOf(countries);
     }
 
+    public Targets(List<String> countries, Integer minAppVersion) {
+        this(countries, minAppVersion, null);
+    }
+
     public static Targets none() {
-        return new Targets(List.of(), null);
+        return new Targets(List.of(), null, null);
     }
 }
@@ -1,15 +1,30 @@
 package com.abdaemon.infrastructure;
 
+import com.abdaemon.application.AssignTreatmentUseCase;
+import com.abdaemon.application.AssignmentCache;
+import com.abdaemon.application.Bucketer;
+import com.abdaemon.application.LogEventsUseCase;
 import com.abdaemon.infrastructure.config.RefreshingFileConfigRepository;
+import com.abdaemon.infrastructure.logging.DedupEventSink;
+import com.abdaemon.infrastructure.logging.RollupEventSink;
 import com.abdaemon.infrastructure.logging.WalEventSink;
+import com.abdaemon.infrastructure.logging.WalFormat;
+import com.abdaemon.infrastructure.metrics.Metrics;
+import com.abdaemon.infrastructure.server.AssignmentServer;
 import com.abdaemon.infrastructure.server.HttpAssignmentServer;
+import com.abdaemon.infrastructure.shm.SharedConfigPublisher;
+import com.abdaemon.infrastructure.stats.LiveStats;
+import com.abdaemon.infrastructure.uds.UdsAssignmentServer;
+import com.abdaemon.ports.outbound.EventSink;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.file.Path;
 import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
-/** Starts the config reloader + HTTP endpoint + WAL sink. */
+/** Starts the config reloader + HTTP endpoint (+ optional Unix socket, shared-memory config) + WAL sink. */
 public final class Main {
     private static final Logger log = LoggerFactory.getLogger(Main.class);
 
@@ -17,20 +32,143 @@ public final class Main {
         String cfgPath = System.getenv().getOrDefault("AB_CFG", "config.json");
         int port = Integer.parseInt(System.getenv().getOrDefault("AB_PORT", "8080"));
         var period = Duration.ofSeconds(Long.parseLong(System.getenv().getOrDefault("AB_CFG_PERIOD_SEC", "5")));
+        var debounce = Duration.ofMillis(Long.parseLong(System.getenv().getOrDefault("AB_CFG_DEBOUNCE_MS", "200")));
+
+        // HTTP engine + threading (nio: AB_HTTP_THREADS = event loops)
+        String httpEngine = System.getenv().getOrDefault("AB_HTTP_ENGINE", "jdk");   // jdk | nio
+        // jdk engine: headers and body go out as separate writes; without TCP_NODELAY every
+        // keep-alive response stalls ~40ms on Nagle + delayed ACK. Read once, before the first server.
+        System.getProperties().putIfAbsent("sun.net.httpserver.nodelay", "true");
+        var httpDefaults = HttpAssignmentServer.Options.defaults();
+        var httpOptions = new HttpAssignmentServer.Options(
+                System.getenv().getOrDefault("AB_HTTP_EXECUTOR", httpDefaults.executor()),   // virtual | pool | dispatcher
+                Integer.parseInt(System.getenv().getOrDefault("AB_HTTP_THREADS", String.valueOf(httpDefaults.threads()))),
+                Integer.parseInt(System.getenv().getOrDefault("AB_HTTP_MAX_QUEUED", String.valueOf(httpDefaults.maxQueued()))),
+                Integer.parseInt(System.getenv().getOrDefault("AB_HTTP_BACKLOG", String.valueOf(httpDefaults.backlog()))));
+
+        // Assignment cache (off | lru | tinylfu)
+        String cacheMode = System.getenv().getOrDefault("AB_ASSIGN_CACHE", "off");
+        long cacheMb = Long.parseLong(System.getenv().getOrDefault("AB_ASSIGN_CACHE_MB", "64"));
+        AssignmentCache cache = "off".equalsIgnoreCase(cacheMode)
+                ? null
+                : new AssignmentCache(AssignmentCache.Policy.parse(cacheMode), cacheMb * 1024L * 1024L);
 
         // WAL settings
         String walDir = System.getenv().getOrDefault("AB_WAL_DIR", "wal");
         long maxMb = Long.parseLong(System.getenv().getOrDefault("AB_WAL_MAX_MB", "32"));
         boolean fsync = Boolean.parseBoolean(System.getenv().getOrDefault("AB_WAL_FSYNC", "false"));
+        // Binary assignment over a Unix domain socket for same-host callers; empty = off
+        String udsPath = System.getenv().getOrDefault("AB_UDS_PATH", "");
+
+        // direct | group; the nio engine and the Unix socket listener run handlers on event loops,
+        // where a direct write (and its fsync) would stall every connection of the loop, so they need group
+        boolean eventLoops = "nio".equalsIgnoreCase(httpEngine);
+        String walMode = System.getenv().getOrDefault("AB_WAL_MODE", eventLoops || !udsPath.isEmpty() ? "group" : "direct");
+        if (!"group".equalsIgnoreCase(walMode)) {
+            if (eventLoops) throw new IllegalArgumentException("AB_HTTP_ENGINE=nio requires AB_WAL_MODE=group (was " + walMode + ")");
+            if (!udsPath.isEmpty()) throw new IllegalArgumentException("AB_UDS_PATH requires AB_WAL_MODE=group (was " + walMode + ")");
+        }
+        var walFormat = WalFormat.of(System.getenv().getOrDefault("AB_WAL_FORMAT", "ndjson"));   // ndjson | binary
+        boolean walMmap = Boolean.parseBoolean(System.getenv().getOrDefault("AB_WAL_MMAP", "false"));
+        WalEventSink.GroupCommit groupCommit = "group".equalsIgnoreCase(walMode)
+                ? new WalEventSink.GroupCommit(
+                        Integer.parseInt(System.getenv().getOrDefault("AB_WAL_QUEUE", "65536")),
+                        Integer.parseInt(System.getenv().getOrDefault("AB_WAL_BATCH", "4096")),
+                        Duration.ofMillis(Long.parseLong(System.getenv().getOrDefault("AB_WAL_MAX_DELAY_MS", "2"))))
+                : null;
+
+        // Exposure dedup in front of the WAL (window 0 = off)
+        var dedupWindow = Duration.ofSeconds(Long.parseLong(System.getenv().getOrDefault("AB_DEDUP_WINDOW_SEC", "0")));
+        long dedupMb = Long.parseLong(System.getenv().getOrDefault("AB_DEDUP_MB", "16"));
+
+        // Exposure rollups (interval 0 = off); raw sample = fraction of subjects still logged row by row
+        var rollupInterval = Duration.ofSeconds(Long.parseLong(System.getenv().getOrDefault("AB_ROLLUP_SEC", "0")));
+        double rollupRawSample = Double.parseDouble(System.getenv().getOrDefault("AB_ROLLUP_RAW_SAMPLE", "1.0"));
+
+        // Last good config persisted in binary for fast restarts; "off" disables
+        String cfgSnapshot = System.getenv().getOrDefault("AB_CFG_SNAPSHOT", Path.of(walDir, "config.snapshot").toString());
+
+        // Config snapshots published to a memory-mapped file for in-process assignment; empty = off
+        String shmPath = System.getenv().getOrDefault("AB_SHM_PATH", "");
 
-        try (var repo = new RefreshingFileConfigRepository(Path.of(cfgPath), period);
-             var sink = new WalEventSink(Path.of(walDir), maxMb * 1024L * 1024L, fsync);
-             var http = new HttpAssignmentServer(port, repo, sink)) {
+        // Live per-variant stats + SRM check behind /stats
+        boolean liveStats = Boolean.parseBoolean(System.getenv().getOrDefault("AB_STATS", "true"));
 
-            http.start();
-            log.info("AB daemon up: http=127.0.0.1:{} | cfg={} | version={} | wal_dir={} max={}MB fsync={}",
-                    port, cfgPath, repo.version(), walDir, maxMb, fsync);
-            Thread.currentThread().join();
+        var metrics = new Metrics();
+        if (cache != null) registerCacheMetrics(metrics, cache);
+
+        try (var repo = new RefreshingFileConfigRepository(Path.of(cfgPath), period, debounce,
+                     "off".equalsIgnoreCase(cfgSnapshot) ? null : Path.of(cfgSnapshot), metrics);
+             var wal = new WalEventSink(Path.of(walDir), maxMb * 1024L * 1024L, fsync, groupCommit, walFormat, walMmap, metrics)) {
+            // events flow dedup -> rollup -> WAL: rollups count each exposure once per dedup window
+            EventSink sink = wal;
+            var rollup = rollupInterval.isZero() ? null
+                    : new RollupEventSink(Path.of(walDir), rollupInterval, sink, rollupRawSample, metrics);
+            if (rollup != null) sink = rollup;
+            if (!dedupWindow.isZero()) {
+                var dedup = new DedupEventSink(sink, repo::version, dedupWindow, dedupMb * 1024L * 1024L, metrics);
+                log.info("Exposure dedup: window={}s budget={}MB, ~{} distinct exposures per half-window at 1% false positives",
+                        dedupWindow.toSeconds(), dedupMb, dedup.capacity());
+                sink = dedup;
+            }
+            var stats = liveStats ? new LiveStats(sink, repo, metrics) : null;
+            if (stats != null) sink = stats;
+            var assign = new AssignTreatmentUseCase(repo, new Bucketer(), cache);
+            try (rollup;
+                 var shm = shmPath.isEmpty() ? null : new SharedConfigPublisher(Path.of(shmPath), metrics);
+                 var http = AssignmentServer.create(httpEngine, port, assign, sink, new LogEventsUseCase(sink),
+                         stats, httpOptions, metrics);
+                 var uds = udsPath.isEmpty() ? null : new UdsAssignmentServer(Path.of(udsPath), assign, sink, metrics)) {
+                repo.addListener((snapshot, changes) -> changes.forEach(c ->
+                        log.info("Experiment {} {} in config version {}", c.key(), c.kind(), snapshot.version())));
+                if (shm != null) shm.follow(repo);
+                http.start();
+                if (uds != null) uds.start();
+                if (cache != null) logCacheStats(cache);
+                log.info("AB daemon up: http=127.0.0.1:{} uds={} shm={} engine={} executor={} cache={} backlog={} | cfg={} | version={} | wal_dir={} max={}MB fsync={} mode={} format={} mmap={} dedup={} rollup={} stats={}",
+                        port, udsPath.isEmpty() ? "off" : udsPath, shmPath.isEmpty() ? "off" : shmPath, httpEngine, httpOptions.executor(), cache == null ? "off" : cache.policy() + "/" + cacheMb + "MB", httpOptions.backlog(), cfgPath, repo.version(), walDir, maxMb, fsync, groupCommit == null ? "direct" : "group",
+                        walFormat.name(), walMmap, dedupWindow.isZero() ? "off" : dedupWindow.toSeconds() + "s",
+                        rollup == null ? "off" : rollupInterval.toSeconds() + "s/raw=" + rollupRawSample, liveStats);
+                awaitShutdown();
+            }
+        }
+    }
+
+    /** Parks until SIGTERM/SIGINT; the hook waits while main closes its resources (rollup flush, WAL). */
+    private static void awaitShutdown() {
+        var main = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            main.interrupt();
+            try {
+                main.join(10_000);
+            } catch (InterruptedException ignored) { }
+        }, "shutdown"));
+        try {
+            main.join();
+        } catch (InterruptedException e) {
+            log.info("Shutting down");
         }
     }
+
+    private static void registerCacheMetrics(Metrics metrics, AssignmentCache cache) {
+        metrics.counter("ab_assign_cache_hits_total", "Assignment cache hits", null, () -> cache.stats().hits());
+        metrics.counter("ab_assign_cache_misses_total", "Assignment cache misses (incl. stale version)", null, () -> cache.stats().misses());
+        metrics.counter("ab_assign_cache_evictions_total", "Assignment cache evictions", null, () -> cache.stats().evictions());
+        metrics.gauge("ab_assign_cache_entries", "Assignment cache entries", null, () -> cache.stats().size());
+        metrics.gauge("ab_assign_cache_bytes", "Assignment cache estimated heap bytes", null, () -> cache.stats().bytes());
+    }
+
+    private static void logCacheStats(AssignmentCache cache) {
+        var ses = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "assign-cache-stats");
+            t.setDaemon(true);
+            return t;
+        });
+        ses.scheduleAtFixedRate(() -> {
+            var s = cache.stats();
+            log.info("Assign cache ({}): hits={} misses={} hitRate={} evictions={} size={} bytes={}/{}",
+                    cache.policy(), s.hits(), s.misses(), String.format("%.3f", s.hitRate()),
+                    s.evictions(), s.size(), s.bytes(), s.maxBytes());
+        }, 60, 60, TimeUnit.SECONDS);
+    }
 }
@@ -0,0 +1,85 @@
+package com.abdaemon.infrastructure.config;
+
+import com.abdaemon.domain.ConfigSnapshot;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * Last validated config snapshot, persisted so a restart can serve before parsing the JSON.
+ * <pre>
+ *  0  u64 magic "ABCFGSN1"
+ *  8  u32 layout version
+ * 12  u32 payload length
+ * 16  u64 source size      config file the snapshot was loaded from
+ * 24  u32 source CRC32C
+ * 28  u32 payload CRC32C
+ * 32  payload              {@link SnapshotCodec} bytes (version + experiments)
+ * </pre>
+ * - a snapshot is only used for source bytes with the same size and checksum
+ * - written to a temp file and renamed over the old one, so readers see whole files only
+ */
+final class ConfigSnapshotFile {
+    private static final long MAGIC = 0x4142_4346_4753_4E31L;   // "ABCFGSN1"
+    private static final int LAYOUT = 1;
+    private static final int HEADER = 32;
+
+    private ConfigSnapshotFile() { }
+
+    static int checksum(byte[] bytes) {
+        var crc = new CRC32C();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Maps {@code file} and decodes its snapshot when it was taken from {@code source}; null when
+     * the file is absent or belongs to other source bytes.
+     * @throws IOException when the file exists but is unreadable or corrupt
+     */
+    static ConfigSnapshot load(Path file, byte[] source) throws IOException {
+        try (var ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (ch.size() < HEADER || ch.size() > Integer.MAX_VALUE) throw new IOException("bad config snapshot size " + ch.size());
+            MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if (map.getLong(0) != MAGIC || map.getInt(8) != LAYOUT) throw new IOException("not a config snapshot (layout " + map.getInt(8) + ")");
+            int len = map.getInt(12);
+            if (map.getLong(16) != source.length || map.getInt(24) != checksum(source)) return null;
+            if (len < 0 || HEADER + (long) len > map.capacity()) throw new IOException("config snapshot truncated");
+            var payload = map.slice(HEADER, len);
+            var crc = new CRC32C();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != map.getInt(28)) throw new IOException("config snapshot checksum mismatch");
+            try {
+                return SnapshotCodec.decode(payload);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("config snapshot invalid: " + e.getMessage(), e);
+            }
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /** Persists {@code snapshot} as taken from source bytes of {@code sourceSize} and {@code sourceChecksum}. */
+    static void save(Path file, ConfigSnapshot snapshot, long sourceSize, int sourceChecksum) throws IOException {
+        byte[] payload = SnapshotCodec.encode(snapshot);
+        var buf = ByteBuffer.allocate(HEADER + payload.length);
+        buf.putLong(MAGIC).putInt(LAYOUT).putInt(payload.length)
+                .putLong(sourceSize).putInt(sourceChecksum).putInt(checksum(payload))
+                .put(payload).flip();
+        var dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        var tmp = dir.resolve(file.getFileName() + ".tmp");
+        try (var ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) ch.write(buf);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
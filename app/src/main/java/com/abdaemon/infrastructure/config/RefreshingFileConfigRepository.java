@@ -1,10 +1,17 @@
 package com.abdaemon.infrastructure.config;
 
+import com.abdaemon.domain.ConfigSnapshot;
 import com.abdaemon.domain.Experiment;
+import com.abdaemon.domain.ExperimentChange;
 import com.abdaemon.domain.ExperimentKey;
+import com.abdaemon.infrastructure.metrics.LatencyHistogram;
+import com.abdaemon.infrastructure.metrics.Metrics;
+import com.abdaemon.ports.outbound.ConfigListener;
 import com.abdaemon.ports.outbound.ConfigRepository;
-import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 
@@ -13,83 +20,376 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- * Periodically reloads experiments from a JSON file when the file mtime changes.
- * - Thread-safe snapshot (immutable map)
+ * Reloads experiments from a JSON file when it changes.
+ * - change detection: WatchService on the parent directory, debounced so an editor's
+ *   truncate + write + rename burst becomes one reload; an mtime poll every {@code period}
+ *   backs it up (network filesystems, platforms with a polling WatchService)
+ * - only events on the file, or on the symlinks it resolves through, trigger or prolong the
+ *   debounce, so ConfigMap-style symlink swaps reload and unrelated files are ignored
+ * - streaming parse: array elements are tokenized in place; an element whose bytes are identical
+ *   to one in the last good file reuses that Experiment instead of being deserialized again
+ * - structural diff: experiments equal to the previous snapshot keep their compiled plan
+ *   (rebound to the new version), so caches keyed by plan revision survive the reload
+ * - all-or-nothing: any read, parse or validation error keeps the last good snapshot; the file
+ *   is retried on its next change
+ * - listeners get the per-experiment changes after each publish; a reload without changes
+ *   publishes nothing
+ * - snapshot file (optional): every good load is persisted in binary form with a checksum of
+ *   its source; at startup a snapshot whose checksum matches the config file is served right
+ *   away and the JSON is parsed and compared in the background before watching starts
+ * - {@link #ready()} once a snapshot is loaded from either; /health reports SERVING from then on
  * - Exposes a monotonically increasing version (mtime millis)
  */
 public final class RefreshingFileConfigRepository implements ConfigRepository, AutoCloseable {
     private static final Logger log = LoggerFactory.getLogger(RefreshingFileConfigRepository.class);
+    private static final Duration DEFAULT_DEBOUNCE = Duration.ofMillis(200);
 
     private final Path filePath;
-    private final ObjectMapper mapper = new ObjectMapper()
+    private final ObjectReader reader = new ObjectMapper()
             .registerModule(new JavaTimeModule())
-            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+            .readerFor(Experiment.class);
 
-    private final ScheduledExecutorService exec;
     private final Duration period;
+    private final Duration debounce;
+    private final Path snapshotFile;        // null = no persisted snapshot
+    private final Thread watcherThread;
+    private final WatchService watcher;     // null when the filesystem offers none (poll only)
+    private volatile boolean closed;
 
-    private volatile Map<String, Experiment> current = Map.of();
-    private volatile String version = "0";
-    private volatile long lastMtime = -1L;
+    private volatile ConfigSnapshot current = ConfigSnapshot.empty("0");
+    private volatile boolean ready;
+    private long lastMtime = -1L, lastSize = -1L;    // last attempted file state, good or bad
+    private Object lastFileKey;                      // ... and the file it resolved to
+    private Map<Slice, Experiment> lastSlices = Map.of();
+    private final List<ConfigListener> listeners = new CopyOnWriteArrayList<>();
+    private ConfigSnapshot saved;           // persisted snapshot and its source
+    private long savedSize = -1L;
+    private int savedChecksum;
+
+    private final LatencyHistogram reloadTime;
+    private final LongAdder reloadFailures;
+    private final LongAdder snapshotMismatches;
+    private final Map<ExperimentChange.Kind, LongAdder> changeCounts = new EnumMap<>(ExperimentChange.Kind.class);
 
     public RefreshingFileConfigRepository(Path filePath, Duration period) {
-        this.filePath = filePath;
+        this(filePath, period, new Metrics());
+    }
+
+    public RefreshingFileConfigRepository(Path filePath, Duration period, Metrics metrics) {
+        this(filePath, period, DEFAULT_DEBOUNCE, metrics);
+    }
+
+    /** Without a persisted snapshot. */
+    public RefreshingFileConfigRepository(Path filePath, Duration period, Duration debounce, Metrics metrics) {
+        this(filePath, period, debounce, null, metrics);
+    }
+
+    /**
+     * @param period       fallback mtime poll interval
+     * @param debounce     quiet time after the last file event before reloading
+     * @param snapshotFile where the last good snapshot is persisted for fast startup; null = off
+     * @param metrics      registry for reload duration, failures, changes and the active version
+     */
+    public RefreshingFileConfigRepository(Path filePath, Duration period, Duration debounce, Path snapshotFile, Metrics metrics) {
+        this.filePath = filePath.toAbsolutePath();
         this.period = period;
-        this.exec = Executors.newSingleThreadScheduledExecutor(r -> {
-            Thread t = new Thread(r, "config-reloader");
-            t.setDaemon(true);
-            return t;
-        });
-        initialLoad();
-        exec.scheduleAtFixedRate(this::maybeReload, period.toMillis(), period.toMillis(), TimeUnit.MILLISECONDS);
+        this.debounce = debounce;
+        this.snapshotFile = snapshotFile;
+        this.reloadTime = metrics.histogram("ab_config_reload_seconds", "Config read + parse + compile time per successful reload", null);
+        this.reloadFailures = metrics.counter("ab_config_reload_failures_total", "Config reloads that failed (previous snapshot kept)", null);
+        this.snapshotMismatches = metrics.counter("ab_config_snapshot_mismatches_total",
+                "Startup snapshots that differed from the config file when verified (replaced by the file)", null);
+        for (var k : ExperimentChange.Kind.values()) {
+            changeCounts.put(k, metrics.counter("ab_config_experiment_changes_total", "Experiments added/modified/removed by reloads",
+                    "kind=\"" + k.name().toLowerCase(Locale.ROOT) + "\""));
+        }
+        metrics.gauge("ab_config_version", "Active config version (file mtime millis)", null, this::numericVersion);
+        metrics.gauge("ab_config_experiments", "Experiments in the active config", null, () -> current.size());
+        this.watcher = register(this.filePath.getParent());
+        boolean verify = initialLoad();
+        this.watcherThread = Thread.ofPlatform().daemon().name("config-watcher").start(verify
+                ? () -> { verifySnapshot(); watchLoop(); }
+                : this::watchLoop);
     }
 
-    private void initialLoad() {
+    private WatchService register(Path dir) {
+        try {
+            var ws = dir.getFileSystem().newWatchService();
+            dir.register(ws, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+            return ws;
+        } catch (IOException | UnsupportedOperationException e) {
+            log.warn("Config watch unavailable for {} ({}); polling every {}s", dir, e.toString(), period.toSeconds());
+            return null;
+        }
+    }
+
+    /** @return true when serving a persisted snapshot that still has to be checked against the file */
+    private boolean initialLoad() {
+        if (snapshotFile != null && loadSnapshot()) return true;
         try {
             reload();
-            log.info("Loaded config: version={} experiments={}", version, current.size());
+            log.info("Loaded config: version={} experiments={}", current.version(), current.size());
         } catch (Exception e) {
+            reloadFailures.increment();
             log.warn("Initial config load failed: {}", e.toString());
         }
+        return false;
+    }
+
+    /** Serves the persisted snapshot when it was taken from the file's current bytes. */
+    private synchronized boolean loadSnapshot() {
+        long t0 = System.nanoTime();
+        try {
+            byte[] source = Files.readAllBytes(filePath);
+            var snap = ConfigSnapshotFile.load(snapshotFile, source);
+            if (snap == null) {
+                log.info("No config snapshot for the current {} in {}; parsing it", filePath.getFileName(), snapshotFile);
+                return false;
+            }
+            current = snap;
+            ready = true;
+            saved = snap;
+            savedSize = source.length;
+            savedChecksum = ConfigSnapshotFile.checksum(source);
+            log.info("Loaded config snapshot: version={} experiments={} in {} ms; verifying against {} in the background",
+                    snap.version(), snap.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0), filePath.getFileName());
+            return true;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Config snapshot {} unusable ({}); parsing {}", snapshotFile, e.toString(), filePath.getFileName());
+            return false;
+        }
+    }
+
+    /** Parses the file the startup snapshot claims to match; any difference is published as a reload. */
+    private void verifySnapshot() {
+        var loaded = current;
+        try {
+            reload();    // lastMtime is unset, so this always parses
+            if (current == loaded) {
+                log.info("Config snapshot verified against {}: version={}", filePath.getFileName(), current.version());
+            } else {
+                snapshotMismatches.increment();
+                log.warn("Config snapshot differed from {}; now serving the file: version={} experiments={}",
+                        filePath.getFileName(), current.version(), current.size());
+            }
+        } catch (Exception e) {
+            reloadFailures.increment();
+            log.warn("Config snapshot verification failed (keeping version {}): {}", current.version(), e.toString());
+        }
+    }
+
+    /** Waits for an event on the file (or the poll interval), lets the burst settle, reloads. */
+    private void watchLoop() {
+        try {
+            while (!closed) {
+                boolean changed;
+                if (watcher == null) {
+                    TimeUnit.MILLISECONDS.sleep(period.toMillis());
+                    changed = true;
+                } else {
+                    WatchKey key = watcher.poll(period.toMillis(), TimeUnit.MILLISECONDS);
+                    changed = key == null || concernsFile(key);    // timeout: fall back to the mtime check
+                    if (key != null && changed) settle();
+                }
+                if (changed) maybeReload();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // closing
+        }
+    }
+
+    /** Returns once no event on the file has arrived for {@code debounce}; other entries don't count. */
+    private void settle() throws InterruptedException {
+        long quietUntil = System.nanoTime() + debounce.toNanos();
+        for (long left; (left = quietUntil - System.nanoTime()) > 0; ) {
+            WatchKey key = watcher.poll(left, TimeUnit.NANOSECONDS);
+            if (key == null) return;
+            if (concernsFile(key)) quietUntil = System.nanoTime() + debounce.toNanos();
+        }
+    }
+
+    private boolean concernsFile(WatchKey key) {
+        var names = watchedNames();
+        boolean hit = false;
+        for (var ev : key.pollEvents()) {
+            if (ev.kind() == StandardWatchEventKinds.OVERFLOW || names.contains(ev.context())) hit = true;
+        }
+        key.reset();
+        return hit;
+    }
+
+    /**
+     * Entries of the watched directory whose change can change what the file resolves to: the file
+     * itself and, while it is a relative symlink, the first entry of each link on its way out of
+     * the directory. A Kubernetes ConfigMap mount ({@code config.json -> ..data/config.json},
+     * {@code ..data -> ..2026_10_18_06_00_00.1}) is updated by atomically replacing {@code ..data};
+     * {@code config.json} itself never changes.
+     */
+    private Set<Path> watchedNames() {
+        var names = new HashSet<Path>();
+        var dir = filePath.getParent();
+        Path entry = filePath.getFileName();
+        while (names.add(entry)) {
+            Path link = dir.resolve(entry);
+            if (!Files.isSymbolicLink(link)) break;
+            try {
+                Path target = Files.readSymbolicLink(link);
+                if (target.isAbsolute() || target.getNameCount() == 0) break;
+                entry = target.getName(0);
+                if (entry.toString().equals("..") || entry.toString().equals(".")) break;
+            } catch (IOException e) {
+                break;
+            }
+        }
+        return names;
     }
 
     private void maybeReload() {
         try {
-            long mt = Files.getLastModifiedTime(filePath).toMillis();
-            if (mt != lastMtime) {
-                reload();
-                log.info("Config hot-reloaded: version={} experiments={}", version, current.size());
+            var before = current;
+            if (!reload()) return;
+            if (current == before) {
+                log.info("Config file changed without experiment changes: version={}", current.version());
+            } else {
+                log.info("Config hot-reloaded: version={} experiments={}", current.version(), current.size());
             }
+        } catch (NoSuchFileException e) {
+            log.debug("Config file missing (mid-rename?): {}", e.getFile());
         } catch (Exception e) {
-            log.warn("Config reload error: {}", e.toString());
+            reloadFailures.increment();
+            log.warn("Config reload error (keeping version {}): {}", current.version(), e.toString());
         }
     }
 
-    private void reload() throws IOException {
+    /** @return false when this file state (mtime, size, file key) was already attempted */
+    private synchronized boolean reload() throws IOException {
+        long t0 = System.nanoTime();
+        var attrs = Files.readAttributes(filePath, BasicFileAttributes.class);
+        long mt = attrs.lastModifiedTime().toMillis();
+        if (mt == lastMtime && attrs.size() == lastSize && Objects.equals(attrs.fileKey(), lastFileKey)) return false;
+        lastMtime = mt;    // a bad file is not retried until it changes again
+        lastSize = attrs.size();
+        lastFileKey = attrs.fileKey();
+
         byte[] bytes = Files.readAllBytes(filePath);
-        List<Experiment> list = mapper.readValue(bytes, new TypeReference<List<Experiment>>() {});
-        Map<String, Experiment> byKey = list.stream().collect(Collectors.toUnmodifiableMap(
-                e -> e.key().value(), e -> e
-        ));
-        long mt = Files.getLastModifiedTime(filePath).toMillis();
-        this.current = byKey;
-        this.version = String.valueOf(mt);
-        this.lastMtime = mt;
+        var slices = new HashMap<Slice, Experiment>();
+        List<Experiment> list = parse(bytes, slices);
+        var previous = current;
+        String version = String.valueOf(mt);
+        // Compile before publishing so the hot path only sees finished plans
+        var next = ConfigSnapshot.of(version, list, previous);
+        var changes = next.diff(previous);
+        lastSlices = slices;
+        reloadTime.recordSince(t0);
+        if (!changes.isEmpty() || previous.experiments().isEmpty()) {
+            this.current = next;
+            for (var c : changes) changeCounts.get(c.kind()).increment();
+            for (var l : listeners) {
+                try {
+                    l.onChange(next, changes);
+                } catch (RuntimeException e) {
+                    log.warn("Config listener failed: {}", e.toString());
+                }
+            }
+        }
+        ready = true;
+        saveSnapshot(bytes);
+        return true;
+    }
+
+    /** Persists the active snapshot as taken from {@code source}, unless the file already holds it. */
+    private void saveSnapshot(byte[] source) {
+        if (snapshotFile == null) return;
+        var snap = current;
+        int checksum = ConfigSnapshotFile.checksum(source);
+        if (snap == saved && source.length == savedSize && checksum == savedChecksum) return;
+        try {
+            ConfigSnapshotFile.save(snapshotFile, snap, source.length, checksum);
+            saved = snap;
+            savedSize = source.length;
+            savedChecksum = checksum;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not persist config snapshot to {}: {}", snapshotFile, e.toString());
+        }
     }
 
-    @Override public String version() { return version; }
-    @Override public List<Experiment> all() { return List.copyOf(current.values()); }
-    @Override public Optional<Experiment> find(ExperimentKey key) {
-        return Optional.ofNullable(current.get(key.value()));
+    /** Top-level array, one element at a time; unchanged element bytes reuse the last parse. */
+    private List<Experiment> parse(byte[] bytes, Map<Slice, Experiment> slices) throws IOException {
+        var out = new ArrayList<Experiment>();
+        try (JsonParser p = reader.getFactory().createParser(bytes)) {
+            if (p.nextToken() != JsonToken.START_ARRAY) throw new IOException("config must be a JSON array of experiments");
+            JsonToken t;
+            while ((t = p.nextToken()) == JsonToken.START_OBJECT) {
+                int start = (int) p.currentTokenLocation().getByteOffset();
+                p.skipChildren();
+                int end = (int) p.currentLocation().getByteOffset();
+                var slice = new Slice(bytes, start, end);
+                Experiment e = lastSlices.get(slice);
+                if (e == null) {
+                    try {
+                        e = reader.readValue(bytes, start, end - start);
+                    } catch (IOException | IllegalArgumentException ex) {
+                        throw new IOException("experiment #" + (out.size() + 1) + ": " + ex.getMessage(), ex);
+                    }
+                }
+                slices.put(slice, e);
+                out.add(e);
+            }
+            if (t != JsonToken.END_ARRAY) throw new IOException("config must be a JSON array of experiments, got " + t);
+        }
+        return out;
+    }
+
+    /** Copy of one array element's bytes, compared by content. */
+    private static final class Slice {
+        final byte[] bytes;
+        final int hash;
+
+        Slice(byte[] src, int from, int to) {
+            this.bytes = Arrays.copyOfRange(src, from, to);
+            this.hash = Arrays.hashCode(bytes);
+        }
+
+        @Override public boolean equals(Object o) {
+            return o instanceof Slice s && s.hash == hash && Arrays.equals(s.bytes, bytes);
+        }
+
+        @Override public int hashCode() { return hash; }
+    }
+
+    private double numericVersion() {
+        try {
+            return Double.parseDouble(current.version());
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    @Override public String version() { return current.version(); }
+    @Override public List<Experiment> all() { return List.copyOf(current.experiments().values()); }
+    @Override public Optional<Experiment> find(ExperimentKey key) { return current.find(key); }
+    @Override public ConfigSnapshot snapshot() { return current; }
+    @Override public boolean ready() { return ready; }
+
+    @Override public void addListener(ConfigListener listener) {
+        listeners.add(listener);
     }
 
     @Override public void close() {
-        exec.shutdownNow();
+        closed = true;
+        watcherThread.interrupt();
+        if (watcher != null) {
+            try { watcher.close(); } catch (IOException ignored) { }
+        }
     }
 }
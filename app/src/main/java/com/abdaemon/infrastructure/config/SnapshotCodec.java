@@ -0,0 +1,253 @@
+package com.abdaemon.infrastructure.config;
+
+import com.abdaemon.domain.ConfigSnapshot;
+import com.abdaemon.domain.Experiment;
+import com.abdaemon.domain.ExperimentKey;
+import com.abdaemon.domain.LayerAllocation;
+import com.abdaemon.domain.TargetingRule;
+import com.abdaemon.domain.Targets;
+import com.abdaemon.domain.Variant;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Flat binary form of a {@link ConfigSnapshot}: the version and every experiment exactly as
+ * validated (doubles as raw bits, instants as seconds + nanos), so decoding and compiling yields
+ * plans equal to the daemon's.
+ * <pre>
+ * snapshot:   str version | u32 n | n x experiment
+ * experiment: str key | str status | str salt | f64 traffic | f64 holdout
+ *             | u16 n | n x (str name, f64 weight)
+ *             | instant start | instant end | str hashing
+ *             | u16 n countries | str... | u8 has min app version [i32] | u8 has rule [rule]
+ *             | u8 has layer [str name, u16 from, u16 to]
+ * rule:       u8 kind (0 attr, 1 all, 2 any, 3 not)
+ *             all/any: u16 n | n x rule;  not: rule
+ *             attr: str attr | u16 operator mask | operands in mask bit order
+ *                   (in, eq, prefix, gt, gte, lt, lte, semver, present)
+ * </pre>
+ * - big-endian; {@code str} is u16 byte length + UTF-8; {@code instant} is i64 seconds + i32 nanos
+ * - decoding re-runs the record validations and throws IllegalArgumentException on any
+ *   malformed or truncated input
+ */
+public final class SnapshotCodec {
+    private static final int RULE_ATTR = 0, RULE_ALL = 1, RULE_ANY = 2, RULE_NOT = 3;
+    private static final int OP_IN = 1, OP_EQ = 1 << 1, OP_PREFIX = 1 << 2, OP_GT = 1 << 3, OP_GTE = 1 << 4,
+            OP_LT = 1 << 5, OP_LTE = 1 << 6, OP_SEMVER = 1 << 7, OP_PRESENT = 1 << 8;
+
+    private SnapshotCodec() { }
+
+    public static byte[] encode(ConfigSnapshot snapshot) {
+        var w = new Writer();
+        w.str(snapshot.version());
+        w.i32(snapshot.size());
+        for (var e : snapshot.experiments().values()) experiment(w, e);
+        return w.toBytes();
+    }
+
+    /** Reads one snapshot from {@code in}'s position; experiments are compiled against its version. */
+    public static ConfigSnapshot decode(ByteBuffer in) {
+        return decode(in, null);
+    }
+
+    /** Like {@link #decode(ByteBuffer)}, reusing the plans of experiments unchanged since {@code previous}. */
+    public static ConfigSnapshot decode(ByteBuffer in, ConfigSnapshot previous) {
+        try {
+            String version = str(in);
+            int n = in.getInt();
+            if (n < 0) throw new IllegalArgumentException("negative experiment count");
+            var list = new ArrayList<Experiment>(Math.min(n, 4096));
+            for (int i = 0; i < n; i++) list.add(experiment(in));
+            return ConfigSnapshot.of(version, list, previous);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("truncated config snapshot");
+        }
+    }
+
+    private static void experiment(Writer w, Experiment e) {
+        w.str(e.key().value());
+        w.str(e.status());
+        w.str(e.salt());
+        w.f64(e.traffic());
+        w.f64(e.holdout());
+        w.u16(e.variants().size());
+        for (var v : e.variants()) {
+            w.str(v.name());
+            w.f64(v.weight());
+        }
+        w.instant(e.start());
+        w.instant(e.end());
+        w.str(e.hashing());
+        var t = e.targets();
+        w.u16(t.countries().size());
+        for (var c : t.countries()) w.str(c);
+        w.u8(t.minAppVersion() != null ? 1 : 0);
+        if (t.minAppVersion() != null) w.i32(t.minAppVersion());
+        w.u8(t.rule() != null ? 1 : 0);
+        if (t.rule() != null) rule(w, t.rule());
+        w.u8(e.layer() != null ? 1 : 0);
+        if (e.layer() != null) {
+            w.str(e.layer().name());
+            w.u16(e.layer().from());
+            w.u16(e.layer().to());
+        }
+    }
+
+    private static Experiment experiment(ByteBuffer in) {
+        var key = new ExperimentKey(str(in));
+        String status = str(in), salt = str(in);
+        double traffic = in.getDouble(), holdout = in.getDouble();
+        int nv = u16(in);
+        var variants = new ArrayList<Variant>(nv);
+        for (int i = 0; i < nv; i++) variants.add(new Variant(str(in), in.getDouble()));
+        Instant start = instant(in), end = instant(in);
+        String hashing = str(in);
+        int nc = u16(in);
+        var countries = new ArrayList<String>(nc);
+        for (int i = 0; i < nc; i++) countries.add(str(in));
+        Integer minAppVersion = in.get() != 0 ? in.getInt() : null;
+        TargetingRule rule = in.get() != 0 ? rule(in, 0) : null;
+        LayerAllocation layer = in.get() != 0 ? new LayerAllocation(str(in), u16(in), u16(in)) : null;
+        return new Experiment(key, status, salt, traffic, holdout, variants,
+                new Targets(countries, minAppVersion, rule), start, end, hashing, layer);
+    }
+
+    private static void rule(Writer w, TargetingRule r) {
+        if (r.all() != null || r.any() != null) {
+            var children = r.all() != null ? r.all() : r.any();
+            w.u8(r.all() != null ? RULE_ALL : RULE_ANY);
+            w.u16(children.size());
+            for (var c : children) rule(w, c);
+            return;
+        }
+        if (r.not() != null) {
+            w.u8(RULE_NOT);
+            rule(w, r.not());
+            return;
+        }
+        w.u8(RULE_ATTR);
+        w.str(r.attr());
+        int mask = (r.in() != null ? OP_IN : 0) | (r.eq() != null ? OP_EQ : 0) | (r.prefix() != null ? OP_PREFIX : 0)
+                | (r.gt() != null ? OP_GT : 0) | (r.gte() != null ? OP_GTE : 0) | (r.lt() != null ? OP_LT : 0)
+                | (r.lte() != null ? OP_LTE : 0) | (r.semver() != null ? OP_SEMVER : 0) | (r.present() != null ? OP_PRESENT : 0);
+        w.u16(mask);
+        if (r.in() != null) w.strs(r.in());
+        if (r.eq() != null) w.str(r.eq());
+        if (r.prefix() != null) w.strs(r.prefix());
+        if (r.gt() != null) w.f64(r.gt());
+        if (r.gte() != null) w.f64(r.gte());
+        if (r.lt() != null) w.f64(r.lt());
+        if (r.lte() != null) w.f64(r.lte());
+        if (r.semver() != null) w.str(r.semver());
+        if (r.present() != null) w.u8(r.present() ? 1 : 0);
+    }
+
+    private static TargetingRule rule(ByteBuffer in, int depth) {
+        if (depth > 16) throw new IllegalArgumentException("targeting rule nested too deep");
+        int kind = in.get();
+        switch (kind) {
+            case RULE_ALL, RULE_ANY -> {
+                int n = u16(in);
+                var children = new ArrayList<TargetingRule>(n);
+                for (int i = 0; i < n; i++) children.add(rule(in, depth + 1));
+                return kind == RULE_ALL
+                        ? new TargetingRule(children, null, null, null, null, null, null, null, null, null, null, null, null)
+                        : new TargetingRule(null, children, null, null, null, null, null, null, null, null, null, null, null);
+            }
+            case RULE_NOT -> {
+                return new TargetingRule(null, null, rule(in, depth + 1), null, null, null, null, null, null, null, null, null, null);
+            }
+            case RULE_ATTR -> {
+                String attr = str(in);
+                int m = u16(in);
+                List<String> inList = (m & OP_IN) != 0 ? strs(in) : null;
+                String eq = (m & OP_EQ) != 0 ? str(in) : null;
+                List<String> prefix = (m & OP_PREFIX) != 0 ? strs(in) : null;
+                Double gt = (m & OP_GT) != 0 ? in.getDouble() : null;
+                Double gte = (m & OP_GTE) != 0 ? in.getDouble() : null;
+                Double lt = (m & OP_LT) != 0 ? in.getDouble() : null;
+                Double lte = (m & OP_LTE) != 0 ? in.getDouble() : null;
+                String semver = (m & OP_SEMVER) != 0 ? str(in) : null;
+                Boolean present = (m & OP_PRESENT) != 0 ? in.get() != 0 : null;
+                return new TargetingRule(null, null, null, attr, inList, eq, prefix, gt, gte, lt, lte, semver, present);
+            }
+            default -> throw new IllegalArgumentException("unknown targeting rule kind " + kind);
+        }
+    }
+
+    private static int u16(ByteBuffer in) { return in.getShort() & 0xFFFF; }
+
+    private static Instant instant(ByteBuffer in) {
+        long seconds = in.getLong();
+        int nanos = in.getInt();
+        try {
+            return Instant.ofEpochSecond(seconds, nanos);
+        } catch (DateTimeException e) {
+            throw new IllegalArgumentException("instant out of range");
+        }
+    }
+
+    private static String str(ByteBuffer in) {
+        int n = u16(in);
+        if (n > in.remaining()) throw new IllegalArgumentException("string overruns config snapshot");
+        byte[] b = new byte[n];
+        in.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static List<String> strs(ByteBuffer in) {
+        int n = u16(in);
+        var out = new ArrayList<String>(n);
+        for (int i = 0; i < n; i++) out.add(str(in));
+        return out;
+    }
+
+    /** Growable big-endian buffer. */
+    private static final class Writer {
+        ByteBuffer buf = ByteBuffer.allocate(4096);
+
+        void u8(int v) { ensure(1).put((byte) v); }
+
+        void i32(int v) { ensure(4).putInt(v); }
+
+        void f64(double v) { ensure(8).putDouble(v); }
+
+        void u16(int v) {
+            if (v > 0xFFFF) throw new IllegalArgumentException("count " + v + " exceeds 65535");
+            ensure(2).putShort((short) v);
+        }
+
+        void instant(Instant t) { ensure(12).putLong(t.getEpochSecond()).putInt(t.getNano()); }
+
+        void str(String s) {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            u16(b.length);
+            ensure(b.length).put(b);
+        }
+
+        void strs(List<String> l) {
+            u16(l.size());
+            for (var s : l) str(s);
+        }
+
+        ByteBuffer ensure(int n) {
+            if (buf.remaining() < n) {
+                var bigger = ByteBuffer.allocate(Math.max(buf.capacity() * 2, buf.position() + n));
+                buf = bigger.put(buf.flip());
+            }
+            return buf;
+        }
+
+        byte[] toBytes() {
+            byte[] out = new byte[buf.position()];
+            buf.flip().get(out);
+            return out;
+        }
+    }
+}
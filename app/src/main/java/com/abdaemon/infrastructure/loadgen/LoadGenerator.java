@@ -0,0 +1,337 @@
+package com.abdaemon.infrastructure.loadgen;
+
+import com.abdaemon.infrastructure.metrics.LatencyHistogram;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * CLI: drives a local daemon with a realistic /assign mix and reports tail latency.
+ *   java ... com.abdaemon.infrastructure.loadgen.LoadGenerator [options]
+ *     --port N (8080) --host H (127.0.0.1)
+ *     --mode open|closed (open)  --rate R req/s (open only, 1000)  --connections N (16)
+ *     --duration S (30) --warmup S (5)
+ *     --config PATH (config.json) --experiments N (all running)
+ *     --subjects N (100000) --zipf S (0 = uniform) --countries US:0.6,CA:0.2,IN:0.2
+ *     --app-ver MIN-MAX (1-100) --batch-ratio F (0)
+ *     --json PATH  --max-p99-ms X  --max-p999-ms X  --max-error-rate F
+ *   LoadGenerator --write-config PATH --experiments N   (synthetic config for AB_CFG, then exit)
+ *
+ * Open loop sends on a fixed schedule: request k is due at t0 + k/rate, whichever connection is
+ * free takes it, and latency is measured from the due time (coordinated-omission correct: a
+ * stalled server is charged for the requests it kept waiting). Service time (send -> last byte)
+ * is reported alongside. Closed loop sends back to back per connection; only throughput and
+ * service time are meaningful there.
+ *
+ * Throughput divides the counted requests by the time from the start of measurement to the
+ * last of them completing, so a server that falls behind is not credited with the drain.
+ * WAL throughput is ab_wal_bytes_total read at the start and the end of the measured window.
+ * Exits 1 when a --max-* limit is exceeded, so a release job can gate on it.
+ */
+public final class LoadGenerator {
+
+    record Options(String host, int port, boolean open, double rate, int connections,
+                   Duration duration, Duration warmup, Path json,
+                   double maxP99Ms, double maxP999Ms, double maxErrorRate) {}
+
+    public static void main(String[] args) throws Exception {
+        String host = "127.0.0.1", countries = "US:0.6,CA:0.2,IN:0.2", appVer = "1-100";
+        int port = 8080, connections = 16, experiments = Integer.MAX_VALUE, subjects = 100_000;
+        double rate = 1000, zipf = 0, batchRatio = 0, maxP99 = 0, maxP999 = 0, maxErrorRate = -1;
+        long duration = 30, warmup = 5;
+        boolean open = true;
+        Path config = Path.of("config.json"), json = null, writeConfig = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--host" -> host = args[++i];
+                case "--port" -> port = Integer.parseInt(args[++i]);
+                case "--mode" -> open = switch (args[++i]) {
+                    case "open" -> true;
+                    case "closed" -> false;
+                    default -> throw new IllegalArgumentException("--mode must be open|closed");
+                };
+                case "--rate" -> rate = Double.parseDouble(args[++i]);
+                case "--connections" -> connections = Integer.parseInt(args[++i]);
+                case "--duration" -> duration = Long.parseLong(args[++i]);
+                case "--warmup" -> warmup = Long.parseLong(args[++i]);
+                case "--config" -> config = Path.of(args[++i]);
+                case "--experiments" -> experiments = Integer.parseInt(args[++i]);
+                case "--subjects" -> subjects = Integer.parseInt(args[++i]);
+                case "--zipf" -> zipf = Double.parseDouble(args[++i]);
+                case "--countries" -> countries = args[++i];
+                case "--app-ver" -> appVer = args[++i];
+                case "--batch-ratio" -> batchRatio = Double.parseDouble(args[++i]);
+                case "--json" -> json = Path.of(args[++i]);
+                case "--max-p99-ms" -> maxP99 = Double.parseDouble(args[++i]);
+                case "--max-p999-ms" -> maxP999 = Double.parseDouble(args[++i]);
+                case "--max-error-rate" -> maxErrorRate = Double.parseDouble(args[++i]);
+                case "--write-config" -> writeConfig = Path.of(args[++i]);
+                default -> { System.err.println("unknown option: " + args[i]); System.exit(2); }
+            }
+        }
+        if (writeConfig != null) {
+            int n = experiments == Integer.MAX_VALUE ? 10 : experiments;
+            RequestMix.writeSyntheticConfig(writeConfig, n);
+            System.out.printf("wrote %d experiments to %s%n", n, writeConfig);
+            return;
+        }
+        if (open && rate <= 0) throw new IllegalArgumentException("--rate must be > 0");
+        if (connections <= 0) throw new IllegalArgumentException("--connections must be > 0");
+
+        String[] range = appVer.split("-");
+        var mix = new RequestMix(new RequestMix.Spec(RequestMix.runningExperiments(config, experiments), subjects, zipf,
+                countries, Integer.parseInt(range[0]), Integer.parseInt(range[range.length - 1]), batchRatio), host, port);
+        var opts = new Options(host, port, open, rate, connections, Duration.ofSeconds(duration),
+                Duration.ofSeconds(warmup), json, maxP99, maxP999, maxErrorRate);
+        System.exit(new LoadGenerator(opts, mix).run() ? 0 : 1);
+    }
+
+    private final Options opts;
+    private final RequestMix mix;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LatencyHistogram service = new LatencyHistogram();
+    private final LongAdder ok = new LongAdder();
+    private final LongAdder non2xx = new LongAdder();
+    private final LongAdder ioErrors = new LongAdder();
+    private final AtomicLong schedule = new AtomicLong();
+    private final LongAccumulator lastDone = new LongAccumulator(Math::max, Long.MIN_VALUE);
+    private volatile long measureStart, end;
+    private Conn scraper;
+
+    LoadGenerator(Options opts, RequestMix mix) {
+        this.opts = opts;
+        this.mix = mix;
+    }
+
+    /** @return false when a configured limit was exceeded */
+    boolean run() throws Exception {
+        long t0 = System.nanoTime();
+        measureStart = t0 + opts.warmup().toNanos();
+        end = measureStart + opts.duration().toNanos();
+        System.out.printf(Locale.ROOT, "%s loop against %s:%d, %d connections, %s%ds warmup + %ds%n",
+                opts.open() ? "open" : "closed", opts.host(), opts.port(), opts.connections(),
+                opts.open() ? String.format(Locale.ROOT, "%.0f req/s, ", opts.rate()) : "",
+                opts.warmup().toSeconds(), opts.duration().toSeconds());
+
+        walBytes();    // connects and warms up the scrape path before load starts
+        var threads = new ArrayList<Thread>(opts.connections());
+        for (int c = 0; c < opts.connections(); c++) {
+            long seed = c * 0x9E3779B97F4A7C15L;
+            threads.add(Thread.ofPlatform().name("loadgen-" + c).start(() -> drive(t0, new SplittableRandom(seed))));
+        }
+        LockSupport.parkNanos(Math.max(0, measureStart - System.nanoTime()));
+        long walStart = System.nanoTime();
+        double walBefore = walBytes();
+        LockSupport.parkNanos(Math.max(0, end - System.nanoTime()));
+        long walEnd = System.nanoTime();    // the window the requests were scheduled in, not the drain after it
+        double walAfter = walBytes();
+        for (var t : threads) t.join();
+        if (scraper != null) scraper.close();
+
+        var lat = latency.snapshot();
+        var svc = service.snapshot();
+        // from the first counted due time to the last counted completion
+        long last = lastDone.get();
+        double seconds = (last == Long.MIN_VALUE ? opts.duration().toNanos() : Math.max(1, last - measureStart)) / 1e9;
+        double walSeconds = (walEnd - walStart) / 1e9;
+        long total = ok.sum() + non2xx.sum() + ioErrors.sum();
+        double errorRate = total == 0 ? 0 : (double) (non2xx.sum() + ioErrors.sum()) / total;
+
+        var report = new LinkedHashMap<String, Object>();
+        report.put("mode", opts.open() ? "open" : "closed");
+        report.put("targetRate", opts.open() ? opts.rate() : null);
+        report.put("connections", opts.connections());
+        report.put("durationSeconds", seconds);
+        report.put("requests", total);
+        report.put("ok", ok.sum());
+        report.put("non2xx", non2xx.sum());
+        report.put("ioErrors", ioErrors.sum());
+        report.put("throughput", total / seconds);
+        report.put("latencyMs", percentiles(lat));
+        report.put("serviceMs", percentiles(svc));
+        report.put("walBytesPerSecond", Double.isNaN(walBefore) || Double.isNaN(walAfter) ? null : (walAfter - walBefore) / walSeconds);
+
+        System.out.printf(Locale.ROOT, "requests   %d (ok %d, non-2xx %d, io errors %d)%n", total, ok.sum(), non2xx.sum(), ioErrors.sum());
+        System.out.printf(Locale.ROOT, "throughput %.1f req/s%n", total / seconds);
+        if (opts.open()) System.out.printf("latency    %s   (from scheduled start)%n", format(lat));
+        System.out.printf("service    %s%n", format(svc));
+        System.out.println(report.get("walBytesPerSecond") == null ? "wal        n/a (no ab_wal_bytes_total on /metrics)"
+                : String.format(Locale.ROOT, "wal        %.2f MB/s", (double) report.get("walBytesPerSecond") / 1e6));
+        if (opts.open() && total / seconds < opts.rate() * 0.95) {
+            System.out.printf(Locale.ROOT, "warning: target rate not sustained (%.0f of %.0f req/s); add --connections%n",
+                    total / seconds, opts.rate());
+        }
+
+        var gated = opts.open() ? lat : svc;
+        var failures = new ArrayList<String>();
+        if (opts.maxP99Ms() > 0 && gated.quantile(0.99) / 1e6 > opts.maxP99Ms()) failures.add("p99 > " + opts.maxP99Ms() + "ms");
+        if (opts.maxP999Ms() > 0 && gated.quantile(0.999) / 1e6 > opts.maxP999Ms()) failures.add("p99.9 > " + opts.maxP999Ms() + "ms");
+        if (opts.maxErrorRate() >= 0 && errorRate > opts.maxErrorRate()) failures.add("error rate " + errorRate + " > " + opts.maxErrorRate());
+        report.put("failures", failures);
+        if (opts.json() != null) new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(opts.json().toFile(), report);
+        failures.forEach(f -> System.out.println("FAIL " + f));
+        return failures.isEmpty();
+    }
+
+    /** One connection. Open loop claims scheduled slots; closed loop sends back to back. */
+    private void drive(long t0, SplittableRandom rnd) {
+        long interval = opts.open() ? (long) (1e9 / opts.rate()) : 0;
+        Conn conn = null;
+        long last = Long.MIN_VALUE;
+        while (true) {
+            long due;
+            if (opts.open()) {
+                due = t0 + schedule.getAndIncrement() * interval;
+                if (due >= end) break;
+                long wait = due - System.nanoTime();
+                if (wait > 0) LockSupport.parkNanos(wait);
+            } else {
+                due = System.nanoTime();
+                if (due >= end) break;
+            }
+            byte[] request = mix.next(rnd);
+            long sent = System.nanoTime();
+            int status;
+            try {
+                if (conn == null) conn = new Conn(opts.host(), opts.port());
+                status = conn.exchange(request);
+            } catch (IOException e) {
+                status = -1;
+                if (conn != null) conn.close();
+                conn = null;
+            }
+            long done = System.nanoTime();
+            if (due < measureStart) continue;
+            if (status < 0) ioErrors.increment();
+            else if (status / 100 == 2) ok.increment();
+            else non2xx.increment();
+            latency.record(done - due);
+            service.record(done - sent);
+            last = done;
+            if (conn != null && conn.closed) conn = null;
+        }
+        lastDone.accumulate(last);
+        if (conn != null) conn.close();
+    }
+
+    /**
+     * ab_wal_bytes_total from the daemon's /metrics, NaN when unavailable. Uses its own kept-alive
+     * raw connection: a fresh HTTP client can take seconds to get going on a saturated box.
+     */
+    private double walBytes() {
+        byte[] request = ("GET /metrics HTTP/1.1\r\nHost: " + opts.host() + ":" + opts.port() + "\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII);
+        for (int attempt = 0; attempt < 2; attempt++) {
+            try {
+                if (scraper == null || scraper.closed) scraper = new Conn(opts.host(), opts.port());
+                if (scraper.exchange(request) != 200) return Double.NaN;
+                for (String line : new String(scraper.body, 0, scraper.bodyLen, StandardCharsets.UTF_8).split("\n")) {
+                    if (line.startsWith("ab_wal_bytes_total ")) return Double.parseDouble(line.substring(line.indexOf(' ') + 1));
+                }
+                return Double.NaN;
+            } catch (IOException e) {
+                if (scraper != null) scraper.close();    // e.g. idle keep-alive timed out: reconnect once
+            }
+        }
+        return Double.NaN;
+    }
+
+    private static LinkedHashMap<String, Double> percentiles(LatencyHistogram.Snapshot s) {
+        var m = new LinkedHashMap<String, Double>();
+        m.put("p50", s.quantile(0.50) / 1e6);
+        m.put("p99", s.quantile(0.99) / 1e6);
+        m.put("p99.9", s.quantile(0.999) / 1e6);
+        m.put("mean", s.count() == 0 ? 0 : s.sumNanos() / 1e6 / s.count());
+        return m;
+    }
+
+    private static String format(LatencyHistogram.Snapshot s) {
+        var p = percentiles(s);
+        return String.format(Locale.ROOT, "p50 %.3f ms  p99 %.3f ms  p99.9 %.3f ms  mean %.3f ms",
+                p.get("p50"), p.get("p99"), p.get("p99.9"), p.get("mean"));
+    }
+
+    /** Blocking keep-alive HTTP/1.1 client connection; reads Content-Length framed responses. */
+    private static final class Conn {
+        private final Socket socket;
+        private final OutputStream out;
+        private final InputStream in;
+        byte[] body = new byte[8192];   // last response body
+        int bodyLen;
+        boolean closed;
+
+        Conn(String host, int port) throws IOException {
+            socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(host, port), 5000);
+            socket.setSoTimeout(30_000);
+            out = socket.getOutputStream();
+            in = new BufferedInputStream(socket.getInputStream(), 16384);
+        }
+
+        /** @return HTTP status */
+        int exchange(byte[] request) throws IOException {
+            out.write(request);
+            out.flush();
+            var line = new StringBuilder(64);
+            int status = -1;
+            long contentLength = -1;
+            while (true) {
+                readLine(line);
+                if (line.isEmpty()) break;
+                if (status < 0) {
+                    status = Integer.parseInt(line.substring(9, 12));
+                    continue;
+                }
+                int colon = line.indexOf(":");
+                if (colon < 0) continue;
+                String name = line.substring(0, colon).trim();
+                String value = line.substring(colon + 1).trim();
+                if (name.equalsIgnoreCase("content-length")) contentLength = Long.parseLong(value);
+                else if (name.equalsIgnoreCase("connection") && value.equalsIgnoreCase("close")) closed = true;
+            }
+            if (contentLength < 0) throw new IOException("response without Content-Length");
+            if (contentLength > body.length) body = new byte[(int) Math.max(contentLength, body.length * 2L)];
+            bodyLen = 0;
+            while (bodyLen < contentLength) {
+                int n = in.read(body, bodyLen, (int) contentLength - bodyLen);
+                if (n < 0) throw new EOFException();
+                bodyLen += n;
+            }
+            if (closed) close();
+            return status;
+        }
+
+        private void readLine(StringBuilder line) throws IOException {
+            line.setLength(0);
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b < 0) throw new EOFException();
+                if (b != '\r') line.append((char) b);
+            }
+        }
+
+        void close() {
+            closed = true;
+            try { socket.close(); } catch (IOException ignored) { }
+        }
+    }
+}
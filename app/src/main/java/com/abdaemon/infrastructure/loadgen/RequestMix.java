@@ -0,0 +1,141 @@
+package com.abdaemon.infrastructure.loadgen;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Workload model for the load generator: which request to send next.
+ * - experiments: running keys from a config file (first N), picked uniformly
+ * - subjects: {@code u<n>} over a fixed cardinality, uniform or Zipf-skewed (approximate
+ *   inverse-CDF sampling, s > 0)
+ * - country: weighted list, e.g. {@code US:0.6,CA:0.2,IN:0.2}
+ * - app_ver: uniform in [min, max]
+ * - a fraction of requests go to /assign/batch (all running experiments for the subject)
+ */
+final class RequestMix {
+
+    record Spec(List<String> experiments, int subjects, double zipf, String countries,
+                int appVerMin, int appVerMax, double batchRatio) {
+        Spec {
+            if (experiments.isEmpty()) throw new IllegalArgumentException("no running experiments to load");
+            if (subjects <= 0) throw new IllegalArgumentException("subjects must be > 0");
+            if (zipf < 0) throw new IllegalArgumentException("zipf must be >= 0");
+            if (appVerMin > appVerMax) throw new IllegalArgumentException("app_ver range is empty");
+            if (batchRatio < 0 || batchRatio > 1) throw new IllegalArgumentException("batch ratio must be in [0,1]");
+        }
+    }
+
+    private final Spec spec;
+    private final byte[] hostHeader;
+    private final String[] countries;
+    private final double[] countryCdf;
+
+    RequestMix(Spec spec, String host, int port) {
+        this.spec = spec;
+        this.hostHeader = (" HTTP/1.1\r\nHost: " + host + ":" + port + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        var weights = parseWeights(spec.countries());
+        this.countries = weights.keySet().toArray(String[]::new);
+        this.countryCdf = new double[countries.length];
+        double sum = weights.values().stream().mapToDouble(Double::doubleValue).sum(), acc = 0;
+        for (int i = 0; i < countries.length; i++) countryCdf[i] = (acc += weights.get(countries[i]) / sum);
+    }
+
+    /** Next request line + headers, ready to write. */
+    byte[] next(SplittableRandom rnd) {
+        var sb = new StringBuilder(128);
+        if (rnd.nextDouble() < spec.batchRatio()) {
+            sb.append("GET /assign/batch?");
+        } else {
+            sb.append("GET /assign?exp=").append(spec.experiments().get(rnd.nextInt(spec.experiments().size()))).append('&');
+        }
+        sb.append("user=u").append(subject(rnd));
+        String country = country(rnd);
+        if (country != null) sb.append("&country=").append(country);
+        sb.append("&app_ver=").append(spec.appVerMin() + rnd.nextInt(spec.appVerMax() - spec.appVerMin() + 1));
+        byte[] line = sb.toString().getBytes(StandardCharsets.US_ASCII);
+        byte[] out = new byte[line.length + hostHeader.length];
+        System.arraycopy(line, 0, out, 0, line.length);
+        System.arraycopy(hostHeader, 0, out, line.length, hostHeader.length);
+        return out;
+    }
+
+    private long subject(SplittableRandom rnd) {
+        int n = spec.subjects();
+        double s = spec.zipf();
+        if (s == 0) return rnd.nextInt(n);
+        double u = rnd.nextDouble();
+        double x = Math.abs(s - 1) < 1e-9
+                ? Math.pow(n, u)
+                : Math.pow((Math.pow(n, 1 - s) - 1) * u + 1, 1 / (1 - s));
+        return Math.min(n - 1, (long) x - 1);
+    }
+
+    private String country(SplittableRandom rnd) {
+        if (countries.length == 0) return null;
+        double u = rnd.nextDouble();
+        for (int i = 0; i < countryCdf.length; i++) if (u < countryCdf[i]) return countries[i];
+        return countries[countries.length - 1];
+    }
+
+    /** {@code US:0.6,CA:0.4}; a bare code weighs 1. */
+    static Map<String, Double> parseWeights(String spec) {
+        var out = new LinkedHashMap<String, Double>();
+        if (spec == null || spec.isBlank()) return out;
+        for (String part : spec.split(",")) {
+            String[] kv = part.trim().split(":");
+            double w = kv.length > 1 ? Double.parseDouble(kv[1]) : 1.0;
+            if (w < 0) throw new IllegalArgumentException("negative weight: " + part);
+            out.put(kv[0].trim(), w);
+        }
+        return out;
+    }
+
+    /** Keys of running experiments in a config file, in file order, at most {@code limit}. */
+    static List<String> runningExperiments(Path config, int limit) throws IOException {
+        var keys = new ArrayList<String>();
+        for (JsonNode e : new ObjectMapper().readTree(Files.readAllBytes(config))) {
+            if (keys.size() >= limit) break;
+            if ("running".equalsIgnoreCase(e.path("status").asText())) keys.add(e.path("key").path("value").asText());
+        }
+        return keys;
+    }
+
+    /**
+     * Writes a synthetic config of {@code n} running experiments with mixed shapes
+     * (untargeted, country list, country + min app version, 30% traffic gate) and hashing modes.
+     */
+    static void writeSyntheticConfig(Path out, int n) throws IOException {
+        var list = new ArrayList<Map<String, Object>>(n);
+        for (int i = 0; i < n; i++) {
+            var e = new LinkedHashMap<String, Object>();
+            e.put("key", Map.of("value", "load_exp_" + i));
+            e.put("status", "running");
+            e.put("salt", "load-" + i);
+            e.put("traffic", i % 4 == 3 ? 0.3 : 1.0);
+            e.put("holdout", 0.0);
+            e.put("variants", List.of(Map.of("name", "control", "weight", 0.5),
+                    Map.of("name", "treatment-1", "weight", 0.3), Map.of("name", "treatment-2", "weight", 0.2)));
+            switch (i % 4) {
+                case 1 -> e.put("targets", Map.of("countries", List.of("US", "CA", "GB")));
+                case 2 -> e.put("targets", Map.of("countries", List.of("US", "CA", "GB"), "minAppVersion", 30));
+                default -> { }
+            }
+            e.put("start", "2020-01-01T00:00:00Z");
+            e.put("end", "2099-12-31T23:59:59Z");
+            e.put("hashing", i % 2 == 0 ? "murmur3" : "sha256");
+            list.add(e);
+        }
+        if (out.getParent() != null) Files.createDirectories(out.getParent());
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(out.toFile(), list);
+    }
+}
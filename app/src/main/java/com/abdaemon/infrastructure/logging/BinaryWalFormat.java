@@ -0,0 +1,247 @@
+package com.abdaemon.infrastructure.logging;
+
+import com.abdaemon.domain.ScratchPool;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32C;
+
+/**
+ * Compact binary WAL records.
+ *
+ * Segment:  MAGIC(4) VERSION(1) RESERVED(3) then records
+ * Record:   u32 bodyLen | u32 crc32c(body) | body          (big-endian)
+ * Body:     u8 type, then
+ *   DICT     varint id, str
+ *   EXPOSURE varlong tsMicros, name exp, name treatment, str subject, ctx
+ *   GOAL     varlong tsMicros, name exp, name treatment, str subject, name goal, u8 hasValue [f64], ctx
+ *   ctx      varint n, n * (name key, str value)
+ *   name     varint (id + 1), or 0 followed by an inline str
+ *   str      varint (utf8Len + 1), utf8 bytes; 0 encodes null
+ *
+ * Experiment, treatment, goal and ctx-key names are interned process-wide; each
+ * segment re-defines (DICT) every id it has not seen before the first record that
+ * may use it, so a segment is readable on its own.
+ * - names arrive from POST bodies, so the dictionary is capped at {@link #MAX_NAMES}
+ *   short names; the rest are written inline and every segment's preamble stays bounded
+ * - version 1 segments (plain varint ids, no inline names) remain readable
+ */
+public final class BinaryWalFormat implements WalFormat {
+    static final byte[] MAGIC = {'A', 'B', 'W', 'B'};
+    static final byte VERSION = 2;
+    static final byte VERSION_1 = 1;
+    static final int HEADER_BYTES = 8;
+    static final int RECORD_OVERHEAD = 8;
+
+    static final byte DICT = 1;
+    static final byte EXPOSURE = 2;
+    static final byte GOAL = 3;
+
+    /** Dictionary bounds; ids at or past the cap are corrupt input to a reader. */
+    static final int MAX_NAMES = 1024;
+    static final int MAX_NAME_CHARS = 64;
+
+    private static final ScratchPool<Encoder> ENCODERS = new ScratchPool<>(Encoder::new);
+
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] byId = new String[0];
+
+    @Override public String name() { return "binary"; }
+
+    @Override
+    public byte[] exposure(String experiment, String treatment, String subjectKey,
+                           Instant ts, Map<String, String> ctx) {
+        var e = ENCODERS.take().begin(EXPOSURE);
+        try {
+            e.varLong(micros(ts));
+            name(e, experiment);
+            name(e, treatment);
+            e.str(subjectKey);
+            ctx(e, ctx);
+            return e.finish();
+        } finally {
+            ENCODERS.give(e);
+        }
+    }
+
+    @Override
+    public byte[] goal(String experiment, String treatment, String subjectKey, String goal, Double value,
+                       Instant ts, Map<String, String> ctx) {
+        var e = ENCODERS.take().begin(GOAL);
+        try {
+            e.varLong(micros(ts));
+            name(e, experiment);
+            name(e, treatment);
+            e.str(subjectKey);
+            name(e, goal);
+            if (value == null) {
+                e.u8(0);
+            } else {
+                e.u8(1);
+                e.f64(value);
+            }
+            ctx(e, ctx);
+            return e.finish();
+        } finally {
+            ENCODERS.give(e);
+        }
+    }
+
+    @Override
+    public byte[] preamble(SegmentState segment) {
+        String[] dict = byId;
+        if (segment.headerWritten && segment.dictionaryDefined >= dict.length) return EMPTY;
+        var e = ENCODERS.take();
+        try {
+            e.reset();
+            if (!segment.headerWritten) {
+                e.raw(MAGIC);
+                e.u8(VERSION);
+                e.u8(0); e.u8(0); e.u8(0);
+                segment.headerWritten = true;
+            }
+            for (int id = segment.dictionaryDefined; id < dict.length; id++) {
+                e.beginRecord(DICT);
+                e.varInt(id);
+                e.str(dict[id]);
+                e.endRecord();
+            }
+            segment.dictionaryDefined = dict.length;
+            return e.toBytes();
+        } finally {
+            ENCODERS.give(e);
+        }
+    }
+
+    private void ctx(Encoder e, Map<String, String> ctx) {
+        if (ctx == null || ctx.isEmpty()) { e.varInt(0); return; }
+        e.varInt(ctx.size());
+        for (var kv : ctx.entrySet()) {
+            name(e, kv.getKey());
+            e.str(kv.getValue());
+        }
+    }
+
+    /** Null names are written as the empty string. */
+    private void name(Encoder e, String s) {
+        String k = s == null ? "" : s;
+        int id = intern(k);
+        if (id >= 0) {
+            e.varInt(id + 1);
+        } else {
+            e.varInt(0);
+            e.str(k);
+        }
+    }
+
+    /** Dictionary id of {@code s}, or -1 when it is too long or the dictionary is full. */
+    private int intern(String s) {
+        Integer id = ids.get(s);
+        if (id != null) return id;
+        if (s.length() > MAX_NAME_CHARS || byId.length >= MAX_NAMES) return -1;
+        return internSlow(s);
+    }
+
+    private synchronized int internSlow(String s) {
+        Integer id = ids.get(s);
+        if (id != null) return id;
+        if (byId.length >= MAX_NAMES) return -1;
+        String[] next = Arrays.copyOf(byId, byId.length + 1);
+        next[byId.length] = s;
+        byId = next;                      // publish the name before the id can be referenced
+        ids.put(s, byId.length - 1);
+        return byId.length - 1;
+    }
+
+    static long micros(Instant ts) {
+        return Math.addExact(Math.multiplyExact(ts.getEpochSecond(), 1_000_000L), ts.getNano() / 1_000);
+    }
+
+    /** Pooled growable record encoder. */
+    private static final class Encoder {
+        private final CRC32C crc = new CRC32C();
+        private byte[] buf = new byte[512];
+        private int len;
+        private int recordStart;
+
+        void reset() { len = 0; }
+
+        Encoder begin(byte type) {
+            reset();
+            beginRecord(type);
+            return this;
+        }
+
+        void beginRecord(byte type) {
+            recordStart = len;
+            ensure(RECORD_OVERHEAD);
+            len += RECORD_OVERHEAD;
+            u8(type);
+        }
+
+        void endRecord() {
+            int bodyStart = recordStart + RECORD_OVERHEAD;
+            int bodyLen = len - bodyStart;
+            crc.reset();
+            crc.update(buf, bodyStart, bodyLen);
+            putInt(recordStart, bodyLen);
+            putInt(recordStart + 4, (int) crc.getValue());
+        }
+
+        byte[] finish() {
+            endRecord();
+            return toBytes();
+        }
+
+        byte[] toBytes() { return Arrays.copyOf(buf, len); }
+
+        void u8(int v) {
+            ensure(1);
+            buf[len++] = (byte) v;
+        }
+
+        void raw(byte[] b) {
+            ensure(b.length);
+            System.arraycopy(b, 0, buf, len, b.length);
+            len += b.length;
+        }
+
+        void varInt(int v) { varLong(v & 0xffffffffL); }
+
+        void varLong(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                buf[len++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[len++] = (byte) v;
+        }
+
+        void f64(double d) {
+            long v = Double.doubleToRawLongBits(d);
+            ensure(8);
+            for (int i = 7; i >= 0; i--) buf[len++] = (byte) (v >>> (i * 8));
+        }
+
+        void str(String s) {
+            if (s == null) { varInt(0); return; }
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            varInt(b.length + 1);
+            raw(b);
+        }
+
+        private void putInt(int at, int v) {
+            buf[at] = (byte) (v >>> 24);
+            buf[at + 1] = (byte) (v >>> 16);
+            buf[at + 2] = (byte) (v >>> 8);
+            buf[at + 3] = (byte) v;
+        }
+
+        private void ensure(int extra) {
+            if (len + extra > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + extra));
+        }
+    }
+}
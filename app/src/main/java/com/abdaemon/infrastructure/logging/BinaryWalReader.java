@@ -0,0 +1,232 @@
+package com.abdaemon.infrastructure.logging;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Sequential reader for {@link BinaryWalFormat} segments (version 1 and 2) over a read-only mapping.
+ * Stops at the first short, CRC-mismatched or malformed record (torn write) and reports it;
+ * {@link #refresh()} remaps a file that grew or was truncated by a seal and retries from the
+ * last good record.
+ */
+public final class BinaryWalReader implements SegmentReader {
+    private final Path path;
+    private final FileChannel ch;
+    private MappedByteBuffer buf;
+    private final SegmentTail tail;
+    private final CRC32C crc = new CRC32C();
+    private final int version;
+    private String[] dict = new String[64];
+    private String tornReason = null;
+
+    public BinaryWalReader(Path path) throws IOException {
+        this(path, BinaryWalFormat.HEADER_BYTES);
+    }
+
+    /** Resumes at {@code offset}; dictionary records before it are replayed, events skipped. */
+    public BinaryWalReader(Path path, long offset) throws IOException {
+        this.path = path;
+        this.ch = FileChannel.open(path, READ);
+        this.buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        this.tail = new SegmentTail(ch, 0);
+        if (!tail.readable(0, BinaryWalFormat.HEADER_BYTES) || !hasMagic(buf)) throw new IOException("Not a binary WAL segment: " + path);
+        this.version = buf.get(4);
+        buf.position(BinaryWalFormat.HEADER_BYTES);
+        long target = Math.max(offset, BinaryWalFormat.HEADER_BYTES);
+        while (buf.position() < target && skipToNextEvent()) { }
+        if (buf.position() != target && tornReason == null)
+            throw new IOException("Offset " + offset + " is not a record boundary in " + path);
+    }
+
+    /** True when the file starts with the binary segment header. */
+    public static boolean isBinary(Path path) throws IOException {
+        try (var ch = FileChannel.open(path, READ)) {
+            var head = ByteBuffer.allocate(BinaryWalFormat.HEADER_BYTES);
+            while (head.hasRemaining() && ch.read(head) > 0) { }
+            head.flip();
+            return hasMagic(head);
+        }
+    }
+
+    private static boolean hasMagic(ByteBuffer b) {
+        if (b.remaining() < BinaryWalFormat.HEADER_BYTES) return false;
+        for (int i = 0; i < 4; i++) if (b.get(b.position() + i) != BinaryWalFormat.MAGIC[i]) return false;
+        byte v = b.get(b.position() + 4);
+        return v == BinaryWalFormat.VERSION || v == BinaryWalFormat.VERSION_1;
+    }
+
+    /** Next event, or null at end of data (clean end or torn tail; see {@link #torn()}). */
+    @Override
+    public WalRecord next() {
+        while (tornReason == null) {
+            int start = buf.position();
+            ByteBuffer body = nextBody();
+            if (body == null) return null;
+            try {
+                byte type = body.get();
+                if (type == BinaryWalFormat.DICT) {
+                    define(varInt(body), str(body));
+                    continue;
+                }
+                if (type == BinaryWalFormat.EXPOSURE || type == BinaryWalFormat.GOAL) return decode(type, body);
+                // Unknown record types are skipped so newer writers stay readable
+            } catch (BufferUnderflowException | IllegalStateException e) {
+                markTorn(start, "malformed record");
+            }
+        }
+        return null;
+    }
+
+    /** Byte offset just past the last fully read record. */
+    @Override
+    public long position() { return buf.position(); }
+
+    public boolean torn() { return tornReason != null; }
+
+    /** Why reading stopped early, or null. */
+    public String tornReason() { return tornReason; }
+
+    /** Remaps whenever the size changed: grown by a writer, or truncated to its data by a seal. */
+    @Override
+    public void refresh() throws IOException {
+        long size = ch.size();
+        if (size != buf.capacity()) {
+            int pos = (int) Math.min(buf.position(), size);
+            var old = buf;
+            buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            buf.position(pos);
+            MappedBuffers.unmap(old);
+        }
+        tornReason = null;
+    }
+
+    /** Scans the rest of the mapping; past the known data through the file, which a seal may have cut. */
+    @Override
+    public boolean hasPartialTail() {
+        try {
+            return tail.nonZero(buf, buf.position(), buf.limit());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** Replays DICT records while seeking; false at end of readable data. */
+    private boolean skipToNextEvent() {
+        int start = buf.position();
+        var body = nextBody();
+        if (body == null) return false;
+        try {
+            if (body.get() == BinaryWalFormat.DICT) define(varInt(body), str(body));
+            return true;
+        } catch (BufferUnderflowException | IllegalStateException e) {
+            markTorn(start, "malformed record");
+            return false;
+        }
+    }
+
+    /** CRC-checked body of the next record, advancing past it; null at end or torn tail. */
+    private ByteBuffer nextBody() {
+        int start = buf.position();
+        if (buf.remaining() < BinaryWalFormat.RECORD_OVERHEAD) {
+            if (hasPartialTail()) markTorn(start, "short header");
+            return null;
+        }
+        if (!tail.readable(start, BinaryWalFormat.RECORD_OVERHEAD)) return null;   // zero fill, or cut by a seal
+        int len = buf.getInt();
+        int sum = buf.getInt();
+        if (len == 0 && sum == 0) { buf.position(start); return null; }   // zero-filled tail
+        if (len < 1 || len > buf.remaining()) { markTorn(start, "short record"); return null; }
+        tail.covered(buf.position() + (long) len);
+        var body = buf.slice(buf.position(), len);
+        crc.reset();
+        crc.update(body.duplicate());
+        if ((int) crc.getValue() != sum) { markTorn(start, "crc mismatch"); return null; }
+        buf.position(buf.position() + len);
+        return body;
+    }
+
+    private WalRecord decode(byte type, ByteBuffer b) {
+        long micros = varLong(b);
+        String exp = name(b);
+        String treatment = name(b);
+        String subject = str(b);
+        String goal = null;
+        Double value = null;
+        if (type == BinaryWalFormat.GOAL) {
+            goal = name(b);
+            if (b.get() != 0) value = b.getDouble();
+        }
+        int n = varInt(b);
+        if (n < 0 || n > b.remaining()) throw new IllegalStateException("ctx size " + n);
+        Map<String, String> ctx = new HashMap<>(n * 2);
+        for (int i = 0; i < n; i++) ctx.put(name(b), str(b));
+        var ts = Instant.ofEpochSecond(Math.floorDiv(micros, 1_000_000L), Math.floorMod(micros, 1_000_000L) * 1_000L);
+        return new WalRecord(type == BinaryWalFormat.GOAL ? "goal" : "exposure",
+                ts, exp, treatment, subject, goal, value, ctx);
+    }
+
+    private void define(int id, String s) {
+        if (id < 0 || id >= maxNames()) throw new IllegalStateException("dictionary id " + id);
+        if (id >= dict.length) dict = Arrays.copyOf(dict, Math.max(dict.length * 2, id + 1));
+        dict[id] = s;
+    }
+
+    /** Version 1 dictionaries were unbounded; the bound only rejects ids no writer could produce. */
+    private int maxNames() {
+        return version == BinaryWalFormat.VERSION_1 ? 1 << 24 : BinaryWalFormat.MAX_NAMES;
+    }
+
+    private String name(ByteBuffer b) {
+        int tag = varInt(b);
+        if (version == BinaryWalFormat.VERSION_1) return name(tag);
+        return tag == 0 ? str(b) : name(tag - 1);
+    }
+
+    private String name(int id) {
+        return id >= 0 && id < dict.length && dict[id] != null ? dict[id] : "#" + id;
+    }
+
+    private void markTorn(int at, String why) {
+        tornReason = why + " at offset " + at;
+        buf.position(at);
+    }
+
+    private static int varInt(ByteBuffer b) { return (int) varLong(b); }
+
+    private static long varLong(ByteBuffer b) {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte x = b.get();
+            v |= (long) (x & 0x7F) << shift;
+            if ((x & 0x80) == 0) return v;
+        }
+        throw new IllegalStateException("varint too long");
+    }
+
+    private static String str(ByteBuffer b) {
+        int n = varInt(b) - 1;
+        if (n == -1) return null;
+        if (n < 0 || n > b.remaining()) throw new IllegalStateException("string length " + n);
+        byte[] bytes = new byte[n];
+        b.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        ch.close();
+        MappedBuffers.unmap(buf);
+    }
+}
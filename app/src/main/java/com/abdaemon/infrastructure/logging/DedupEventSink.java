@@ -0,0 +1,217 @@
+package com.abdaemon.infrastructure.logging;
+
+import com.abdaemon.domain.AssignmentDecision;
+import com.abdaemon.infrastructure.metrics.Metrics;
+import com.abdaemon.ports.outbound.EventSink;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Drops repeated exposures before they reach the wrapped sink.
+ * - key: (experiment, treatment, subject, config version); goals always pass
+ * - two generations of a blocked Bloom filter, each covering window/2: an exposure is
+ *   suppressed while it is in either, so a repeat is logged again after window/2..window
+ * - fixed memory: {@code budgetBytes} split over the two generations, allocated once, plus a
+ *   4-byte generation tag per 64-byte block
+ * - rotation only swaps the pair: a block tagged with an older generation reads as empty and
+ *   the first insert into it clears its 64 bytes, so no request clears a whole generation
+ * - lock-free: bits are set with atomic OR; one caller per rotation does the swap
+ * - a false positive suppresses a first exposure (~1% at one entry per 10 bits of a generation);
+ *   watch ab_exposure_dedup_generation_entries against the capacity logged at startup
+ */
+public final class DedupEventSink implements EventSink {
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle INTS = MethodHandles.arrayElementVarHandle(int[].class);
+    private static final int CLEARING = -1;            // block tag while one caller clears it
+    private static final int HASHES = 7;               // bits per key, 9-bit positions from one 64-bit hash
+    private static final int BLOCK_LONGS = 8;          // 512-bit blocks: one cache line per lookup
+
+    private final EventSink delegate;
+    private final Supplier<String> configVersion;
+    private final long generationNanos;
+    private final int blockMask;
+
+    private volatile Generations gens;
+    private final AtomicBoolean rotating = new AtomicBoolean();
+    private final LongAdder passed, suppressed, inGeneration = new LongAdder();
+
+    /** Bloom bits and, per block, the generation whose bits it holds. */
+    private record Generation(long[] bits, int[] tags) {}
+
+    /** {@code current} holds blocks tagged {@code epoch}, {@code previous} those tagged {@code epoch - 1}. */
+    private record Generations(Generation current, Generation previous, int epoch, long rotateAt) {}
+
+    /**
+     * @param configVersion active config version; part of the key so a reload logs exposures again
+     * @param window        how long identical exposures are suppressed at most
+     * @param budgetBytes   memory for both generations
+     */
+    public DedupEventSink(EventSink delegate, Supplier<String> configVersion, Duration window, long budgetBytes,
+                          Metrics metrics) {
+        if (window.isNegative() || window.isZero()) throw new IllegalArgumentException("dedup window must be > 0");
+        if (budgetBytes < 2L * BLOCK_LONGS * Long.BYTES) throw new IllegalArgumentException("dedup budget too small");
+        this.delegate = delegate;
+        this.configVersion = configVersion;
+        this.generationNanos = Math.max(1, window.toNanos() / 2);
+        long blocks = Long.highestOneBit(Math.min(budgetBytes / 2 / (BLOCK_LONGS * Long.BYTES), 1L << 24));
+        this.blockMask = (int) blocks - 1;
+        int words = (int) blocks * BLOCK_LONGS;
+        this.gens = new Generations(new Generation(new long[words], new int[(int) blocks]),
+                new Generation(new long[words], new int[(int) blocks]), 1, System.nanoTime() + generationNanos);
+        this.passed = metrics.counter("ab_exposure_dedup_total", "Exposures seen by the dedup filter", "result=\"passed\"");
+        this.suppressed = metrics.counter("ab_exposure_dedup_total", "Exposures seen by the dedup filter", "result=\"suppressed\"");
+        metrics.gauge("ab_exposure_dedup_generation_entries", "Exposures inserted into the current dedup generation",
+                null, inGeneration::sum);
+    }
+
+    /** Entries per generation at ~1% false positives. */
+    public long capacity() {
+        return (blockMask + 1L) * BLOCK_LONGS * Long.SIZE / 10;
+    }
+
+    @Override
+    public void enqueueExposure(String experiment, String treatment, String subjectKey, Instant ts, Map<String, String> ctx) {
+        if (firstSeen(experiment, treatment, subjectKey)) delegate.enqueueExposure(experiment, treatment, subjectKey, ts, ctx);
+    }
+
+    @Override
+    public void enqueueExposure(String experiment, String treatment, AssignmentDecision.Decision decision,
+                                String subjectKey, Instant ts, Map<String, String> ctx) {
+        if (firstSeen(experiment, treatment, subjectKey)) delegate.enqueueExposure(experiment, treatment, decision, subjectKey, ts, ctx);
+    }
+
+    @Override
+    public void enqueueExposures(List<Exposure> exposures) {
+        List<Exposure> fresh = null;
+        for (int i = 0; i < exposures.size(); i++) {
+            var e = exposures.get(i);
+            boolean keep = firstSeen(e.experiment(), e.treatment(), e.subjectKey());
+            if (!keep && fresh == null) fresh = new ArrayList<>(exposures.subList(0, i));
+            else if (keep && fresh != null) fresh.add(e);
+        }
+        var out = fresh == null ? exposures : fresh;
+        if (!out.isEmpty()) delegate.enqueueExposures(out);
+    }
+
+    @Override
+    public void enqueueGoal(String experiment, String treatment, String subjectKey, String goal, Double value,
+                            Instant ts, Map<String, String> ctx) {
+        delegate.enqueueGoal(experiment, treatment, subjectKey, goal, value, ts, ctx);
+    }
+
+    @Override
+    public void enqueueGoals(List<Goal> goals) {
+        delegate.enqueueGoals(goals);
+    }
+
+    @Override
+    public CompletableFuture<Void> awaitDurable() {
+        return delegate.awaitDurable();
+    }
+
+    /** Tests and inserts the key; true when it was in neither generation. */
+    private boolean firstSeen(String experiment, String treatment, String subjectKey) {
+        long h = hash(hash(hash(hash(0xcbf29ce484222325L, experiment), treatment), subjectKey), configVersion.get());
+        long blockHash = fmix64(h), bitHash = fmix64(h ^ 0x9e3779b97f4a7c15L);
+        int block = (int) blockHash & blockMask, base = block * BLOCK_LONGS;
+
+        var g = generations();
+        if ((int) INTS.getAcquire(g.previous.tags, block) == g.epoch - 1 && contains(g.previous.bits, base, bitHash)) {
+            suppressed.increment();
+            return false;
+        }
+        if (!claim(g.current, block, g.epoch)) {     // held across two rotations: pass without inserting
+            passed.increment();
+            return true;
+        }
+        boolean added = false;
+        for (int i = 0; i < HASHES; i++) {
+            int bit = (int) (bitHash >>> (9 * i)) & 511;
+            long mask = 1L << bit;
+            long old = (long) LONGS.getAndBitwiseOr(g.current.bits, base + (bit >>> 6), mask);
+            if ((old & mask) == 0) added = true;
+        }
+        if (!added) {
+            suppressed.increment();
+            return false;
+        }
+        inGeneration.increment();
+        passed.increment();
+        return true;
+    }
+
+    /**
+     * Makes {@code block} hold generation {@code epoch}, clearing bits an older generation left;
+     * false when a newer generation already owns it (the caller's pair is stale).
+     */
+    private static boolean claim(Generation gen, int block, int epoch) {
+        while (true) {
+            int tag = (int) INTS.getAcquire(gen.tags, block);
+            if (tag == epoch) return true;
+            if (tag != CLEARING) {
+                if (tag - epoch > 0) return false;
+                if (INTS.compareAndSet(gen.tags, block, tag, CLEARING)) {
+                    for (int i = block * BLOCK_LONGS, end = i + BLOCK_LONGS; i < end; i++) LONGS.setOpaque(gen.bits, i, 0L);
+                    INTS.setRelease(gen.tags, block, epoch);
+                    return true;
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    private static boolean contains(long[] bits, int base, long bitHash) {
+        for (int i = 0; i < HASHES; i++) {
+            int bit = (int) (bitHash >>> (9 * i)) & 511;
+            if (((long) LONGS.getOpaque(bits, base + (bit >>> 6)) & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    /** Current generations, rotating first when due; callers racing a rotation use the old pair. */
+    private Generations generations() {
+        var g = gens;
+        long now = System.nanoTime();
+        if (now - g.rotateAt < 0 || !rotating.compareAndSet(false, true)) return g;
+        try {
+            g = gens;
+            if (now - g.rotateAt < 0) return g;
+            // the retired generation's blocks now carry stale tags; they clear as keys land in them.
+            // Idle for a whole generation: skip an epoch so the kept one reads as empty too.
+            int epoch = g.epoch + (now - g.rotateAt >= generationNanos ? 2 : 1);
+            inGeneration.reset();
+            g = new Generations(g.previous, g.current, epoch, now + generationNanos);
+            gens = g;
+            return g;
+        } finally {
+            rotating.set(false);
+        }
+    }
+
+    /** FNV-1a over the chars, then a separator so ("ab","c") and ("a","bc") differ. */
+    private static long hash(long h, String s) {
+        if (s != null) {
+            for (int i = 0; i < s.length(); i++) h = (h ^ s.charAt(i)) * 0x100000001b3L;
+        }
+        return (h ^ 0x1f) * 0x100000001b3L;
+    }
+
+    private static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
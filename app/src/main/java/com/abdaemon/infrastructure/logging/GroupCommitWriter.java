@@ -0,0 +1,179 @@
+package com.abdaemon.infrastructure.logging;
+
+import org.slf4j.Logger; import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single writer thread behind a bounded MPSC ring.
+ * - producers hand over pre-serialized lines and return immediately
+ * - the writer coalesces up to maxBatch entries (or maxDelay) into one write
+ * - one fsync per group commit; awaitDurable() futures complete after it
+ * - a failed write or fsync is sticky: every waiter whose target covers the first entry not
+ *   known to be on disk fails, now and later, rather than succeeding once a later commit works
+ */
+final class GroupCommitWriter implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(GroupCommitWriter.class);
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final SegmentWriter segments;
+    private final WalMetrics metrics;
+    private final boolean fsync;
+    private final int maxBatch;
+    private final long maxDelayNanos;
+    private final MpscRingBuffer<byte[]> ring;
+    private final ConcurrentLinkedQueue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+
+    private volatile long durable = 0;      // ring entries written and forced to disk
+    private volatile boolean idle = false;
+    private volatile boolean closed = false;
+    private volatile long lostFrom = Long.MAX_VALUE;   // first ring entry that may not be on disk
+    private volatile IOException lost;                 // the error behind lostFrom
+
+    private record Waiter(long target, CompletableFuture<Void> future) {}
+
+    GroupCommitWriter(SegmentWriter segments, WalMetrics metrics, boolean fsync,
+                      int queueCapacity, int maxBatch, long maxDelayNanos) {
+        this.segments = segments;
+        this.metrics = metrics;
+        this.fsync = fsync;
+        this.maxBatch = Math.max(1, maxBatch);
+        this.maxDelayNanos = Math.max(0, maxDelayNanos);
+        this.ring = new MpscRingBuffer<>(queueCapacity);
+        this.thread = new Thread(this::run, "wal-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /** Enqueues one entry (one or more NDJSON lines); blocks briefly while the ring is full. */
+    void submit(byte[] entry) {
+        if (closed) { log.warn("WAL: dropped event after close"); return; }
+        int spins = 0;
+        while (!ring.offer(entry)) {
+            wakeWriter();
+            if (++spins < 64) Thread.onSpinWait();
+            else LockSupport.parkNanos(50_000);
+            if (closed) { log.warn("WAL: dropped event after close"); return; }
+        }
+        if (idle) wakeWriter();
+    }
+
+    /** Completes once every entry submitted before this call has been written (and fsynced). */
+    CompletableFuture<Void> awaitDurable() {
+        long target = ring.claimed();
+        if (target >= lostFrom) return CompletableFuture.failedFuture(lost);
+        if (durable >= target) return CompletableFuture.completedFuture(null);
+        var w = new Waiter(target, new CompletableFuture<>());
+        waiters.add(w);
+        wakeWriter();
+        return w.future();
+    }
+
+    String currentSegment() {
+        synchronized (segments) { return segments.currentName(); }
+    }
+
+    private void wakeWriter() {
+        LockSupport.unpark(thread);
+    }
+
+    private void run() {
+        while (true) {
+            boolean stopping = closed;
+            int n = drain(0);
+            if (n == 0) {
+                completeWaiters();
+                if (stopping && ring.isEmpty()) break;
+                if (ring.isEmpty() && waiters.isEmpty()) {
+                    idle = true;
+                    if (ring.isEmpty()) LockSupport.parkNanos(IDLE_PARK_NANOS);
+                    idle = false;
+                } else {
+                    Thread.onSpinWait();   // a producer claimed a slot but has not published yet
+                }
+                continue;
+            }
+            // Linger to fill the group; bounded by maxDelay so commit latency stays bounded
+            long deadline = System.nanoTime() + maxDelayNanos;
+            while (n < maxBatch && !closed) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) break;
+                int m = drain(n);
+                if (m == 0) LockSupport.parkNanos(Math.min(left, 50_000));
+                n += m;
+            }
+            commit();
+        }
+        commit();
+        completeWaiters();
+    }
+
+    /** Moves up to maxBatch - already entries from the ring into the segment's write buffer. */
+    private int drain(int already) {
+        int n = 0;
+        byte[] e;
+        while (already + n < maxBatch && (e = ring.poll()) != null) {
+            try {
+                synchronized (segments) { metrics.write(segments, e); }
+            } catch (IOException ex) {
+                metrics.errors().increment();
+                log.error("WAL write error: {}", ex.toString());
+                lose(ring.consumed(), ex);
+            }
+            n++;
+        }
+        return n;
+    }
+
+    private void commit() {
+        long upTo = ring.consumed();
+        boolean force = fsync || !waiters.isEmpty();
+        try {
+            synchronized (segments) {
+                if (force) metrics.force(segments); else segments.flush();
+            }
+        } catch (IOException e) {
+            metrics.errors().increment();
+            log.error("WAL write error: {}", e.toString());
+            lose(durable + 1, e);
+            completeWaiters();
+            return;
+        }
+        if (force) durable = Math.min(upTo, lostFrom - 1);
+        completeWaiters();
+    }
+
+    /** Marks ring entries from {@code position} on as possibly not on disk; the first loss wins. */
+    private void lose(long position, IOException e) {
+        if (position >= lostFrom) return;
+        lost = e;
+        lostFrom = position;
+    }
+
+    private void completeWaiters() {
+        if (waiters.isEmpty()) return;
+        if (durable < Math.min(ring.consumed(), lostFrom - 1)) { commit(); return; }
+        long d = durable, from = lostFrom;
+        for (var it = waiters.iterator(); it.hasNext(); ) {
+            var w = it.next();
+            if (w.target() >= from) { it.remove(); w.future().completeExceptionally(lost); }
+            else if (w.target() <= d) { it.remove(); w.future().complete(null); }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        wakeWriter();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.abdaemon.infrastructure.logging;
+
+import org.slf4j.Logger; import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+/**
+ * Releases file mappings eagerly instead of when the buffer is collected.
+ * - sealed and rotated-away segments would otherwise keep their address space and
+ *   page-cache pins until a GC happens to find the buffer
+ * - uses {@code sun.misc.Unsafe.invokeCleaner} (module jdk.unsupported), looked up
+ *   reflectively; where that is unavailable the mapping is left to the GC as before
+ * - the caller must guarantee the buffer and every view of it are never touched again
+ */
+final class MappedBuffers {
+    private static final Logger log = LoggerFactory.getLogger(MappedBuffers.class);
+    private static final MethodHandle INVOKE_CLEANER = invokeCleaner();
+
+    private MappedBuffers() { }
+
+    static void unmap(MappedByteBuffer buf) {
+        if (buf == null || INVOKE_CLEANER == null) return;
+        try {
+            INVOKE_CLEANER.invokeExact((ByteBuffer) buf);
+        } catch (Throwable e) {
+            log.debug("Unmapping failed, left to GC: {}", e.toString());
+        }
+    }
+
+    private static MethodHandle invokeCleaner() {
+        try {
+            Class<?> type = Class.forName("sun.misc.Unsafe");
+            Field f = type.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            return MethodHandles.lookup()
+                    .findVirtual(type, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+                    .bindTo(f.get(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.info("Eager unmapping unavailable ({}); mappings are released by GC", e.toString());
+            return null;
+        }
+    }
+}
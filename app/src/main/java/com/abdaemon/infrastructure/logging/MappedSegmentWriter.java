@@ -0,0 +1,243 @@
+package com.abdaemon.infrastructure.logging;
+
+import org.slf4j.Logger; import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Memory-mapped, preallocated WAL segments.
+ * - each segment is sized to maxBytes up front and written through a MappedByteBuffer
+ *   (no syscall per event)
+ * - the next segment is created and mapped in the background, so rotation is a swap
+ * - sealing (msync + truncate to the true end + close + unmap) also runs in the background;
+ *   a sealed segment's length is exactly its data
+ * - an unsealed segment (crash) keeps its zero-filled tail; {@link #recover} trims it
+ *   to the last complete record on startup
+ */
+final class MappedSegmentWriter implements SegmentWriter {
+    private static final Logger log = LoggerFactory.getLogger(MappedSegmentWriter.class);
+
+    private final Path dir;
+    private final long segmentBytes;
+    private final WalFormat format;
+    private final ExecutorService background;
+    private final ConcurrentLinkedQueue<Future<?>> sealing = new ConcurrentLinkedQueue<>();
+
+    private Segment current;
+    private Future<Segment> next;
+    private final AtomicLong seq = new AtomicLong();   // shared with the prep thread
+    private volatile long rotations = 0;
+
+    private static final class Segment {
+        final Path path;
+        final FileChannel ch;
+        final MappedByteBuffer map;
+        final WalFormat.SegmentState state = new WalFormat.SegmentState();
+
+        Segment(Path path, FileChannel ch, MappedByteBuffer map) {
+            this.path = path; this.ch = ch; this.map = map;
+        }
+    }
+
+    MappedSegmentWriter(Path dir, long maxBytes, WalFormat format) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = Math.min(maxBytes, Integer.MAX_VALUE);
+        this.format = format;
+        this.background = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "wal-segment-prep");
+            t.setDaemon(true);
+            return t;
+        });
+        Files.createDirectories(dir);
+        recover(dir);
+        seq.set(WalSegmentWriter.nextSequence(dir));
+        this.current = open(segmentBytes);
+        preopenNext();
+    }
+
+    @Override
+    public void append(byte[] entry) throws IOException {
+        byte[] pre = format.preamble(current.state);
+        if (current.map.remaining() < pre.length + entry.length) {
+            rotate(entry.length);
+            pre = format.preamble(current.state);
+        }
+        current.map.put(pre);
+        current.map.put(entry);
+    }
+
+    /** Writes already live in the page cache; nothing to hand over. */
+    @Override
+    public void flush() { }
+
+    private void rotate(int entryLen) throws IOException {
+        Segment old = current;
+        // A fresh segment owes the header plus the whole dictionary before this entry
+        long need = (long) entryLen + format.preamble(new WalFormat.SegmentState()).length;
+        current = need > segmentBytes ? open(need) : takeNext();
+        seal(old);
+        rotations++;
+        log.info("WAL opened segment {}", current.path.getFileName());
+    }
+
+    @Override
+    public long rotations() {
+        return rotations;
+    }
+
+    /** Waits for background seals of earlier segments, then msyncs the active one. */
+    @Override
+    public void force() throws IOException {
+        awaitSealed();
+        current.map.force();
+    }
+
+    @Override
+    public String currentName() {
+        return current.path.getFileName().toString();
+    }
+
+    private Segment takeNext() throws IOException {
+        try {
+            Segment s = next.get();
+            preopenNext();
+            return s;
+        } catch (ExecutionException e) {
+            preopenNext();
+            log.warn("WAL: background segment open failed, opening inline: {}", e.getCause().toString());
+            return open(segmentBytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for next segment", e);
+        }
+    }
+
+    private void preopenNext() {
+        next = background.submit(() -> open(segmentBytes));
+    }
+
+    private Segment open(long size) throws IOException {
+        Path p;
+        FileChannel ch;
+        while (true) {
+            p = dir.resolve(WalSegmentWriter.segmentName(seq.getAndIncrement()));
+            try {
+                ch = FileChannel.open(p, CREATE_NEW, READ, WRITE);
+                break;
+            } catch (FileAlreadyExistsException e) {
+                // name taken (another writer on this directory); try the next sequence
+            }
+        }
+        try {
+            // Preallocate: extend to full size so writes never grow the file
+            ch.write(ByteBuffer.wrap(new byte[1]), size - 1);
+            return new Segment(p, ch, ch.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        } catch (IOException e) {
+            ch.close();
+            Files.deleteIfExists(p);
+            throw e;
+        }
+    }
+
+    private void seal(Segment s) {
+        sealing.removeIf(Future::isDone);
+        sealing.add(background.submit(() -> {
+            int end = s.map.position();
+            try {
+                s.map.force();
+                s.ch.truncate(end);
+                s.ch.force(true);
+            } catch (IOException e) {
+                log.error("WAL seal error {}: {}", s.path.getFileName(), e.toString());
+            } finally {
+                try { s.ch.close(); } catch (IOException ignored) {}
+                MappedBuffers.unmap(s.map);
+            }
+            if (end == 0) {
+                try { Files.deleteIfExists(s.path); } catch (IOException ignored) {}
+            }
+        }));
+    }
+
+    private void awaitSealed() throws IOException {
+        Future<?> f;
+        while ((f = sealing.peek()) != null) {
+            try {
+                f.get();
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted waiting for segment seal", e);
+            }
+            sealing.remove(f);
+        }
+    }
+
+    /**
+     * Trims zero-filled tails left by unsealed segments to the last complete record;
+     * removes segments that hold no data at all.
+     */
+    static void recover(Path dir) throws IOException {
+        try (Stream<Path> s = Files.list(dir)) {
+            for (Path p : s.filter(WalSegmentWriter::isSegment).toList()) {
+                long size = Files.size(p);
+                if (size == 0) { Files.delete(p); continue; }
+                long end;
+                try (var ch = FileChannel.open(p, READ, WRITE)) {
+                    var last = ByteBuffer.allocate(1);
+                    ch.read(last, size - 1);
+                    if (last.get(0) != 0) continue;        // sealed or channel-written
+                    end = BinaryWalReader.isBinary(p) ? binaryEnd(p) : ndjsonEnd(ch.map(FileChannel.MapMode.READ_ONLY, 0, size));
+                    ch.truncate(end);
+                }
+                if (end == 0) Files.delete(p);
+                log.info("WAL recovered segment {}: {} -> {} bytes", p.getFileName(), size, end);
+            }
+        }
+    }
+
+    private static long binaryEnd(Path p) throws IOException {
+        try (var r = new BinaryWalReader(p)) {
+            while (r.next() != null) { }
+            if (r.torn()) log.warn("WAL {}: dropping torn tail, {}", p.getFileName(), r.tornReason());
+            return r.position();
+        }
+    }
+
+    /** End of the last newline-terminated line before the first NUL. */
+    static long ndjsonEnd(ByteBuffer b) {
+        int end = 0;
+        for (int i = 0, n = b.limit(); i < n; i++) {
+            byte x = b.get(i);
+            if (x == 0) break;
+            if (x == '\n') end = i + 1;
+        }
+        return end;
+    }
+
+    @Override
+    public void close() {
+        seal(current);
+        try {
+            awaitSealed();
+            Segment unused = next.get();
+            unused.ch.close();
+            MappedBuffers.unmap(unused.map);
+            Files.deleteIfExists(unused.path);
+        } catch (Exception e) {
+            log.warn("WAL close: {}", e.toString());
+        } finally {
+            background.shutdown();
+        }
+    }
+}
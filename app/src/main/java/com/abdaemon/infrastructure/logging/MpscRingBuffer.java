@@ -0,0 +1,67 @@
+package com.abdaemon.infrastructure.logging;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free multi-producer / single-consumer ring (Vyukov sequence slots).
+ * - producers claim a slot with one CAS, publish with a release store
+ * - the single consumer polls without atomics beyond the slot sequence
+ */
+final class MpscRingBuffer<E> {
+    private final Object[] buffer;
+    private final AtomicLongArray sequence;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();   // next slot to claim
+    private volatile long head = 0;                     // next slot to consume; written by consumer only
+
+    MpscRingBuffer(int capacity) {
+        int cap = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.buffer = new Object[cap];
+        this.sequence = new AtomicLongArray(cap);
+        this.mask = cap - 1;
+        for (int i = 0; i < cap; i++) sequence.set(i, i);
+    }
+
+    /** @return false when the ring is full */
+    boolean offer(E e) {
+        long pos = tail.get();
+        for (;;) {
+            int idx = (int) (pos & mask);
+            long dif = sequence.getAcquire(idx) - pos;
+            if (dif == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    buffer[idx] = e;
+                    sequence.setRelease(idx, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (dif < 0) {
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    /** Consumer only. @return next element, or null if none is published yet */
+    @SuppressWarnings("unchecked")
+    E poll() {
+        long h = head;
+        int idx = (int) (h & mask);
+        if (sequence.getAcquire(idx) != h + 1) return null;
+        E e = (E) buffer[idx];
+        buffer[idx] = null;
+        sequence.setRelease(idx, h + buffer.length);
+        head = h + 1;
+        return e;
+    }
+
+    /** Number of slots claimed so far (monotonic). */
+    long claimed()  { return tail.get(); }
+
+    /** Number of slots consumed so far (monotonic). */
+    long consumed() { return head; }
+
+    boolean isEmpty() { return head == tail.get(); }
+}
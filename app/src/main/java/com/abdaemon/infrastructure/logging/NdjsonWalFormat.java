@@ -0,0 +1,51 @@
+package com.abdaemon.infrastructure.logging;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+/** One JSON object per line; the original WAL format. */
+final class NdjsonWalFormat implements WalFormat {
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Override public String name() { return "ndjson"; }
+
+    @Override
+    public byte[] exposure(String experiment, String treatment, String subjectKey,
+                           Instant ts, Map<String, String> ctx) throws Exception {
+        return line(Map.of(
+                "type", "exposure",
+                "ts", ts.toString(),
+                "experiment", experiment,
+                "treatment", treatment,
+                "subject", subjectKey,
+                "ctx", ctx
+        ));
+    }
+
+    @Override
+    public byte[] goal(String experiment, String treatment, String subjectKey, String goal, Double value,
+                       Instant ts, Map<String, String> ctx) throws Exception {
+        var event = new HashMap<String, Object>(12);    // Map.of rejects the optional null value
+        event.put("type", "goal");
+        event.put("ts", ts.toString());
+        event.put("experiment", experiment);
+        event.put("treatment", treatment);
+        event.put("subject", subjectKey);
+        event.put("goal", goal);
+        event.put("value", value);
+        event.put("ctx", ctx);
+        return line(event);
+    }
+
+    /** JSON + newline */
+    private byte[] line(Object event) throws Exception {
+        byte[] json = mapper.writeValueAsBytes(event);
+        byte[] line = new byte[json.length + 1];
+        System.arraycopy(json, 0, line, 0, json.length);
+        line[line.length - 1] = (byte) '\n';
+        return line;
+    }
+}
@@ -0,0 +1,139 @@
+package com.abdaemon.infrastructure.logging;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.slf4j.Logger; import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Line reader for NDJSON segments over a read-only mapping.
+ * - only newline-terminated lines are consumed; an unterminated tail waits for {@link #refresh()}
+ * - stops at zero fill (active mmap segment)
+ * - {@link #refresh()} remaps when the file grew or a seal truncated its zero fill
+ * - unparseable lines are logged and skipped
+ * Lines are copied into one reusable buffer and read with a streaming parser (no tree).
+ */
+final class NdjsonWalReader implements SegmentReader {
+    private static final Logger log = LoggerFactory.getLogger(NdjsonWalReader.class);
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private final Path path;
+    private final FileChannel ch;
+    private MappedByteBuffer buf;
+    private final SegmentTail tail;
+    private byte[] line = new byte[1024];
+
+    NdjsonWalReader(Path path, long offset) throws IOException {
+        this.path = path;
+        this.ch = FileChannel.open(path, READ);
+        this.buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        buf.position((int) Math.min(offset, buf.limit()));
+        this.tail = new SegmentTail(ch, buf.position());
+    }
+
+    @Override
+    public WalRecord next() {
+        while (true) {
+            int start = buf.position();
+            int end = -1;
+            for (int i = start, n = buf.limit(); i < n; i++) {
+                if (!tail.readable(i, 1)) return null;   // zero fill, or cut by a seal; refresh remaps
+                byte b = buf.get(i);
+                if (b == '\n') { end = i; break; }
+                if (b == 0) return null;                 // zero fill: nothing more yet
+            }
+            if (end < 0) return null;                    // incomplete line
+            int len = end - start;
+            if (line.length < len) line = Arrays.copyOf(line, Math.max(len, line.length * 2));
+            buf.get(start, line, 0, len);
+            buf.position(end + 1);
+            if (len == 0) continue;
+            try {
+                return parse(line, len);
+            } catch (Exception e) {
+                log.warn("WAL {}: skipping corrupt line at offset {}: {}", path.getFileName(), start, e.toString());
+            }
+        }
+    }
+
+    @Override
+    public long position() { return buf.position(); }
+
+    /** Remaps whenever the size changed: grown by a writer, or truncated to its data by a seal. */
+    @Override
+    public void refresh() throws IOException {
+        long size = ch.size();
+        if (size != buf.capacity()) {
+            int pos = (int) Math.min(buf.position(), size);
+            var old = buf;
+            buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            buf.position(pos);
+            MappedBuffers.unmap(old);
+        }
+    }
+
+    /** Scans the rest of the mapping; past the known data through the file, which a seal may have cut. */
+    @Override
+    public boolean hasPartialTail() {
+        try {
+            return tail.nonZero(buf, buf.position(), buf.limit());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** Streams the fields of one event; unknown fields are skipped. */
+    static WalRecord parse(byte[] data, int len) throws IOException {
+        String type = null, ts = null, exp = null, treatment = null, subject = null, goal = null;
+        Double value = null;
+        Map<String, String> ctx = Map.of();
+        try (JsonParser p = JSON.createParser(data, 0, len)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) throw new IOException("not an object");
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String f = p.currentName();
+                JsonToken t = p.nextToken();
+                switch (f) {
+                    case "type" -> type = p.getValueAsString();
+                    case "ts" -> ts = p.getValueAsString();
+                    case "experiment" -> exp = p.getValueAsString();
+                    case "treatment" -> treatment = p.getValueAsString();
+                    case "subject" -> subject = p.getValueAsString();
+                    case "goal" -> goal = p.getValueAsString();
+                    case "value" -> value = t == JsonToken.VALUE_NULL ? null : p.getValueAsDouble();
+                    case "ctx" -> ctx = parseCtx(p, t);
+                    default -> p.skipChildren();
+                }
+            }
+        }
+        if (type == null || ts == null) throw new IOException("missing type/ts");
+        return new WalRecord(type, Instant.parse(ts), exp, treatment, subject, goal, value, ctx);
+    }
+
+    private static Map<String, String> parseCtx(JsonParser p, JsonToken t) throws IOException {
+        if (t != JsonToken.START_OBJECT) { p.skipChildren(); return Map.of(); }
+        var ctx = new HashMap<String, String>();
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String k = p.currentName();
+            p.nextToken();
+            ctx.put(k, p.getValueAsString());
+        }
+        return ctx;
+    }
+
+    @Override
+    public void close() throws IOException {
+        ch.close();
+        MappedBuffers.unmap(buf);
+    }
+}
@@ -0,0 +1,257 @@
+package com.abdaemon.infrastructure.logging;
+
+import com.abdaemon.domain.AssignmentDecision;
+import com.abdaemon.infrastructure.metrics.Metrics;
+import com.abdaemon.ports.outbound.EventSink;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Counts exposures per (experiment, treatment, decision, country, minute) instead of logging rows.
+ * - counters are LongAdders in a ConcurrentHashMap: one lookup + striped increment per exposure;
+ *   idle keys are retired by the flush; a counter that raced the removal moves its count back
+ * - every {@code interval} and on close, counts accumulated since the last flush are appended as
+ *   NDJSON to {@code <dir>/rollup-YYYYMMDD.ndjson} and forced; records are deltas, sum by key
+ * - the exposure minute comes from the event timestamp, so late client-reported events land in
+ *   their own minute
+ * - composable: raw exposures of a deterministic {@code rawSample} fraction of subjects, and all
+ *   goals, are passed on to {@code next} (e.g. a WalEventSink); 0 keeps only the rollups
+ * - client-reported exposures carry no decision and are counted as "REPORTED"
+ *
+ * Record:
+ *   {"type":"rollup","minute":"2025-11-22T18:50:00Z","experiment":"checkout_color","treatment":"blue",
+ *    "decision":"ASSIGNED","country":"US","count":1234}
+ */
+public final class RollupEventSink implements EventSink, AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(RollupEventSink.class);
+    private static final String PREFIX = "rollup-";
+    private static final String SUFFIX = ".ndjson";
+    private static final String REPORTED = "REPORTED";
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private record Key(String experiment, String treatment, String decision, String country, long minute) {}
+
+    /** A key's count; {@code retired} is set by the flush before its final drain, once the key left the map. */
+    private static final class Counter {
+        final LongAdder n = new LongAdder();
+        volatile boolean retired;
+    }
+
+    private final EventSink next;
+    private final long sampleBelow;     // subject hash threshold over the unsigned 64-bit range, >>> 1
+    private final Path dir;
+    private final ConcurrentHashMap<Key, Counter> counts = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher;
+    private final Object flushLock = new Object();
+    private final LongAdder counted, recordsOut, flushFailures, forwarded;
+
+    /**
+     * @param dir       directory for rollup files (usually the WAL directory)
+     * @param interval  flush period
+     * @param next      receives sampled raw exposures and all goals; null for none
+     * @param rawSample fraction of subjects whose raw exposures go to {@code next}, 0..1
+     */
+    public RollupEventSink(Path dir, Duration interval, EventSink next, double rawSample, Metrics metrics) throws IOException {
+        if (interval.isNegative() || interval.isZero()) throw new IllegalArgumentException("rollup interval must be > 0");
+        if (!(rawSample >= 0 && rawSample <= 1)) throw new IllegalArgumentException("rollup raw sample must be in [0, 1]");
+        this.dir = dir;
+        this.next = next;
+        this.sampleBelow = (long) (rawSample * 0x1p63);
+        Files.createDirectories(dir);
+        this.counted = metrics.counter("ab_rollup_exposures_total", "Exposures counted into rollups", null);
+        this.forwarded = metrics.counter("ab_rollup_raw_forwarded_total", "Raw exposures passed on by the rollup sampler", null);
+        this.recordsOut = metrics.counter("ab_rollup_records_total", "Rollup records written", null);
+        this.flushFailures = metrics.counter("ab_rollup_flush_failures_total", "Rollup flushes that failed (counts kept)", null);
+        metrics.gauge("ab_rollup_keys", "Rollup keys held in memory", null, counts::size);
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "rollup-flush");
+            t.setDaemon(true);
+            return t;
+        });
+        long ms = interval.toMillis();
+        flusher.scheduleAtFixedRate(this::flushQuietly, ms, ms, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void enqueueExposure(String experiment, String treatment, String subjectKey, Instant ts, Map<String, String> ctx) {
+        enqueueExposure(experiment, treatment, null, subjectKey, ts, ctx);
+    }
+
+    @Override
+    public void enqueueExposure(String experiment, String treatment, AssignmentDecision.Decision decision,
+                                String subjectKey, Instant ts, Map<String, String> ctx) {
+        count(experiment, treatment, decision, ts, ctx);
+        if (next != null && sampled(subjectKey)) {
+            forwarded.increment();
+            next.enqueueExposure(experiment, treatment, decision, subjectKey, ts, ctx);
+        }
+    }
+
+    @Override
+    public void enqueueExposures(List<Exposure> exposures) {
+        List<Exposure> raw = next == null ? null : new ArrayList<>(sampleBelow == 0 ? 0 : exposures.size());
+        if (raw != null) {
+            for (var e : exposures) if (sampled(e.subjectKey())) raw.add(e);
+        }
+        if (raw != null && !raw.isEmpty()) {
+            next.enqueueExposures(raw);          // first: a batch the sink refuses is not counted
+            forwarded.add(raw.size());
+        }
+        for (var e : exposures) count(e.experiment(), e.treatment(), e.decision(), e.ts(), e.ctx());
+    }
+
+    @Override
+    public void enqueueGoal(String experiment, String treatment, String subjectKey, String goal, Double value,
+                            Instant ts, Map<String, String> ctx) {
+        if (next != null) next.enqueueGoal(experiment, treatment, subjectKey, goal, value, ts, ctx);
+    }
+
+    @Override
+    public void enqueueGoals(List<Goal> goals) {
+        if (next != null) next.enqueueGoals(goals);
+    }
+
+    @Override
+    public CompletableFuture<Void> awaitDurable() {
+        return next != null ? next.awaitDurable() : CompletableFuture.completedFuture(null);
+    }
+
+    private void count(String experiment, String treatment, AssignmentDecision.Decision decision, Instant ts,
+                       Map<String, String> ctx) {
+        String country = ctx == null ? null : ctx.get("country");
+        var key = new Key(experiment, treatment, decision == null ? REPORTED : decision.name(),
+                country == null ? "" : country, Math.floorDiv(ts.getEpochSecond(), 60));
+        add(key, 1);
+        counted.increment();
+    }
+
+    /**
+     * Adds to the key's live counter. If the flush retired that counter meanwhile, whatever it
+     * still holds is drained here and re-added: the flush's final drain and this one take each
+     * increment exactly once ({@code sumThenReset} swaps every cell), and an increment that lands
+     * after the final drain is ordered after the {@code retired} write, so it is seen here.
+     */
+    private void add(Key key, long n) {
+        for (;;) {
+            var c = counts.get(key);
+            if (c == null) c = counts.computeIfAbsent(key, k -> new Counter());
+            c.n.add(n);
+            if (!c.retired) return;
+            n = c.n.sumThenReset();
+            if (n == 0) return;
+        }
+    }
+
+    /** Same subject, same answer: a sampled subject's exposures are all kept. */
+    private boolean sampled(String subjectKey) {
+        if (sampleBelow == 0) return false;
+        if (sampleBelow == Long.MAX_VALUE) return true;
+        long h = subjectKey.hashCode() * 0x9e3779b97f4a7c15L;
+        h ^= h >>> 29;
+        h *= 0xbf58476d1ce4e5b9L;
+        h ^= h >>> 32;
+        return (h >>> 1) < sampleBelow;
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException | RuntimeException e) {
+            flushFailures.increment();
+            log.warn("Rollup flush failed (counts kept for the next one): {}", e.toString());
+        }
+    }
+
+    /**
+     * Appends the counts since the last flush; counts that fail to write are added back.
+     * Keys whose minute is over a minute old and that saw nothing new leave the map; a counter
+     * that looked one up before the removal re-adds its increment to a fresh entry (see {@link #add}).
+     */
+    public void flush() throws IOException {
+        synchronized (flushLock) {
+            long currentMinute = Math.floorDiv(Instant.now().getEpochSecond(), 60);
+            var taken = new LinkedHashMap<Key, Long>();
+            for (var e : counts.entrySet()) {
+                var c = e.getValue();
+                long n = c.n.sumThenReset();
+                if (n == 0 && e.getKey().minute() < currentMinute - 1 && counts.remove(e.getKey(), c)) {
+                    c.retired = true;
+                    n = c.n.sumThenReset();
+                }
+                if (n > 0) taken.merge(e.getKey(), n, Long::sum);
+            }
+            if (taken.isEmpty()) return;
+            try {
+                write(taken);
+            } catch (IOException e) {
+                taken.forEach(this::add);
+                throw e;
+            }
+            recordsOut.add(taken.size());
+        }
+    }
+
+    private void write(Map<Key, Long> records) throws IOException {
+        var buf = new ByteArrayOutputStream(records.size() * 160);
+        try (JsonGenerator g = JSON.createGenerator(buf, JsonEncoding.UTF8)) {
+            g.setRootValueSeparator(null);
+            for (var r : records.entrySet()) {
+                var k = r.getKey();
+                g.writeStartObject();
+                g.writeStringField("type", "rollup");
+                g.writeStringField("minute", Instant.ofEpochSecond(k.minute() * 60).toString());
+                g.writeStringField("experiment", k.experiment());
+                g.writeStringField("treatment", k.treatment());
+                g.writeStringField("decision", k.decision());
+                g.writeStringField("country", k.country());
+                g.writeNumberField("count", r.getValue());
+                g.writeEndObject();
+                g.writeRaw('\n');
+            }
+        }
+        String day = DateTimeFormatter.ofPattern("yyyyMMdd").withZone(ZoneOffset.UTC).format(Instant.now());
+        try (var ch = FileChannel.open(dir.resolve(PREFIX + day + SUFFIX), CREATE, WRITE, APPEND)) {
+            var bb = ByteBuffer.wrap(buf.toByteArray());
+            while (bb.hasRemaining()) ch.write(bb);
+            ch.force(false);
+        }
+    }
+
+    /** Stops the timer and writes the remaining counts; does not close {@code next}. */
+    @Override
+    public void close() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushQuietly();
+    }
+}
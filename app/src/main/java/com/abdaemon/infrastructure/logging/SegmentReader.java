@@ -0,0 +1,29 @@
+package com.abdaemon.infrastructure.logging;
+
+import java.io.IOException;
+
+/** Sequential, resumable reader over one WAL segment. */
+interface SegmentReader extends AutoCloseable {
+
+    /** Next complete event, or null when none is available yet (or the rest is unreadable). */
+    WalRecord next();
+
+    /** Byte offset just past the last fully consumed record; a valid resume point. */
+    long position();
+
+    /** Picks up bytes appended since the last read; clears a stop caused by an incomplete tail. */
+    void refresh() throws IOException;
+
+    /** True when non-zero bytes follow {@link #position()} that do not form a complete record. */
+    boolean hasPartialTail();
+
+    @Override
+    void close() throws IOException;
+
+    /** Opens the right reader for the segment's format, positioned at {@code offset}. */
+    static SegmentReader open(java.nio.file.Path segment, long offset) throws IOException {
+        return BinaryWalReader.isBinary(segment)
+                ? new BinaryWalReader(segment, offset)
+                : new NdjsonWalReader(segment, offset);
+    }
+}
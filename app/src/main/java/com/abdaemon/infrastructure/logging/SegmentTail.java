@@ -0,0 +1,68 @@
+package com.abdaemon.infrastructure.logging;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Keeps a segment reader's mapped reads off pages a seal may have truncated away.
+ * - a seal cuts a preallocated segment to its data, so pages holding record bytes stay in the
+ *   file; only zero fill past them can vanish, and touching a vanished page faults the JVM
+ * - bytes up to the end of the last page known to hold data are read through the mapping
+ * - past it, a positional read asks the file first: it returns end-of-file instead of faulting,
+ *   and non-zero bytes prove the data reaches that far (records are written whole before a seal)
+ */
+final class SegmentTail {
+    /** Smallest page size; larger pages only keep more of a truncated file mapped. */
+    private static final long PAGE = 4096;
+    private static final int SCAN_CHUNK = 64 * 1024;
+
+    private final FileChannel ch;
+    private final ByteBuffer probe = ByteBuffer.allocate(16);
+    private long safe;                  // page-aligned end of the bytes known to stay in the file
+
+    /** @param data bytes before this offset are known record data */
+    SegmentTail(FileChannel ch, long data) {
+        this.ch = ch;
+        covered(data);
+    }
+
+    /** Bytes before {@code end} are record data. */
+    void covered(long end) {
+        long page = (end + PAGE - 1) & -PAGE;
+        if (page > safe) safe = page;
+    }
+
+    /**
+     * True when {@code n} (at most 16) bytes at {@code at} may be read through the mapping; false
+     * when the file holds only zero fill there or ends before them.
+     */
+    boolean readable(long at, int n) {
+        if (at + n <= safe) return true;
+        try {
+            probe.clear().limit(n);
+            while (probe.hasRemaining()) if (ch.read(probe, at + probe.position()) < 0) return false;
+        } catch (IOException e) {
+            return false;
+        }
+        for (int i = 0; i < n; i++) {
+            if (probe.get(i) != 0) { covered(at + n); return true; }
+        }
+        return false;
+    }
+
+    /** True when a non-zero byte lies in {@code [from, to)}; past the known data through the file. */
+    boolean nonZero(MappedByteBuffer map, long from, long to) throws IOException {
+        long mapped = Math.min(to, safe);
+        for (long i = from; i < mapped; i++) if (map.get((int) i) != 0) return true;
+        var chunk = ByteBuffer.allocate(SCAN_CHUNK);
+        for (long at = Math.max(from, mapped); at < to; ) {
+            int r = ch.read(chunk.clear().limit((int) Math.min(SCAN_CHUNK, to - at)), at);
+            if (r < 0) return false;
+            for (int i = 0; i < r; i++) if (chunk.get(i) != 0) return true;
+            at += r;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,28 @@
+package com.abdaemon.infrastructure.logging;
+
+import java.io.IOException;
+
+/**
+ * Active-segment writer behind {@link WalEventSink}: owns buffering, the format
+ * preamble and size-based rotation.
+ * Not thread-safe: callers serialize access (lock or single writer thread).
+ */
+interface SegmentWriter extends AutoCloseable {
+
+    /** Adds one entry (with any preamble the segment owes), rotating first if it would not fit. */
+    void append(byte[] entry) throws IOException;
+
+    /** Hands buffered bytes to the OS. */
+    void flush() throws IOException;
+
+    /** Flushes and makes everything appended so far durable. */
+    void force() throws IOException;
+
+    String currentName();
+
+    /** Segments rotated out since this writer was opened. */
+    long rotations();
+
+    @Override
+    void close();
+}
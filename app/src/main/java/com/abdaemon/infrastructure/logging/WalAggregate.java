@@ -0,0 +1,157 @@
+package com.abdaemon.infrastructure.logging;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per-variant totals of a WAL scan; one instance per scanned unit, merged pairwise up the fork-join tree.
+ * - subjects are kept as 64-bit hashes in open-addressing sets (~16 bytes each), so
+ *   exposed and converted subjects can be counted exactly without storing keys
+ * - goal values: count, mean and M2 (Welford), merged pairwise
+ * Not thread-safe.
+ */
+final class WalAggregate {
+    long events, skipped;
+
+    /** experiment -> treatment -> totals */
+    final Map<String, Map<String, Variant>> experiments = new HashMap<>();
+
+    static final class Variant {
+        long exposures;
+        final LongSet exposed = new LongSet();
+        final Map<String, Goal> goals = new HashMap<>();
+
+        void merge(Variant o) {
+            exposures += o.exposures;
+            exposed.addAll(o.exposed);
+            o.goals.forEach((name, g) -> goals.computeIfAbsent(name, k -> new Goal()).merge(g));
+        }
+    }
+
+    static final class Goal {
+        long events, valued;
+        double mean, m2;
+        final LongSet subjects = new LongSet();
+
+        void value(double x) {
+            long n = ++valued;
+            double d = x - mean;
+            mean += d / n;
+            m2 += d * (x - mean);
+        }
+
+        double variance() { return valued > 1 ? m2 / (valued - 1) : 0; }
+
+        void merge(Goal o) {
+            events += o.events;
+            subjects.addAll(o.subjects);
+            if (o.valued == 0) return;
+            long n = valued + o.valued;
+            double delta = o.mean - mean;
+            m2 += o.m2 + delta * delta * ((double) valued * o.valued / n);
+            mean += delta * o.valued / n;
+            valued = n;
+        }
+    }
+
+    void exposure(String experiment, String treatment, long subject) {
+        var v = variant(experiment, treatment);
+        v.exposures++;
+        v.exposed.add(subject);
+        events++;
+    }
+
+    void goal(String experiment, String treatment, long subject, String goal, Double value) {
+        var g = variant(experiment, treatment).goals.computeIfAbsent(goal, k -> new Goal());
+        g.events++;
+        g.subjects.add(subject);
+        if (value != null && Double.isFinite(value)) g.value(value);
+        events++;
+    }
+
+    private Variant variant(String experiment, String treatment) {
+        return experiments.computeIfAbsent(experiment, k -> new HashMap<>()).computeIfAbsent(treatment, k -> new Variant());
+    }
+
+    /** Merges the smaller aggregate into the larger, so the fewest subject hashes are re-inserted. */
+    static WalAggregate merged(WalAggregate a, WalAggregate b) {
+        if (a.events < b.events) { b.merge(a); return b; }
+        a.merge(b);
+        return a;
+    }
+
+    void merge(WalAggregate o) {
+        events += o.events;
+        skipped += o.skipped;
+        o.experiments.forEach((exp, variants) -> {
+            var mine = experiments.computeIfAbsent(exp, k -> new HashMap<>());
+            variants.forEach((t, v) -> mine.computeIfAbsent(t, k -> new Variant()).merge(v));
+        });
+    }
+
+    static long hash(char[] c, int off, int len) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = off; i < off + len; i++) h = (h ^ c[i]) * 0x100000001b3L;
+        return fmix64(h);
+    }
+
+    static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) h = (h ^ s.charAt(i)) * 0x100000001b3L;
+        return fmix64(h);
+    }
+
+    private static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    /** Set of longs, linear probing, 0 reserved as the empty slot. */
+    static final class LongSet {
+        private long[] slots = new long[16];
+        private int size;
+
+        void add(long h) {
+            if (h == 0) h = 0x9e3779b97f4a7c15L;
+            if (size * 2 >= slots.length) grow();
+            int mask = slots.length - 1;
+            for (int i = (int) h & mask; ; i = (i + 1) & mask) {
+                if (slots[i] == h) return;
+                if (slots[i] == 0) { slots[i] = h; size++; return; }
+            }
+        }
+
+        boolean contains(long h) {
+            if (h == 0) h = 0x9e3779b97f4a7c15L;
+            int mask = slots.length - 1;
+            for (int i = (int) h & mask; ; i = (i + 1) & mask) {
+                if (slots[i] == h) return true;
+                if (slots[i] == 0) return false;
+            }
+        }
+
+        void addAll(LongSet o) {
+            for (long h : o.slots) if (h != 0) add(h);
+        }
+
+        /** Members also in {@code o}. */
+        long intersectionSize(LongSet o) {
+            long n = 0;
+            for (long h : slots) if (h != 0 && o.contains(h)) n++;
+            return n;
+        }
+
+        int size() { return size; }
+
+        private void grow() {
+            var old = slots;
+            slots = new long[old.length * 2];
+            size = 0;
+            for (long h : old) if (h != 0) add(h);
+        }
+    }
+}
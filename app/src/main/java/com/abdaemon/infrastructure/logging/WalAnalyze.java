@@ -0,0 +1,370 @@
+package com.abdaemon.infrastructure.logging;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.io.Serial;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * CLI: per-variant exposure/goal counts, conversion rates and 95% confidence intervals over
+ * WAL segments, scanned in parallel.
+ *   java ... com.abdaemon.infrastructure.logging.WalAnalyze <segment|dir>...
+ *        [--threads N] [--chunk-mb N] [--baseline <treatment>] [--json <file>]
+ * - NDJSON segments are memory-mapped and cut into ~chunk-mb ranges on newline boundaries;
+ *   binary segments carry an inline dictionary and are one unit each
+ * - units run as a fork-join tree; each unit fills its own {@link WalAggregate} and every
+ *   inner node merges its two halves, so the subject sets are merged in parallel too
+ * - a chunk is streamed through one Jackson parser, reading only type/experiment/treatment/
+ *   subject/goal/value; subjects are hashed from the parser's char buffer, never made Strings
+ * - malformed lines (including trailing data after an object) are counted once and skipped;
+ *   the torn tail of an active segment is ignored
+ *
+ * Conversion rate = converted subjects / exposed subjects of the variant, where converted means
+ * exposed and has the goal. Rate CI: Wilson score; lift vs the baseline variant: Wald CI of the
+ * difference; mean value CI: normal approximation.
+ */
+public final class WalAnalyze {
+    private static final JsonFactory JSON = new JsonFactory();
+    private static final double Z95 = 1.959963984540054;
+
+    /** A slice of work: a newline-aligned range of an NDJSON segment, or a whole binary segment. */
+    private record Unit(Path segment, long from, long to, boolean binary) {}
+
+    // ---- report shape (also the --json output) ----
+
+    public record Report(int segments, long bytes, long events, long skipped, double seconds, int threads,
+                         List<ExperimentReport> experiments) {}
+
+    public record ExperimentReport(String experiment, String baseline, List<VariantReport> variants) {}
+
+    public record VariantReport(String treatment, long exposures, long subjects, Map<String, GoalReport> goals) {}
+
+    /**
+     * @param converters exposed subjects of this variant that reached the goal
+     * @param lift       rate minus the baseline variant's rate; null for the baseline itself
+     */
+    public record GoalReport(long events, long converters, double rate, double rateLow, double rateHigh,
+                             Double lift, Double liftLow, Double liftHigh,
+                             long valued, double meanValue, double meanLow, double meanHigh) {}
+
+    public static void main(String[] args) throws IOException {
+        var inputs = new ArrayList<String>();
+        int threads = Runtime.getRuntime().availableProcessors();
+        long chunk = 8L << 20;
+        String baseline = "control";
+        Path json = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--threads" -> threads = Integer.parseInt(args[++i]);
+                case "--chunk-mb" -> chunk = Long.parseLong(args[++i]) << 20;
+                case "--baseline" -> baseline = args[++i];
+                case "--json" -> json = Path.of(args[++i]);
+                default -> {
+                    if (args[i].startsWith("--")) { System.err.println("unknown option: " + args[i]); System.exit(2); }
+                    inputs.add(args[i]);
+                }
+            }
+        }
+        if (inputs.isEmpty() || threads < 1 || chunk < 1) {
+            System.err.println("usage: WalAnalyze <segment|dir>... [--threads N] [--chunk-mb N] [--baseline <treatment>] [--json <file>]");
+            System.exit(2);
+        }
+
+        var report = analyze(WalConvert.expand(inputs.toArray(String[]::new)), threads, chunk, baseline);
+        print(report);
+        if (json != null) {
+            new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(json.toFile(), report);
+        }
+    }
+
+    static Report analyze(List<Path> segments, int threads, long chunkBytes, String baseline) throws IOException {
+        long t0 = System.nanoTime();
+        var units = new ArrayList<Unit>();
+        long bytes = 0;
+        for (Path s : segments) bytes += plan(s, chunkBytes, units);
+
+        var pool = new ForkJoinPool(threads);
+        WalAggregate total;
+        try {
+            total = pool.invoke(new Scan(units, 0, units.size()));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+        double seconds = (System.nanoTime() - t0) / 1e9;
+        return new Report(segments.size(), bytes, total.events, total.skipped, seconds, threads, experiments(total, baseline));
+    }
+
+    /** Splits an NDJSON segment at the first newline after every chunk boundary; returns bytes planned. */
+    private static long plan(Path segment, long chunkBytes, List<Unit> out) throws IOException {
+        if (BinaryWalReader.isBinary(segment)) {
+            out.add(new Unit(segment, 0, 0, true));
+            return Files.size(segment);
+        }
+        try (var ch = FileChannel.open(segment, READ)) {
+            long size = ch.size();
+            if (size > Integer.MAX_VALUE) throw new IOException(segment + ": segments over 2 GB are not supported");
+            var map = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            long end = dataEnd(map);
+            long from = 0;
+            while (from < end) {
+                long to = Math.min(end, from + chunkBytes);
+                while (to < end && map.get((int) to - 1) != '\n') to++;
+                out.add(new Unit(segment, from, to, false));
+                from = to;
+            }
+            return end;
+        }
+    }
+
+    /** End of the last complete line; an active mmap segment is zero-filled past its data. */
+    private static long dataEnd(MappedByteBuffer map) {
+        int i = map.limit();
+        while (i > 0 && map.get(i - 1) == 0) i--;
+        while (i > 0 && map.get(i - 1) != '\n') i--;
+        return i;
+    }
+
+    /** Scans {@code units[from, to)}; returns their merged aggregate. Never serialized. */
+    private static final class Scan extends RecursiveTask<WalAggregate> {
+        @Serial private static final long serialVersionUID = 1L;
+
+        private final transient List<Unit> units;
+        private final int from, to;
+
+        Scan(List<Unit> units, int from, int to) {
+            this.units = units; this.from = from; this.to = to;
+        }
+
+        @Override
+        protected WalAggregate compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                var right = new Scan(units, mid, to);
+                right.fork();
+                var left = new Scan(units, from, mid).compute();
+                return WalAggregate.merged(left, right.join());
+            }
+            var agg = new WalAggregate();
+            if (from == to) return agg;
+            try {
+                var u = units.get(from);
+                if (u.binary()) scanBinary(u.segment(), agg);
+                else scanNdjson(u, agg);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return agg;
+        }
+    }
+
+    private static final ThreadLocal<byte[]> CHUNK = ThreadLocal.withInitial(() -> new byte[0]);
+
+    private static void scanNdjson(Unit u, WalAggregate agg) throws IOException {
+        int len = (int) (u.to() - u.from());
+        byte[] buf = CHUNK.get();
+        if (buf.length < len) CHUNK.set(buf = new byte[len]);
+        try (var ch = FileChannel.open(u.segment(), READ)) {
+            ch.map(FileChannel.MapMode.READ_ONLY, u.from(), len).get(buf, 0, len);
+        }
+        var ev = new Event();
+        int pos = 0;
+        while (pos < len) {
+            // start of the line being parsed: where the current object began, else the line after the last one
+            int lineStart = pos;
+            try (JsonParser p = JSON.createParser(buf, pos, len - pos)) {
+                JsonToken t;
+                while ((t = p.nextToken()) != null) {
+                    lineStart = pos + (int) p.currentTokenLocation().getByteOffset();
+                    if (t != JsonToken.START_OBJECT) throw new IOException("not an object");
+                    ev.read(p);
+                    int end = lineEnd(buf, pos + (int) p.currentLocation().getByteOffset(), len);
+                    if (end < 0) throw new IOException("trailing data after object");
+                    ev.applyTo(agg);
+                    lineStart = end + 1;
+                }
+                pos = len;
+            } catch (IOException e) {
+                // malformed line: count it once and restart the parser on the next one
+                agg.skipped++;
+                int nl = lineStart;
+                while (nl < len && isSpace(buf[nl])) nl++;
+                while (nl < len && buf[nl] != '\n') nl++;
+                pos = nl + 1;
+            }
+        }
+    }
+
+    /** Index of the newline ending the line at {@code from} (or {@code len}); -1 if anything but blanks precede it. */
+    private static int lineEnd(byte[] buf, int from, int len) {
+        int i = from;
+        for (; i < len && buf[i] != '\n'; i++) if (!isSpace(buf[i])) return -1;
+        return i;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+
+    private static void scanBinary(Path segment, WalAggregate agg) throws IOException {
+        try (var r = new BinaryWalReader(segment)) {
+            WalRecord rec;
+            while ((rec = r.next()) != null) {
+                if (rec.experiment() == null || rec.treatment() == null || rec.subject() == null) { agg.skipped++; continue; }
+                long subject = WalAggregate.hash(rec.subject());
+                if ("exposure".equals(rec.type())) agg.exposure(rec.experiment(), rec.treatment(), subject);
+                else if ("goal".equals(rec.type()) && rec.goal() != null) agg.goal(rec.experiment(), rec.treatment(), subject, rec.goal(), rec.value());
+                else agg.skipped++;
+            }
+        }
+    }
+
+    /** Fields of the line being scanned; reused across lines of a chunk. */
+    private static final class Event {
+        String type, experiment, treatment, goal;
+        long subject;
+        boolean hasSubject;
+        Double value;
+
+        void read(JsonParser p) throws IOException {
+            type = experiment = treatment = goal = null;
+            hasSubject = false;
+            value = null;
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String f = p.currentName();
+                JsonToken t = p.nextToken();
+                if (t.isStructStart()) { p.skipChildren(); continue; }   // none of the read fields nest
+                switch (f) {
+                    case "type" -> type = string(p, t);
+                    case "experiment" -> experiment = string(p, t);
+                    case "treatment" -> treatment = string(p, t);
+                    case "goal" -> goal = string(p, t);
+                    case "subject" -> {
+                        if (t == JsonToken.VALUE_STRING) {
+                            subject = WalAggregate.hash(p.getTextCharacters(), p.getTextOffset(), p.getTextLength());
+                            hasSubject = true;
+                        }
+                    }
+                    case "value" -> value = t.isNumeric() ? p.getDoubleValue() : null;
+                    default -> { }
+                }
+            }
+        }
+
+        private static String string(JsonParser p, JsonToken t) throws IOException {
+            return t == JsonToken.VALUE_STRING ? p.getText() : null;
+        }
+
+        void applyTo(WalAggregate agg) {
+            if (type == null || experiment == null || treatment == null || !hasSubject) { agg.skipped++; return; }
+            if (type.equals("exposure")) agg.exposure(experiment, treatment, subject);
+            else if (type.equals("goal") && goal != null) agg.goal(experiment, treatment, subject, goal, value);
+            else agg.skipped++;
+        }
+    }
+
+    // ---- statistics ----
+
+    private static List<ExperimentReport> experiments(WalAggregate total, String baselineName) {
+        var out = new ArrayList<ExperimentReport>();
+        for (var e : new TreeMap<>(total.experiments).entrySet()) {
+            var variants = new TreeMap<>(e.getValue());
+            String baseline = variants.containsKey(baselineName) ? baselineName : variants.firstKey();
+            var base = variants.get(baseline);
+            var reports = new ArrayList<VariantReport>();
+            // baseline first, then the rest by name
+            var order = new ArrayList<>(variants.keySet());
+            order.sort(Comparator.comparing((String t) -> !t.equals(baseline)).thenComparing(t -> t));
+            for (String t : order) {
+                var v = variants.get(t);
+                var goals = new LinkedHashMap<String, GoalReport>();
+                for (var g : new TreeMap<>(v.goals).entrySet()) {
+                    goals.put(g.getKey(), goal(v, g.getValue(), t.equals(baseline) ? null : base, g.getKey()));
+                }
+                reports.add(new VariantReport(t, v.exposures, v.exposed.size(), goals));
+            }
+            out.add(new ExperimentReport(e.getKey(), baseline, reports));
+        }
+        return out;
+    }
+
+    private static GoalReport goal(WalAggregate.Variant v, WalAggregate.Goal g, WalAggregate.Variant base, String name) {
+        long n = v.exposed.size();
+        long k = g.subjects.intersectionSize(v.exposed);
+        double rate = n > 0 ? (double) k / n : 0;
+        double[] wilson = wilson(k, n);
+
+        Double lift = null, liftLow = null, liftHigh = null;
+        var bg = base == null ? null : base.goals.get(name);
+        long bn = base == null ? 0 : base.exposed.size();
+        if (base != null && n > 0 && bn > 0) {
+            long bk = bg == null ? 0 : bg.subjects.intersectionSize(base.exposed);
+            double br = (double) bk / bn;
+            double se = Math.sqrt(rate * (1 - rate) / n + br * (1 - br) / bn);
+            lift = rate - br;
+            liftLow = lift - Z95 * se;
+            liftHigh = lift + Z95 * se;
+        }
+
+        double half = g.valued > 1 ? Z95 * Math.sqrt(g.variance() / g.valued) : 0;
+        return new GoalReport(g.events, k, rate, wilson[0], wilson[1], lift, liftLow, liftHigh,
+                g.valued, g.mean, g.mean - half, g.mean + half);
+    }
+
+    /** Wilson score interval for k successes in n trials. */
+    private static double[] wilson(long k, long n) {
+        if (n == 0) return new double[]{0, 0};
+        double p = (double) k / n, z2 = Z95 * Z95;
+        double denom = 1 + z2 / n;
+        double center = (p + z2 / (2 * n)) / denom;
+        double half = Z95 * Math.sqrt(p * (1 - p) / n + z2 / (4.0 * n * n)) / denom;
+        return new double[]{Math.max(0, center - half), Math.min(1, center + half)};
+    }
+
+    private static void print(Report r) {
+        System.err.printf(Locale.ROOT, "scanned %d segments, %.1f MB, %d events (%d skipped) in %.2fs with %d threads (%.0f MB/s)%n",
+                r.segments(), r.bytes() / 1e6, r.events(), r.skipped(), r.seconds(), r.threads(),
+                r.bytes() / 1e6 / Math.max(r.seconds(), 1e-9));
+        for (var e : r.experiments()) {
+            System.out.printf(Locale.ROOT, "%n%s (baseline %s)%n", e.experiment(), e.baseline());
+            for (var v : e.variants()) {
+                System.out.printf(Locale.ROOT, "  %-20s exposures %10d  subjects %9d%n", v.treatment(), v.exposures(), v.subjects());
+                for (var g : v.goals().entrySet()) {
+                    var s = g.getValue();
+                    System.out.printf(Locale.ROOT, "    %-18s events %8d  conv %8d  rate %7.3f%% [%6.3f, %6.3f]",
+                            g.getKey(), s.events(), s.converters(), 100 * s.rate(), 100 * s.rateLow(), 100 * s.rateHigh());
+                    if (s.lift() != null) {
+                        System.out.printf(Locale.ROOT, "  lift %+7.3fpp [%+7.3f, %+7.3f]",
+                                100 * s.lift(), 100 * s.liftLow(), 100 * s.liftHigh());
+                    }
+                    if (s.valued() > 0) {
+                        System.out.printf(Locale.ROOT, "  value mean %.4g [%.4g, %.4g] n=%d",
+                                s.meanValue(), s.meanLow(), s.meanHigh(), s.valued());
+                    }
+                    System.out.println();
+                }
+            }
+        }
+    }
+}
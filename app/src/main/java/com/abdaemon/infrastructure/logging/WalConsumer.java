@@ -0,0 +1,169 @@
+package com.abdaemon.infrastructure.logging;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger; import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Streams WAL records in segment order from a durable (segment, offset) checkpoint.
+ * - handles NDJSON and binary segments, mmap-preallocated or append-mode
+ * - tails the active segment; moves on once a newer segment holds data
+ * - partial trailing data in a finished segment is logged and skipped
+ * - fully consumed segments can be deleted or archived
+ *
+ * Not thread-safe; one consumer per checkpoint file.
+ */
+public final class WalConsumer implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(WalConsumer.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /** Resume point: next record starts at {@code offset} within {@code segment}. */
+    public record Checkpoint(String segment, long offset) {}
+
+    private final Path dir;
+    private final Path checkpointFile;
+
+    private Path segment;            // null until a segment exists
+    private SegmentReader reader;
+    private Checkpoint committed;
+
+    public WalConsumer(Path dir, Path checkpointFile) throws IOException {
+        this.dir = dir;
+        this.checkpointFile = checkpointFile;
+        this.committed = Files.exists(checkpointFile)
+                ? MAPPER.readValue(checkpointFile.toFile(), Checkpoint.class)
+                : null;
+        resume(committed);
+    }
+
+    /**
+     * Hands up to {@code max} records to {@code handler}; returns how many were delivered.
+     * 0 means the consumer is caught up with the writer.
+     */
+    public int poll(Consumer<WalRecord> handler, int max) throws IOException {
+        int n = 0;
+        while (n < max) {
+            if (reader == null && !openFirst()) break;
+            WalRecord rec = reader.next();
+            if (rec != null) { handler.accept(rec); n++; continue; }
+
+            reader.refresh();
+            if ((rec = reader.next()) != null) { handler.accept(rec); n++; continue; }
+
+            Path next = nextWithData(segment);
+            if (next == null) break;                  // caught up on the active segment
+            // A newer segment holds data, so this one is finished; re-check once for its last bytes
+            reader.refresh();
+            if ((rec = reader.next()) != null) { handler.accept(rec); n++; continue; }
+            if (reader.hasPartialTail())
+                log.warn("WAL {}: skipping partial tail at offset {}", segment.getFileName(), reader.position());
+            switchTo(next, 0);
+        }
+        return n;
+    }
+
+    /**
+     * Tails until {@code running} turns false, committing after every non-empty poll.
+     * Sleeps {@code idle} between polls only while caught up.
+     */
+    public void follow(Consumer<WalRecord> handler, int batch, Duration idle, BooleanSupplier running) throws IOException {
+        while (running.getAsBoolean()) {
+            if (poll(handler, batch) > 0) commit();
+            else LockSupport.parkNanos(idle.toNanos());
+        }
+    }
+
+    /** Current read position (may be ahead of the last commit). */
+    public Checkpoint position() {
+        return segment == null ? null : new Checkpoint(segment.getFileName().toString(), reader.position());
+    }
+
+    /** Atomically persists the current position. */
+    public void commit() throws IOException {
+        var cp = position();
+        if (cp == null || cp.equals(committed)) return;
+        Path tmp = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+        Files.write(tmp, MAPPER.writeValueAsBytes(cp));
+        Files.move(tmp, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        committed = cp;
+    }
+
+    /**
+     * Deletes (archiveDir == null) or moves into archiveDir every segment before the
+     * committed one. Returns the number of segments removed from the WAL dir.
+     */
+    public int purgeConsumed(Path archiveDir) throws IOException {
+        if (committed == null) return 0;
+        Path cp = dir.resolve(committed.segment());
+        int n = 0;
+        if (archiveDir != null) Files.createDirectories(archiveDir);
+        for (Path p : segments()) {
+            if (WalSegmentWriter.ORDER.compare(p, cp) >= 0) break;
+            if (archiveDir == null) Files.deleteIfExists(p);
+            else Files.move(p, archiveDir.resolve(p.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+            n++;
+        }
+        return n;
+    }
+
+    private void resume(Checkpoint cp) throws IOException {
+        if (cp == null) { openFirst(); return; }
+        Path p = dir.resolve(cp.segment());
+        if (Files.exists(p)) { switchTo(p, cp.offset()); return; }
+        // Checkpointed segment is gone (archived elsewhere): continue with the next one
+        for (Path s : segments()) {
+            if (WalSegmentWriter.ORDER.compare(s, p) > 0) { switchTo(s, 0); return; }
+        }
+        segment = null;
+    }
+
+    private boolean openFirst() throws IOException {
+        var all = segments();
+        for (Path p : all) {
+            if (hasData(p)) { switchTo(p, 0); return true; }
+        }
+        return false;
+    }
+
+    private void switchTo(Path p, long offset) throws IOException {
+        if (reader != null) reader.close();
+        reader = SegmentReader.open(p, offset);
+        segment = p;
+    }
+
+    private Path nextWithData(Path after) throws IOException {
+        for (Path p : segments()) {
+            if (WalSegmentWriter.ORDER.compare(p, after) > 0 && hasData(p)) return p;
+        }
+        return null;
+    }
+
+    /** Any non-zero first byte: channel segments start empty, mmap segments start zero-filled. */
+    private static boolean hasData(Path p) throws IOException {
+        try (var in = Files.newInputStream(p)) {
+            int b = in.read();
+            return b > 0;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> s = Files.list(dir)) {
+            return s.filter(WalSegmentWriter::isSegment).sorted(WalSegmentWriter.ORDER).toList();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (reader != null) reader.close();
+    }
+}
@@ -0,0 +1,73 @@
+package com.abdaemon.infrastructure.logging;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * CLI: converts WAL segments (binary or NDJSON) to NDJSON on stdout.
+ *   java ... com.abdaemon.infrastructure.logging.WalConvert <segment|dir>...
+ * Directories are expanded to their segments in write order.
+ */
+public final class WalConvert {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("usage: WalConvert <segment|dir>...");
+            System.exit(2);
+        }
+        var mapper = new ObjectMapper();
+        try (var out = new BufferedOutputStream(System.out, 1 << 16)) {
+            for (Path p : expand(args)) convert(p, out, mapper);
+        }
+    }
+
+    static void convert(Path segment, OutputStream out, ObjectMapper mapper) throws IOException {
+        if (!BinaryWalReader.isBinary(segment)) {
+            // Already NDJSON; an active mmap segment ends in zero fill, copy complete lines only
+            try (var ch = FileChannel.open(segment, StandardOpenOption.READ)) {
+                var map = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+                var chunk = new byte[1 << 16];
+                map.limit((int) MappedSegmentWriter.ndjsonEnd(map));
+                while (map.hasRemaining()) {
+                    int n = Math.min(chunk.length, map.remaining());
+                    map.get(chunk, 0, n);
+                    out.write(chunk, 0, n);
+                }
+            }
+            return;
+        }
+        try (var r = new BinaryWalReader(segment)) {
+            WalRecord rec;
+            while ((rec = r.next()) != null) {
+                out.write(mapper.writeValueAsBytes(rec.toMap()));
+                out.write('\n');
+            }
+            if (r.torn()) System.err.println("WAL " + segment.getFileName() + ": stopped at torn record, " + r.tornReason());
+        }
+    }
+
+    static List<Path> expand(String[] args) throws IOException {
+        var out = new ArrayList<Path>();
+        for (String a : args) {
+            Path p = Path.of(a);
+            if (Files.isDirectory(p)) {
+                try (Stream<Path> s = Files.list(p)) {
+                    s.filter(WalSegmentWriter::isSegment).sorted(WalSegmentWriter.ORDER).forEach(out::add);
+                }
+            } else {
+                out.add(p);
+            }
+        }
+        return out;
+    }
+}
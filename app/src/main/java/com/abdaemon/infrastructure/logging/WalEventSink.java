@@ -1,51 +1,89 @@
 package com.abdaemon.infrastructure.logging;
 
+import com.abdaemon.infrastructure.metrics.Metrics;
 import com.abdaemon.ports.outbound.EventSink;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger; import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
 import java.nio.file.*;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.locks.ReentrantLock;
 
-import static java.nio.file.StandardOpenOption.*;
-
 /**
  * Durable, thread-safe Write-Ahead Log for A/B events.
- * - NDJSON (one JSON per line)
+ * - NDJSON (one JSON per line) or compact binary records ({@link WalFormat})
  * - size-based rotation (e.g., 32MB)
- * - optional fsync per write
+ * - direct mode: caller thread writes under a lock, optional fsync per write
+ * - group-commit mode: lock-free handoff to a writer thread, one fsync per group
+ * - segments: append-mode FileChannel, or preallocated mmap with background rotation
  *
  * File layout:
  *   <dir>/events-YYYYMMDD-HHMMSS-<seq>.wal
  */
 public final class WalEventSink implements EventSink, AutoCloseable {
     private static final Logger log = LoggerFactory.getLogger(WalEventSink.class);
-    private static final String PREFIX = "events-";
-    private static final String SUFFIX = ".wal";
 
-    private final Path dir;
-    private final long maxBytes;
+    /**
+     * Group-commit settings.
+     * @param queueCapacity  ring slots (rounded up to a power of two); producers wait when full
+     * @param maxBatch       max entries coalesced into one write/fsync
+     * @param maxDelay       max time the writer lingers to fill a group
+     */
+    public record GroupCommit(int queueCapacity, int maxBatch, Duration maxDelay) {
+        public GroupCommit {
+            if (queueCapacity <= 0) throw new IllegalArgumentException("GroupCommit.queueCapacity must be > 0");
+            if (maxBatch <= 0) throw new IllegalArgumentException("GroupCommit.maxBatch must be > 0");
+            if (maxDelay == null || maxDelay.isNegative()) throw new IllegalArgumentException("GroupCommit.maxDelay must be >= 0");
+        }
+    }
+
     private final boolean fsync;
-    private final ObjectMapper mapper = new ObjectMapper();
+    private final WalFormat format;
     private final ReentrantLock lock = new ReentrantLock();
-
-    private FileChannel ch;          // guarded by lock
-    private Path current;            // guarded by lock
-    private long writtenBytes = 0;   // guarded by lock
-    private long seq = 0;            // guarded by lock
+    private final SegmentWriter segments;    // guarded by lock (direct) or owned by group writer
+    private final GroupCommitWriter group;      // null in direct mode
+    private final WalMetrics metrics;
+    private IOException lost;                   // direct mode, guarded by lock: first failed write or fsync
+    private boolean closed;                     // guarded by lock; segments are sealed and unmapped
 
     public WalEventSink(Path dir, long maxBytes, boolean fsync) {
-        this.dir = dir;
-        this.maxBytes = maxBytes;
+        this(dir, maxBytes, fsync, null, new NdjsonWalFormat(), false);
+    }
+
+    /**
+     * @param groupCommit null for direct mode
+     * @param mmap        preallocated memory-mapped segments instead of append-mode channels
+     */
+    public WalEventSink(Path dir, long maxBytes, boolean fsync, GroupCommit groupCommit, WalFormat format, boolean mmap) {
+        this(dir, maxBytes, fsync, groupCommit, format, mmap, new Metrics());
+    }
+
+    /** @param metrics registry for append/fsync latency, bytes, rotations and errors */
+    public WalEventSink(Path dir, long maxBytes, boolean fsync, GroupCommit groupCommit, WalFormat format, boolean mmap,
+                        Metrics metrics) {
+        this(open(dir, maxBytes, format, mmap), fsync, groupCommit, format, metrics);
+    }
+
+    /** Over an opened segment writer, which the sink then owns. */
+    WalEventSink(SegmentWriter segments, boolean fsync, GroupCommit groupCommit, WalFormat format, Metrics metrics) {
         this.fsync = fsync;
+        this.format = format;
+        this.segments = segments;
+        this.metrics = WalMetrics.register(metrics, segments);
+        this.group = groupCommit == null ? null : new GroupCommitWriter(segments, this.metrics, fsync,
+                groupCommit.queueCapacity(), groupCommit.maxBatch(), groupCommit.maxDelay().toNanos());
+    }
+
+    private static SegmentWriter open(Path dir, long maxBytes, WalFormat format, boolean mmap) {
         try {
-            Files.createDirectories(dir);
-            openNewSegment();
+            return mmap
+                    ? new MappedSegmentWriter(dir, maxBytes, format)
+                    : new WalSegmentWriter(dir, maxBytes, format);
         } catch (IOException e) {
             throw new RuntimeException("Failed to init WAL dir: " + dir, e);
         }
@@ -54,95 +92,110 @@ public final class WalEventSink implements EventSink, AutoCloseable {
     @Override
     public void enqueueExposure(String experiment, String treatment, String subjectKey,
                                 Instant ts, Map<String, String> ctx) {
-        var evt = Map.of(
-                "type", "exposure",
-                "ts", ts.toString(),
-                "experiment", experiment,
-                "treatment", treatment,
-                "subject", subjectKey,
-                "ctx", ctx
-        );
-        append(evt);
+        try {
+            appendLines(format.exposure(experiment, treatment, subjectKey, ts, ctx));
+        } catch (Exception e) {
+            log.warn("WAL: failed to serialize event: {}", e.toString());
+        }
     }
 
+    /**
+     * Serializes the whole batch up front, then writes (and fsyncs) it under one lock hold.
+     * @throws IllegalArgumentException an event cannot be serialized; nothing of the batch is written
+     */
     @Override
-    public void enqueueGoal(String experiment, String treatment, String subjectKey,
-                            String goal, Double value, Instant ts, Map<String, String> ctx) {
-        var evt = Map.of(
-                "type", "goal",
-                "ts", ts.toString(),
-                "experiment", experiment,
-                "treatment", treatment,
-                "subject", subjectKey,
-                "goal", goal,
-                "value", value,
-                "ctx", ctx
-        );
-        append(evt);
+    public void enqueueExposures(List<Exposure> exposures) {
+        if (exposures.isEmpty()) return;
+        var out = new ByteArrayOutputStream(exposures.size() * 160);
+        for (int i = 0; i < exposures.size(); i++) {
+            var e = exposures.get(i);
+            try {
+                out.write(format.exposure(e.experiment(), e.treatment(), e.subjectKey(), e.ts(), e.ctx()));
+            } catch (Exception ex) {
+                throw unserializable(i, ex);
+            }
+        }
+        appendLines(out.toByteArray());
+    }
+
+    /** @throws IllegalArgumentException an event cannot be serialized; nothing of the batch is written */
+    @Override
+    public void enqueueGoals(List<Goal> goals) {
+        if (goals.isEmpty()) return;
+        var out = new ByteArrayOutputStream(goals.size() * 180);
+        for (int i = 0; i < goals.size(); i++) {
+            var g = goals.get(i);
+            try {
+                out.write(format.goal(g.experiment(), g.treatment(), g.subjectKey(), g.goal(), g.value(), g.ts(), g.ctx()));
+            } catch (Exception ex) {
+                throw unserializable(i, ex);
+            }
+        }
+        appendLines(out.toByteArray());
     }
 
-    private void append(Object event) {
-        byte[] json;
+    private IllegalArgumentException unserializable(int index, Exception e) {
+        metrics.errors().increment();
+        log.warn("WAL: batch rejected, event {} failed to serialize: {}", index + 1, e.toString());
+        return new IllegalArgumentException("event " + (index + 1) + ": cannot be logged (" + e.getMessage() + ")");
+    }
+
+    @Override
+    public void enqueueGoal(String experiment, String treatment, String subjectKey,
+                            String goal, Double value, Instant ts, Map<String, String> ctx) {
         try {
-            json = mapper.writeValueAsBytes(event);
+            appendLines(format.goal(experiment, treatment, subjectKey, goal, value, ts, ctx));
         } catch (Exception e) {
             log.warn("WAL: failed to serialize event: {}", e.toString());
-            return;
         }
-        // JSON + newline
-        byte[] line = withNewline(json);
+    }
 
+    private void appendLines(byte[] lines) {
+        if (group != null) { group.submit(lines); return; }
         lock.lock();
         try {
-            rotateIfNeeded(line.length);
-            write(line);
+            if (closed) { log.warn("WAL: dropped event after close"); return; }
+            metrics.write(segments, lines);
+            if (fsync) metrics.force(segments); else segments.flush();
         } catch (IOException e) {
+            metrics.errors().increment();
             log.error("WAL write error: {}", e.toString());
+            if (lost == null) lost = e;
         } finally {
             lock.unlock();
         }
     }
 
-    private static byte[] withNewline(byte[] json) {
-        byte[] line = new byte[json.length + 1];
-        System.arraycopy(json, 0, line, 0, json.length);
-        line[line.length - 1] = (byte) '\n';
-        return line;
-    }
-
-    private void rotateIfNeeded(int incomingLen) throws IOException {
-        if (ch == null) { openNewSegment(); return; }
-        if (writtenBytes + incomingLen <= maxBytes) return;
-        ch.force(true);
-        ch.close();
-        openNewSegment();
-    }
-
-    private void openNewSegment() throws IOException {
-        String stamp = java.time.format.DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")
-                .withZone(java.time.ZoneOffset.UTC).format(Instant.now());
-        String fname = PREFIX + stamp + "-" + (seq++) + SUFFIX;
-        current = dir.resolve(fname);
-        ch = FileChannel.open(current, CREATE, WRITE, APPEND);
-        writtenBytes = Files.exists(current) ? Files.size(current) : 0;
-        log.info("WAL opened segment {}", current.getFileName());
-    }
-
-    private void write(byte[] line) throws IOException {
-        var buf = ByteBuffer.wrap(line);
-        while (buf.hasRemaining()) ch.write(buf);
-        writtenBytes += line.length;
-        if (fsync) ch.force(true);
+    /**
+     * Completes once every event enqueued before the call is on disk (fsynced).
+     * Group mode shares one fsync across all waiters of a commit. Once a write or fsync has
+     * failed, every later call fails with that error: the lost events stay lost.
+     */
+    @Override
+    public CompletableFuture<Void> awaitDurable() {
+        if (group != null) return group.awaitDurable();
+        lock.lock();
+        try {
+            if (lost != null) return CompletableFuture.failedFuture(lost);
+            if (closed) return CompletableFuture.failedFuture(new IOException("WAL closed"));
+            if (!fsync) metrics.force(segments);
+            return CompletableFuture.completedFuture(null);
+        } catch (IOException e) {
+            lost = e;
+            return CompletableFuture.failedFuture(e);
+        } finally {
+            lock.unlock();
+        }
     }
 
     @Override
     public void close() {
+        if (group != null) group.close();
         lock.lock();
         try {
-            if (ch != null && ch.isOpen()) {
-                try { ch.force(true); } catch (IOException ignored) {}
-                try { ch.close(); } catch (IOException ignored) {}
-            }
+            if (closed) return;
+            closed = true;
+            segments.close();
         } finally {
             lock.unlock();
         }
@@ -150,8 +203,9 @@ public final class WalEventSink implements EventSink, AutoCloseable {
 
     /* Optional helper to inspect current segment name (useful for tests) */
     public String currentSegment() {
+        if (group != null) return group.currentSegment();
         lock.lock();
-        try { return current == null ? "" : current.getFileName().toString(); }
+        try { return segments.currentName(); }
         finally { lock.unlock(); }
     }
 }
@@ -0,0 +1,38 @@
+package com.abdaemon.infrastructure.logging;
+
+import java.time.Instant;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * On-disk encoding of WAL events.
+ * Encoders run on producer threads and must be thread-safe; {@link #preamble}
+ * runs on whichever thread owns the active segment (lock holder or writer thread).
+ */
+public interface WalFormat {
+    byte[] EMPTY = new byte[0];
+
+    String name();
+
+    byte[] exposure(String experiment, String treatment, String subjectKey, Instant ts, Map<String, String> ctx) throws Exception;
+
+    byte[] goal(String experiment, String treatment, String subjectKey, String goal, Double value,
+                Instant ts, Map<String, String> ctx) throws Exception;
+
+    /** Bytes the active segment still owes before the next entry (header, dictionary additions). */
+    default byte[] preamble(SegmentState segment) { return EMPTY; }
+
+    /** Per-segment bookkeeping, reset whenever a new segment is opened. */
+    final class SegmentState {
+        boolean headerWritten;
+        int dictionaryDefined;
+    }
+
+    static WalFormat of(String name) {
+        return switch (name == null ? "ndjson" : name.trim().toLowerCase(Locale.ROOT)) {
+            case "ndjson", "json" -> new NdjsonWalFormat();
+            case "binary" -> new BinaryWalFormat();
+            default -> throw new IllegalArgumentException("Unknown WAL format: " + name + " (expected ndjson|binary)");
+        };
+    }
+}
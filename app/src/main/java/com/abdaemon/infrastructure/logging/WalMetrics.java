@@ -0,0 +1,33 @@
+package com.abdaemon.infrastructure.logging;
+
+import com.abdaemon.infrastructure.metrics.LatencyHistogram;
+import com.abdaemon.infrastructure.metrics.Metrics;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+/** WAL instruments, registered once per sink. */
+record WalMetrics(LatencyHistogram append, LatencyHistogram fsync, LongAdder bytes, LongAdder errors) {
+
+    static WalMetrics register(Metrics m, SegmentWriter segments) {
+        m.counter("ab_wal_rotations_total", "WAL segment rotations", null, segments::rotations);
+        return new WalMetrics(
+                m.histogram("ab_wal_append_seconds", "Time to append one WAL entry to the active segment (excl. fsync)", null),
+                m.histogram("ab_wal_fsync_seconds", "Time per WAL fsync/msync", null),
+                m.counter("ab_wal_bytes_total", "WAL entry bytes appended", null),
+                m.counter("ab_wal_write_errors_total", "WAL append/flush/fsync failures", null));
+    }
+
+    void write(SegmentWriter segments, byte[] entry) throws IOException {
+        long t0 = System.nanoTime();
+        segments.append(entry);
+        append.recordSince(t0);
+        bytes.add(entry.length);
+    }
+
+    void force(SegmentWriter segments) throws IOException {
+        long t0 = System.nanoTime();
+        segments.force();
+        fsync.recordSince(t0);
+    }
+}
@@ -0,0 +1,33 @@
+package com.abdaemon.infrastructure.logging;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** One decoded WAL event, independent of the on-disk format. */
+public record WalRecord(
+        String type,            // "exposure" | "goal"
+        Instant ts,
+        String experiment,
+        String treatment,
+        String subject,
+        String goal,            // goal events only
+        Double value,           // goal events only, optional
+        Map<String, String> ctx
+) {
+    /** Field layout of the NDJSON format, for conversion and tooling. */
+    public Map<String, Object> toMap() {
+        var m = new LinkedHashMap<String, Object>();
+        m.put("type", type);
+        m.put("ts", ts.toString());
+        m.put("experiment", experiment);
+        m.put("treatment", treatment);
+        m.put("subject", subject);
+        if ("goal".equals(type)) {
+            m.put("goal", goal);
+            m.put("value", value);
+        }
+        m.put("ctx", ctx);
+        return m;
+    }
+}
@@ -0,0 +1,167 @@
+package com.abdaemon.infrastructure.logging;
+
+import org.slf4j.Logger; import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.time.Instant;
+import java.util.Comparator;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Append-mode FileChannel segments with size-based rotation.
+ * Appends are coalesced in a direct buffer and written on {@link #flush()}.
+ * Not thread-safe: callers serialize access (lock or single writer thread).
+ *
+ * File layout:
+ *   <dir>/events-YYYYMMDD-HHMMSS-<seq>.wal
+ * seq continues past the highest one already in the directory and files are created
+ * exclusively, so a restart within the same second never reuses (or appends to) a name.
+ */
+final class WalSegmentWriter implements SegmentWriter {
+    private static final Logger log = LoggerFactory.getLogger(WalSegmentWriter.class);
+    static final String PREFIX = "events-";
+    static final String SUFFIX = ".wal";
+
+    /** Segment order: by stamp, then numeric sequence (names are not zero-padded). */
+    static final Comparator<Path> ORDER = Comparator
+            .comparing((Path p) -> stamp(p.getFileName().toString()))
+            .thenComparingLong(p -> sequence(p.getFileName().toString()));
+
+    private final Path dir;
+    private final long maxBytes;
+    private final WalFormat format;
+    private WalFormat.SegmentState state;
+
+    private FileChannel ch;
+    private Path current;
+    private long writtenBytes = 0;   // on disk + buffered
+    private long seq;
+    private volatile long rotations = 0;
+    private ByteBuffer pending = ByteBuffer.allocateDirect(1 << 16);
+
+    WalSegmentWriter(Path dir, long maxBytes, WalFormat format) throws IOException {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.format = format;
+        Files.createDirectories(dir);
+        this.seq = nextSequence(dir);
+        openNewSegment();
+    }
+
+    @Override
+    public void append(byte[] entry) throws IOException {
+        byte[] pre = format.preamble(state);
+        if (writtenBytes + pre.length + entry.length > maxBytes && writtenBytes > 0) {
+            rotate();
+            pre = format.preamble(state);
+        }
+        put(pre);
+        put(entry);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (pending.position() == 0) return;
+        pending.flip();
+        try {
+            while (pending.hasRemaining()) ch.write(pending);
+        } finally {
+            pending.clear();
+        }
+    }
+
+    @Override
+    public void force() throws IOException {
+        flush();
+        if (ch != null && ch.isOpen()) ch.force(true);
+    }
+
+    @Override
+    public String currentName() {
+        return current == null ? "" : current.getFileName().toString();
+    }
+
+    private void put(byte[] b) throws IOException {
+        if (b.length == 0) return;
+        if (pending.remaining() < b.length) {
+            flush();
+            if (pending.capacity() < b.length) pending = ByteBuffer.allocateDirect(b.length);
+        }
+        pending.put(b);
+        writtenBytes += b.length;
+    }
+
+    private void rotate() throws IOException {
+        force();
+        ch.close();
+        openNewSegment();
+        rotations++;
+    }
+
+    @Override
+    public long rotations() {
+        return rotations;
+    }
+
+    private void openNewSegment() throws IOException {
+        while (true) {
+            current = dir.resolve(segmentName(seq++));
+            try {
+                ch = FileChannel.open(current, CREATE_NEW, WRITE);
+                break;
+            } catch (FileAlreadyExistsException e) {
+                // name taken (another writer on this directory); try the next sequence
+            }
+        }
+        writtenBytes = 0;
+        state = new WalFormat.SegmentState();
+        log.info("WAL opened segment {}", current.getFileName());
+    }
+
+    static String segmentName(long seq) {
+        String stamp = java.time.format.DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")
+                .withZone(java.time.ZoneOffset.UTC).format(Instant.now());
+        return PREFIX + stamp + "-" + seq + SUFFIX;
+    }
+
+    /** One past the highest segment sequence in {@code dir}; 0 when it holds none. */
+    static long nextSequence(Path dir) throws IOException {
+        try (var s = Files.list(dir)) {
+            return s.filter(WalSegmentWriter::isSegment)
+                    .mapToLong(p -> sequence(p.getFileName().toString()))
+                    .max().orElse(-1) + 1;
+        }
+    }
+
+    static boolean isSegment(Path p) {
+        String n = p.getFileName().toString();
+        return n.startsWith(PREFIX) && n.endsWith(SUFFIX);
+    }
+
+    private static String stamp(String name) {
+        int end = name.lastIndexOf('-');
+        return end > PREFIX.length() ? name.substring(PREFIX.length(), end) : name;
+    }
+
+    private static long sequence(String name) {
+        int start = name.lastIndexOf('-') + 1;
+        int end = name.length() - SUFFIX.length();
+        try {
+            return start > 0 && end > start ? Long.parseLong(name.substring(start, end)) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (ch != null && ch.isOpen()) {
+            try { force(); } catch (IOException ignored) {}
+            try { ch.close(); } catch (IOException ignored) {}
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.abdaemon.infrastructure.logging;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * CLI: streams WAL records as NDJSON to stdout from a durable checkpoint.
+ *   java ... com.abdaemon.infrastructure.logging.WalTail <walDir> <checkpointFile>
+ *        [--follow] [--batch N] [--idle-ms N] [--purge | --archive <dir>]
+ * Output is flushed before each checkpoint commit (at-least-once delivery).
+ */
+public final class WalTail {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: WalTail <walDir> <checkpointFile> [--follow] [--batch N] [--idle-ms N] [--purge | --archive <dir>]");
+            System.exit(2);
+        }
+        Path dir = Path.of(args[0]);
+        Path checkpoint = Path.of(args[1]);
+        boolean follow = false, purge = false;
+        Path archive = null;
+        int batch = 4096;
+        long idleMs = 20;
+        for (int i = 2; i < args.length; i++) {
+            switch (args[i]) {
+                case "--follow" -> follow = true;
+                case "--purge" -> purge = true;
+                case "--archive" -> { purge = true; archive = Path.of(args[++i]); }
+                case "--batch" -> batch = Integer.parseInt(args[++i]);
+                case "--idle-ms" -> idleMs = Long.parseLong(args[++i]);
+                default -> { System.err.println("unknown option: " + args[i]); System.exit(2); }
+            }
+        }
+
+        var mapper = new ObjectMapper();
+        try (var out = new BufferedOutputStream(System.out, 1 << 16);
+             var consumer = new WalConsumer(dir, checkpoint)) {
+            Consumer<WalRecord> print = r -> {
+                try {
+                    out.write(mapper.writeValueAsBytes(r.toMap()));
+                    out.write('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            };
+            do {
+                int n = consumer.poll(print, batch);
+                if (n > 0) {
+                    out.flush();
+                    consumer.commit();
+                    if (purge) consumer.purgeConsumed(archive);
+                } else if (follow) {
+                    LockSupport.parkNanos(Duration.ofMillis(idleMs).toNanos());
+                } else {
+                    break;
+                }
+            } while (true);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.abdaemon.infrastructure.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free log-linear histogram of nanosecond durations (HDR-style).
+ * - values below 16ns are exact; above, 8 sub-buckets per power of two (~12% resolution)
+ * - counts live in a few striped atomic arrays, picked by thread id, so concurrent
+ *   recorders rarely share a cache line
+ * - {@link #record} is a leading-zero count, a shift and one atomic increment
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB = 1 << SUB_BITS;                    // 8
+    private static final int LINEAR = SUB << 1;                       // 16 exact buckets
+    static final int BUCKETS = LINEAR + (63 - SUB_BITS - 1) * SUB;    // covers the full long range
+
+    private static final int STRIPES = Math.min(8, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) << 1);
+
+    private final AtomicLongArray[] counts = new AtomicLongArray[STRIPES];
+    private final LongAdder sumNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < STRIPES; i++) counts[i] = new AtomicLongArray(BUCKETS);
+    }
+
+    /** Records the time elapsed since {@code startNanos} (a {@link System#nanoTime()} reading). */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts[(int) Thread.currentThread().threadId() & (STRIPES - 1)].getAndIncrement(index(nanos));
+        sumNanos.add(nanos);
+    }
+
+    static int index(long v) {
+        if (v < LINEAR) return (int) v;
+        int e = 63 - Long.numberOfLeadingZeros(v);                   // >= 4
+        int mantissa = (int) (v >>> (e - SUB_BITS)) & (SUB - 1);
+        return LINEAR + (e - SUB_BITS - 1) * SUB + mantissa;
+    }
+
+    /** Largest value that maps to bucket {@code i}. */
+    static long upperBound(int i) {
+        if (i < LINEAR) return i;
+        int e = (i - LINEAR) / SUB + SUB_BITS + 1;
+        int mantissa = (i - LINEAR) % SUB;
+        long next = (long) (SUB + mantissa + 1) << (e - SUB_BITS);
+        return next - 1 < 0 ? Long.MAX_VALUE : next - 1;
+    }
+
+    /** Point-in-time copy; concurrent records may land on either side of it. */
+    public Snapshot snapshot() {
+        long[] merged = new long[BUCKETS];
+        for (var stripe : counts) {
+            for (int i = 0; i < BUCKETS; i++) merged[i] += stripe.get(i);
+        }
+        long total = 0;
+        for (long c : merged) total += c;
+        return new Snapshot(merged, total, sumNanos.sum());
+    }
+
+    public static final class Snapshot {
+        private final long[] buckets;
+        private final long count;
+        private final long sumNanos;
+
+        Snapshot(long[] buckets, long count, long sumNanos) {
+            this.buckets = buckets; this.count = count; this.sumNanos = sumNanos;
+        }
+
+        public long count()    { return count; }
+        public long sumNanos() { return sumNanos; }
+
+        /**
+         * Number of recorded values in buckets that start at or below {@code nanos}.
+         * - the bucket holding {@code nanos} counts whole, so every value at or below it is
+         *   included, plus those up to one bucket width (~12%) above it
+         * - exported {@code le} bounds therefore never miss a value under them
+         */
+        public long countAtOrBelow(long nanos) {
+            if (nanos < 0) return 0;
+            long c = 0;
+            for (int i = 0, last = index(nanos); i <= last; i++) c += buckets[i];
+            return c;
+        }
+
+        /** Upper bound of the bucket holding quantile {@code q} (0..1); 0 when empty. */
+        public long quantile(double q) {
+            if (count == 0) return 0;
+            long rank = (long) Math.ceil(q * count);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets[i];
+                if (seen >= rank && buckets[i] > 0) return upperBound(i);
+            }
+            return upperBound(BUCKETS - 1);
+        }
+    }
+}
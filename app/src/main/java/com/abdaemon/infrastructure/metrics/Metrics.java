@@ -0,0 +1,152 @@
+package com.abdaemon.infrastructure.metrics;
+
+import com.abdaemon.domain.AssignmentDecision;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Registry of daemon metrics, rendered in the Prometheus text format (0.0.4).
+ * - instruments are created up front by their owners; the hot path only touches
+ *   a {@link LongAdder} or a {@link LatencyHistogram}
+ * - histograms are exported with fixed latency buckets (1µs .. 10s), in seconds
+ * - assignment decisions are counted per (experiment, decision); experiment labels are
+ *   capped so request-supplied keys cannot grow the series set without bound
+ */
+public final class Metrics {
+    private static final int MAX_EXPERIMENTS = 1000;
+    private static final String OTHER = "_other";
+    private static final double[] LE_SECONDS = {
+            1e-6, 2.5e-6, 5e-6, 1e-5, 2.5e-5, 5e-5, 1e-4, 2.5e-4, 5e-4,
+            1e-3, 2.5e-3, 5e-3, 1e-2, 2.5e-2, 5e-2, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+    private static final String[] LE_LABELS = Arrays.stream(LE_SECONDS)
+            .mapToObj(le -> "le=\"" + BigDecimal.valueOf(le).stripTrailingZeros().toPlainString() + "\"").toArray(String[]::new);
+    private static final AssignmentDecision.Decision[] DECISIONS = AssignmentDecision.Decision.values();
+
+    private enum Type { COUNTER, GAUGE, HISTOGRAM }
+
+    private record Series(String labels, Object source) {}
+
+    private static final class Family {
+        final String name, help;
+        final Type type;
+        final List<Series> series = new ArrayList<>();
+
+        Family(String name, String help, Type type) {
+            this.name = name; this.help = help; this.type = type;
+        }
+    }
+
+    private final Map<String, Family> families = new LinkedHashMap<>();
+    private final ConcurrentHashMap<String, LongAdder[]> decisions = new ConcurrentHashMap<>();
+
+    /** @param labels e.g. {@code endpoint="/assign"}, or null */
+    public synchronized LongAdder counter(String name, String help, String labels) {
+        var c = new LongAdder();
+        family(name, help, Type.COUNTER).series.add(new Series(labels, c));
+        return c;
+    }
+
+    /** Counter whose value is read from its owner at scrape time. */
+    public synchronized void counter(String name, String help, String labels, DoubleSupplier value) {
+        family(name, help, Type.COUNTER).series.add(new Series(labels, value));
+    }
+
+    public synchronized void gauge(String name, String help, String labels, DoubleSupplier value) {
+        family(name, help, Type.GAUGE).series.add(new Series(labels, value));
+    }
+
+    public synchronized LatencyHistogram histogram(String name, String help, String labels) {
+        var h = new LatencyHistogram();
+        family(name, help, Type.HISTOGRAM).series.add(new Series(labels, h));
+        return h;
+    }
+
+    /** Counts one assignment outcome. */
+    public void decision(AssignmentDecision d) {
+        String exp = d.experiment().value();
+        LongAdder[] row = decisions.get(exp);
+        if (row == null) row = decisionRow(exp);
+        row[d.decision().ordinal()].increment();
+    }
+
+    private LongAdder[] decisionRow(String exp) {
+        if (decisions.size() >= MAX_EXPERIMENTS) exp = OTHER;
+        return decisions.computeIfAbsent(exp, k -> {
+            var row = new LongAdder[DECISIONS.length];
+            for (int i = 0; i < row.length; i++) row[i] = new LongAdder();
+            return row;
+        });
+    }
+
+    private Family family(String name, String help, Type type) {
+        var f = families.computeIfAbsent(name, n -> new Family(n, help, type));
+        if (f.type != type) throw new IllegalArgumentException("Metric " + name + " already registered as " + f.type);
+        return f;
+    }
+
+    /** Prometheus text exposition of every registered metric. */
+    public synchronized String scrape() {
+        var out = new StringBuilder(8192);
+        for (var f : families.values()) {
+            header(out, f.name, f.help, f.type.name().toLowerCase(Locale.ROOT));
+            for (var s : f.series) {
+                switch (f.type) {
+                    case COUNTER, GAUGE -> sample(out, f.name, s.labels, value(s.source));
+                    case HISTOGRAM -> histogram(out, f.name, s.labels, ((LatencyHistogram) s.source).snapshot());
+                }
+            }
+        }
+        header(out, "ab_assign_decisions_total", "Assignment outcomes by experiment and decision", "counter");
+        for (var e : new TreeMap<>(decisions).entrySet()) {
+            for (var d : DECISIONS) {
+                sample(out, "ab_assign_decisions_total",
+                        "experiment=\"" + escape(e.getKey()) + "\",decision=\"" + d.name() + "\"",
+                        e.getValue()[d.ordinal()].sum());
+            }
+        }
+        return out.toString();
+    }
+
+    private static double value(Object source) {
+        return source instanceof LongAdder a ? a.sum() : ((DoubleSupplier) source).getAsDouble();
+    }
+
+    private static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void histogram(StringBuilder out, String name, String labels, LatencyHistogram.Snapshot s) {
+        String prefix = labels == null ? "" : labels + ",";
+        for (int i = 0; i < LE_SECONDS.length; i++) {
+            sample(out, name + "_bucket", prefix + LE_LABELS[i], s.countAtOrBelow((long) (LE_SECONDS[i] * 1e9)));
+        }
+        sample(out, name + "_bucket", prefix + "le=\"+Inf\"", s.count());
+        sample(out, name + "_sum", labels, s.sumNanos() / 1e9);
+        sample(out, name + "_count", labels, s.count());
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double v) {
+        out.append(name);
+        if (labels != null && !labels.isEmpty()) out.append('{').append(labels).append('}');
+        out.append(' ');
+        if (v == Math.rint(v) && !Double.isInfinite(v) && Math.abs(v) < 1e15) out.append((long) v);
+        else out.append(v);
+        out.append('\n');
+    }
+
+    /** Escapes a label value. */
+    public static String escape(String v) {
+        return v.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,37 @@
+package com.abdaemon.infrastructure.server;
+
+import com.abdaemon.application.AssignTreatmentUseCase;
+import com.abdaemon.infrastructure.metrics.Metrics;
+import com.abdaemon.infrastructure.stats.LiveStats;
+import com.abdaemon.ports.inbound.LoggingApi;
+import com.abdaemon.ports.outbound.EventSink;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * HTTP transport serving /health, /assign, /assign/batch, /assign/layer, /metrics, /stats and
+ * POST /exposures, /goals; engines are interchangeable.
+ */
+public interface AssignmentServer extends AutoCloseable {
+
+    void start();
+
+    @Override
+    void close();
+
+    /**
+     * @param engine  "jdk" (com.sun.net.httpserver) | "nio" (selector event loops, keep-alive + pipelining)
+     * @param logging target of client-reported exposures and goals
+     * @param stats   live per-variant stats for /stats; null disables it
+     */
+    static AssignmentServer create(String engine, int port, AssignTreatmentUseCase assign, EventSink sink,
+                                   LoggingApi logging, LiveStats stats, HttpAssignmentServer.Options options,
+                                   Metrics metrics) throws IOException {
+        return switch (engine == null ? "jdk" : engine.trim().toLowerCase(Locale.ROOT)) {
+            case "jdk" -> new HttpAssignmentServer(port, assign, sink, logging, stats, options, metrics);
+            case "nio" -> new NioAssignmentServer(port, assign, sink, logging, stats, options.threads(), options.backlog(), metrics);
+            default -> throw new IllegalArgumentException("Unknown HTTP engine: " + engine + " (expected jdk|nio)");
+        };
+    }
+}
@@ -0,0 +1,176 @@
+package com.abdaemon.infrastructure.server;
+
+import com.abdaemon.domain.*;
+import com.abdaemon.infrastructure.metrics.Metrics;
+import com.abdaemon.ports.inbound.LoggingApi;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * POST /exposures and /goals bodies: a JSON array of events, or NDJSON (one event per line).
+ *   {"experiment":"checkout_color","treatment":"control","user":"u123","goal":"purchase","value":12.5,
+ *    "ts":"2025-11-22T18:50:01Z","ctx":{"country":"US"}}
+ * - subject: any of user / device / req, like /assign; ts defaults to receipt time
+ * - goal is required on /goals, value is optional; unknown fields are skipped
+ * - streamed token by token straight into event records, no tree or map per event
+ * - all or nothing: one bad event rejects the request before anything reaches the sink
+ */
+final class EventIngest {
+    /** Largest accepted request body. */
+    static final int MAX_BODY = 1024 * 1024;
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private final LoggingApi logging;
+    private final LongAdder exposuresIn, goalsIn, rejected;
+
+    EventIngest(LoggingApi logging, Metrics metrics) {
+        this.logging = logging;
+        this.exposuresIn = metrics.counter("ab_ingest_events_total", "Client-reported events accepted", "type=\"exposure\"");
+        this.goalsIn = metrics.counter("ab_ingest_events_total", "Client-reported events accepted", "type=\"goal\"");
+        this.rejected = metrics.counter("ab_ingest_rejected_requests_total", "Event batches rejected as malformed or not loggable", null);
+    }
+
+    /**
+     * Parses and logs one request body.
+     * @return number of events accepted
+     * @throws IllegalArgumentException malformed body or event, or one the sink could not take
+     *         (nothing was logged)
+     */
+    int ingest(boolean goals, byte[] body, int off, int len) {
+        var exposures = goals ? null : new ArrayList<LoggingApi.Exposure>();
+        var goalList = goals ? new ArrayList<LoggingApi.Goal>() : null;
+        var now = Instant.now();
+        var ev = new Event();
+        try (JsonParser p = JSON.createParser(body, off, len)) {
+            JsonToken t = p.nextToken();
+            boolean array = t == JsonToken.START_ARRAY;
+            if (array) t = p.nextToken();
+            int n = 0;
+            while (t != null && !(array && t == JsonToken.END_ARRAY)) {
+                n++;
+                if (t != JsonToken.START_OBJECT) throw new IllegalArgumentException("event " + n + ": expected a JSON object");
+                try {
+                    ev.read(p, now);
+                    if (goals) goalList.add(ev.goal());
+                    else exposures.add(ev.exposure());
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("event " + n + ": " + e.getMessage());
+                }
+                t = p.nextToken();
+            }
+            if (array && (t == null || p.nextToken() != null)) throw new IllegalArgumentException("unterminated or trailing content after array");
+        } catch (JsonProcessingException e) {
+            rejected.increment();
+            throw new IllegalArgumentException("malformed JSON: " + e.getOriginalMessage());
+        } catch (IOException e) {
+            rejected.increment();
+            throw new IllegalArgumentException("unreadable body: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            rejected.increment();
+            throw e;
+        }
+        try {
+            if (goals) {
+                if (!goalList.isEmpty()) logging.logGoals(goalList);
+            } else if (!exposures.isEmpty()) logging.logExposures(exposures);
+        } catch (IllegalArgumentException e) {    // the sink refused the batch
+            rejected.increment();
+            throw e;
+        }
+        (goals ? goalsIn : exposuresIn).add(goals ? goalList.size() : exposures.size());
+        return goals ? goalList.size() : exposures.size();
+    }
+
+    /** Field scratch for the event being parsed; reused across events of a request. */
+    private static final class Event {
+        String experiment, treatment, user, device, req, goal;
+        Double value;
+        Instant ts;
+        Map<String, String> ctx;
+
+        void read(JsonParser p, Instant now) throws IOException {
+            experiment = treatment = user = device = req = goal = null;
+            value = null;
+            ts = now;
+            ctx = Map.of();
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String name = p.currentName();
+                JsonToken v = p.nextToken();
+                switch (name) {
+                    case "experiment" -> experiment = text(p, v, name);
+                    case "treatment" -> treatment = text(p, v, name);
+                    case "user" -> user = text(p, v, name);
+                    case "device" -> device = text(p, v, name);
+                    case "req" -> req = text(p, v, name);
+                    case "goal" -> goal = text(p, v, name);
+                    case "value" -> {
+                        if (v == JsonToken.VALUE_NULL) value = null;
+                        else if (v.isNumeric()) value = p.getDoubleValue();
+                        else throw new IllegalArgumentException("value must be a number");
+                    }
+                    case "ts" -> {
+                        String s = text(p, v, name);
+                        try {
+                            if (s != null) ts = Instant.parse(s);
+                        } catch (DateTimeException e) {
+                            throw new IllegalArgumentException("ts must be an ISO-8601 instant");
+                        }
+                    }
+                    case "ctx" -> ctx = ctx(p, v);
+                    default -> p.skipChildren();
+                }
+            }
+        }
+
+        private static String text(JsonParser p, JsonToken v, String name) throws IOException {
+            if (v == JsonToken.VALUE_NULL) return null;
+            if (!v.isScalarValue()) throw new IllegalArgumentException(name + " must be a string");
+            return p.getText();
+        }
+
+        private static Map<String, String> ctx(JsonParser p, JsonToken v) throws IOException {
+            if (v == JsonToken.VALUE_NULL) return Map.of();
+            if (v != JsonToken.START_OBJECT) throw new IllegalArgumentException("ctx must be an object");
+            var m = new HashMap<String, String>(4);
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String k = p.currentName();
+                String s = text(p, p.nextToken(), "ctx." + k);
+                if (s != null) m.put(k, s);
+            }
+            return m;
+        }
+
+        private Subject subject() {
+            return Subject.of(
+                    user != null ? new UserId(user) : null,
+                    device != null ? new DeviceId(device) : null,
+                    req != null ? new RequestId(req) : null);
+        }
+
+        private void requireTreatment() {
+            if (treatment == null || treatment.isBlank()) throw new IllegalArgumentException("missing treatment");
+        }
+
+        LoggingApi.Exposure exposure() {
+            requireTreatment();
+            return new LoggingApi.Exposure(new ExperimentKey(experiment), treatment, subject(), ts, ctx);
+        }
+
+        LoggingApi.Goal goal() {
+            requireTreatment();
+            if (goal == null || goal.isBlank()) throw new IllegalArgumentException("missing goal");
+            return new LoggingApi.Goal(new ExperimentKey(experiment), treatment, subject(), goal, value, ts, ctx);
+        }
+    }
+}
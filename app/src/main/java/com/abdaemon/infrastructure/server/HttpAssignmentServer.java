@@ -2,11 +2,19 @@ package com.abdaemon.infrastructure.server;
 
 import com.abdaemon.application.AssignTreatmentUseCase;
 import com.abdaemon.application.Bucketer;
+import com.abdaemon.application.LogEventsUseCase;
 import com.abdaemon.domain.*;
+import com.abdaemon.infrastructure.metrics.LatencyHistogram;
+import com.abdaemon.infrastructure.metrics.Metrics;
+import com.abdaemon.infrastructure.stats.LiveStats;
+import com.abdaemon.ports.inbound.LoggingApi;
 import com.abdaemon.ports.outbound.ConfigRepository;
 import com.abdaemon.ports.outbound.EventSink;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
 
 import java.io.IOException;
@@ -14,31 +22,136 @@ import java.net.InetSocketAddress;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
-public final class HttpAssignmentServer implements AutoCloseable {
+public final class HttpAssignmentServer implements AssignmentServer {
     private final HttpServer server;
+    private final ExecutorService executor;     // null = JDK dispatcher thread
     private final AssignTreatmentUseCase assign;
+    private final ResponseTemplates templates;
     private final EventSink sink;
+    private final EventIngest ingest;
+    private final LiveStats stats;          // null = /stats disabled
+    private final Metrics metrics;
     private final ObjectMapper mapper = new ObjectMapper();
+    private static final ObjectMapper STATS_MAPPER = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+    private static final ScratchPool<JsonBytes> SCRATCH = new ScratchPool<>(JsonBytes::new);
+
+    /**
+     * Threading and admission settings; {@link #defaults()} is the single source of the
+     * defaults Main overrides from the environment.
+     * @param executor  "virtual" | "pool" | "dispatcher"
+     * @param threads   pool size (pool only); event loops (nio engine)
+     * @param maxQueued max requests running + waiting before the dispatcher blocks (virtual/pool)
+     * @param backlog   TCP accept backlog
+     */
+    public record Options(String executor, int threads, int maxQueued, int backlog) {
+        public static Options defaults() {
+            return new Options("virtual", Runtime.getRuntime().availableProcessors() * 2, 10_000, 1024);
+        }
+    }
 
     public HttpAssignmentServer(int port, ConfigRepository cfg, EventSink sink) throws IOException {
-        this.assign = new AssignTreatmentUseCase(cfg, new Bucketer());
+        this(port, new AssignTreatmentUseCase(cfg, new Bucketer()), sink, Options.defaults(), new Metrics());
+    }
+
+    public HttpAssignmentServer(int port, AssignTreatmentUseCase assign, EventSink sink, Options options,
+                                Metrics metrics) throws IOException {
+        this(port, assign, sink, new LogEventsUseCase(sink), null, options, metrics);
+    }
+
+    /**
+     * @param logging target of POST /exposures and /goals
+     * @param stats   source of GET /stats; null disables it
+     */
+    public HttpAssignmentServer(int port, AssignTreatmentUseCase assign, EventSink sink, LoggingApi logging,
+                                LiveStats stats, Options options, Metrics metrics) throws IOException {
+        this.assign = assign;
+        this.stats = stats;
+        this.templates = ResponseTemplates.of(assign);
         this.sink = sink;
-        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 50);
+        this.metrics = metrics;
+        this.ingest = new EventIngest(logging, metrics);
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), options.backlog());
+        this.executor = ServerExecutors.create(ServerExecutors.parse(options.executor()),
+                options.threads(), options.maxQueued());
+        server.setExecutor(executor);
+
+        server.createContext("/health", timed("/health", this::health));
+        server.createContext("/assign", timed("/assign", validated(this::assignHandler)));
+        server.createContext("/assign/batch", timed("/assign/batch", validated(this::batchHandler)));
+        server.createContext("/assign/layer", timed("/assign/layer", validated(this::layerHandler)));
+        server.createContext("/metrics", timed("/metrics", this::metricsHandler));
+        server.createContext("/exposures", timed("/exposures", ex -> ingestHandler(ex, false)));
+        server.createContext("/goals", timed("/goals", ex -> ingestHandler(ex, true)));
+        server.createContext("/stats", timed("/stats", this::statsHandler));
+    }
 
-        server.createContext("/health", this::health);
-        server.createContext("/assign", this::assignHandler);
+    static LatencyHistogram endpointHistogram(Metrics metrics, String endpoint) {
+        return metrics.histogram("ab_http_request_seconds", "Request handling time by endpoint",
+                "endpoint=\"" + Metrics.escape(endpoint) + "\"");
     }
 
-    public void start() { server.start(); }
-    @Override public void close() { server.stop(0); }
+    private HttpHandler timed(String endpoint, HttpHandler h) {
+        var hist = endpointHistogram(metrics, endpoint);
+        return ex -> {
+            long t0 = System.nanoTime();
+            try {
+                h.handle(ex);
+            } finally {
+                hist.recordSince(t0);
+            }
+        };
+    }
+
+    /**
+     * Answers 400 for invalid input (no subject ids, bad app_ver) as the nio engine does,
+     * instead of letting the exception drop the connection. Handlers throw before responding.
+     */
+    private HttpHandler validated(HttpHandler h) {
+        return ex -> {
+            try {
+                h.handle(ex);
+            } catch (IllegalArgumentException e) {
+                respondJson(ex, 400, Map.of("error", String.valueOf(e.getMessage())));
+            }
+        };
+    }
+
+    @Override public void start() { server.start(); }
+
+    @Override public void close() {
+        server.stop(0);
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
 
     private void health(HttpExchange ex) throws IOException {
-        byte[] body = "{\"status\":\"SERVING\"}".getBytes(StandardCharsets.UTF_8);
+        boolean ready = assign.ready();
+        byte[] body = (ready ? "{\"status\":\"SERVING\"}" : "{\"status\":\"NOT_SERVING\"}").getBytes(StandardCharsets.UTF_8);
         ex.getResponseHeaders().add("Content-Type", "application/json");
         ex.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
+        ex.sendResponseHeaders(ready ? 200 : 503, body.length);
+        ex.getResponseBody().write(body);
+        ex.close();
+    }
+
+    private void metricsHandler(HttpExchange ex) throws IOException {
+        byte[] body = metrics.scrape().getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().add("Content-Type", "text/plain; version=0.0.4");
         ex.sendResponseHeaders(200, body.length);
         ex.getResponseBody().write(body);
         ex.close();
@@ -54,29 +167,177 @@ public final class HttpAssignmentServer implements AutoCloseable {
             respondJson(ex, 400, Map.of("error", "missing exp"));
             return;
         }
-        var subject = Subject.of(
+        var subject = subject(q);
+        var ctx = context(q, assign.snapshot().attributes());
+
+        var decision = assign.assign(new ExperimentKey(exp), subject, ctx);
+        metrics.decision(decision);
+
+        // Log exposure (durably) via WAL
+        var now = Instant.now();
+        sink.enqueueExposure(exp, decision.treatment(), decision.decision(),
+                Bucketer.stableSubjectKey(subject), now, ctx);
+
+        var json = SCRATCH.take().reset();
+        try {
+            templates.single(json, decision);
+            json.instant(now).raw('"').raw('}');
+            respondBytes(ex, 200, json);
+        } finally {
+            SCRATCH.give(json);
+        }
+    }
+
+    /**
+     * GET /assign/batch?exps=a,b,c&user=...&country=...&app_ver=...
+     * Omitting exps evaluates every running experiment. All decisions come from one
+     * config snapshot and their exposures go to the sink as a single batch.
+     */
+    private void batchHandler(HttpExchange ex) throws IOException {
+        if (!"GET".equalsIgnoreCase(ex.getRequestMethod())) {
+            ex.sendResponseHeaders(405, -1); ex.close(); return;
+        }
+        Map<String, String> q = parseQuery(ex.getRequestURI().getRawQuery());
+        List<ExperimentKey> keys = null;
+        if (q.containsKey("exps")) {
+            keys = new ArrayList<>();
+            for (String k : q.get("exps").split(",")) if (!k.isBlank()) keys.add(new ExperimentKey(k.trim()));
+        }
+        var ctx = context(q, assign.snapshot().attributes());
+        var batch = assign.assignAll(keys, subject(q), ctx);
+
+        var now = Instant.now();
+        var exposures = new ArrayList<EventSink.Exposure>(batch.decisions().size());
+        var json = SCRATCH.take().reset();
+        try {
+            json.raw('{').field("decisions").raw('[');
+            for (int i = 0; i < batch.decisions().size(); i++) {
+                var d = batch.decisions().get(i);
+                metrics.decision(d);
+                exposures.add(new EventSink.Exposure(d.experiment().value(), d.treatment(), batch.subjectKey(), now, ctx, d.decision()));
+                if (i > 0) json.raw(',');
+                templates.item(json, d);
+            }
+            sink.enqueueExposures(exposures);
+
+            json.raw(']').raw(',')
+                    .field("configVersion").string(batch.configVersion()).raw(',')
+                    .field("ts").raw('"').instant(now).raw('"').raw('}');
+            respondBytes(ex, 200, json);
+        } finally {
+            SCRATCH.give(json);
+        }
+    }
+
+    /**
+     * GET /assign/layer?layer=checkout&user=...
+     * The subject's one experiment in the layer, decided and logged as on /assign;
+     * a subject in an unallocated segment gets "experiment":null and no exposure.
+     */
+    private void layerHandler(HttpExchange ex) throws IOException {
+        if (!"GET".equalsIgnoreCase(ex.getRequestMethod())) {
+            ex.sendResponseHeaders(405, -1); ex.close(); return;
+        }
+        Map<String, String> q = parseQuery(ex.getRequestURI().getRawQuery());
+        String layer = q.get("layer");
+        if (layer == null || layer.isBlank()) {
+            respondJson(ex, 400, Map.of("error", "missing layer"));
+            return;
+        }
+        var ctx = context(q, assign.snapshot().attributes());
+        var result = assign.assignLayer(layer, subject(q), ctx);
+        if (result == null) {
+            respondJson(ex, 404, Map.of("error", "unknown layer"));
+            return;
+        }
+        var now = Instant.now();
+        var d = result.decision();
+        if (d != null) {
+            metrics.decision(d);
+            sink.enqueueExposure(d.experiment().value(), d.treatment(), d.decision(), result.subjectKey(), now, ctx);
+        }
+        var json = SCRATCH.take().reset();
+        try {
+            templates.layer(json, result, now);
+            respondBytes(ex, 200, json);
+        } finally {
+            SCRATCH.give(json);
+        }
+    }
+
+    /** POST /exposures, /goals: JSON array or NDJSON; answered once the sink accepted the whole batch. */
+    private void ingestHandler(HttpExchange ex, boolean goals) throws IOException {
+        if (!"POST".equalsIgnoreCase(ex.getRequestMethod())) {
+            ex.sendResponseHeaders(405, -1); ex.close(); return;
+        }
+        byte[] body = ex.getRequestBody().readNBytes(EventIngest.MAX_BODY + 1);
+        if (body.length > EventIngest.MAX_BODY) {
+            respondJson(ex, 413, Map.of("error", "request too large"));
+            return;
+        }
+        int accepted;
+        try {
+            accepted = ingest.ingest(goals, body, 0, body.length);
+        } catch (IllegalArgumentException e) {
+            respondJson(ex, 400, Map.of("error", String.valueOf(e.getMessage())));
+            return;
+        }
+        var json = SCRATCH.take().reset();
+        try {
+            respondBytes(ex, 200, json.raw('{').field("accepted").number(accepted).raw('}'));
+        } finally {
+            SCRATCH.give(json);
+        }
+    }
+
+    /** GET /stats?exp=... */
+    private void statsHandler(HttpExchange ex) throws IOException {
+        if (!"GET".equalsIgnoreCase(ex.getRequestMethod())) {
+            ex.sendResponseHeaders(405, -1); ex.close(); return;
+        }
+        String exp = parseQuery(ex.getRequestURI().getRawQuery()).get("exp");
+        if (exp == null || exp.isBlank()) {
+            respondJson(ex, 400, Map.of("error", "missing exp"));
+            return;
+        }
+        var report = stats == null ? null : stats.report(exp).orElse(null);
+        if (report == null) {
+            respondJson(ex, 404, Map.of("error", stats == null ? "stats disabled" : "unknown experiment"));
+            return;
+        }
+        byte[] body = statsJson(report);
+        ex.getResponseHeaders().add("Content-Type", "application/json");
+        ex.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
+        ex.sendResponseHeaders(200, body.length);
+        ex.getResponseBody().write(body);
+        ex.close();
+    }
+
+    static byte[] statsJson(LiveStats.Report report) {
+        try {
+            return STATS_MAPPER.writeValueAsBytes(report);
+        } catch (IOException e) {
+            throw new IllegalStateException("stats report not serializable", e);
+        }
+    }
+
+    private static Subject subject(Map<String, String> q) {
+        return Subject.of(
                 q.containsKey("user") ? new UserId(q.get("user")) : null,
                 q.containsKey("device") ? new DeviceId(q.get("device")) : null,
                 q.containsKey("req") ? new RequestId(q.get("req")) : null
         );
+    }
+
+    private static Map<String, String> context(Map<String, String> q, TargetingAttributes targeting) {
         var ctx = new HashMap<String,String>();
         if (q.containsKey("country")) ctx.put("country", q.get("country"));
         if (q.containsKey("app_ver")) ctx.put("app_ver", q.get("app_ver"));
-
-        var decision = assign.assign(new ExperimentKey(exp), subject, ctx);
-
-        // Log exposure (durably) via WAL
-        sink.enqueueExposure(exp, decision.treatment(),
-                Bucketer.stableSubjectKey(subject), Instant.now(), ctx);
-
-        respondJson(ex, 200, Map.of(
-                "experiment", decision.experiment().value(),
-                "treatment", decision.treatment(),
-                "decision", decision.decision().name(),
-                "reasons", decision.reasons(),
-                "configVersion", decision.configVersion(),
-                "ts", Instant.now().toString()
-        ));
+        // other parameters only when a targeting rule reads them
+        for (var e : q.entrySet()) {
+            if (targeting.contains(e.getKey())) ctx.putIfAbsent(e.getKey(), e.getValue());
+        }
+        return ctx;
     }
 
     private void respondJson(HttpExchange ex, int code, Object obj) throws IOException {
@@ -88,7 +349,15 @@ public final class HttpAssignmentServer implements AutoCloseable {
         ex.close();
     }
 
-    private static Map<String,String> parseQuery(String raw) {
+    private static void respondBytes(HttpExchange ex, int code, JsonBytes body) throws IOException {
+        ex.getResponseHeaders().add("Content-Type", "application/json");
+        ex.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
+        ex.sendResponseHeaders(code, body.len);
+        ex.getResponseBody().write(body.buf, 0, body.len);
+        ex.close();
+    }
+
+    static Map<String,String> parseQuery(String raw) {
         var map = new HashMap<String,String>();
         if (raw == null || raw.isBlank()) return map;
         for (String part : raw.split("&")) {
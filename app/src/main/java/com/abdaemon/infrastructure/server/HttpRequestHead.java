@@ -0,0 +1,120 @@
+package com.abdaemon.infrastructure.server;
+
+/**
+ * Allocation-free HTTP/1.x request-head parser over a byte range.
+ * Records offsets of the method, path and query, and the few headers the
+ * NIO engine acts on (Connection, Content-Length, Transfer-Encoding).
+ * One instance per event loop; reused for every request.
+ */
+final class HttpRequestHead {
+    static final int NEED_MORE = -1;
+    static final int MALFORMED = -2;
+
+    private static final byte[] GET = {'G', 'E', 'T'};
+    private static final byte[] POST = {'P', 'O', 'S', 'T'};
+    private static final byte[] CONNECTION = "connection".getBytes();
+    private static final byte[] CONTENT_LENGTH = "content-length".getBytes();
+    private static final byte[] TRANSFER_ENCODING = "transfer-encoding".getBytes();
+    private static final byte[] CLOSE = "close".getBytes();
+    private static final byte[] KEEP_ALIVE = "keep-alive".getBytes();
+
+    byte[] buf;
+    int methodOff, methodLen;
+    int pathOff, pathLen;
+    int queryOff, queryLen;    // queryLen = 0 when absent
+    boolean keepAlive;
+    boolean chunked;
+    long contentLength;
+
+    /** @return bytes of the head including the blank line, {@link #NEED_MORE} or {@link #MALFORMED} */
+    int parse(byte[] a, int off, int len) {
+        int end = off + len;
+        int headEnd = -1;
+        for (int i = off + 3; i < end; i++) {
+            if (a[i] == '\n' && a[i - 1] == '\r' && a[i - 2] == '\n' && a[i - 3] == '\r') { headEnd = i + 1; break; }
+        }
+        if (headEnd < 0) return NEED_MORE;
+
+        buf = a;
+        chunked = false;
+        contentLength = 0;
+
+        // request line: METHOD SP target SP HTTP/1.x CRLF
+        int lineEnd = indexOf(a, off, headEnd, (byte) '\r');
+        int sp1 = indexOf(a, off, lineEnd, (byte) ' ');
+        if (sp1 <= off) return MALFORMED;
+        int sp2 = indexOf(a, sp1 + 1, lineEnd, (byte) ' ');
+        if (sp2 < 0 || sp2 == sp1 + 1) return MALFORMED;
+        if (lineEnd - sp2 - 1 != 8 || a[sp2 + 1] != 'H' || a[sp2 + 5] != '/' || a[sp2 + 6] != '1') return MALFORMED;
+        boolean http10 = a[sp2 + 8] == '0';
+        keepAlive = !http10;
+
+        methodOff = off; methodLen = sp1 - off;
+        pathOff = sp1 + 1;
+        int q = indexOf(a, pathOff, sp2, (byte) '?');
+        if (q < 0) { pathLen = sp2 - pathOff; queryOff = sp2; queryLen = 0; }
+        else { pathLen = q - pathOff; queryOff = q + 1; queryLen = sp2 - queryOff; }
+
+        // headers
+        int p = lineEnd + 2;
+        while (p < headEnd - 2) {
+            int eol = indexOf(a, p, headEnd, (byte) '\r');
+            int colon = indexOf(a, p, eol, (byte) ':');
+            if (colon < 0) return MALFORMED;
+            int vs = colon + 1, ve = eol;
+            while (vs < ve && (a[vs] == ' ' || a[vs] == '\t')) vs++;
+            while (ve > vs && (a[ve - 1] == ' ' || a[ve - 1] == '\t')) ve--;
+            int nameLen = colon - p;
+            if (equalsIgnoreCase(a, p, nameLen, CONNECTION)) {
+                if (containsIgnoreCase(a, vs, ve, CLOSE)) keepAlive = false;
+                else if (containsIgnoreCase(a, vs, ve, KEEP_ALIVE)) keepAlive = true;
+            } else if (equalsIgnoreCase(a, p, nameLen, CONTENT_LENGTH)) {
+                long n = 0;
+                if (vs == ve) return MALFORMED;
+                for (int i = vs; i < ve; i++) {
+                    int d = a[i] - '0';
+                    if (d < 0 || d > 9 || n > Integer.MAX_VALUE) return MALFORMED;
+                    n = n * 10 + d;
+                }
+                contentLength = n;
+            } else if (equalsIgnoreCase(a, p, nameLen, TRANSFER_ENCODING)) {
+                chunked = true;
+            }
+            p = eol + 2;
+        }
+        return headEnd - off;
+    }
+
+    boolean isGet() {
+        return equalsIgnoreCase(buf, methodOff, methodLen, GET);
+    }
+
+    boolean isPost() {
+        return equalsIgnoreCase(buf, methodOff, methodLen, POST);
+    }
+
+    boolean pathIs(byte[] path) {
+        if (pathLen != path.length) return false;
+        for (int i = 0; i < pathLen; i++) if (buf[pathOff + i] != path[i]) return false;
+        return true;
+    }
+
+    private static int indexOf(byte[] a, int from, int to, byte b) {
+        for (int i = from; i < to; i++) if (a[i] == b) return i;
+        return -1;
+    }
+
+    /** {@code lower} must be lower-case ASCII. */
+    private static boolean equalsIgnoreCase(byte[] a, int off, int len, byte[] lower) {
+        if (len != lower.length) return false;
+        for (int i = 0; i < len; i++) if ((a[off + i] | 0x20) != lower[i] && a[off + i] != lower[i]) return false;
+        return true;
+    }
+
+    private static boolean containsIgnoreCase(byte[] a, int from, int to, byte[] lower) {
+        for (int i = from; i + lower.length <= to; i++) {
+            if (equalsIgnoreCase(a, i, lower.length, lower)) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,153 @@
+package com.abdaemon.infrastructure.server;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Growable UTF-8 JSON writer for the fixed response shapes of the NIO engine.
+ * Escapes like Jackson's defaults: quotes, backslashes, control characters and
+ * surrogates (each half on its own, so supplementary characters become two escapes);
+ * other non-ASCII is written as raw UTF-8. One instance per event loop, or pooled per request.
+ */
+final class JsonBytes {
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes();
+
+    byte[] buf = new byte[1024];
+    int len;
+
+    JsonBytes reset() { len = 0; return this; }
+
+    JsonBytes raw(char c) {
+        ensure(1);
+        buf[len++] = (byte) c;
+        return this;
+    }
+
+    JsonBytes raw(byte[] b) {
+        ensure(b.length);
+        System.arraycopy(b, 0, buf, len, b.length);
+        len += b.length;
+        return this;
+    }
+
+    /** {@code "name":} for an ASCII name. */
+    JsonBytes field(String name) {
+        ensure(name.length() + 3);
+        buf[len++] = '"';
+        for (int i = 0; i < name.length(); i++) buf[len++] = (byte) name.charAt(i);
+        buf[len++] = '"';
+        buf[len++] = ':';
+        return this;
+    }
+
+    JsonBytes string(String s) {
+        if (s == null) {
+            ensure(4);
+            buf[len++] = 'n'; buf[len++] = 'u'; buf[len++] = 'l'; buf[len++] = 'l';
+            return this;
+        }
+        ensure(s.length() * 6 + 2);                 // worst case: every char a six-byte escape
+        buf[len++] = '"';
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if (c == '"' || c == '\\') { buf[len++] = '\\'; buf[len++] = (byte) c; }
+                else if (c < 0x20) escapeControl(c);
+                else buf[len++] = (byte) c;
+            } else if (c < 0x800) {
+                buf[len++] = (byte) (0xC0 | c >> 6);
+                buf[len++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                escapeUnicode(c);
+            } else {
+                buf[len++] = (byte) (0xE0 | c >> 12);
+                buf[len++] = (byte) (0x80 | c >> 6 & 0x3F);
+                buf[len++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        ensure(1);
+        buf[len++] = '"';
+        return this;
+    }
+
+    JsonBytes strings(List<String> list) {
+        raw('[');
+        for (int i = 0; i < list.size(); i++) {
+            if (i > 0) raw(',');
+            string(list.get(i));
+        }
+        return raw(']');
+    }
+
+    JsonBytes number(long v) {
+        return raw(Long.toString(v).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /** Unquoted ISO-8601 instant, byte-identical to {@link Instant#toString()}. */
+    JsonBytes instant(Instant t) {
+        long secs = t.getEpochSecond();
+        long days = Math.floorDiv(secs, 86400);
+        int sod = Math.floorMod(secs, 86400);
+        // civil-from-days (proleptic Gregorian), H. Hinnant
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+        if (year < 0 || year > 9999) return raw(t.toString().getBytes(StandardCharsets.US_ASCII));
+
+        ensure(30);
+        digits((int) year, 4); buf[len++] = '-';
+        digits(month, 2); buf[len++] = '-';
+        digits(day, 2); buf[len++] = 'T';
+        digits(sod / 3600, 2); buf[len++] = ':';
+        digits(sod / 60 % 60, 2); buf[len++] = ':';
+        digits(sod % 60, 2);
+        int nanos = t.getNano();
+        if (nanos != 0) {
+            buf[len++] = '.';
+            if (nanos % 1_000_000 == 0) digits(nanos / 1_000_000, 3);
+            else if (nanos % 1000 == 0) digits(nanos / 1000, 6);
+            else digits(nanos, 9);
+        }
+        buf[len++] = 'Z';
+        return this;
+    }
+
+    private void digits(int v, int width) {
+        for (int i = len + width - 1; i >= len; i--) { buf[i] = (byte) ('0' + v % 10); v /= 10; }
+        len += width;
+    }
+
+    private void escapeControl(char c) {
+        char esc = switch (c) {
+            case '\n' -> 'n';
+            case '\r' -> 'r';
+            case '\t' -> 't';
+            case '\b' -> 'b';
+            case '\f' -> 'f';
+            default -> 0;
+        };
+        if (esc == 0) { escapeUnicode(c); return; }
+        ensure(2);
+        buf[len++] = '\\';
+        buf[len++] = (byte) esc;
+    }
+
+    /** Six-byte unicode escape with upper-case hex, as Jackson writes other controls and surrogates. */
+    private void escapeUnicode(char c) {
+        ensure(6);
+        buf[len++] = '\\'; buf[len++] = 'u';
+        buf[len++] = HEX[c >> 12]; buf[len++] = HEX[c >> 8 & 0xF];
+        buf[len++] = HEX[c >> 4 & 0xF]; buf[len++] = HEX[c & 0xF];
+    }
+
+    private void ensure(int n) {
+        if (len + n > buf.length) buf = java.util.Arrays.copyOf(buf, Math.max(len + n, buf.length * 2));
+    }
+}
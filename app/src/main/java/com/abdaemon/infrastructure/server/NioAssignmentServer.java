@@ -0,0 +1,504 @@
+package com.abdaemon.infrastructure.server;
+
+import com.abdaemon.application.AssignTreatmentUseCase;
+import com.abdaemon.application.Bucketer;
+import com.abdaemon.application.LogEventsUseCase;
+import com.abdaemon.domain.*;
+import com.abdaemon.infrastructure.metrics.LatencyHistogram;
+import com.abdaemon.infrastructure.metrics.Metrics;
+import com.abdaemon.infrastructure.stats.LiveStats;
+import com.abdaemon.ports.inbound.LoggingApi;
+import com.abdaemon.ports.outbound.EventSink;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * HTTP/1.1 engine on java.nio selectors, serving the same endpoints as {@link HttpAssignmentServer}.
+ * - one acceptor thread hands connections round-robin to N event loops
+ * - persistent connections and pipelining; responses to pipelined requests are written in order
+ * - request heads and query strings are parsed in place from pooled read buffers
+ * - responses are spliced from pre-rendered templates into reusable direct buffers, no Jackson
+ * - a connection stops reading while its response buffer cannot drain (backpressure)
+ * - request bodies (POST /exposures, /goals) larger than the pooled read buffer get a one-off
+ *   heap buffer up to {@link EventIngest#MAX_BODY}, doubled each time the bytes received fill it
+ *   (a Content-Length alone allocates nothing); the pooled size returns once it drains
+ * - other endpoints take bodies up to 4KB, and the rest is answered with 413
+ * Handlers run on the event loop, so pair it with a non-blocking sink (group-commit WAL).
+ */
+public final class NioAssignmentServer implements AssignmentServer {
+    private static final Logger log = LoggerFactory.getLogger(NioAssignmentServer.class);
+
+    private static final int READ_BUFFER = 16 * 1024;
+    private static final int WRITE_BUFFER = 64 * 1024;
+    private static final int FLUSH_AT = WRITE_BUFFER / 2;
+    private static final int POOL_MAX = 256;
+    private static final int MAX_OTHER_BODY = 4 * 1024;
+
+    private static final byte[] HEALTH = "/health".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ASSIGN = "/assign".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BATCH = "/assign/batch".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LAYER = "/assign/layer".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] METRICS = "/metrics".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] EXPOSURES = "/exposures".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] GOALS = "/goals".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] STATS = "/stats".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEALTH_BODY = "{\"status\":\"SERVING\"}".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NOT_SERVING_BODY = "{\"status\":\"NOT_SERVING\"}".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEADERS = ("\r\nContent-Type: application/json\r\n"
+            + "Access-Control-Allow-Origin: *\r\nContent-Length: ").getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TEXT_HEADERS = ("\r\nContent-Type: text/plain; version=0.0.4\r\n"
+            + "Content-Length: ").getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONNECTION_CLOSE = "\r\nConnection: close".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CRLFCRLF = "\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final AssignTreatmentUseCase assign;
+    private final ResponseTemplates templates;
+    private final EventSink sink;
+    private final EventIngest ingest;
+    private final LiveStats stats;
+    private final Metrics metrics;
+    private final LatencyHistogram healthTime, assignTime, batchTime, layerTime, metricsTime, exposuresTime, goalsTime, statsTime;
+    private final ServerSocketChannel acceptor;
+    private final EventLoop[] loops;
+    private final Thread acceptThread;
+    private volatile boolean running = true;
+
+    public NioAssignmentServer(int port, AssignTreatmentUseCase assign, EventSink sink, int eventLoops, int backlog,
+                               Metrics metrics) throws IOException {
+        this(port, assign, sink, new LogEventsUseCase(sink), null, eventLoops, backlog, metrics);
+    }
+
+    /**
+     * @param logging    target of POST /exposures and /goals
+     * @param stats      source of GET /stats; null disables it
+     * @param eventLoops selector threads
+     * @param backlog    TCP accept backlog
+     * @param metrics    registry for per-endpoint latency and decision counts
+     */
+    public NioAssignmentServer(int port, AssignTreatmentUseCase assign, EventSink sink, LoggingApi logging,
+                               LiveStats stats, int eventLoops, int backlog, Metrics metrics) throws IOException {
+        this.assign = assign;
+        this.templates = ResponseTemplates.of(assign);
+        this.sink = sink;
+        this.ingest = new EventIngest(logging, metrics);
+        this.stats = stats;
+        this.metrics = metrics;
+        this.healthTime = HttpAssignmentServer.endpointHistogram(metrics, "/health");
+        this.assignTime = HttpAssignmentServer.endpointHistogram(metrics, "/assign");
+        this.batchTime = HttpAssignmentServer.endpointHistogram(metrics, "/assign/batch");
+        this.layerTime = HttpAssignmentServer.endpointHistogram(metrics, "/assign/layer");
+        this.metricsTime = HttpAssignmentServer.endpointHistogram(metrics, "/metrics");
+        this.exposuresTime = HttpAssignmentServer.endpointHistogram(metrics, "/exposures");
+        this.goalsTime = HttpAssignmentServer.endpointHistogram(metrics, "/goals");
+        this.statsTime = HttpAssignmentServer.endpointHistogram(metrics, "/stats");
+        this.acceptor = ServerSocketChannel.open();
+        acceptor.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        acceptor.bind(new InetSocketAddress("127.0.0.1", port), backlog);
+        this.loops = new EventLoop[Math.max(1, eventLoops)];
+        for (int i = 0; i < loops.length; i++) loops[i] = new EventLoop(i);
+        this.acceptThread = new Thread(this::acceptLoop, "http-nio-accept");
+    }
+
+    @Override
+    public void start() {
+        for (var l : loops) l.thread.start();
+        acceptThread.start();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try { acceptor.close(); } catch (IOException ignored) { }
+        for (var l : loops) l.selector.wakeup();
+        try {
+            acceptThread.join(2000);
+            for (var l : loops) l.thread.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void acceptLoop() {
+        int next = 0;
+        while (running) {
+            try {
+                SocketChannel ch = acceptor.accept();
+                ch.configureBlocking(false);
+                ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                loops[next++ % loops.length].register(ch);
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                if (running) log.warn("HTTP accept failed: {}", e.toString());
+            }
+        }
+    }
+
+    /** Per-connection state; only touched by its event loop. */
+    private static final class Connection {
+        final SocketChannel ch;
+        SelectionKey key;
+        ByteBuffer in;      // heap, write mode; pooled size unless a large body is pending
+        ByteBuffer out;     // direct, write mode
+        boolean closing;
+
+        Connection(SocketChannel ch, ByteBuffer in, ByteBuffer out) {
+            this.ch = ch; this.in = in; this.out = out;
+        }
+    }
+
+    private final class EventLoop implements Runnable {
+        final Selector selector;
+        final Thread thread;
+        final ConcurrentLinkedQueue<SocketChannel> incoming = new ConcurrentLinkedQueue<>();
+        final ArrayDeque<ByteBuffer> readPool = new ArrayDeque<>();
+        final ArrayDeque<ByteBuffer> writePool = new ArrayDeque<>();
+        final HttpRequestHead head = new HttpRequestHead();
+        final QueryParams query = new QueryParams();
+        final JsonBytes json = new JsonBytes();
+
+        EventLoop(int id) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "http-nio-" + id);
+        }
+
+        void register(SocketChannel ch) {
+            incoming.add(ch);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    selector.select();
+                    SocketChannel ch;
+                    while ((ch = incoming.poll()) != null) accept(ch);
+                    var it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        var key = it.next();
+                        it.remove();
+                        var c = (Connection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isWritable() && flush(c)) process(c);
+                            if (key.isValid() && key.isReadable()) read(c);
+                        } catch (IOException | CancelledKeyException e) {
+                            close(c);
+                        }
+                    }
+                } catch (IOException e) {
+                    log.error("HTTP event loop error: {}", e.toString());
+                }
+            }
+            for (var key : selector.keys()) {
+                if (key.attachment() instanceof Connection c) close(c);
+            }
+            try { selector.close(); } catch (IOException ignored) { }
+        }
+
+        private void accept(SocketChannel ch) {
+            var c = new Connection(ch, take(readPool, false), take(writePool, true));
+            try {
+                c.key = ch.register(selector, SelectionKey.OP_READ, c);
+            } catch (IOException e) {
+                close(c);
+            }
+        }
+
+        private void read(Connection c) throws IOException {
+            int n = c.ch.read(c.in);
+            if (n < 0) { close(c); return; }
+            if (n > 0) process(c);
+        }
+
+        /** Answers every complete request in the read buffer, in order, until output backs up. */
+        private void process(Connection c) throws IOException {
+            ByteBuffer in = c.in;
+            in.flip();
+            boolean needMore = false;
+            int grow = 0;
+            try {
+                while (in.hasRemaining() && !c.closing) {
+                    byte[] a = in.array();
+                    int off = in.arrayOffset() + in.position();
+                    int headLen = head.parse(a, off, in.remaining());
+                    if (headLen == HttpRequestHead.NEED_MORE) { needMore = true; break; }
+                    if (headLen == HttpRequestHead.MALFORMED) { error(c, 400, "Bad Request", "malformed request", true); break; }
+                    if (head.chunked) { error(c, 501, "Not Implemented", "chunked bodies not supported", true); break; }
+                    if (head.contentLength > bodyLimit()) { error(c, 413, "Payload Too Large", "request too large", true); break; }
+                    long total = headLen + head.contentLength;
+                    if (total > in.remaining()) {
+                        if (total > in.capacity() && in.remaining() == in.capacity()) {
+                            grow = (int) Math.min(total, 2L * in.capacity());    // only once what was sent fills it
+                        } else needMore = true;
+                        break;
+                    }
+                    handle(c, off + headLen);
+                    in.position(in.position() + (int) total);
+                    if (c.out.position() >= FLUSH_AT && !flush(c)) break;
+                }
+            } finally {
+                in.compact();
+            }
+            if (grow > 0) {
+                var bigger = ByteBuffer.allocate(grow);
+                in.flip();
+                bigger.put(in);
+                give(readPool, in, READ_BUFFER);
+                c.in = bigger;
+            } else if (in.capacity() != READ_BUFFER && in.position() == 0) c.in = take(readPool, false);
+            if (needMore && !in.hasRemaining()) error(c, 431, "Request Header Fields Too Large", "request head too large", true);
+            flush(c);
+        }
+
+        /** Largest body the parsed request's endpoint accepts; only event ingestion takes more than a read buffer. */
+        private long bodyLimit() {
+            return head.pathIs(EXPOSURES) || head.pathIs(GOALS) ? EventIngest.MAX_BODY : MAX_OTHER_BODY;
+        }
+
+        /** Writes pending output; returns true once it fully drained. */
+        private boolean flush(Connection c) throws IOException {
+            ByteBuffer out = c.out;
+            if (out == null) return false;     // already closed
+            if (out.position() > 0) {
+                out.flip();
+                c.ch.write(out);
+                out.compact();
+            }
+            if (out.position() > 0) {
+                c.key.interestOps(SelectionKey.OP_WRITE);
+                return false;
+            }
+            if (c.closing) { close(c); return false; }
+            c.key.interestOps(SelectionKey.OP_READ);
+            return true;
+        }
+
+        private void handle(Connection c, int bodyOff) {
+            long t0 = System.nanoTime();
+            boolean close = !head.keepAlive;
+            if (head.pathIs(HEALTH)) {
+                if (assign.ready()) respond(c, 200, "OK", HEALTH_BODY, HEALTH_BODY.length, close);
+                else respond(c, 503, "Service Unavailable", NOT_SERVING_BODY, NOT_SERVING_BODY.length, close);
+                healthTime.recordSince(t0);
+                return;
+            }
+            if (head.pathIs(METRICS)) {
+                byte[] body = metrics.scrape().getBytes(StandardCharsets.UTF_8);
+                respond(c, 200, "OK", TEXT_HEADERS, body, body.length, close);
+                metricsTime.recordSince(t0);
+                return;
+            }
+            if (head.pathIs(STATS)) {
+                statsReport(c, close);
+                statsTime.recordSince(t0);
+                return;
+            }
+            boolean goals = head.pathIs(GOALS);
+            if (goals || head.pathIs(EXPOSURES)) {
+                ingestEvents(c, goals, bodyOff, close);
+                (goals ? goalsTime : exposuresTime).recordSince(t0);
+                return;
+            }
+            boolean single = head.pathIs(ASSIGN), layered = !single && head.pathIs(LAYER);
+            if (!single && !layered && !head.pathIs(BATCH)) { error(c, 404, "Not Found", "not found", close); return; }
+            if (!head.isGet()) { respond(c, 405, "Method Not Allowed", null, 0, close); return; }
+            try {
+                query.parse(head.buf, head.queryOff, head.queryLen, assign.snapshot().attributes());
+                if (single) assignOne(c, close); else if (layered) assignLayer(c, close); else assignBatch(c, close);
+            } catch (IllegalArgumentException e) {
+                error(c, 400, "Bad Request", e.getMessage(), close);
+            } catch (RuntimeException e) {
+                log.warn("HTTP handler failed: {}", e.toString());
+                error(c, 500, "Internal Server Error", "internal error", close);
+            }
+            (single ? assignTime : layered ? layerTime : batchTime).recordSince(t0);
+        }
+
+        /** Off the hot path: rendered with Jackson like the jdk engine. */
+        private void statsReport(Connection c, boolean close) {
+            if (!head.isGet()) { respond(c, 405, "Method Not Allowed", null, 0, close); return; }
+            try {
+                query.parse(head.buf, head.queryOff, head.queryLen, TargetingAttributes.NONE);
+                if (query.exp == null || query.exp.isBlank()) { error(c, 400, "Bad Request", "missing exp", close); return; }
+                var report = stats == null ? null : stats.report(query.exp).orElse(null);
+                if (report == null) {
+                    error(c, 404, "Not Found", stats == null ? "stats disabled" : "unknown experiment", close);
+                    return;
+                }
+                byte[] body = HttpAssignmentServer.statsJson(report);
+                respond(c, 200, "OK", body, body.length, close);
+            } catch (IllegalArgumentException e) {
+                error(c, 400, "Bad Request", e.getMessage(), close);
+            }
+        }
+
+        /** The whole body is in the read buffer; it is parsed in place. */
+        private void ingestEvents(Connection c, boolean goals, int bodyOff, boolean close) {
+            if (!head.isPost()) { respond(c, 405, "Method Not Allowed", null, 0, close); return; }
+            try {
+                int accepted = ingest.ingest(goals, head.buf, bodyOff, (int) head.contentLength);
+                json.reset().raw('{').field("accepted").number(accepted).raw('}');
+                respond(c, 200, "OK", json.buf, json.len, close);
+            } catch (IllegalArgumentException e) {
+                error(c, 400, "Bad Request", e.getMessage(), close);
+            } catch (RuntimeException e) {
+                log.warn("HTTP handler failed: {}", e.toString());
+                error(c, 500, "Internal Server Error", "internal error", close);
+            }
+        }
+
+        private void assignOne(Connection c, boolean close) {
+            String exp = query.exp;
+            if (exp == null || exp.isBlank()) { error(c, 400, "Bad Request", "missing exp", close); return; }
+            var subject = subject(query);
+            var ctx = context(query);
+
+            var decision = assign.assign(new ExperimentKey(exp), subject, ctx);
+            metrics.decision(decision);
+
+            var now = Instant.now();
+            sink.enqueueExposure(exp, decision.treatment(), decision.decision(), Bucketer.stableSubjectKey(subject), now, ctx);
+
+            templates.single(json.reset(), decision);
+            json.instant(now).raw('"').raw('}');
+            respond(c, 200, "OK", json.buf, json.len, close);
+        }
+
+        private void assignLayer(Connection c, boolean close) {
+            String layer = query.layer;
+            if (layer == null || layer.isBlank()) { error(c, 400, "Bad Request", "missing layer", close); return; }
+            var ctx = context(query);
+            var result = assign.assignLayer(layer, subject(query), ctx);
+            if (result == null) { error(c, 404, "Not Found", "unknown layer", close); return; }
+
+            var now = Instant.now();
+            var d = result.decision();
+            if (d != null) {
+                metrics.decision(d);
+                sink.enqueueExposure(d.experiment().value(), d.treatment(), d.decision(), result.subjectKey(), now, ctx);
+            }
+            templates.layer(json.reset(), result, now);
+            respond(c, 200, "OK", json.buf, json.len, close);
+        }
+
+        private void assignBatch(Connection c, boolean close) {
+            List<ExperimentKey> keys = null;
+            if (query.exps != null) {
+                keys = new ArrayList<>();
+                for (String k : query.exps.split(",")) if (!k.isBlank()) keys.add(new ExperimentKey(k.trim()));
+            }
+            var ctx = context(query);
+            var batch = assign.assignAll(keys, subject(query), ctx);
+
+            var now = Instant.now();
+            var exposures = new ArrayList<EventSink.Exposure>(batch.decisions().size());
+            json.reset().raw('{').field("decisions").raw('[');
+            for (int i = 0; i < batch.decisions().size(); i++) {
+                var d = batch.decisions().get(i);
+                metrics.decision(d);
+                exposures.add(new EventSink.Exposure(d.experiment().value(), d.treatment(), batch.subjectKey(), now, ctx, d.decision()));
+                if (i > 0) json.raw(',');
+                templates.item(json, d);
+            }
+            sink.enqueueExposures(exposures);
+            json.raw(']').raw(',')
+                    .field("configVersion").string(batch.configVersion()).raw(',')
+                    .field("ts").raw('"').instant(now).raw('"').raw('}');
+            respond(c, 200, "OK", json.buf, json.len, close);
+        }
+
+        private void error(Connection c, int code, String reason, String message, boolean close) {
+            json.reset().raw('{').field("error").string(message).raw('}');
+            respond(c, code, reason, json.buf, json.len, close);
+        }
+
+        private void respond(Connection c, int code, String reason, byte[] body, int bodyLen, boolean close) {
+            respond(c, code, reason, HEADERS, body, bodyLen, close);
+        }
+
+        private void respond(Connection c, int code, String reason, byte[] headers, byte[] body, int bodyLen, boolean close) {
+            ensure(c, 128 + reason.length() + bodyLen);
+            ByteBuffer out = c.out;
+            putAscii(out, "HTTP/1.1 ");
+            putInt(out, code);
+            out.put((byte) ' ');
+            putAscii(out, reason);
+            out.put(headers);
+            putInt(out, bodyLen);
+            if (close) out.put(CONNECTION_CLOSE);
+            out.put(CRLFCRLF);
+            if (bodyLen > 0) out.put(body, 0, bodyLen);
+            if (close) c.closing = true;
+        }
+
+        /** Grows the connection's output buffer when one response does not fit; rare. */
+        private void ensure(Connection c, int n) {
+            if (c.out.remaining() >= n) return;
+            var bigger = ByteBuffer.allocateDirect(Math.max(c.out.capacity() * 2, c.out.position() + n));
+            c.out.flip();
+            bigger.put(c.out);
+            give(writePool, c.out, WRITE_BUFFER);
+            c.out = bigger;
+        }
+
+        private void close(Connection c) {
+            if (c.key != null) c.key.cancel();
+            try { c.ch.close(); } catch (IOException ignored) { }
+            if (c.in != null) { give(readPool, c.in, READ_BUFFER); c.in = null; }
+            if (c.out != null) { give(writePool, c.out, WRITE_BUFFER); c.out = null; }
+        }
+
+        private ByteBuffer take(ArrayDeque<ByteBuffer> pool, boolean direct) {
+            var b = pool.poll();
+            if (b != null) return b.clear();
+            return direct ? ByteBuffer.allocateDirect(WRITE_BUFFER) : ByteBuffer.allocate(READ_BUFFER);
+        }
+
+        private void give(ArrayDeque<ByteBuffer> pool, ByteBuffer b, int size) {
+            if (b.capacity() != size || pool.size() >= POOL_MAX) return;
+            pool.push(b);
+        }
+    }
+
+    private static Subject subject(QueryParams q) {
+        return Subject.of(
+                q.user != null ? new UserId(q.user) : null,
+                q.device != null ? new DeviceId(q.device) : null,
+                q.req != null ? new RequestId(q.req) : null
+        );
+    }
+
+    private static Map<String, String> context(QueryParams q) {
+        var ctx = new HashMap<String, String>();
+        if (q.country != null) ctx.put("country", q.country);
+        if (q.appVer != null) ctx.put("app_ver", q.appVer);
+        if (q.attributes != null) q.attributes.forEach(ctx::putIfAbsent);
+        return ctx;
+    }
+
+    private static void putAscii(ByteBuffer out, String s) {
+        for (int i = 0; i < s.length(); i++) out.put((byte) s.charAt(i));
+    }
+
+    private static void putInt(ByteBuffer out, int v) {
+        if (v == 0) { out.put((byte) '0'); return; }
+        int div = 1;
+        while (v / div >= 10) div *= 10;
+        for (; div > 0; div /= 10) out.put((byte) ('0' + v / div % 10));
+    }
+}
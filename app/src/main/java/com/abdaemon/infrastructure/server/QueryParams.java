@@ -0,0 +1,100 @@
+package com.abdaemon.infrastructure.server;
+
+import com.abdaemon.domain.TargetingAttributes;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decodes the query parameters the assignment endpoints read, straight from the
+ * request bytes. Keys are percent-decoded into a scratch array and matched without
+ * allocating; only recognised values become Strings. Same rules as URLDecoder
+ * ('+' is a space, bad escapes are rejected), last value wins.
+ * Other keys are kept in {@link #attributes} when a targeting rule of the snapshot reads them.
+ * One instance per event loop.
+ */
+final class QueryParams {
+    private static final byte[] EXP = "exp".getBytes();
+    private static final byte[] EXPS = "exps".getBytes();
+    private static final byte[] USER = "user".getBytes();
+    private static final byte[] DEVICE = "device".getBytes();
+    private static final byte[] REQ = "req".getBytes();
+    private static final byte[] COUNTRY = "country".getBytes();
+    private static final byte[] APP_VER = "app_ver".getBytes();
+    private static final byte[] LAYER = "layer".getBytes();
+
+    private byte[] scratch = new byte[256];
+
+    String exp, exps, user, device, req, country, appVer, layer;
+    /** Targeting attributes by name; null when the query has none. */
+    Map<String, String> attributes;
+
+    void parse(byte[] a, int off, int len, TargetingAttributes targeting) {
+        exp = exps = user = device = req = country = appVer = layer = null;
+        attributes = null;
+        int end = off + len;
+        int p = off;
+        while (p < end) {
+            int amp = p;
+            while (amp < end && a[amp] != '&') amp++;
+            int eq = p;
+            while (eq < amp && a[eq] != '=') eq++;
+            if (amp > p) {
+                int kLen = decode(a, p, eq);
+                String v = null;
+                if (matches(kLen, EXP)) exp = v = value(a, eq, amp);
+                else if (matches(kLen, EXPS)) exps = v = value(a, eq, amp);
+                else if (matches(kLen, USER)) user = v = value(a, eq, amp);
+                else if (matches(kLen, DEVICE)) device = v = value(a, eq, amp);
+                else if (matches(kLen, REQ)) req = v = value(a, eq, amp);
+                else if (matches(kLen, COUNTRY)) country = v = value(a, eq, amp);
+                else if (matches(kLen, APP_VER)) appVer = v = value(a, eq, amp);
+                else if (matches(kLen, LAYER)) layer = v = value(a, eq, amp);
+                else if (attribute(kLen, targeting) instanceof String name) {
+                    if (attributes == null) attributes = new HashMap<>();
+                    attributes.put(name, value(a, eq, amp));
+                } else if (eq < amp) decode(a, eq + 1, amp);    // still validate the escape syntax
+            }
+            p = amp + 1;
+        }
+    }
+
+    private String value(byte[] a, int eq, int amp) {
+        if (eq >= amp) return "";
+        int n = decode(a, eq + 1, amp);
+        return new String(scratch, 0, n, StandardCharsets.UTF_8);
+    }
+
+    /** Attribute name equal to the decoded key in scratch, or null. */
+    private String attribute(int len, TargetingAttributes targeting) {
+        byte[][] names = targeting.nameBytes();
+        for (int i = 0; i < names.length; i++) if (matches(len, names[i])) return targeting.name(i);
+        return null;
+    }
+
+    private boolean matches(int len, byte[] key) {
+        if (len != key.length) return false;
+        for (int i = 0; i < len; i++) if (scratch[i] != key[i]) return false;
+        return true;
+    }
+
+    /** Percent-decodes [from, to) into scratch; returns the decoded length. */
+    private int decode(byte[] a, int from, int to) {
+        if (scratch.length < to - from) scratch = new byte[Math.max(to - from, scratch.length * 2)];
+        int n = 0;
+        for (int i = from; i < to; i++) {
+            byte b = a[i];
+            if (b == '+') b = ' ';
+            else if (b == '%') {
+                if (i + 2 >= to) throw new IllegalArgumentException("Incomplete escape in query");
+                int hi = Character.digit(a[i + 1], 16), lo = Character.digit(a[i + 2], 16);
+                if (hi < 0 || lo < 0) throw new IllegalArgumentException("Illegal hex characters in escape (%) pattern");
+                b = (byte) (hi << 4 | lo);
+                i += 2;
+            }
+            scratch[n++] = b;
+        }
+        return n;
+    }
+}
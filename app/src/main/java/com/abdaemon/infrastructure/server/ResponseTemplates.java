@@ -0,0 +1,108 @@
+package com.abdaemon.infrastructure.server;
+
+import com.abdaemon.application.AssignTreatmentUseCase;
+import com.abdaemon.domain.AssignmentDecision;
+import com.abdaemon.domain.ConfigSnapshot;
+import com.abdaemon.domain.ExperimentChange;
+import com.abdaemon.ports.outbound.ConfigListener;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Pre-rendered JSON for every canonical decision of the current config snapshot.
+ * - single: {"experiment":..,"treatment":..,"decision":..,"reasons":[..],"configVersion":..,"ts":"
+ * - item:   {"experiment":..,"treatment":..,"decision":..,"reasons":[..]}
+ * - layer:  single + "layer" and "segment"; "experiment":null when the segment is unallocated
+ * Rendered eagerly, off the request path: for the snapshot current at creation and, as a
+ * {@link ConfigListener}, for every snapshot a reload publishes; a volatile swap makes them
+ * visible. Requests only look up by decision identity and splice in the timestamp.
+ * - decisions without a template render on the fly: those not produced by a compiled plan
+ *   (unknown experiment) and, briefly, those of a reload whose templates are still rendering
+ * - sources that never notify (no reloads) keep the templates of their first snapshot
+ */
+final class ResponseTemplates implements ConfigListener {
+
+    private record Rendered(IdentityHashMap<AssignmentDecision, byte[]> single,
+                            IdentityHashMap<AssignmentDecision, byte[]> item) {}
+
+    private volatile Rendered current;
+
+    private ResponseTemplates(ConfigSnapshot snapshot) {
+        this.current = render(snapshot);
+    }
+
+    /** Templates for {@code assign}'s current snapshot, re-rendered on every published reload. */
+    static ResponseTemplates of(AssignTreatmentUseCase assign) {
+        var t = new ResponseTemplates(assign.snapshot());
+        assign.addListener(t);
+        return t;
+    }
+
+    @Override
+    public void onChange(ConfigSnapshot snapshot, List<ExperimentChange> changes) {
+        current = render(snapshot);
+    }
+
+    /** Body of a single /assign response, up to and including the opening quote of "ts". */
+    void single(JsonBytes out, AssignmentDecision d) {
+        byte[] t = current.single.get(d);
+        if (t != null) out.raw(t); else renderSingle(out, d);
+    }
+
+    /** One element of the /assign/batch "decisions" array. */
+    void item(JsonBytes out, AssignmentDecision d) {
+        byte[] t = current.item.get(d);
+        if (t != null) out.raw(t); else renderItem(out, d);
+    }
+
+    /** Whole /assign/layer body. */
+    void layer(JsonBytes out, AssignTreatmentUseCase.LayerAssignment a, Instant now) {
+        if (a.decision() != null) {
+            single(out, a.decision());
+        } else {
+            out.raw('{').field("experiment").string(null).raw(',')
+                    .field("configVersion").string(a.configVersion()).raw(',')
+                    .field("ts").raw('"');
+        }
+        out.instant(now).raw('"').raw(',')
+                .field("layer").string(a.layer()).raw(',')
+                .field("segment").number(a.segment()).raw('}');
+    }
+
+    private static Rendered render(ConfigSnapshot snap) {
+        var single = new IdentityHashMap<AssignmentDecision, byte[]>();
+        var item = new IdentityHashMap<AssignmentDecision, byte[]>();
+        var json = new JsonBytes();
+        for (var exp : snap.compiled().values()) {
+            for (var d : exp.outcomes()) {
+                renderSingle(json.reset(), d);
+                single.put(d, Arrays.copyOf(json.buf, json.len));
+                renderItem(json.reset(), d);
+                item.put(d, Arrays.copyOf(json.buf, json.len));
+            }
+        }
+        return new Rendered(single, item);
+    }
+
+    private static void renderSingle(JsonBytes out, AssignmentDecision d) {
+        fields(out, d);
+        out.raw(',').field("configVersion").string(d.configVersion()).raw(',')
+                .field("ts").raw('"');
+    }
+
+    private static void renderItem(JsonBytes out, AssignmentDecision d) {
+        fields(out, d);
+        out.raw('}');
+    }
+
+    private static void fields(JsonBytes out, AssignmentDecision d) {
+        out.raw('{')
+                .field("experiment").string(d.experiment().value()).raw(',')
+                .field("treatment").string(d.treatment()).raw(',')
+                .field("decision").string(d.decision().name()).raw(',')
+                .field("reasons").strings(d.reasons());
+    }
+}
@@ -0,0 +1,73 @@
+package com.abdaemon.infrastructure.server;
+
+import java.util.Locale;
+import java.util.concurrent.*;
+
+/**
+ * Request executors for the JDK HttpServer.
+ * - dispatcher: handlers run on the single dispatcher thread (JDK default)
+ * - virtual: one virtual thread per request
+ * - pool: fixed pool of platform threads
+ * Virtual and pool admit at most {@code maxQueued} requests (running + waiting);
+ * beyond that the dispatcher blocks, pushing back into the TCP accept backlog.
+ */
+final class ServerExecutors {
+
+    enum Model { DISPATCHER, VIRTUAL, POOL }
+
+    static Model parse(String name) {
+        return switch (name == null ? "virtual" : name.trim().toLowerCase(Locale.ROOT)) {
+            case "dispatcher", "none" -> Model.DISPATCHER;
+            case "virtual" -> Model.VIRTUAL;
+            case "pool" -> Model.POOL;
+            default -> throw new IllegalArgumentException("Unknown executor: " + name + " (expected dispatcher|virtual|pool)");
+        };
+    }
+
+    /** Null for {@link Model#DISPATCHER}. */
+    static ExecutorService create(Model model, int threads, int maxQueued) {
+        return switch (model) {
+            case DISPATCHER -> null;
+            case VIRTUAL -> new Bounded(Executors.newThreadPerTaskExecutor(
+                    Thread.ofVirtual().name("http-", 0).factory()), maxQueued);
+            case POOL -> new Bounded(Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+                Thread t = new Thread(r);
+                t.setName("http-" + t.threadId());
+                t.setDaemon(true);
+                return t;
+            }), maxQueued);
+        };
+    }
+
+    /** Admission limit in front of a delegate executor. */
+    private static final class Bounded extends AbstractExecutorService {
+        private final ExecutorService delegate;
+        private final Semaphore permits;
+
+        Bounded(ExecutorService delegate, int maxQueued) {
+            this.delegate = delegate;
+            this.permits = new Semaphore(Math.max(1, maxQueued));
+        }
+
+        @Override
+        public void execute(Runnable r) {
+            permits.acquireUninterruptibly();
+            try {
+                delegate.execute(() -> {
+                    try { r.run(); } finally { permits.release(); }
+                });
+            } catch (RejectedExecutionException e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        @Override public void shutdown() { delegate.shutdown(); }
+        @Override public java.util.List<Runnable> shutdownNow() { return delegate.shutdownNow(); }
+        @Override public boolean isShutdown() { return delegate.isShutdown(); }
+        @Override public boolean isTerminated() { return delegate.isTerminated(); }
+        @Override public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.abdaemon.infrastructure.shm;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Layout of the memory-mapped config file shared by {@link SharedConfigPublisher} and
+ * {@link SharedConfigRepository}:
+ * <pre>
+ *  0  u64 magic "ABSHMCF1"
+ *  8  u32 layout version
+ * 16  u64 sequence        odd while the daemon writes, even when the payload is stable
+ * 24  u32 payload length  0 = nothing published yet
+ * 28  u32 payload CRC32C
+ * 32  u64 published at (epoch millis)
+ * 64  payload             {@link com.abdaemon.infrastructure.config.SnapshotCodec} bytes
+ * </pre>
+ * - seqlock: a reader copies the payload between two reads of the same even sequence
+ * - the file only grows, so a reader's older, shorter mapping stays valid; it remaps when the
+ *   length outgrows it
+ */
+final class SharedConfigFile {
+    static final long MAGIC = 0x4142_5348_4D43_4631L;    // "ABSHMCF1"
+    static final int LAYOUT = 1;
+    static final int HEADER = 64;
+    static final int OFF_MAGIC = 0, OFF_LAYOUT = 8, OFF_SEQ = 16, OFF_LENGTH = 24, OFF_CRC = 28, OFF_PUBLISHED = 32;
+
+    /** Aligned 8-byte access with memory ordering on the mapped header. */
+    static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private SharedConfigFile() { }
+
+    static long sequence(MappedByteBuffer map) {
+        return (long) LONGS.getAcquire(map, OFF_SEQ);
+    }
+
+    static boolean valid(MappedByteBuffer map) {
+        return map.capacity() >= HEADER && map.getLong(OFF_MAGIC) == MAGIC && map.getInt(OFF_LAYOUT) == LAYOUT;
+    }
+
+    static MappedByteBuffer map(FileChannel ch, FileChannel.MapMode mode) throws IOException {
+        return ch.map(mode, 0, ch.size());
+    }
+}
@@ -0,0 +1,119 @@
+package com.abdaemon.infrastructure.shm;
+
+import com.abdaemon.domain.ConfigSnapshot;
+import com.abdaemon.domain.ExperimentChange;
+import com.abdaemon.infrastructure.config.SnapshotCodec;
+import com.abdaemon.infrastructure.metrics.Metrics;
+import com.abdaemon.ports.outbound.ConfigListener;
+import com.abdaemon.ports.outbound.ConfigRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32C;
+
+import static com.abdaemon.infrastructure.shm.SharedConfigFile.*;
+
+/**
+ * Writes each published config snapshot into a memory-mapped file (layout in
+ * {@link SharedConfigFile}) for in-process assignment through {@link SharedConfigRepository}.
+ * - {@link #follow} registers it as a {@link ConfigListener}, so only reloads that changed an
+ *   experiment publish after the initial snapshot
+ * - an existing file is written in place and its sequence continued: readers that mapped it
+ *   before a daemon restart keep following it
+ * - the file is kept on close; readers go on serving the last snapshot
+ */
+public final class SharedConfigPublisher implements ConfigListener, AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(SharedConfigPublisher.class);
+    private static final int INITIAL_SIZE = 64 * 1024;
+
+    private final Path path;
+    private final FileChannel ch;
+    private MappedByteBuffer map;              // guarded by this
+    private final CRC32C crc = new CRC32C();   // guarded by this
+    private final LongAdder publishes;
+    private volatile int payloadBytes;
+
+    public SharedConfigPublisher(Path path, Metrics metrics) throws IOException {
+        this.path = path;
+        this.ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (ch.size() < HEADER + INITIAL_SIZE) grow(HEADER + INITIAL_SIZE);
+            this.map = SharedConfigFile.map(ch, FileChannel.MapMode.READ_WRITE);
+            if (!valid(map)) {
+                map.putLong(OFF_MAGIC, MAGIC).putInt(OFF_LAYOUT, LAYOUT).putInt(OFF_LENGTH, 0);
+                LONGS.setRelease(map, OFF_SEQ, 0L);
+            }
+        } catch (IOException e) {
+            ch.close();
+            throw e;
+        }
+        this.publishes = metrics.counter("ab_shm_publishes_total", "Config snapshots written to the shared-memory file", null);
+        metrics.gauge("ab_shm_bytes", "Size of the last snapshot in the shared-memory file", null, () -> payloadBytes);
+    }
+
+    public Path path() { return path; }
+
+    @Override
+    public void onChange(ConfigSnapshot snapshot, List<ExperimentChange> changes) {
+        try {
+            publish(snapshot);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Publishes {@code repo}'s current snapshot and every later change. The listener goes first
+     * and the snapshot is read under the lock, so a reload racing startup is published after,
+     * never before, the snapshot it replaced.
+     */
+    public synchronized void follow(ConfigRepository repo) throws IOException {
+        repo.addListener(this);
+        publish(repo.snapshot());
+    }
+
+    /** Encodes {@code snapshot} and swaps it in under the seqlock. */
+    public synchronized void publish(ConfigSnapshot snapshot) throws IOException {
+        byte[] payload = SnapshotCodec.encode(snapshot);
+        if (HEADER + (long) payload.length > map.capacity()) {
+            grow(Math.max(2L * map.capacity(), HEADER + (long) payload.length));
+            map = SharedConfigFile.map(ch, FileChannel.MapMode.READ_WRITE);
+        }
+        crc.reset();
+        crc.update(payload);
+
+        long seq = (long) LONGS.getVolatile(map, OFF_SEQ);
+        if ((seq & 1) != 0) seq++;            // a previous writer died mid-write
+        LONGS.setVolatile(map, OFF_SEQ, seq + 1);
+        VarHandle.storeStoreFence();          // the odd sequence is visible before any payload byte
+        map.put(HEADER, payload)
+                .putInt(OFF_LENGTH, payload.length)
+                .putInt(OFF_CRC, (int) crc.getValue())
+                .putLong(OFF_PUBLISHED, System.currentTimeMillis());
+        LONGS.setRelease(map, OFF_SEQ, seq + 2);
+
+        payloadBytes = payload.length;
+        publishes.increment();
+        log.debug("Published config {} to {} ({} bytes)", snapshot.version(), path, payload.length);
+    }
+
+    /** Extends the file; readers' existing mappings stay valid. */
+    private void grow(long size) throws IOException {
+        ch.write(ByteBuffer.allocate(1), size - 1);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        ch.close();
+    }
+}
@@ -0,0 +1,130 @@
+package com.abdaemon.infrastructure.shm;
+
+import com.abdaemon.domain.ConfigSnapshot;
+import com.abdaemon.domain.Experiment;
+import com.abdaemon.domain.ExperimentKey;
+import com.abdaemon.infrastructure.config.SnapshotCodec;
+import com.abdaemon.ports.outbound.ConfigRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32C;
+
+import static com.abdaemon.infrastructure.shm.SharedConfigFile.*;
+
+/**
+ * Read-only view of the daemon's shared-memory config file, for assigning in-process:
+ * {@code new AssignTreatmentUseCase(new SharedConfigRepository(path), new Bucketer())} decides
+ * exactly as the daemon does for the same snapshot.
+ * - {@link #snapshot()} costs one acquire read of the file's sequence while it is unchanged
+ * - a new sequence is copied out under the seqlock, checked against its CRC, decoded and
+ *   compiled (plans of unchanged experiments reused); readers keep the previous snapshot
+ *   meanwhile and if the copy cannot be made consistent
+ * - the daemon stays the source of truth: exposures still go to it (HTTP or Unix socket)
+ */
+public final class SharedConfigRepository implements ConfigRepository, AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(SharedConfigRepository.class);
+    /** How long a reader waits out a write in progress before keeping its snapshot. */
+    private static final long MAX_WAIT_NANOS = 200_000_000L;
+
+    private final Path path;
+    private final FileChannel ch;
+    private volatile MappedByteBuffer map;
+    private volatile ConfigSnapshot current = ConfigSnapshot.empty("0");
+    private volatile long seen = -1;
+    private final CRC32C crc = new CRC32C();    // guarded by this
+
+    public SharedConfigRepository(Path path) throws IOException {
+        this.path = path;
+        this.ch = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            this.map = SharedConfigFile.map(ch, FileChannel.MapMode.READ_ONLY);
+            if (!valid(map)) throw new IOException("not a shared config file: " + path);
+        } catch (IOException e) {
+            ch.close();
+            throw e;
+        }
+        refresh();
+    }
+
+    @Override
+    public ConfigSnapshot snapshot() {
+        if (sequence(map) != seen) refresh();
+        return current;
+    }
+
+    /** Takes the file's current snapshot if it is newer than ours. */
+    private synchronized void refresh() {
+        long seq = -1, deadline = System.nanoTime() + MAX_WAIT_NANOS;
+        for (int attempt = 0; System.nanoTime() - deadline < 0; attempt++) {
+            if (attempt > 0) backoff(attempt);
+            var m = map;
+            seq = sequence(m);
+            if (seq == seen) return;                  // another thread got here first
+            if ((seq & 1) != 0) continue;             // write in progress
+            int len = m.getInt(OFF_LENGTH), sum = m.getInt(OFF_CRC);
+            if (len == 0) { seen = seq; return; }     // nothing published yet
+            if (len < 0 || HEADER + (long) len > m.capacity()) {
+                if (!remap(len) && sequence(m) == seq) break;
+                continue;
+            }
+            byte[] copy = new byte[len];
+            m.get(HEADER, copy);
+            VarHandle.loadLoadFence();
+            if ((long) LONGS.getVolatile(m, OFF_SEQ) != seq) continue;   // torn: written meanwhile
+            crc.reset();
+            crc.update(copy);
+            if ((int) crc.getValue() != sum) continue;
+            try {
+                current = SnapshotCodec.decode(ByteBuffer.wrap(copy), current);
+            } catch (IllegalArgumentException e) {
+                log.warn("Shared config {} at sequence {} is invalid ({}); keeping version {}", path, seq, e.getMessage(), current.version());
+            }
+            seen = seq;
+            return;
+        }
+        // writer stalled mid-write or file unreadable; retry once the sequence moves again
+        log.warn("Shared config {} not readable at sequence {}; keeping version {}", path, seq, current.version());
+        seen = seq;
+    }
+
+    /** Spins briefly, then parks: the writer may be descheduled mid-write. */
+    private static void backoff(int attempt) {
+        if (attempt < 64) Thread.onSpinWait();
+        else LockSupport.parkNanos(50_000L);
+    }
+
+    /** Maps the grown file; false when it does not hold {@code len} bytes. */
+    private boolean remap(int len) {
+        try {
+            var m = SharedConfigFile.map(ch, FileChannel.MapMode.READ_ONLY);
+            if (len < 0 || HEADER + (long) len > m.capacity()) return false;
+            map = m;
+            return true;
+        } catch (IOException e) {
+            log.warn("Remapping shared config {} failed: {}", path, e.toString());
+            return false;
+        }
+    }
+
+    public Path path() { return path; }
+
+    @Override public String version() { return snapshot().version(); }
+    @Override public List<Experiment> all() { return List.copyOf(snapshot().experiments().values()); }
+    @Override public Optional<Experiment> find(ExperimentKey key) { return snapshot().find(key); }
+
+    @Override
+    public void close() throws IOException {
+        ch.close();
+    }
+}
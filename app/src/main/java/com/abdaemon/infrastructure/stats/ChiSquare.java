@@ -0,0 +1,75 @@
+package com.abdaemon.infrastructure.stats;
+
+/**
+ * Pearson chi-square goodness of fit.
+ * - p-value is the upper regularized incomplete gamma Q(df/2, x/2): series below a+1,
+ *   Lentz continued fraction above (Numerical Recipes 6.2)
+ */
+final class ChiSquare {
+    private static final int MAX_ITER = 500;
+    private static final double EPS = 1e-14;
+    private static final double TINY = 1e-300;
+
+    private ChiSquare() { }
+
+    /** Statistic of observed counts against expected proportions (summing to 1). */
+    static double statistic(long[] observed, double[] proportions) {
+        long n = 0;
+        for (long o : observed) n += o;
+        double x = 0;
+        for (int i = 0; i < observed.length; i++) {
+            double e = n * proportions[i];
+            double d = observed[i] - e;
+            x += d * d / e;
+        }
+        return x;
+    }
+
+    /** P(X >= x) for X ~ chi-square(df). */
+    static double pValue(double x, int df) {
+        if (x <= 0) return 1.0;
+        double a = df / 2.0, z = x / 2.0;
+        return z < a + 1 ? 1.0 - lowerSeries(a, z) : upperFraction(a, z);
+    }
+
+    private static double lowerSeries(double a, double z) {
+        double ap = a, sum = 1.0 / a, del = sum;
+        for (int i = 0; i < MAX_ITER; i++) {
+            ap += 1;
+            del *= z / ap;
+            sum += del;
+            if (Math.abs(del) < Math.abs(sum) * EPS) break;
+        }
+        return sum * Math.exp(-z + a * Math.log(z) - logGamma(a));
+    }
+
+    private static double upperFraction(double a, double z) {
+        double b = z + 1 - a, c = 1 / TINY, d = 1 / b, h = d;
+        for (int i = 1; i <= MAX_ITER; i++) {
+            double an = -i * (i - a);
+            b += 2;
+            d = an * d + b;
+            if (Math.abs(d) < TINY) d = TINY;
+            c = b + an / c;
+            if (Math.abs(c) < TINY) c = TINY;
+            d = 1 / d;
+            double del = d * c;
+            h *= del;
+            if (Math.abs(del - 1) < EPS) break;
+        }
+        return Math.exp(-z + a * Math.log(z) - logGamma(a)) * h;
+    }
+
+    /** Lanczos approximation (g=7, n=9). */
+    private static double logGamma(double x) {
+        final double[] c = {0.99999999999980993, 676.5203681218851, -1259.1392167224028, 771.32342877765313,
+                -176.61502916214059, 12.507343278686905, -0.13857109526572012, 9.9843695780195716e-6,
+                1.5056327351493116e-7};
+        if (x < 0.5) return Math.log(Math.PI / Math.abs(Math.sin(Math.PI * x))) - logGamma(1 - x);
+        x -= 1;
+        double s = c[0];
+        double t = x + 7.5;
+        for (int i = 1; i < 9; i++) s += c[i] / (x + i);
+        return 0.5 * Math.log(2 * Math.PI) + (x + 0.5) * Math.log(t) - t + Math.log(s);
+    }
+}
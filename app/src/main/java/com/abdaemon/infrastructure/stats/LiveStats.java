@@ -0,0 +1,268 @@
+package com.abdaemon.infrastructure.stats;
+
+import com.abdaemon.domain.AssignmentDecision;
+import com.abdaemon.domain.ConfigSnapshot;
+import com.abdaemon.domain.Experiment;
+import com.abdaemon.domain.ExperimentChange;
+import com.abdaemon.domain.ExperimentKey;
+import com.abdaemon.domain.Variant;
+import com.abdaemon.infrastructure.metrics.Metrics;
+import com.abdaemon.ports.outbound.ConfigListener;
+import com.abdaemon.ports.outbound.ConfigRepository;
+import com.abdaemon.ports.outbound.EventSink;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-variant experiment statistics kept live as events pass on to the wrapped sink.
+ * - assigned subjects: each subject counts once per experiment, on its first ASSIGNED exposure
+ *   (a {@link SubjectSet} of up to {@value #MAX_SUBJECTS} subjects per experiment; later ones
+ *   are untracked); repeats, other decisions and client-reported exposures do not count
+ * - exposure events of any decision, goals and goal values are counted as they come
+ * - goal rate is goals per assigned subject
+ * - only experiments and variants of the active config are tracked, and at most
+ *   {@value #MAX_GOALS} goal names per variant, so request-supplied names cannot grow memory
+ * - sample ratio mismatch: chi-square of assigned subjects per variant against the variant
+ *   weights, flagged below p = {@value #SRM_ALPHA}; reported once every variant expects >= 5.
+ *   The result is kept until the counts move, so the scrape-time gauge does not redo it
+ * - a reload that changes an experiment's variants, weights or salt starts its stats over
+ */
+public final class LiveStats implements EventSink, ConfigListener {
+    static final double SRM_ALPHA = 0.001;
+    static final int MAX_GOALS = 32;
+    static final int MAX_SUBJECTS = 1 << 21;
+
+    private final EventSink delegate;
+    private final ConfigRepository config;
+    private final ConcurrentHashMap<String, ExperimentStats> experiments = new ConcurrentHashMap<>();
+    private final LongAdder untracked;
+
+    private static final class ExperimentStats {
+        final Experiment experiment;
+        final Instant since = Instant.now();
+        final Map<String, VariantStats> variants;
+        final SubjectSet assigned = new SubjectSet(MAX_SUBJECTS);
+        volatile CachedSrm srm;
+
+        ExperimentStats(Experiment experiment) {
+            this.experiment = experiment;
+            var m = new HashMap<String, VariantStats>();
+            for (var v : experiment.variants()) m.put(v.name(), new VariantStats());
+            this.variants = Map.copyOf(m);
+        }
+    }
+
+    private static final class VariantStats {
+        final LongAdder exposures = new LongAdder(), assigned = new LongAdder();
+        final ConcurrentHashMap<String, GoalStats> goals = new ConcurrentHashMap<>();
+    }
+
+    private record CachedSrm(long[] assigned, Srm srm) {}
+
+    private static final class GoalStats {
+        final LongAdder count = new LongAdder();
+        final StripedMoments values = new StripedMoments();
+    }
+
+    /** Snapshot served by /stats. */
+    public record Report(String experiment, String configVersion, Instant since, List<VariantReport> variants,
+                        Srm srm) {}
+
+    /**
+     * @param exposures exposure events of any decision, repeats included
+     * @param assigned  distinct subjects assigned to this variant
+     * @param share     fraction of the assigned subjects that went to this variant
+     */
+    public record VariantReport(String name, double weight, long exposures, long assigned, double share,
+                                Map<String, GoalReport> goals) {}
+
+    /**
+     * @param valued   goals that carried a value; mean/variance are over those
+     * @param rate     goals per assigned subject
+     */
+    public record GoalReport(long count, long valued, double rate, double mean, double variance, double stddev) {}
+
+    /** @param mismatch p below the alpha; null statistic when there is too little data yet */
+    public record Srm(Double chiSquare, int df, Double pValue, double alpha, boolean mismatch) {}
+
+    public LiveStats(EventSink delegate, ConfigRepository config, Metrics metrics) {
+        this.delegate = delegate;
+        this.config = config;
+        this.untracked = metrics.counter("ab_stats_untracked_events_total",
+                "Events for experiments, variants or goals outside the tracked set", null);
+        metrics.gauge("ab_stats_srm_experiments", "Experiments currently flagged with a sample ratio mismatch",
+                null, this::mismatches);
+        config.addListener(this);
+    }
+
+    @Override
+    public void enqueueExposure(String experiment, String treatment, String subjectKey, Instant ts, Map<String, String> ctx) {
+        exposure(experiment, treatment, null, subjectKey);
+        delegate.enqueueExposure(experiment, treatment, subjectKey, ts, ctx);
+    }
+
+    @Override
+    public void enqueueExposure(String experiment, String treatment, AssignmentDecision.Decision decision,
+                                String subjectKey, Instant ts, Map<String, String> ctx) {
+        exposure(experiment, treatment, decision, subjectKey);
+        delegate.enqueueExposure(experiment, treatment, decision, subjectKey, ts, ctx);
+    }
+
+    @Override
+    public void enqueueExposures(List<Exposure> exposures) {
+        delegate.enqueueExposures(exposures);    // first: a batch the sink refuses is not counted
+        for (var e : exposures) exposure(e.experiment(), e.treatment(), e.decision(), e.subjectKey());
+    }
+
+    @Override
+    public void enqueueGoal(String experiment, String treatment, String subjectKey, String goal, Double value,
+                            Instant ts, Map<String, String> ctx) {
+        goal(experiment, treatment, goal, value);
+        delegate.enqueueGoal(experiment, treatment, subjectKey, goal, value, ts, ctx);
+    }
+
+    @Override
+    public void enqueueGoals(List<Goal> goals) {
+        delegate.enqueueGoals(goals);
+        for (var g : goals) goal(g.experiment(), g.treatment(), g.goal(), g.value());
+    }
+
+    @Override
+    public CompletableFuture<Void> awaitDurable() {
+        return delegate.awaitDurable();
+    }
+
+    private void exposure(String experiment, String treatment, AssignmentDecision.Decision decision, String subjectKey) {
+        var s = experiment == null ? null : stats(experiment);
+        var v = s == null || treatment == null ? null : s.variants.get(treatment);
+        if (v == null) { untracked.increment(); return; }
+        v.exposures.increment();
+        if (decision != AssignmentDecision.Decision.ASSIGNED || subjectKey == null) return;
+        switch (s.assigned.add(subjectKey)) {
+            case NEW -> v.assigned.increment();
+            case FULL -> untracked.increment();
+            case PRESENT -> { }
+        }
+    }
+
+    private void goal(String experiment, String treatment, String goal, Double value) {
+        var v = variant(experiment, treatment);
+        if (v == null || goal == null) return;
+        var g = v.goals.get(goal);
+        if (g == null) {
+            if (v.goals.size() >= MAX_GOALS) { untracked.increment(); return; }
+            g = v.goals.computeIfAbsent(goal, k -> new GoalStats());
+        }
+        g.count.increment();
+        if (value != null && Double.isFinite(value)) g.values.add(value);
+    }
+
+    private VariantStats variant(String experiment, String treatment) {
+        var s = experiment == null ? null : stats(experiment);
+        var v = s == null || treatment == null ? null : s.variants.get(treatment);
+        if (v == null) untracked.increment();
+        return v;
+    }
+
+    private ExperimentStats stats(String experiment) {
+        var s = experiments.get(experiment);
+        if (s != null) return s;
+        var e = config.snapshot().find(new ExperimentKey(experiment));
+        return e.map(exp -> experiments.computeIfAbsent(experiment, k -> new ExperimentStats(exp))).orElse(null);
+    }
+
+    @Override
+    public void onChange(ConfigSnapshot snapshot, List<ExperimentChange> changes) {
+        for (var c : changes) {
+            switch (c.kind()) {
+                case REMOVED -> experiments.remove(c.key().value());
+                case MODIFIED -> {
+                    if (!c.before().variants().equals(c.after().variants()) || !c.before().salt().equals(c.after().salt())) {
+                        experiments.remove(c.key().value());
+                    }
+                }
+                case ADDED -> { }
+            }
+        }
+    }
+
+    /** Empty when the experiment is not in the active config. */
+    public Optional<Report> report(String experiment) {
+        var snapshot = config.snapshot();
+        var exp = snapshot.find(new ExperimentKey(experiment));
+        if (exp.isEmpty()) return Optional.empty();
+        var s = stats(experiment);
+        if (s == null) return Optional.empty();
+
+        List<Variant> variants = s.experiment.variants();
+        long[] assigned = assigned(s);
+        long totalAssigned = 0;
+        for (long a : assigned) totalAssigned += a;
+        var reports = new ArrayList<VariantReport>(variants.size());
+        for (int i = 0; i < variants.size(); i++) {
+            var variant = variants.get(i);
+            var v = s.variants.get(variant.name());
+            var goals = new TreeMap<String, GoalReport>();
+            for (var g : v.goals.entrySet()) {
+                var m = g.getValue().values.summary();
+                long count = g.getValue().count.sum();
+                goals.put(g.getKey(), new GoalReport(count, m.count(), assigned[i] > 0 ? (double) count / assigned[i] : 0,
+                        m.mean(), m.variance(), Math.sqrt(m.variance())));
+            }
+            reports.add(new VariantReport(variant.name(), variant.weight(), v.exposures.sum(), assigned[i],
+                    totalAssigned > 0 ? (double) assigned[i] / totalAssigned : 0, new LinkedHashMap<>(goals)));
+        }
+        return Optional.of(new Report(experiment, snapshot.version(), s.since, reports, srm(s, assigned)));
+    }
+
+    /** Assigned subjects per variant, in config order. */
+    private static long[] assigned(ExperimentStats s) {
+        var variants = s.experiment.variants();
+        long[] assigned = new long[variants.size()];
+        for (int i = 0; i < assigned.length; i++) assigned[i] = s.variants.get(variants.get(i).name()).assigned.sum();
+        return assigned;
+    }
+
+    /** SRM for these counts; recomputed only when they changed since the last call. */
+    private static Srm srm(ExperimentStats s, long[] assigned) {
+        var cached = s.srm;
+        if (cached != null && Arrays.equals(cached.assigned, assigned)) return cached.srm;
+        long total = 0;
+        for (long a : assigned) total += a;
+        var srm = srm(s.experiment.variants(), assigned, total);
+        s.srm = new CachedSrm(assigned, srm);
+        return srm;
+    }
+
+    private static Srm srm(List<Variant> variants, long[] assigned, long total) {
+        int df = variants.size() - 1;
+        if (df < 1) return new Srm(null, 0, null, SRM_ALPHA, false);
+        double[] p = new double[variants.size()];
+        for (int i = 0; i < p.length; i++) {
+            p[i] = variants.get(i).weight();
+            if (total * p[i] < 5) return new Srm(null, df, null, SRM_ALPHA, false);
+        }
+        double x = ChiSquare.statistic(assigned, p);
+        double pValue = ChiSquare.pValue(x, df);
+        return new Srm(x, df, pValue, SRM_ALPHA, pValue < SRM_ALPHA);
+    }
+
+    private double mismatches() {
+        int n = 0;
+        for (var s : experiments.values()) {
+            if (srm(s, assigned(s)).mismatch()) n++;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,61 @@
+package com.abdaemon.infrastructure.stats;
+
+/**
+ * Count, mean and variance of a stream of values (Welford), striped to keep writers apart.
+ * - a writer updates the cell picked by its thread id; cells are only contended by
+ *   threads that collide on the stripe, and then only for a few arithmetic ops
+ * - readers merge the cells with Chan et al.'s pairwise update, no writer is stopped
+ */
+final class StripedMoments {
+    private static final int STRIPES = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 4 - 1)) << 1;
+
+    /** Merged view. */
+    record Summary(long count, double mean, double m2) {
+        static final Summary EMPTY = new Summary(0, 0, 0);
+
+        double variance() { return count > 1 ? m2 / (count - 1) : 0; }
+
+        Summary merge(Summary o) {
+            if (o.count == 0) return this;
+            if (count == 0) return o;
+            long n = count + o.count;
+            double delta = o.mean - mean;
+            return new Summary(n, mean + delta * o.count / n, m2 + o.m2 + delta * delta * ((double) count * o.count / n));
+        }
+    }
+
+    private static final class Cell {
+        long n;
+        double mean, m2;
+        // padding so neighbouring cells do not share a cache line
+        @SuppressWarnings("unused") long p0, p1, p2, p3, p4;
+    }
+
+    private final Cell[] cells = new Cell[STRIPES];
+
+    StripedMoments() {
+        for (int i = 0; i < cells.length; i++) cells[i] = new Cell();
+    }
+
+    void add(double x) {
+        var c = cells[(int) Thread.currentThread().threadId() & (STRIPES - 1)];
+        synchronized (c) {
+            long n = ++c.n;
+            double d = x - c.mean;
+            c.mean += d / n;
+            c.m2 += d * (x - c.mean);
+        }
+    }
+
+    Summary summary() {
+        var s = Summary.EMPTY;
+        for (var c : cells) {
+            Summary part;
+            synchronized (c) {
+                part = new Summary(c.n, c.mean, c.m2);
+            }
+            s = s.merge(part);
+        }
+        return s;
+    }
+}
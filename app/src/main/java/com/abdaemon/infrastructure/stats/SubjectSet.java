@@ -0,0 +1,68 @@
+package com.abdaemon.infrastructure.stats;
+
+/**
+ * Concurrent set of subject hashes, for counting each subject once.
+ * - 64-bit hashes in open-addressing tables (~16 bytes per subject at the 0.5 load factor)
+ * - striped by hash; a stripe is locked only for its own probe, so writers rarely meet
+ * - bounded: once a stripe holds its share of the capacity, new subjects are refused
+ */
+final class SubjectSet {
+    private static final int STRIPES = 16;
+
+    enum Added { NEW, PRESENT, FULL }
+
+    private static final class Stripe {
+        long[] slots = new long[16];
+        int size;
+    }
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final int perStripe;
+
+    /** @param capacity subjects held before new ones are refused */
+    SubjectSet(int capacity) {
+        this.perStripe = Math.max(1, capacity / STRIPES);
+        for (int i = 0; i < STRIPES; i++) stripes[i] = new Stripe();
+    }
+
+    Added add(String subjectKey) {
+        long h = hash(subjectKey);
+        var s = stripes[(int) (h >>> 60)];
+        synchronized (s) {
+            int mask = s.slots.length - 1;
+            for (int i = (int) h & mask; ; i = (i + 1) & mask) {
+                if (s.slots[i] == h) return Added.PRESENT;
+                if (s.slots[i] == 0) break;
+            }
+            if (s.size >= perStripe) return Added.FULL;
+            if (++s.size * 2 > s.slots.length) s.slots = rehash(s.slots, s.slots.length * 2);
+            insert(s.slots, h);
+            return Added.NEW;
+        }
+    }
+
+    private static void insert(long[] slots, long h) {
+        int mask = slots.length - 1;
+        int i = (int) h & mask;
+        while (slots[i] != 0) i = (i + 1) & mask;
+        slots[i] = h;
+    }
+
+    private static long[] rehash(long[] old, int length) {
+        var slots = new long[length];
+        for (long h : old) if (h != 0) insert(slots, h);
+        return slots;
+    }
+
+    /** FNV-1a over the chars, finalized with murmur3's fmix64; 0 is reserved for empty slots. */
+    static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) h = (h ^ s.charAt(i)) * 0x100000001b3L;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h == 0 ? 0x9e3779b97f4a7c15L : h;
+    }
+}
@@ -0,0 +1,194 @@
+package com.abdaemon.infrastructure.uds;
+
+import com.abdaemon.domain.AssignmentDecision;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Client for {@link UdsAssignmentServer}; one persistent connection, safe for concurrent use.
+ * - requests are tagged with an id and written as they come; any number may be in flight
+ * - a reader thread completes each caller's future from the matching response; a future that
+ *   completes any other way (timeout, cancel) leaves the pending table at once
+ * - when the connection fails, including a write that fails part-way through a frame, it is
+ *   closed and every pending and later request fails with the cause
+ */
+public final class UdsAssignmentClient implements AutoCloseable {
+
+    public record Result(String treatment, AssignmentDecision.Decision decision, List<String> reasons, String configVersion) { }
+
+    private final SocketChannel ch;
+    private final Duration timeout;
+    private final AtomicInteger ids = new AtomicInteger();
+    private final Map<Integer, CompletableFuture<Result>> pending = new ConcurrentHashMap<>();
+    private final ByteBuffer out = ByteBuffer.allocate(4 + UdsProtocol.MAX_FRAME);   // guarded by this
+    private final Thread reader;
+    private volatile IOException failure;
+
+    private UdsAssignmentClient(SocketChannel ch, Duration timeout) {
+        this.ch = ch;
+        this.timeout = timeout;
+        this.reader = new Thread(this::readLoop, "uds-client-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    public static UdsAssignmentClient connect(Path socket) throws IOException {
+        return connect(socket, Duration.ofSeconds(5));
+    }
+
+    /** {@code timeout} bounds each blocking {@link #assign} call. */
+    public static UdsAssignmentClient connect(Path socket, Duration timeout) throws IOException {
+        var ch = SocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            ch.connect(UnixDomainSocketAddress.of(socket));
+        } catch (IOException e) {
+            ch.close();
+            throw e;
+        }
+        return new UdsAssignmentClient(ch, timeout);
+    }
+
+    /** Blocking assign; at least one of user/device/req is required, ctx may be null. */
+    public Result assign(String experiment, String user, String device, String req, Map<String, String> ctx) throws IOException {
+        var f = assignAsync(experiment, user, device, req, ctx);
+        try {
+            return f.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            throw new IOException(e.getCause());
+        } catch (TimeoutException e) {
+            var timedOut = new IOException("no response within " + timeout.toMillis() + " ms");
+            f.completeExceptionally(timedOut);
+            throw timedOut;
+        } catch (InterruptedException e) {
+            f.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted", e);
+        }
+    }
+
+    /**
+     * Sends the request and returns without waiting. The future fails with IOException on a
+     * transport error and IllegalArgumentException when the server rejects the request.
+     */
+    public CompletableFuture<Result> assignAsync(String experiment, String user, String device, String req, Map<String, String> ctx) {
+        var f = new CompletableFuture<Result>();
+        int id = ids.incrementAndGet();
+        pending.put(id, f);
+        f.whenComplete((r, e) -> pending.remove(id, f));
+        try {
+            if (failure != null) throw failure;   // checked after registering, so fail() can't miss it
+            send(id, experiment, user, device, req, ctx);
+        } catch (IOException e) {
+            // the frame may be half written: nothing after it can be parsed by the server
+            fail(e);
+            closeQuietly();
+        } catch (RuntimeException e) {          // string or frame too long; thrown before writing
+            f.completeExceptionally(e);
+        }
+        return f;
+    }
+
+    /** Requests awaiting a response. */
+    int inFlight() { return pending.size(); }
+
+    private synchronized void send(int id, String experiment, String user, String device, String req,
+                                   Map<String, String> ctx) throws IOException {
+        if (ctx != null && ctx.size() > 255) throw new IllegalArgumentException("at most 255 ctx entries");
+        out.clear().position(4);
+        out.put(UdsProtocol.OP_ASSIGN).putInt(id);
+        UdsProtocol.putString(out, experiment);
+        int flags = (user != null ? UdsProtocol.SUBJECT_USER : 0) | (device != null ? UdsProtocol.SUBJECT_DEVICE : 0)
+                | (req != null ? UdsProtocol.SUBJECT_REQUEST : 0);
+        out.put((byte) flags);
+        if (user != null) UdsProtocol.putString(out, user);
+        if (device != null) UdsProtocol.putString(out, device);
+        if (req != null) UdsProtocol.putString(out, req);
+        out.put((byte) (ctx == null ? 0 : ctx.size()));
+        if (ctx != null) {
+            for (var e : ctx.entrySet()) {
+                UdsProtocol.putString(out, e.getKey());
+                UdsProtocol.putString(out, e.getValue());
+            }
+        }
+        int len = out.position() - 4;
+        if (len > UdsProtocol.MAX_FRAME) throw new IllegalArgumentException("request exceeds " + UdsProtocol.MAX_FRAME + " bytes");
+        out.putInt(0, len).flip();
+        while (out.hasRemaining()) ch.write(out);
+    }
+
+    private void readLoop() {
+        var in = ByteBuffer.allocate(4 + UdsProtocol.MAX_FRAME);
+        try {
+            while (true) {
+                if (ch.read(in) < 0) throw new IOException("connection closed by server");
+                in.flip();
+                while (in.remaining() >= 4) {
+                    int len = in.getInt(in.position());
+                    if (len < 5 || len > UdsProtocol.MAX_FRAME) throw new IOException("bad response frame length " + len);
+                    if (in.remaining() < 4 + len) break;
+                    int end = in.position() + 4 + len, limit = in.limit();
+                    in.position(in.position() + 4).limit(end);
+                    dispatch(in);
+                    in.limit(limit).position(end);
+                }
+                in.compact();
+            }
+        } catch (IOException | RuntimeException e) {
+            fail(e instanceof IOException io ? io : new IOException(e));
+            closeQuietly();
+        }
+    }
+
+    private void dispatch(ByteBuffer in) {
+        int id = in.getInt();
+        byte status = in.get();
+        var f = pending.remove(id);
+        if (f == null) return;
+        if (status != UdsProtocol.STATUS_OK) {
+            f.completeExceptionally(new IllegalArgumentException("status " + status + ": " + UdsProtocol.getString(in)));
+            return;
+        }
+        var decision = UdsProtocol.decision(in.get());
+        String treatment = UdsProtocol.getString(in);
+        String version = UdsProtocol.getString(in);
+        int n = in.get() & 0xFF;
+        var reasons = new ArrayList<String>(n);
+        for (int i = 0; i < n; i++) reasons.add(UdsProtocol.getString(in));
+        f.complete(new Result(treatment, decision, List.copyOf(reasons), version));
+    }
+
+    private void fail(IOException e) {
+        if (failure == null) failure = e;
+        for (var id : pending.keySet()) {
+            var f = pending.remove(id);
+            if (f != null) f.completeExceptionally(e);
+        }
+    }
+
+    private void closeQuietly() {
+        try { ch.close(); } catch (IOException ignored) { }
+    }
+
+    @Override
+    public void close() throws IOException {
+        fail(new IOException("client closed"));
+        ch.close();
+    }
+}
@@ -0,0 +1,357 @@
+package com.abdaemon.infrastructure.uds;
+
+import com.abdaemon.application.AssignTreatmentUseCase;
+import com.abdaemon.application.Bucketer;
+import com.abdaemon.domain.AssignmentDecision;
+import com.abdaemon.domain.ConfigSnapshot;
+import com.abdaemon.domain.DeviceId;
+import com.abdaemon.domain.ExperimentKey;
+import com.abdaemon.domain.RequestId;
+import com.abdaemon.domain.Subject;
+import com.abdaemon.domain.UserId;
+import com.abdaemon.infrastructure.metrics.LatencyHistogram;
+import com.abdaemon.infrastructure.metrics.Metrics;
+import com.abdaemon.ports.outbound.EventSink;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Assignment over a Unix domain socket, for callers on the same box; see {@link UdsProtocol}.
+ * - one selector thread accepts, reads, decides and writes; frames are decoded in place from a
+ *   per-connection buffer and pipelined requests are answered in order
+ * - decisions, exposures and metrics go through the same {@link AssignTreatmentUseCase} and
+ *   {@link EventSink} as HTTP; handlers run on the loop, so the sink must not block (Main
+ *   requires {@code AB_WAL_MODE=group})
+ * - the decision part of a response is encoded once per config snapshot and copied per request
+ * - a malformed frame length closes the connection; a malformed body gets a BAD_REQUEST response
+ * - a stale socket file from a crash is replaced on start; a regular file or a live socket at the
+ *   path fails the start. The socket is bound in an owner-only directory, set to rw for owner
+ *   and group, then renamed into place, so it is never reachable with default permissions
+ * - removed on close unless the path no longer names this server's socket
+ */
+public final class UdsAssignmentServer implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(UdsAssignmentServer.class);
+    private static final int OUT_BUFFER = 16 * 1024;
+    /** Past this much unsent output a connection stops reading until the peer drains it. */
+    private static final int OUT_HIGH_WATER = 256 * 1024;
+    /** Bound on cached encodings; canonical decisions number a few per experiment. */
+    private static final int MAX_ENCODED = 4096;
+    /** File type bits of {@code unix:mode}. */
+    private static final int S_IFMT = 0170000, S_IFSOCK = 0140000;
+
+    private final Path path;
+    private final AssignTreatmentUseCase assign;
+    private final EventSink sink;
+    private final Metrics metrics;
+    private final ServerSocketChannel acceptor;
+    private final Selector selector;
+    private final Thread thread;
+    private final LatencyHistogram requestTime;
+    private final LongAdder protocolErrors;
+    private final AtomicInteger connections = new AtomicInteger();
+    private final Object fileKey;            // identity of the socket file created; null if the fs has none
+    private volatile boolean running = true;
+
+    // loop-thread state
+    private final IdentityHashMap<AssignmentDecision, byte[]> encoded = new IdentityHashMap<>();
+    private ConfigSnapshot encodedFor;
+    private final ByteBuffer scratch = ByteBuffer.allocate(UdsProtocol.MAX_FRAME);
+
+    public UdsAssignmentServer(Path path, AssignTreatmentUseCase assign, EventSink sink, Metrics metrics) throws IOException {
+        this.path = path;
+        this.assign = assign;
+        this.sink = sink;
+        this.metrics = metrics;
+        this.requestTime = metrics.histogram("ab_uds_request_seconds", "Unix socket request handling time", null);
+        this.protocolErrors = metrics.counter("ab_uds_protocol_errors_total",
+                "Unix socket frames rejected as malformed (bad requests and dropped connections)", null);
+        metrics.gauge("ab_uds_connections", "Open Unix socket connections", null, connections::get);
+
+        removeStale(path);
+        this.acceptor = bind(path);
+        this.fileKey = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).fileKey();
+        acceptor.configureBlocking(false);
+        this.selector = Selector.open();
+        acceptor.register(selector, SelectionKey.OP_ACCEPT);
+        this.thread = new Thread(this::loop, "uds-loop");
+    }
+
+    /** Removes a socket file left behind by a crashed server; refuses anything else, or a socket still in use. */
+    private static void removeStale(Path path) throws IOException {
+        int mode;
+        try {
+            mode = (int) Files.getAttribute(path, "unix:mode", LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            return;
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            mode = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isOther() ? S_IFSOCK : 0;
+        }
+        if ((mode & S_IFMT) != S_IFSOCK) throw new IOException(path + " exists and is not a socket");
+        try (var probe = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            probe.connect(UnixDomainSocketAddress.of(path));
+            throw new IOException(path + " is in use by another server");
+        } catch (ConnectException stale) {
+            // nobody listening
+        }
+        Files.deleteIfExists(path);
+    }
+
+    /** Binds at a private temporary name, restricts the socket file, then renames it to {@code path}. */
+    private static ServerSocketChannel bind(Path path) throws IOException {
+        var ch = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            Path dir;
+            try {
+                dir = Files.createTempDirectory(path.toAbsolutePath().getParent(), ".uds",
+                        PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            } catch (UnsupportedOperationException e) {
+                ch.bind(UnixDomainSocketAddress.of(path));    // non-POSIX file system: default permissions
+                return ch;
+            }
+            Path tmp = dir.resolve("s");
+            try {
+                ch.bind(UnixDomainSocketAddress.of(tmp));
+                Files.setPosixFilePermissions(tmp, PosixFilePermissions.fromString("rw-rw----"));
+                Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+                Files.deleteIfExists(dir);
+            }
+            return ch;
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    public Path path() { return path; }
+
+    public void start() { thread.start(); }
+
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try { acceptor.close(); } catch (IOException ignored) { }
+        try {
+            var attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if (fileKey == null || fileKey.equals(attrs.fileKey())) Files.deleteIfExists(path);
+        } catch (IOException ignored) {
+            // already gone
+        }
+    }
+
+    /** Per-connection state; only touched by the loop. */
+    private static final class Connection {
+        final SocketChannel ch;
+        SelectionKey key;
+        final ByteBuffer in = ByteBuffer.allocate(4 + UdsProtocol.MAX_FRAME);   // write mode
+        ByteBuffer out = ByteBuffer.allocateDirect(OUT_BUFFER);                  // write mode
+
+        Connection(SocketChannel ch) { this.ch = ch; }
+    }
+
+    private void loop() {
+        while (running) {
+            try {
+                selector.select();
+                var it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    var key = it.next();
+                    it.remove();
+                    if (key.isValid() && key.isAcceptable()) { accept(); continue; }
+                    var c = (Connection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isWritable()) writable(c);
+                        if (key.isValid() && key.isReadable()) read(c);
+                    } catch (IOException | CancelledKeyException e) {
+                        close(c);
+                    }
+                }
+            } catch (ClosedSelectorException e) {
+                return;
+            } catch (IOException e) {
+                log.error("UDS event loop error: {}", e.toString());
+            }
+        }
+        for (var key : selector.keys()) {
+            if (key.attachment() instanceof Connection c) close(c);
+        }
+        try { selector.close(); } catch (IOException ignored) { }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel ch;
+        while ((ch = acceptor.accept()) != null) {
+            ch.configureBlocking(false);
+            var c = new Connection(ch);
+            c.key = ch.register(selector, SelectionKey.OP_READ, c);
+            connections.incrementAndGet();
+        }
+    }
+
+    private void read(Connection c) throws IOException {
+        int n = c.ch.read(c.in);
+        if (n < 0) { close(c); return; }
+        process(c);
+    }
+
+    private void writable(Connection c) throws IOException {
+        if (!flush(c)) return;
+        c.key.interestOps(SelectionKey.OP_READ);
+        process(c);    // frames left unparsed while output was backed up
+    }
+
+    /** Answers every complete frame in the input buffer, then writes what it can. */
+    private void process(Connection c) throws IOException {
+        var in = c.in.flip();
+        while (in.remaining() >= 4 && c.out.position() < OUT_HIGH_WATER) {
+            int len = in.getInt(in.position());
+            if (len < 5 || len > UdsProtocol.MAX_FRAME) {
+                protocolErrors.increment();
+                log.warn("UDS frame length {} out of range; closing connection", len);
+                close(c);
+                return;
+            }
+            if (in.remaining() < 4 + len) break;
+            int start = in.position() + 4, end = start + len, limit = in.limit();
+            in.limit(end).position(start);
+            long t0 = System.nanoTime();
+            handle(c, in);
+            requestTime.recordSince(t0);
+            in.limit(limit).position(end);
+        }
+        in.compact();
+        if (!flush(c)) c.key.interestOps(SelectionKey.OP_WRITE);
+    }
+
+    /** Decodes one request from {@code in} (positioned after the length, limited to the frame). */
+    private void handle(Connection c, ByteBuffer in) {
+        byte op = in.get();
+        int id = in.getInt();
+        if (op != UdsProtocol.OP_ASSIGN) {
+            error(c, id, UdsProtocol.STATUS_UNKNOWN_OP, "unknown op " + op);
+            return;
+        }
+        AssignmentDecision decision;
+        try {
+            String exp = UdsProtocol.getString(in);
+            int flags = in.get();
+            String user = (flags & UdsProtocol.SUBJECT_USER) != 0 ? UdsProtocol.getString(in) : null;
+            String device = (flags & UdsProtocol.SUBJECT_DEVICE) != 0 ? UdsProtocol.getString(in) : null;
+            String req = (flags & UdsProtocol.SUBJECT_REQUEST) != 0 ? UdsProtocol.getString(in) : null;
+            int n = in.get() & 0xFF;
+            var targeting = assign.snapshot().attributes();
+            var ctx = new HashMap<String, String>();
+            for (int i = 0; i < n; i++) {
+                String k = UdsProtocol.getString(in), v = UdsProtocol.getString(in);
+                if (k.equals("country") || k.equals("app_ver") || targeting.contains(k)) ctx.put(k, v);
+            }
+            if (in.hasRemaining()) throw new IllegalArgumentException("trailing bytes in frame");
+            if (exp.isBlank()) throw new IllegalArgumentException("missing experiment");
+            var subject = Subject.of(user == null ? null : new UserId(user), device == null ? null : new DeviceId(device),
+                    req == null ? null : new RequestId(req));
+
+            decision = assign.assign(new ExperimentKey(exp), subject, ctx);
+            metrics.decision(decision);
+            sink.enqueueExposure(exp, decision.treatment(), decision.decision(), Bucketer.stableSubjectKey(subject),
+                    Instant.now(), ctx);
+        } catch (IllegalArgumentException | BufferUnderflowException e) {
+            protocolErrors.increment();
+            error(c, id, UdsProtocol.STATUS_BAD_REQUEST, e instanceof BufferUnderflowException ? "truncated frame" : e.getMessage());
+            return;
+        } catch (RuntimeException e) {
+            log.warn("UDS handler failed: {}", e.toString());
+            error(c, id, UdsProtocol.STATUS_INTERNAL, "internal error");
+            return;
+        }
+        byte[] body = encoded(decision);
+        var out = ensure(c, 9 + body.length);
+        out.putInt(5 + body.length).putInt(id).put(UdsProtocol.STATUS_OK).put(body);
+    }
+
+    /** decision | treatment | config version | reasons, cached per canonical decision of the snapshot. */
+    private byte[] encoded(AssignmentDecision d) {
+        var snap = assign.snapshot();
+        if (snap != encodedFor || encoded.size() >= MAX_ENCODED) {
+            encoded.clear();
+            encodedFor = snap;
+        }
+        byte[] b = encoded.get(d);
+        if (b != null) return b;
+        var s = scratch.clear();
+        s.put(UdsProtocol.decisionCode(d.decision()));
+        UdsProtocol.putString(s, d.treatment());
+        UdsProtocol.putString(s, d.configVersion());
+        s.put((byte) Math.min(255, d.reasons().size()));
+        for (int i = 0; i < Math.min(255, d.reasons().size()); i++) UdsProtocol.putString(s, d.reasons().get(i));
+        b = new byte[s.position()];
+        s.flip().get(b);
+        // decisions outside the snapshot's plans (unknown experiment) are fresh objects; don't keep them
+        if (snap.compiled(d.experiment()) != null) encoded.put(d, b);
+        return b;
+    }
+
+    private void error(Connection c, int id, byte status, String message) {
+        var s = scratch.clear();
+        UdsProtocol.putString(s, message == null ? "" : message);
+        var out = ensure(c, 9 + s.position());
+        out.putInt(5 + s.position()).putInt(id).put(status).put(s.flip());
+    }
+
+    private ByteBuffer ensure(Connection c, int n) {
+        if (c.out.remaining() >= n) return c.out;
+        var bigger = ByteBuffer.allocateDirect(Math.max(c.out.capacity() * 2, c.out.position() + n));
+        bigger.put(c.out.flip());
+        return c.out = bigger;
+    }
+
+    /** True when all output went out. */
+    private boolean flush(Connection c) throws IOException {
+        var out = c.out.flip();
+        while (out.hasRemaining()) {
+            if (c.ch.write(out) == 0) break;
+        }
+        boolean done = !out.hasRemaining();
+        out.compact();
+        if (done && out.capacity() > OUT_BUFFER) c.out = ByteBuffer.allocateDirect(OUT_BUFFER);
+        return done;
+    }
+
+    private void close(Connection c) {
+        if (!c.ch.isOpen()) return;
+        if (c.key != null) c.key.cancel();
+        try { c.ch.close(); } catch (IOException ignored) { }
+        connections.decrementAndGet();
+    }
+}
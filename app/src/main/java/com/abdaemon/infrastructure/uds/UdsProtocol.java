@@ -0,0 +1,72 @@
+package com.abdaemon.infrastructure.uds;
+
+import com.abdaemon.domain.AssignmentDecision;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Length-prefixed binary assignment protocol spoken over the Unix domain socket.
+ * All integers big-endian; {@code str} is a u16 byte length + UTF-8.
+ * <pre>
+ * request:  u32 length | u8 op | u32 id | str experiment
+ *           | u8 subject flags (1 user, 2 device, 4 request) | str per set flag, in that order
+ *           | u8 ctx count | count x (str key, str value)
+ * response: u32 length | u32 id | u8 status
+ *           OK:    u8 decision | str treatment | str config version | u8 n | n x str reason
+ *           other: str message
+ * </pre>
+ * - {@code length} counts the bytes after itself, at most {@link #MAX_FRAME}
+ * - requests on a connection may be pipelined; every response carries its request's id
+ * - decision codes: 0 ASSIGNED, 1 INELIGIBLE, 2 TRAFFIC_GATE, 3 FALLBACK, 4 WEIGHTS_ERROR
+ */
+public final class UdsProtocol {
+    public static final int MAX_FRAME = 64 * 1024;
+
+    public static final byte OP_ASSIGN = 1;
+
+    public static final byte STATUS_OK = 0;
+    public static final byte STATUS_BAD_REQUEST = 1;
+    public static final byte STATUS_UNKNOWN_OP = 2;
+    public static final byte STATUS_INTERNAL = 3;
+
+    public static final int SUBJECT_USER = 1, SUBJECT_DEVICE = 2, SUBJECT_REQUEST = 4;
+
+    private static final AssignmentDecision.Decision[] DECISIONS = {
+            AssignmentDecision.Decision.ASSIGNED, AssignmentDecision.Decision.INELIGIBLE,
+            AssignmentDecision.Decision.TRAFFIC_GATE, AssignmentDecision.Decision.FALLBACK,
+            AssignmentDecision.Decision.WEIGHTS_ERROR};
+
+    private UdsProtocol() { }
+
+    public static byte decisionCode(AssignmentDecision.Decision d) {
+        for (int i = 0; i < DECISIONS.length; i++) if (DECISIONS[i] == d) return (byte) i;
+        throw new IllegalArgumentException("no wire code for " + d);
+    }
+
+    public static AssignmentDecision.Decision decision(int code) {
+        if (code < 0 || code >= DECISIONS.length) throw new IllegalArgumentException("unknown decision code " + code);
+        return DECISIONS[code];
+    }
+
+    /** Writes {@code s} as a u16-prefixed UTF-8 string; throws IllegalArgumentException past 65535 bytes. */
+    static void putString(ByteBuffer out, String s) {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        if (b.length > 0xFFFF) throw new IllegalArgumentException("string longer than 65535 bytes");
+        out.putShort((short) b.length).put(b);
+    }
+
+    /** Reads a u16-prefixed UTF-8 string; throws IllegalArgumentException when it overruns the frame. */
+    static String getString(ByteBuffer in) {
+        try {
+            int n = in.getShort() & 0xFFFF;
+            if (n > in.remaining()) throw new IllegalArgumentException("string overruns frame");
+            String s = new String(in.array(), in.arrayOffset() + in.position(), n, StandardCharsets.UTF_8);
+            in.position(in.position() + n);
+            return s;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("truncated frame");
+        }
+    }
+}
@@ -2,10 +2,21 @@ package com.abdaemon.ports.inbound;
 
 import com.abdaemon.domain.*;
 import java.time.Instant;
+import java.util.List;
 import java.util.Map;
 
 /** Logging endpoints for exposures and goals. */
 public interface LoggingApi {
     void logExposure(ExperimentKey experiment, String treatment, Subject subject, Instant ts, Map<String,String> ctx);
     void logGoal(ExperimentKey experiment, String treatment, Subject subject, String goal, Double value, Instant ts, Map<String,String> ctx);
+
+    /** Hands the whole batch to the sink as one unit; returns once the sink has accepted it. */
+    void logExposures(List<Exposure> exposures);
+    void logGoals(List<Goal> goals);
+
+    record Exposure(ExperimentKey experiment, String treatment, Subject subject, Instant ts, Map<String,String> ctx) {}
+
+    /** @param value optional (e.g. revenue) */
+    record Goal(ExperimentKey experiment, String treatment, Subject subject, String goal, Double value,
+                Instant ts, Map<String,String> ctx) {}
 }
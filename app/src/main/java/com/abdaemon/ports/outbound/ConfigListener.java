@@ -0,0 +1,12 @@
+package com.abdaemon.ports.outbound;
+
+import com.abdaemon.domain.ConfigSnapshot;
+import com.abdaemon.domain.ExperimentChange;
+
+import java.util.List;
+
+/** Notified after a reload has published a new snapshot with at least one changed experiment. */
+@FunctionalInterface
+public interface ConfigListener {
+    void onChange(ConfigSnapshot snapshot, List<ExperimentChange> changes);
+}
@@ -1,5 +1,6 @@
 package com.abdaemon.ports.outbound;
 
+import com.abdaemon.domain.ConfigSnapshot;
 import com.abdaemon.domain.Experiment;
 import com.abdaemon.domain.ExperimentKey;
 import java.util.List;
@@ -10,4 +11,18 @@ public interface ConfigRepository {
     String version();
     List<Experiment> all();
     Optional<Experiment> find(ExperimentKey key);
+
+    /**
+     * Current version + compiled experiments as one consistent unit.
+     * Implementations should precompute this on load; the default compiles on every call.
+     */
+    default ConfigSnapshot snapshot() {
+        return ConfigSnapshot.of(version(), all());
+    }
+
+    /** True once a valid config is loaded; until then /health reports NOT_SERVING. */
+    default boolean ready() { return true; }
+
+    /** Registers for per-experiment changes; repositories that never reload ignore it. */
+    default void addListener(ConfigListener listener) {}
 }
@@ -1,10 +1,49 @@
 package com.abdaemon.ports.outbound;
 
+import com.abdaemon.domain.AssignmentDecision;
+
 import java.time.Instant;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /** Where exposure/goal events are sent (WAL, Kafka, etc.). */
 public interface EventSink {
     void enqueueExposure(String experiment, String treatment, String subjectKey, Instant ts, Map<String,String> ctx);
+
+    /** Exposure produced by an assignment; sinks that do not look at the outcome log it like the plain one. */
+    default void enqueueExposure(String experiment, String treatment, AssignmentDecision.Decision decision,
+                                 String subjectKey, Instant ts, Map<String,String> ctx) {
+        enqueueExposure(experiment, treatment, subjectKey, ts, ctx);
+    }
+
     void enqueueGoal(String experiment, String treatment, String subjectKey, String goal, Double value, Instant ts, Map<String,String> ctx);
+
+    /**
+     * Hands over several exposures at once; sinks may write them as one unit.
+     * @throws IllegalArgumentException the sink cannot take one of them; sinks that write the batch
+     *         as one unit then take none
+     */
+    default void enqueueExposures(List<Exposure> exposures) {
+        for (var e : exposures) enqueueExposure(e.experiment(), e.treatment(), e.decision(), e.subjectKey(), e.ts(), e.ctx());
+    }
+
+    /** Hands over several goals at once, like {@link #enqueueExposures}. */
+    default void enqueueGoals(List<Goal> goals) {
+        for (var g : goals) enqueueGoal(g.experiment(), g.treatment(), g.subjectKey(), g.goal(), g.value(), g.ts(), g.ctx());
+    }
+
+    /** Completes once everything enqueued before the call is durable; no-op sinks complete immediately. */
+    default CompletableFuture<Void> awaitDurable() {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /** @param decision assignment outcome; null for client-reported exposures */
+    record Exposure(String experiment, String treatment, String subjectKey, Instant ts, Map<String,String> ctx,
+                    AssignmentDecision.Decision decision) {
+        public Exposure(String experiment, String treatment, String subjectKey, Instant ts, Map<String,String> ctx) {
+            this(experiment, treatment, subjectKey, ts, ctx, null);
+        }
+    }
+    record Goal(String experiment, String treatment, String subjectKey, String goal, Double value, Instant ts, Map<String,String> ctx) {}
 }
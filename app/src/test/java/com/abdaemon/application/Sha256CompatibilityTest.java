@@ -0,0 +1,130 @@
+package com.abdaemon.application;
+
+import com.abdaemon.domain.AssignmentDecision;
+import com.abdaemon.domain.ConfigSnapshot;
+import com.abdaemon.domain.Experiment;
+import com.abdaemon.domain.ExperimentKey;
+import com.abdaemon.domain.Subject;
+import com.abdaemon.domain.UserId;
+import com.abdaemon.domain.Variant;
+import com.abdaemon.ports.outbound.ConfigRepository;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.SplittableRandom;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/** The SHA-256 path must keep every existing assignment: checked against the original Bucketer. */
+class Sha256CompatibilityTest {
+    private static final List<String> SALTS = List.of(
+            "s", "checkout-2024", "salt with spaces", "ünïcødé", "日本語", "emoji-😀", "lone-\uD800-high", "x".repeat(300));
+
+    /** Original {@code Bucketer.bucket}: SHA-256 of {@code salt:key}, first 8 bytes, folded to [0, 9999]. */
+    private static int legacyBucket(String salt, String key) throws Exception {
+        var md = MessageDigest.getInstance("SHA-256");
+        md.update(salt.getBytes(StandardCharsets.UTF_8));
+        md.update((byte) ':');
+        md.update(key.getBytes(StandardCharsets.UTF_8));
+        long v = ByteBuffer.wrap(md.digest()).getLong();
+        if (v < 0) v = ~v;
+        return (int) (v % 10000);
+    }
+
+    /** Original assign path after eligibility: gate on {@code gate:key}, then cumulative rounded weights. */
+    private static String legacyTreatment(Experiment exp, String stableKey) throws Exception {
+        int gate = legacyBucket(exp.salt(), "gate:" + stableKey);
+        if (gate / 10000.0 > exp.traffic()) return "gate";
+        int b = legacyBucket(exp.salt(), stableKey);
+        int acc = 0;
+        for (var v : exp.variants()) {
+            acc += (int) Math.round(v.weight() * 10000);
+            if (b < acc) return v.name();
+        }
+        return "weights";
+    }
+
+    private static List<String> subjects() {
+        var out = new ArrayList<String>();
+        var rnd = new SplittableRandom(42);
+        for (int i = 0; i < 2000; i++) out.add("u:user-" + i);
+        for (int i = 0; i < 500; i++) out.add("d:" + new UUID(rnd.nextLong(), rnd.nextLong()));
+        for (int i = 0; i < 500; i++) {
+            var sb = new StringBuilder("r:");
+            int n = rnd.nextInt(1, 40);
+            for (int j = 0; j < n; j++) sb.append((char) rnd.nextInt(1, 0xFFFF));   // includes unpaired surrogates
+            out.add(sb.toString());
+        }
+        out.add("u:");
+        out.add("u:" + "k".repeat(1000));
+        return out;
+    }
+
+    @Test
+    void bucketsMatchLegacyDigest() throws Exception {
+        var hash = new Sha256BucketHash();
+        for (String salt : SALTS) {
+            for (String key : subjects()) {
+                int expected = legacyBucket(salt, key);
+                assertEquals(expected, hash.bucket(salt, key), () -> salt + " / " + key);
+                long packed = hash.buckets(salt, key);
+                assertEquals(legacyBucket(salt, "gate:" + key), Bucketer.gateBucket(packed), () -> "gate " + salt + " / " + key);
+                assertEquals(expected, Bucketer.variantBucket(packed), () -> "variant " + salt + " / " + key);
+            }
+        }
+    }
+
+    @Test
+    void decisionsMatchLegacyAssign() throws Exception {
+        var experiments = new ArrayList<Experiment>();
+        double[] traffic = {1.0, 0.3, 0.07, 0.0};
+        List<List<Variant>> splits = List.of(
+                List.of(new Variant("control", 0.5), new Variant("treatment", 0.5)),
+                List.of(new Variant("a", 0.3333), new Variant("b", 0.3333), new Variant("c", 0.3334)),
+                List.of(new Variant("a", 0.1), new Variant("b", 0.2), new Variant("c", 0.7)));
+        for (String salt : SALTS) {
+            for (double t : traffic) {
+                for (var variants : splits) {
+                    experiments.add(new Experiment(new ExperimentKey("e" + experiments.size()), "running", salt, t, 0.0,
+                            variants, null, Instant.EPOCH, Instant.parse("2999-01-01T00:00:00Z"), "sha256"));
+                }
+            }
+        }
+        var snapshot = ConfigSnapshot.of("v1", experiments);
+        var assign = new AssignTreatmentUseCase(fixed(snapshot), new Bucketer());
+
+        var ids = subjects().stream().filter(k -> k.startsWith("u:") && k.length() > 2).toList();
+        for (var exp : experiments) {
+            for (String key : ids) {
+                var subject = Subject.of(new UserId(key.substring(2)), null, null);
+                var d = assign.assign(exp.key(), subject, Map.of());
+                String expected = legacyTreatment(exp, key);
+                String actual = switch (d.decision()) {
+                    case ASSIGNED -> d.treatment();
+                    case TRAFFIC_GATE -> "gate";
+                    case WEIGHTS_ERROR -> "weights";
+                    default -> d.decision().name();
+                };
+                assertEquals(expected, actual, () -> exp.key().value() + " / " + key);
+                if (d.decision() != AssignmentDecision.Decision.ASSIGNED) assertEquals("control", d.treatment());
+            }
+        }
+    }
+
+    private static ConfigRepository fixed(ConfigSnapshot snapshot) {
+        return new ConfigRepository() {
+            @Override public String version() { return snapshot.version(); }
+            @Override public List<Experiment> all() { return List.copyOf(snapshot.experiments().values()); }
+            @Override public Optional<Experiment> find(ExperimentKey key) { return snapshot.find(key); }
+            @Override public ConfigSnapshot snapshot() { return snapshot; }
+        };
+    }
+}
@@ -0,0 +1,172 @@
+package com.abdaemon.domain;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompiledRuleTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static CompiledRule rule(String json) throws Exception {
+        return CompiledRule.compile(MAPPER.readValue(json, TargetingRule.class));
+    }
+
+    private static Map<String, String> ctx(String... kv) {
+        var m = new HashMap<String, String>();
+        for (int i = 0; i < kv.length; i += 2) m.put(kv[i], kv[i + 1]);
+        return m;
+    }
+
+    @Test
+    void attributeTests() throws Exception {
+        var codes = rule("{\"attr\":\"region\",\"in\":[\"US\",\"ca\"]}");
+        assertTrue(codes.matches(ctx("region", "US")));
+        assertTrue(codes.matches(ctx("region", "ca")));
+        assertFalse(codes.matches(ctx("region", "CA")));
+        assertFalse(codes.matches(ctx("region", "U")));
+        assertFalse(codes.matches(ctx("region", "U1")));
+        assertFalse(codes.matches(ctx()));
+
+        var words = rule("{\"attr\":\"platform\",\"in\":[\"ios\",\"android\",\"web\"]}");
+        assertTrue(words.matches(ctx("platform", "android")));
+        assertFalse(words.matches(ctx("platform", "IOS")));
+        assertTrue(rule("{\"attr\":\"beta\",\"eq\":\"true\"}").matches(ctx("beta", "true")));
+        assertFalse(rule("{\"attr\":\"beta\",\"eq\":\"true\"}").matches(ctx("beta", "yes")));
+
+        var prefix = rule("{\"attr\":\"locale\",\"prefix\":[\"fr\",\"de_\"]}");
+        assertTrue(prefix.matches(ctx("locale", "fr_CA")));
+        assertTrue(prefix.matches(ctx("locale", "de_AT")));
+        assertFalse(prefix.matches(ctx("locale", "de")));
+
+        var present = rule("{\"attr\":\"tier\",\"present\":true}");
+        assertTrue(present.matches(ctx("tier", "")));
+        assertFalse(present.matches(ctx()));
+        assertTrue(rule("{\"attr\":\"tier\",\"present\":false}").matches(ctx()));
+    }
+
+    @Test
+    void numberBoundsKeepTheTightest() throws Exception {
+        var r = rule("{\"attr\":\"age\",\"gte\":18,\"gt\":17,\"lt\":65,\"lte\":70}");
+        assertFalse(r.matches(ctx("age", "17.99")));
+        assertTrue(r.matches(ctx("age", "18")));
+        assertTrue(r.matches(ctx("age", "64.5")));
+        assertFalse(r.matches(ctx("age", "65")));
+        assertTrue(r.matches(ctx("age", "+3e1")));
+        assertFalse(r.matches(ctx("age", "thirty")));
+        assertFalse(r.matches(ctx("age", "NaN")));
+        assertFalse(r.matches(ctx()));
+
+        var exclusive = rule("{\"attr\":\"score\",\"gt\":0.5,\"gte\":0.5}");
+        assertFalse(exclusive.matches(ctx("score", "0.5")));
+        assertTrue(exclusive.matches(ctx("score", "0.5000001")));
+        assertTrue(rule("{\"attr\":\"n\",\"lt\":0}").matches(ctx("n", "-12.25")));
+    }
+
+    @Test
+    void semverTest() throws Exception {
+        var r = rule("{\"attr\":\"os_ver\",\"semver\":\">=16.2 <18 || ^19.1\"}");
+        assertTrue(r.matches(ctx("os_ver", "17.4")));
+        assertTrue(r.matches(ctx("os_ver", "v19.2.1")));
+        assertFalse(r.matches(ctx("os_ver", "18.1")));
+        assertFalse(r.matches(ctx("os_ver", "seventeen")));
+        assertFalse(r.matches(ctx()));
+    }
+
+    @Test
+    void combinatorsAndOperatorsOnOneAttribute() throws Exception {
+        var r = rule("""
+                {"all": [
+                  {"attr": "platform", "in": ["ios", "android"]},
+                  {"attr": "os_ver", "semver": ">=16.2 <18 || ^19.1"},
+                  {"attr": "age", "gte": 18, "lt": 65},
+                  {"not": {"attr": "locale", "prefix": ["fr"]}},
+                  {"any": [{"attr": "beta", "eq": "true"}, {"attr": "tier", "present": true}]}]}""");
+        var ok = ctx("platform", "ios", "os_ver", "17.1", "age", "30", "locale", "en_US", "beta", "true");
+        assertTrue(r.matches(ok));
+        for (var change : List.of(ctx("platform", "web"), ctx("os_ver", "18.0"), ctx("age", "65"), ctx("locale", "fr_FR"), ctx("beta", "no"))) {
+            var c = new HashMap<>(ok);
+            c.putAll(change);
+            assertFalse(r.matches(c), change::toString);
+        }
+        var viaTier = new HashMap<>(ok);
+        viaTier.remove("beta");
+        viaTier.put("tier", "gold");
+        assertTrue(r.matches(viaTier));
+
+        var both = rule("{\"attr\":\"v\",\"prefix\":[\"1\"],\"gte\":10}");
+        assertTrue(both.matches(ctx("v", "12")));
+        assertFalse(both.matches(ctx("v", "1")));
+        assertFalse(both.matches(ctx("v", "20")));
+    }
+
+    @Test
+    void flattensAndOrdersCheapDecisiveTestsFirst() throws Exception {
+        var r = rule("""
+                {"all": [
+                  {"attr": "os_ver", "semver": ">=16"},
+                  {"all": [{"attr": "tier", "present": true}, {"not": {"not": {"attr": "region", "in": ["US"]}}}]}]}""");
+        assertEquals("all[region in(1), tier present, os_ver semver(1)]", r.toString());
+        assertEquals("tier present", rule("{\"any\": [{\"attr\": \"tier\", \"present\": true}]}").toString());
+    }
+
+    @Test
+    void slotsArePerRuleInOrderOfFirstUse() throws Exception {
+        var r = rule("""
+                {"any": [{"attr": "b", "eq": "1"}, {"attr": "a", "eq": "1"}, {"not": {"attr": "b", "present": true}}]}""");
+        assertEquals(List.of("b", "a"), r.attributes());
+        assertEquals(List.of("z"), rule("{\"attr\":\"z\",\"eq\":\"1\"}").attributes());
+    }
+
+    @Test
+    void pooledInputsCarryNothingBetweenEvaluations() throws Exception {
+        var wide = rule("{\"all\": [{\"attr\": \"a\", \"gte\": 1}, {\"attr\": \"b\", \"semver\": \">=2\"}, {\"attr\": \"c\", \"eq\": \"x\"}]}");
+        var narrow = rule("{\"attr\": \"c\", \"present\": false}");
+        for (int i = 0; i < 100; i++) {
+            assertTrue(wide.matches(ctx("a", "5", "b", "2.1", "c", "x")));
+            assertTrue(narrow.matches(ctx("a", "5")));
+            assertFalse(wide.matches(ctx("a", "0", "b", "2.1", "c", "x")));
+            assertFalse(narrow.matches(ctx("c", "")));
+        }
+
+        var failures = new AtomicInteger();
+        var threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            int id = t;
+            threads.add(Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < 20_000; i++) {
+                    boolean pass = (i + id) % 2 == 0;
+                    var c = ctx("a", pass ? "5" : "0", "b", "3.0", "c", "x");
+                    if (wide.matches(c) != pass) failures.incrementAndGet();
+                    if (narrow.matches(c)) failures.incrementAndGet();
+                }
+            }));
+        }
+        for (var t : threads) t.join();
+        assertEquals(0, failures.get());
+    }
+
+    @Test
+    void snapshotAttributesFollowTheRulesItHolds() throws Exception {
+        ConfigSnapshot snap = null;
+        for (int i = 0; i < 600; i++) {            // well past the old process-wide cap of 256 names
+            var targets = new Targets(List.of(), null, MAPPER.readValue("{\"attr\":\"attr" + i + "\",\"eq\":\"1\"}", TargetingRule.class));
+            var e = new Experiment(new ExperimentKey("e"), "running", "salt", 1.0, 0.0, List.of(new Variant("a", 1.0)),
+                    targets, Instant.EPOCH, Instant.parse("2999-01-01T00:00:00Z"), "murmur3");
+            snap = ConfigSnapshot.of("v" + i, List.of(e), snap);
+            assertTrue(snap.attributes().contains("attr" + i));
+            assertFalse(snap.attributes().contains("attr" + (i - 1)));
+            assertEquals(1, snap.attributes().size());
+            assertTrue(snap.compiled(new ExperimentKey("e")).ruleMatches(ctx("attr" + i, "1")));
+        }
+        assertEquals(0, ConfigSnapshot.empty("0").attributes().size());
+        assertEquals("attr599", new String(snap.attributes().nameBytes()[0]));
+    }
+}
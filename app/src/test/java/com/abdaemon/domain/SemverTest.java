@@ -0,0 +1,90 @@
+package com.abdaemon.domain;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SemverTest {
+    private static boolean in(String range, String version) {
+        return Semver.contains(Semver.range(range), Semver.parse(version));
+    }
+
+    @Test
+    void parsesPartialPrefixedAndTaggedVersions() {
+        assertEquals(Semver.key(1, 2, 0, true), Semver.parse("1.2"));
+        assertEquals(Semver.key(1, 0, 0, true), Semver.parse("v1"));
+        assertEquals(Semver.parse("1.2.3"), Semver.parse("1.2.3+build.7"));
+        assertEquals(Semver.key(1, 2, 3, false), Semver.parse("1.2.3-rc.1"));
+        assertEquals(Semver.parse("1.2.3-alpha"), Semver.parse("1.2.3-beta"));
+    }
+
+    @Test
+    void ordersPreReleasesJustBelowTheirRelease() {
+        assertTrue(Semver.parse("1.2.2") < Semver.parse("1.3.0-rc1"));
+        assertTrue(Semver.parse("1.3.0-rc1") < Semver.parse("1.3.0"));
+        assertTrue(Semver.parse("1.9.9") < Semver.parse("1.10.0"));
+        assertTrue(Semver.parse("1.99.99") < Semver.parse("2.0.0"));
+    }
+
+    @Test
+    void rejectsWhatIsNotAVersion() {
+        for (String s : new String[]{null, "", "v", "abc", "1.", "1..2", ".1", "1.2.3.4", "1.2x", "-1", "1 .2", "9999999"})
+            assertEquals(Semver.INVALID, Semver.parse(s), String.valueOf(s));
+    }
+
+    @Test
+    void comparators() {
+        assertTrue(in(">=16.2", "16.2.0"));
+        assertFalse(in(">=16.2", "16.1.9"));
+        assertTrue(in(">1.2.3", "1.2.4"));
+        assertFalse(in(">1.2.3", "1.2.3"));
+        assertFalse(in(">1.2", "1.2.9"));
+        assertTrue(in(">1.2", "1.3.0"));
+        assertTrue(in("<18", "17.9.9"));
+        assertFalse(in("<18", "18.0.0"));
+        assertTrue(in("<=1.2", "1.2.9"));
+        assertFalse(in("<=1.2", "1.3.0"));
+        assertTrue(in("=1.2.3", "1.2.3"));
+        assertFalse(in("=1.2.3", "1.2.4"));
+        assertTrue(in("1.2", "1.2.7"));
+        assertFalse(in("1.2", "1.3.0"));
+    }
+
+    @Test
+    void caretAndTilde() {
+        assertTrue(in("^19.1", "19.9.0"));
+        assertFalse(in("^19.1", "19.0.9"));
+        assertFalse(in("^19.1", "20.0.0"));
+        assertFalse(in("^19.1", "20.0.0-rc1"));
+        assertTrue(in("^0.2.3", "0.2.9"));
+        assertFalse(in("^0.2.3", "0.3.0"));
+        assertTrue(in("^0.0.3", "0.0.3"));
+        assertFalse(in("^0.0.3", "0.0.4"));
+        assertTrue(in("~1.2", "1.2.9"));
+        assertFalse(in("~1.2", "1.3.0"));
+        assertTrue(in("~1", "1.9.0"));
+        assertFalse(in("~1", "2.0.0"));
+    }
+
+    @Test
+    void intersectsComparatorsAndUnitesAlternatives() {
+        String r = ">=16.2 <18 || ^19.1";
+        assertTrue(in(r, "16.2.0"));
+        assertTrue(in(r, "17.4"));
+        assertFalse(in(r, "18.0.0"));
+        assertFalse(in(r, "19.0.0"));
+        assertTrue(in(r, "19.1.0"));
+        assertFalse(in(r, "garbage"));
+        assertFalse(in(r, null));
+
+        assertArrayEquals(Semver.range(">=1 <4"), Semver.range(">=1 <3 || >=2 <4"));
+        assertEquals(0, Semver.range("<1 >2").length);
+        assertFalse(in("<1 >2", "1.5.0"));
+    }
+
+    @Test
+    void rejectsBadRanges() {
+        for (String r : new String[]{"", "  ", ">=", "1.2.3.4", "abc", "|| 1", "1 ||", ">=1 || || <3", "1.-2", "99999999"})
+            assertThrows(IllegalArgumentException.class, () -> Semver.range(r), r);
+    }
+}
@@ -0,0 +1,113 @@
+package com.abdaemon.infrastructure.config;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConfigSnapshotFileTest {
+    private static final byte[] SOURCE = "[{\"key\":\"checkout\"}]".getBytes(StandardCharsets.UTF_8);
+    private static final int HEADER = 32;
+
+    @TempDir Path dir;
+
+    private Path saved() throws IOException {
+        Path file = dir.resolve("snapshots").resolve("config.snap");
+        ConfigSnapshotFile.save(file, SnapshotCodecTest.snapshot("v1"), SOURCE.length, ConfigSnapshotFile.checksum(SOURCE));
+        return file;
+    }
+
+    private static void write(Path file, long offset, ByteBuffer bytes) throws IOException {
+        try (var ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ch.write(bytes.flip(), offset);
+        }
+    }
+
+    private static String failure(Path file) {
+        return assertThrows(IOException.class, () -> ConfigSnapshotFile.load(file, SOURCE)).getMessage();
+    }
+
+    @Test
+    void roundTripsForTheSameSource() throws Exception {
+        Path file = saved();
+        var snap = SnapshotCodecTest.snapshot("v1");
+        var loaded = ConfigSnapshotFile.load(file, SOURCE);
+        assertEquals(snap.version(), loaded.version());
+        assertEquals(snap.experiments(), loaded.experiments());
+        assertFalse(Files.exists(file.resolveSibling("config.snap.tmp")));
+
+        ConfigSnapshotFile.save(file, SnapshotCodecTest.snapshot("v2"), SOURCE.length, ConfigSnapshotFile.checksum(SOURCE));
+        assertEquals("v2", ConfigSnapshotFile.load(file, SOURCE).version());
+    }
+
+    @Test
+    void otherSourceBytesOrNoFileGiveNull() throws Exception {
+        assertNull(ConfigSnapshotFile.load(dir.resolve("missing.snap"), SOURCE));
+        Path file = saved();
+        byte[] edited = SOURCE.clone();
+        edited[3] ^= 1;                                           // same size, other checksum
+        assertNull(ConfigSnapshotFile.load(file, edited));
+        assertNull(ConfigSnapshotFile.load(file, Arrays.copyOf(SOURCE, SOURCE.length + 1)));
+    }
+
+    @Test
+    void tornFilesAreRejected() throws Exception {
+        Path file = saved();
+        long size = Files.size(file);
+        try (var ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ch.truncate(size - 1);
+        }
+        assertEquals("config snapshot truncated", failure(file));
+
+        try (var ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ch.truncate(HEADER - 1);
+        }
+        assertEquals("bad config snapshot size " + (HEADER - 1), failure(file));
+    }
+
+    @Test
+    void badChecksumIsRejected() throws Exception {
+        Path file = saved();
+        write(file, HEADER + 7, ByteBuffer.allocate(1).put((byte) 0x5A));
+        assertEquals("config snapshot checksum mismatch", failure(file));
+    }
+
+    @Test
+    void layoutVersionMismatchIsRejected() throws Exception {
+        Path file = saved();
+        write(file, 8, ByteBuffer.allocate(4).putInt(2));
+        assertEquals("not a config snapshot (layout 2)", failure(file));
+
+        Files.write(file, new byte[64]);
+        assertTrue(failure(file).startsWith("not a config snapshot"));
+    }
+
+    @Test
+    void outOfRangeLengthsAreRejected() throws Exception {
+        Path file = saved();
+        for (int len : new int[]{Integer.MAX_VALUE, -1, (int) Files.size(file)}) {
+            write(file, 12, ByteBuffer.allocate(4).putInt(len));
+            assertEquals("config snapshot truncated", failure(file), "length " + len);
+        }
+    }
+
+    @Test
+    void checksummedButUndecodablePayloadIsRejected() throws Exception {
+        Path file = saved();
+        int len = (int) Files.size(file) - HEADER;
+        byte[] payload = new byte[len];
+        Arrays.fill(payload, (byte) 0x7F);
+        write(file, HEADER, ByteBuffer.wrap(payload).position(len));
+        write(file, 28, ByteBuffer.allocate(4).putInt(ConfigSnapshotFile.checksum(payload)));
+        assertTrue(failure(file).startsWith("config snapshot invalid: "));
+    }
+}
@@ -0,0 +1,81 @@
+package com.abdaemon.infrastructure.config;
+
+import com.abdaemon.domain.ExperimentKey;
+import com.abdaemon.infrastructure.metrics.Metrics;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RefreshingFileConfigRepositoryTest {
+    private static final Duration NO_POLL = Duration.ofMinutes(10);
+    private static final Duration DEBOUNCE = Duration.ofMillis(100);
+
+    @TempDir Path dir;
+
+    private static String config(String key) {
+        return """
+                [{"key":{"value":"%s"},"status":"running","salt":"s","traffic":1.0,"holdout":0.0,
+                  "variants":[{"name":"control","weight":1.0}],
+                  "start":"2025-01-01T00:00:00Z","end":"2999-01-01T00:00:00Z"}]
+                """.formatted(key);
+    }
+
+    /** Writes a timestamped data directory like the kubelet's atomic writer. */
+    private Path dataDir(String name, String key) throws Exception {
+        Path d = Files.createDirectory(dir.resolve(name));
+        Files.writeString(d.resolve("config.json"), config(key));
+        return d;
+    }
+
+    @Test
+    void reloadsWhenAConfigMapStyleSymlinkIsSwapped() throws Exception {
+        dataDir("..v1", "first");
+        Files.createSymbolicLink(dir.resolve("..data"), Path.of("..v1"));
+        Path file = Files.createSymbolicLink(dir.resolve("config.json"), Path.of("..data/config.json"));
+
+        try (var repo = new RefreshingFileConfigRepository(file, NO_POLL, DEBOUNCE, new Metrics())) {
+            assertTrue(repo.find(new ExperimentKey("first")).isPresent());
+            var reloaded = new CountDownLatch(1);
+            repo.addListener((snap, changes) -> reloaded.countDown());
+
+            // ..v2 written, ..data_tmp -> ..v2, renamed over ..data, ..v1 removed: config.json never changes
+            dataDir("..v2", "second");
+            Files.createSymbolicLink(dir.resolve("..data_tmp"), Path.of("..v2"));
+            Files.move(dir.resolve("..data_tmp"), dir.resolve("..data"), StandardCopyOption.ATOMIC_MOVE);
+            Files.delete(dir.resolve("..v1/config.json"));
+            Files.delete(dir.resolve("..v1"));
+
+            assertTrue(reloaded.await(10, TimeUnit.SECONDS), "symlink swap was not picked up");
+            assertTrue(repo.find(new ExperimentKey("second")).isPresent());
+            assertTrue(repo.find(new ExperimentKey("first")).isEmpty());
+        }
+    }
+
+    @Test
+    void unrelatedFilesDoNotCutTheDebounceShort() throws Exception {
+        Path file = dir.resolve("config.json");
+        Files.writeString(file, config("first"));
+        try (var repo = new RefreshingFileConfigRepository(file, NO_POLL, Duration.ofMillis(500), new Metrics())) {
+            var reloaded = new CountDownLatch(1);
+            repo.addListener((snap, changes) -> reloaded.countDown());
+
+            long t0 = System.nanoTime();
+            Files.writeString(file, config("second"));
+            for (int i = 0; i < 5; i++) {
+                Thread.sleep(50);
+                Files.writeString(dir.resolve("other-" + i), "x");
+            }
+            assertTrue(reloaded.await(10, TimeUnit.SECONDS));
+            assertTrue(System.nanoTime() - t0 >= TimeUnit.MILLISECONDS.toNanos(500), "reloaded before the file was quiet");
+            assertTrue(repo.find(new ExperimentKey("second")).isPresent());
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.abdaemon.infrastructure.config;
+
+import com.abdaemon.domain.ConfigSnapshot;
+import com.abdaemon.domain.Experiment;
+import com.abdaemon.domain.ExperimentKey;
+import com.abdaemon.domain.LayerAllocation;
+import com.abdaemon.domain.TargetingRule;
+import com.abdaemon.domain.Targets;
+import com.abdaemon.domain.Variant;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnapshotCodecTest {
+    private static TargetingRule attr(String attr, List<String> in, String eq, List<String> prefix, Double gt, Double gte,
+                                      Double lt, Double lte, String semver, Boolean present) {
+        return new TargetingRule(null, null, null, attr, in, eq, prefix, gt, gte, lt, lte, semver, present);
+    }
+
+    private static TargetingRule all(TargetingRule... rules) {
+        return new TargetingRule(List.of(rules), null, null, null, null, null, null, null, null, null, null, null, null);
+    }
+
+    private static TargetingRule any(TargetingRule... rules) {
+        return new TargetingRule(null, List.of(rules), null, null, null, null, null, null, null, null, null, null, null);
+    }
+
+    private static TargetingRule not(TargetingRule rule) {
+        return new TargetingRule(null, null, rule, null, null, null, null, null, null, null, null, null, null);
+    }
+
+    /** Every field and operator the codec writes, with awkward values. */
+    static ConfigSnapshot snapshot(String version) {
+        var rule = all(
+                attr("platform", List.of("ios", "android"), null, null, null, null, null, null, null, null),
+                attr("os_ver", null, null, null, null, null, null, null, ">=16.2 <18 || ^19.1", null),
+                attr("age", null, null, null, -0.0, 18.0, 65.5, Double.MAX_VALUE, null, null),
+                not(attr("locale", null, "fr-FR", List.of("fr", "日本"), null, null, null, null, null, null)),
+                any(attr("beta", null, "true", null, null, null, null, null, null, false),
+                        attr("tier", null, null, null, null, null, null, null, null, true)));
+        var list = List.of(
+                new Experiment(new ExperimentKey("checkout-ünï"), "running", "salt😀", 0.3, 0.1,
+                        List.of(new Variant("blue", 0.25), new Variant("control", 0.75)),
+                        new Targets(List.of("DE", "FR"), 3, rule), Instant.parse("2025-01-01T00:00:00.123456789Z"),
+                        Instant.parse("2999-01-01T00:00:00Z"), "murmur3", new LayerAllocation("layer", 0, 4999)),
+                new Experiment(new ExperimentKey("paused"), "paused", "s", 1.0, 0.0,
+                        List.of(new Variant("a", 1.0)), null, Instant.EPOCH, Instant.EPOCH, "sha256"));
+        return ConfigSnapshot.of(version, list);
+    }
+
+    @Test
+    void roundTripsEveryField() {
+        var snap = snapshot("v1");
+        byte[] bytes = SnapshotCodec.encode(snap);
+        var decoded = SnapshotCodec.decode(ByteBuffer.wrap(bytes));
+        assertEquals(snap.version(), decoded.version());
+        assertEquals(snap.experiments(), decoded.experiments());
+        var again = SnapshotCodec.decode(ByteBuffer.wrap(SnapshotCodec.encode(decoded)));   // map order may differ
+        assertEquals(snap.experiments(), again.experiments());
+        for (var e : snap.compiled().values())
+            assertEquals(e.outcomes(), decoded.compiled().get(e.experiment().key().value()).outcomes());
+    }
+
+    @Test
+    void decodesFromTheBufferPosition() {
+        byte[] bytes = SnapshotCodec.encode(snapshot("v1"));
+        var in = ByteBuffer.allocate(bytes.length + 10).put(new byte[5]).put(bytes).put(new byte[5]).flip().position(5);
+        assertEquals("v1", SnapshotCodec.decode(in).version());
+        assertEquals(bytes.length + 5, in.position());
+    }
+
+    @Test
+    void decodeReusesUnchangedPlans() {
+        var v1 = snapshot("v1");
+        var v2 = SnapshotCodec.decode(ByteBuffer.wrap(SnapshotCodec.encode(snapshot("v2"))), v1);
+        for (var e : v2.compiled().values()) {
+            assertEquals("v1", e.revision());
+            assertEquals("v2", e.outcomes().get(0).configVersion());
+        }
+    }
+
+    @Test
+    void emptySnapshotRoundTrips() {
+        var decoded = SnapshotCodec.decode(ByteBuffer.wrap(SnapshotCodec.encode(ConfigSnapshot.of("", List.of()))));
+        assertEquals("", decoded.version());
+        assertTrue(decoded.experiments().isEmpty());
+    }
+
+    @Test
+    void everyTornPrefixIsRejected() {
+        byte[] bytes = SnapshotCodec.encode(snapshot("v1"));
+        for (int len = 0; len < bytes.length; len++) {
+            int n = len;
+            var e = assertThrows(IllegalArgumentException.class,
+                    () -> SnapshotCodec.decode(ByteBuffer.wrap(bytes, 0, n)), "prefix " + n);
+            assertNotNull(e.getMessage());
+        }
+    }
+
+    /** Without a checksum of its own, corrupt bytes decode to something or throw IllegalArgumentException, never anything else. */
+    @Test
+    void corruptBytesOnlyEverThrowIllegalArgument() {
+        byte[] bytes = SnapshotCodec.encode(snapshot("v1"));
+        for (int i = 0; i < bytes.length; i++) {
+            for (int v : new int[]{0x00, 0x01, 0x7F, 0x80, 0xFF}) {
+                byte[] bad = bytes.clone();
+                bad[i] = (byte) v;
+                try {
+                    SnapshotCodec.decode(ByteBuffer.wrap(bad));
+                } catch (IllegalArgumentException expected) {
+                    // rejected
+                } catch (RuntimeException e) {
+                    fail("byte " + i + " = " + v + ": " + e);
+                }
+            }
+        }
+    }
+
+    @Test
+    void oversizedLengthsAreRejected() {
+        var longKey = new Experiment(new ExperimentKey("k".repeat(0x10000)), "running", "s", 1.0, 0.0,
+                List.of(new Variant("a", 1.0)), null, Instant.EPOCH, Instant.EPOCH, "sha256");
+        var e = assertThrows(IllegalArgumentException.class, () -> SnapshotCodec.encode(ConfigSnapshot.of("v", List.of(longKey))));
+        assertEquals("count 65536 exceeds 65535", e.getMessage());
+
+        var countries = new ArrayList<String>();
+        for (int i = 0; i < 0x10000; i++) countries.add("C");
+        var manyCountries = new Experiment(new ExperimentKey("k"), "running", "s", 1.0, 0.0,
+                List.of(new Variant("a", 1.0)), new Targets(countries, null), Instant.EPOCH, Instant.EPOCH, "sha256");
+        assertThrows(IllegalArgumentException.class, () -> SnapshotCodec.encode(ConfigSnapshot.of("v", List.of(manyCountries))));
+
+        var overrun = ByteBuffer.allocate(8).putShort((short) 0xFFFF).put("v1".getBytes(StandardCharsets.UTF_8)).flip();
+        e = assertThrows(IllegalArgumentException.class, () -> SnapshotCodec.decode(overrun));
+        assertEquals("string overruns config snapshot", e.getMessage());
+
+        var negative = ByteBuffer.allocate(8).putShort((short) 0).putInt(-1).flip();
+        e = assertThrows(IllegalArgumentException.class, () -> SnapshotCodec.decode(negative));
+        assertEquals("negative experiment count", e.getMessage());
+
+        var huge = ByteBuffer.allocate(8).putShort((short) 0).putInt(Integer.MAX_VALUE).flip();
+        e = assertThrows(IllegalArgumentException.class, () -> SnapshotCodec.decode(huge));
+        assertEquals("truncated config snapshot", e.getMessage());
+    }
+
+    @Test
+    void unknownRuleKindsAndDeepNestingAreRejected() {
+        var e1 = snapshot("v1").experiments().get("checkout-ünï");
+        byte[] bytes = SnapshotCodec.encode(ConfigSnapshot.of("v1", List.of(e1)));
+        var t = e1.targets();
+        var withoutRule = new Experiment(e1.key(), e1.status(), e1.salt(), e1.traffic(), e1.holdout(), e1.variants(),
+                new Targets(t.countries(), t.minAppVersion()), e1.start(), e1.end(), e1.hashing(), e1.layer());
+        byte[] plain = SnapshotCodec.encode(ConfigSnapshot.of("v1", List.of(withoutRule)));
+        int kind = Arrays.mismatch(bytes, plain) + 1;                  // "u8 has rule" differs, the kind follows
+        assertEquals(1, bytes[kind]);
+
+        byte[] bad = bytes.clone();
+        bad[kind] = 9;
+        var e = assertThrows(IllegalArgumentException.class, () -> SnapshotCodec.decode(ByteBuffer.wrap(bad)));
+        assertEquals("unknown targeting rule kind 9", e.getMessage());
+
+        // 18 nested "not" nodes, deeper than the record allows
+        var deep = ByteBuffer.allocate(kind + 32).put(bytes, 0, kind);
+        for (int i = 0; i < 18; i++) deep.put((byte) 3);
+        e = assertThrows(IllegalArgumentException.class, () -> SnapshotCodec.decode(deep.flip()));
+        assertEquals("targeting rule nested too deep", e.getMessage());
+    }
+
+    @Test
+    void outOfRangeInstantsAreRejected() {
+        var e1 = snapshot("v1").experiments().get("paused");
+        byte[] bytes = SnapshotCodec.encode(ConfigSnapshot.of("v1", List.of(e1)));
+        int start = bytes.length - 12 - 12 - 2 - "sha256".length() - 2 - 1 - 1 - 1;   // back over the end, hashing, targets, layer
+        ByteBuffer.wrap(bytes).putLong(start, Long.MAX_VALUE);
+        var e = assertThrows(IllegalArgumentException.class, () -> SnapshotCodec.decode(ByteBuffer.wrap(bytes)));
+        assertEquals("instant out of range", e.getMessage());
+    }
+}
@@ -0,0 +1,198 @@
+package com.abdaemon.infrastructure.logging;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryWalFormatTest {
+    private static final Instant TS = Instant.parse("2026-10-18T06:00:00.123456Z");
+
+    @TempDir Path dir;
+
+    private final BinaryWalFormat format = new BinaryWalFormat();
+    private final WalFormat.SegmentState state = new WalFormat.SegmentState();
+    private final ByteArrayOutputStream segment = new ByteArrayOutputStream();
+
+    /** Appends like a segment writer: whatever preamble the segment owes, then the entry. */
+    private void append(byte[] entry) {
+        segment.writeBytes(format.preamble(state));
+        segment.writeBytes(entry);
+    }
+
+    private Path write(byte[] bytes) throws IOException {
+        return Files.write(dir.resolve("events-test.wal"), bytes);
+    }
+
+    private static List<WalRecord> readAll(BinaryWalReader r) {
+        var out = new ArrayList<WalRecord>();
+        for (WalRecord rec; (rec = r.next()) != null; ) out.add(rec);
+        return out;
+    }
+
+    @Test
+    void roundTripsExposuresAndGoals() throws Exception {
+        append(format.exposure("checkout", "treatment", "u:42", TS, Map.of("country", "DE", "app_ver", "7")));
+        append(format.goal("checkout", "treatment", "u:42", "purchase", 19.99, TS, Map.of()));
+        append(format.goal("checkout", "control", "d:ü", "click", null, TS, null));
+
+        try (var r = new BinaryWalReader(write(segment.toByteArray()))) {
+            var records = readAll(r);
+            assertFalse(r.torn());
+            assertEquals(3, records.size());
+            assertEquals(new WalRecord("exposure", TS, "checkout", "treatment", "u:42", null, null,
+                    Map.of("country", "DE", "app_ver", "7")), records.get(0));
+            assertEquals(new WalRecord("goal", TS, "checkout", "treatment", "u:42", "purchase", 19.99, Map.of()), records.get(1));
+            assertEquals(new WalRecord("goal", TS, "checkout", "control", "d:ü", "click", null, Map.of()), records.get(2));
+            assertEquals(segment.size(), r.position());
+        }
+    }
+
+    @Test
+    void longAndOverflowingNamesAreWrittenInline() throws Exception {
+        String longName = "x".repeat(BinaryWalFormat.MAX_NAME_CHARS + 1);
+        for (int i = 0; i < BinaryWalFormat.MAX_NAMES + 50; i++) append(format.goal("exp", "t", "u:1", "goal-" + i, null, TS, null));
+        append(format.exposure(longName, "t", "u:1", TS, Map.of(longName, "v")));
+
+        // a fresh segment's preamble re-defines at most MAX_NAMES short names
+        byte[] fresh = format.preamble(new WalFormat.SegmentState());
+        assertTrue(fresh.length < BinaryWalFormat.HEADER_BYTES + BinaryWalFormat.MAX_NAMES * (BinaryWalFormat.RECORD_OVERHEAD + 16));
+
+        try (var r = new BinaryWalReader(write(segment.toByteArray()))) {
+            var records = readAll(r);
+            assertFalse(r.torn());
+            assertEquals(BinaryWalFormat.MAX_NAMES + 51, records.size());
+            for (int i = 0; i < BinaryWalFormat.MAX_NAMES + 50; i++) assertEquals("goal-" + i, records.get(i).goal());
+            var last = records.get(records.size() - 1);
+            assertEquals(longName, last.experiment());
+            assertEquals(Map.of(longName, "v"), last.ctx());
+        }
+    }
+
+    @Test
+    void stopsAtTornTailAndResumesOnceComplete() throws Exception {
+        append(format.exposure("e", "a", "u:1", TS, null));
+        byte[] entry = format.exposure("e", "b", "u:2", TS, null);
+        segment.writeBytes(format.preamble(state));   // defines "b": complete, read before the torn entry
+        int complete = segment.size();
+        segment.writeBytes(entry);
+        byte[] whole = segment.toByteArray();
+
+        Path file = write(Arrays.copyOf(whole, whole.length - 3));
+        try (var r = new BinaryWalReader(file)) {
+            assertEquals(1, readAll(r).size());
+            assertTrue(r.torn());
+            assertTrue(r.hasPartialTail());
+            assertEquals(complete, r.position());
+
+            Files.write(file, whole);
+            r.refresh();
+            var rest = readAll(r);
+            assertEquals(1, rest.size());
+            assertEquals("b", rest.get(0).treatment());
+            assertFalse(r.torn());
+        }
+    }
+
+    @Test
+    void crcMismatchStopsReading() throws Exception {
+        append(format.exposure("e", "a", "u:1", TS, null));
+        int second = segment.size();
+        append(format.exposure("e", "a", "u:2", TS, null));
+        byte[] bytes = segment.toByteArray();
+        bytes[bytes.length - 2] ^= 0x20;
+
+        try (var r = new BinaryWalReader(write(bytes))) {
+            assertEquals(1, readAll(r).size());
+            assertTrue(r.torn());
+            assertTrue(r.tornReason().startsWith("crc mismatch"), r.tornReason());
+            assertEquals(second, r.position());
+        }
+    }
+
+    @Test
+    void rejectsUnknownVersion() throws Exception {
+        append(format.exposure("e", "a", "u:1", TS, null));
+        byte[] bytes = segment.toByteArray();
+        bytes[4] = 9;
+        Path file = write(bytes);
+        assertFalse(BinaryWalReader.isBinary(file));
+        assertThrows(IOException.class, () -> new BinaryWalReader(file));
+    }
+
+    @Test
+    void readsVersion1Segments() throws Exception {
+        var out = new ByteArrayOutputStream();
+        out.writeBytes(new byte[]{'A', 'B', 'W', 'B', BinaryWalFormat.VERSION_1, 0, 0, 0});
+        out.writeBytes(record(BinaryWalFormat.DICT, 0, 2, 'e'));
+        out.writeBytes(record(BinaryWalFormat.DICT, 1, 3, 'a', 'b'));
+        // exposure: ts 0, exp id 0, treatment id 1, subject "u", no ctx
+        out.writeBytes(record(BinaryWalFormat.EXPOSURE, 0, 0, 1, 2, 'u', 0));
+
+        try (var r = new BinaryWalReader(write(out.toByteArray()))) {
+            var records = readAll(r);
+            assertFalse(r.torn());
+            assertEquals(List.of(new WalRecord("exposure", Instant.EPOCH, "e", "ab", "u", null, null, Map.of())), records);
+        }
+    }
+
+    @Test
+    void oversizedRecordLengthIsTorn() throws Exception {
+        append(format.exposure("e", "a", "u:1", TS, null));
+        int good = segment.size();
+        segment.writeBytes(ByteBuffer.allocate(12).putInt(Integer.MAX_VALUE).putInt(0).putInt(1).array());
+
+        try (var r = new BinaryWalReader(write(segment.toByteArray()))) {
+            assertEquals(1, readAll(r).size());
+            assertTrue(r.tornReason().startsWith("short record"), r.tornReason());
+            assertEquals(good, r.position());
+        }
+    }
+
+    @Test
+    void oversizedFieldLengthsInsideAValidRecordAreMalformed() throws Exception {
+        append(format.exposure("e", "a", "u:1", TS, null));
+        int good = segment.size();
+        // inline experiment name claiming ~2GB of UTF-8
+        segment.writeBytes(record(BinaryWalFormat.EXPOSURE, 0, 0, 0xFE, 0xFF, 0xFF, 0xFF, 0x07));
+        byte[] bytes = segment.toByteArray();
+
+        try (var r = new BinaryWalReader(write(bytes))) {
+            assertEquals(1, readAll(r).size());
+            assertTrue(r.tornReason().startsWith("malformed record"), r.tornReason());
+            assertEquals(good, r.position());
+        }
+
+        // dictionary id past the cap
+        var dict = new ByteArrayOutputStream();
+        dict.writeBytes(Arrays.copyOf(bytes, good));
+        dict.writeBytes(record(BinaryWalFormat.DICT, 0xFF, 0xFF, 0xFF, 0xFF, 0x07, 2, 'x'));
+        try (var r = new BinaryWalReader(write(dict.toByteArray()))) {
+            assertEquals(1, readAll(r).size());
+            assertTrue(r.tornReason().startsWith("malformed record"), r.tornReason());
+        }
+    }
+
+    /** One framed record: u32 length, u32 CRC32C, type + body bytes. */
+    private static byte[] record(byte type, int... body) {
+        byte[] b = new byte[body.length + 1];
+        b[0] = type;
+        for (int i = 0; i < body.length; i++) b[i + 1] = (byte) body[i];
+        var crc = new CRC32C();
+        crc.update(b);
+        return ByteBuffer.allocate(BinaryWalFormat.RECORD_OVERHEAD + b.length)
+                .putInt(b.length).putInt((int) crc.getValue()).put(b).array();
+    }
+}
@@ -0,0 +1,69 @@
+package com.abdaemon.infrastructure.logging;
+
+import com.abdaemon.infrastructure.metrics.Metrics;
+import com.abdaemon.ports.outbound.EventSink;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DedupEventSinkTest {
+    private static final int KEYS = 2000;
+
+    private final AtomicInteger logged = new AtomicInteger();
+
+    private final EventSink counting = new EventSink() {
+        @Override
+        public void enqueueExposure(String experiment, String treatment, String subjectKey, Instant ts, Map<String, String> ctx) {
+            logged.incrementAndGet();
+        }
+
+        @Override
+        public void enqueueGoal(String experiment, String treatment, String subjectKey, String goal, Double value,
+                                Instant ts, Map<String, String> ctx) { }
+    };
+
+    /** Exposes every key once; returns how many reached the wrapped sink. */
+    private int exposeAll(DedupEventSink dedup) {
+        int before = logged.get();
+        for (int i = 0; i < KEYS; i++) dedup.enqueueExposure("e", "a", "u:" + i, Instant.EPOCH, Map.of());
+        return logged.get() - before;
+    }
+
+    @Test
+    void keyPartsAndConfigVersionSeparateRepeats() {
+        var version = new String[]{"v1"};
+        var dedup = new DedupEventSink(counting, () -> version[0], Duration.ofMinutes(10), 1 << 20, new Metrics());
+        dedup.enqueueExposure("e", "a", "u:1", Instant.EPOCH, Map.of());
+        dedup.enqueueExposure("e", "a", "u:1", Instant.EPOCH, Map.of());
+        dedup.enqueueExposure("e", "b", "u:1", Instant.EPOCH, Map.of());
+        dedup.enqueueExposure("f", "a", "u:1", Instant.EPOCH, Map.of());
+        dedup.enqueueExposure("e", "a", "u:2", Instant.EPOCH, Map.of());
+        assertEquals(4, logged.get());
+        version[0] = "v2";
+        dedup.enqueueExposure("e", "a", "u:1", Instant.EPOCH, Map.of());
+        assertEquals(5, logged.get());
+    }
+
+    /** Rotation swaps generations without clearing them; stale blocks must read as empty. */
+    @Test
+    void repeatsAreLoggedAgainAfterRotationsWithoutAFullClear() throws Exception {
+        var dedup = new DedupEventSink(counting, () -> "v1", Duration.ofMillis(1000), 1 << 20, new Metrics());
+        assertEquals(KEYS, exposeAll(dedup));
+        assertEquals(0, exposeAll(dedup));
+
+        Thread.sleep(650);                          // one rotation: the keys are in the previous generation
+        assertEquals(0, exposeAll(dedup));
+
+        Thread.sleep(650);                          // second rotation: their blocks are reused with stale bits
+        assertEquals(KEYS, exposeAll(dedup));
+        assertEquals(0, exposeAll(dedup));
+
+        Thread.sleep(1600);                         // idle past a whole generation: both read as empty
+        assertEquals(KEYS, exposeAll(dedup));
+    }
+}
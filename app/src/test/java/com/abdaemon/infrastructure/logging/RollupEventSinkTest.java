@@ -0,0 +1,81 @@
+package com.abdaemon.infrastructure.logging;
+
+import com.abdaemon.domain.AssignmentDecision;
+import com.abdaemon.infrastructure.metrics.Metrics;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RollupEventSinkTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @TempDir Path dir;
+
+    private long writtenCount() throws Exception {
+        long total = 0;
+        try (var files = Files.list(dir)) {
+            for (Path p : files.filter(f -> f.getFileName().toString().startsWith("rollup-")).toList()) {
+                for (String line : Files.readAllLines(p)) total += MAPPER.readTree(line).get("count").asLong();
+            }
+        }
+        return total;
+    }
+
+    @Test
+    void countsFlushedWhileKeysAreRetiredAreNotLost() throws Exception {
+        var sink = new RollupEventSink(dir, Duration.ofHours(1), null, 0, new Metrics());
+        // old minutes: a key that is idle for one flush is retired while other threads may hold it
+        var minutes = new Instant[64];
+        for (int i = 0; i < minutes.length; i++) minutes[i] = Instant.EPOCH.plusSeconds(60L * i);
+        int threads = 4, perThread = 200_000;
+
+        var stop = new AtomicBoolean();
+        var flusher = Thread.ofPlatform().start(() -> {
+            while (!stop.get()) {
+                try { sink.flush(); } catch (Exception e) { throw new RuntimeException(e); }
+            }
+        });
+        var workers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            long seed = t;
+            workers.add(Thread.ofPlatform().start(() -> {
+                var rnd = new SplittableRandom(seed);
+                for (int i = 0; i < perThread; i++) {
+                    var ts = minutes[rnd.nextInt(minutes.length)];
+                    sink.enqueueExposure("e", "a", AssignmentDecision.Decision.ASSIGNED, "u:" + i, ts, Map.of());
+                    if ((i & 1023) == 0) Thread.yield();
+                }
+            }));
+        }
+        for (var w : workers) w.join();
+        stop.set(true);
+        flusher.join();
+        sink.close();
+
+        assertEquals((long) threads * perThread, writtenCount());
+    }
+
+    @Test
+    void closeWritesWhatWasCounted() throws Exception {
+        var sink = new RollupEventSink(dir, Duration.ofHours(1), null, 0, new Metrics());
+        for (int i = 0; i < 10; i++) sink.enqueueExposure("e", "a", "u:" + i, Instant.EPOCH, Map.of("country", "DE"));
+        sink.close();
+        assertEquals(10, writtenCount());
+        Path file;
+        try (var files = Files.list(dir)) { file = files.findFirst().orElseThrow(); }
+        var line = MAPPER.readTree(Files.readAllLines(file).get(0));
+        assertEquals("REPORTED", line.get("decision").asText());
+        assertEquals("DE", line.get("country").asText());
+    }
+}
@@ -0,0 +1,80 @@
+package com.abdaemon.infrastructure.logging;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentWriterTest {
+    @TempDir Path dir;
+
+    private final BinaryWalFormat format = new BinaryWalFormat();
+
+    private byte[] entry(String subject) throws Exception {
+        return format.exposure("e", "a", subject, Instant.EPOCH, Map.of());
+    }
+
+    private List<Path> segments() throws Exception {
+        try (var s = Files.list(dir)) {
+            return s.filter(WalSegmentWriter::isSegment).sorted(WalSegmentWriter.ORDER).toList();
+        }
+    }
+
+    /** Subjects of every segment in order; each segment must parse on its own. */
+    private List<String> readAll() throws Exception {
+        var out = new ArrayList<String>();
+        for (Path p : segments()) {
+            try (var r = new BinaryWalReader(p)) {
+                for (WalRecord rec; (rec = r.next()) != null; ) out.add(rec.subject());
+                assertFalse(r.torn(), () -> p + ": " + r.tornReason());
+            }
+        }
+        return out;
+    }
+
+    @Test
+    void channelWriterRestartsWithinOneSecondOpenNewSegments() throws Exception {
+        for (int run = 0; run < 3; run++) {
+            var w = new WalSegmentWriter(dir, 1 << 20, format);
+            w.append(entry("u:" + run));
+            w.close();
+        }
+        assertEquals(3, segments().size());
+        assertEquals(List.of("u:0", "u:1", "u:2"), readAll());
+    }
+
+    @Test
+    void mappedWriterRestartsWithinOneSecondOpenNewSegments() throws Exception {
+        for (int run = 0; run < 3; run++) {
+            var w = new MappedSegmentWriter(dir, 1 << 16, format);
+            w.append(entry("u:" + run));
+            w.close();
+        }
+        assertEquals(3, segments().size());
+        assertEquals(List.of("u:0", "u:1", "u:2"), readAll());
+    }
+
+    @Test
+    void mappedWriterSealsRotatedSegmentsToTheirData() throws Exception {
+        var w = new MappedSegmentWriter(dir, 4096, format);
+        var expected = new ArrayList<String>();
+        for (int i = 0; i < 500; i++) {
+            w.append(entry("u:" + i));
+            expected.add("u:" + i);
+        }
+        w.force();
+        assertTrue(w.rotations() > 0);
+        var all = segments();
+        var sealed = all.subList(0, all.size() - 2);   // minus the active and the pre-opened segment
+        for (Path p : sealed) assertTrue(Files.size(p) < 4096, p::toString);
+        w.close();
+        assertEquals(expected, readAll());
+    }
+}
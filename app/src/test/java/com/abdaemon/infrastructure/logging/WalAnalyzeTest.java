@@ -0,0 +1,73 @@
+package com.abdaemon.infrastructure.logging;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WalAnalyzeTest {
+    @TempDir Path dir;
+
+    private static String exposure(String treatment, int subject) {
+        return "{\"type\":\"exposure\",\"experiment\":\"e\",\"treatment\":\"" + treatment + "\",\"subject\":\"u:" + subject + "\"}\n";
+    }
+
+    private static String goal(String treatment, int subject) {
+        return "{\"type\":\"goal\",\"experiment\":\"e\",\"treatment\":\"" + treatment + "\",\"subject\":\"u:" + subject
+                + "\",\"goal\":\"buy\",\"value\":2.5}\n";
+    }
+
+    @Test
+    void eachMalformedLineIsSkippedOnce() throws Exception {
+        var text = exposure("a", 1)
+                + "garbage\n"
+                + exposure("a", 2)
+                + "\n  \n"
+                + "[1,2]\n"
+                + exposure("b", 3).strip() + " trailing\n"
+                + "{\"type\":\"exposure\",\"experiment\":\n"
+                + exposure("b", 4)
+                + "{\"type\":\"exposure\"}\n"
+                + goal("a", 1);
+        Path seg = dir.resolve("events-20260101-000000-0.wal");
+        Files.writeString(seg, text);
+
+        var report = WalAnalyze.analyze(List.of(seg), 2, 1 << 20, "a");
+        assertEquals(4, report.events());
+        // garbage, [1,2], trailing data, the cut-off object, and the object without fields
+        assertEquals(5, report.skipped());
+        var variants = report.experiments().getFirst().variants();
+        assertEquals(2, variants.size());
+        assertEquals(2, variants.get(0).exposures());
+        assertEquals(1, variants.get(0).goals().get("buy").converters());
+        assertEquals(1, variants.get(1).exposures());
+    }
+
+    @Test
+    void mergedTreeMatchesASingleUnit() throws Exception {
+        var segments = new ArrayList<Path>();
+        for (int s = 0; s < 5; s++) {
+            var text = new StringBuilder();
+            for (int i = 0; i < 4000; i++) {
+                int subject = (s * 4000 + i) % 7000;            // subjects repeat across segments
+                text.append(exposure(subject % 2 == 0 ? "a" : "b", subject));
+                if (subject % 5 == 0) text.append(goal(subject % 2 == 0 ? "a" : "b", subject));
+            }
+            Path seg = dir.resolve("events-20260101-00000" + s + "-0.wal");
+            Files.writeString(seg, text);
+            segments.add(seg);
+        }
+
+        var whole = WalAnalyze.analyze(segments, 1, 1L << 30, "a");
+        var split = WalAnalyze.analyze(segments, 4, 16 * 1024, "a");
+        assertEquals(whole.events(), split.events());
+        assertEquals(0, split.skipped());
+        assertEquals(whole.experiments(), split.experiments());
+        assertEquals(3500, split.experiments().getFirst().variants().getFirst().subjects());
+    }
+}
@@ -0,0 +1,102 @@
+package com.abdaemon.infrastructure.logging;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WalConsumerTest {
+    private static final int SEGMENT_BYTES = 256 * 1024;
+    private static final int BATCH = 300;
+    private static final int EVENTS = 60_000;
+
+    @TempDir Path dir;
+
+    /**
+     * A reader that mapped a preallocated segment must survive the seal truncating it: pages past
+     * the new end fault on access through the old mapping.
+     */
+    @ParameterizedTest
+    @ValueSource(strings = {"binary", "ndjson"})
+    void readerSurvivesTruncationOfItsMapping(String formatName) throws Exception {
+        var format = WalFormat.of(formatName);
+        var state = new WalFormat.SegmentState();
+        var data = ByteBuffer.allocate(SEGMENT_BYTES);
+        int records = 0;
+        while (data.position() < 4 * 4096) {
+            data.put(format.preamble(state));
+            data.put(format.exposure("e", "a", "u:" + records++, Instant.EPOCH, Map.of()));
+        }
+        int end = data.position();
+        Path file = dir.resolve("events-20260101-000000-0.wal");
+        try (var ch = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            ch.write(data.flip().limit(SEGMENT_BYTES));   // data followed by the zero-filled preallocation
+        }
+
+        try (var reader = SegmentReader.open(file, 0)) {
+            int read = 0;
+            while (reader.next() != null) read++;
+            assertEquals(records, read);
+            assertFalse(reader.hasPartialTail());
+
+            try (var ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                ch.truncate(end);                          // what sealing does
+            }
+            assertFalse(reader.hasPartialTail());          // bounded by the file, not the stale mapping
+            reader.refresh();
+            assertNull(reader.next());
+            assertFalse(reader.hasPartialTail());
+            assertEquals(end, reader.position());
+        }
+    }
+
+    /** Tails mmap segments while the writer rotates and seals (truncates) them underneath the reader. */
+    @ParameterizedTest
+    @ValueSource(strings = {"binary", "ndjson"})
+    void readsSegmentsWhileTheyAreSealed(String formatName) throws Exception {
+        var format = WalFormat.of(formatName);
+        Path wal = dir.resolve("wal");
+        var writer = new MappedSegmentWriter(wal, SEGMENT_BYTES, format);
+
+        var written = CompletableFuture.runAsync(() -> {
+            try {
+                for (int i = 0; i < EVENTS; ) {
+                    for (int end = Math.min(EVENTS, i + BATCH); i < end; i++)
+                        writer.append(format.exposure("e", "a", "u:" + i, Instant.EPOCH, Map.of()));
+                    Thread.yield();
+                }
+                writer.close();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        var subjects = new ArrayList<String>(EVENTS);
+        try (var consumer = new WalConsumer(wal, dir.resolve("checkpoint"))) {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+            while (subjects.size() < EVENTS && System.nanoTime() < deadline) {
+                if (consumer.poll(r -> subjects.add(r.subject()), 1000) == 0) Thread.onSpinWait();
+            }
+        }
+        written.get(10, TimeUnit.SECONDS);
+        assertTrue(writer.rotations() > 2, "writer should have rotated");
+
+        assertEquals(EVENTS, subjects.size());
+        List<String> expected = new ArrayList<>(EVENTS);
+        for (int i = 0; i < EVENTS; i++) expected.add("u:" + i);
+        assertEquals(expected, subjects);
+    }
+}
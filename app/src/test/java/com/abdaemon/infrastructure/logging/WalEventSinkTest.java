@@ -0,0 +1,161 @@
+package com.abdaemon.infrastructure.logging;
+
+import com.abdaemon.infrastructure.metrics.Metrics;
+import com.abdaemon.ports.outbound.EventSink;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WalEventSinkTest {
+    @TempDir Path dir;
+
+    /** NDJSON that cannot serialize subject "bad". */
+    private static final class Failing implements WalFormat {
+        final NdjsonWalFormat ndjson = new NdjsonWalFormat();
+
+        @Override public String name() { return "failing"; }
+
+        @Override
+        public byte[] exposure(String experiment, String treatment, String subjectKey, Instant ts, Map<String, String> ctx) throws Exception {
+            if (subjectKey.equals("bad")) throw new IllegalStateException("boom");
+            return ndjson.exposure(experiment, treatment, subjectKey, ts, ctx);
+        }
+
+        @Override
+        public byte[] goal(String experiment, String treatment, String subjectKey, String goal, Double value,
+                           Instant ts, Map<String, String> ctx) throws Exception {
+            if (subjectKey.equals("bad")) throw new IllegalStateException("boom");
+            return ndjson.goal(experiment, treatment, subjectKey, goal, value, ts, ctx);
+        }
+    }
+
+    /** In-memory segments whose appends and forces fail while the flags are set. */
+    private static final class Flaky implements SegmentWriter {
+        volatile boolean failAppend, failForce;
+
+        @Override
+        public void append(byte[] entry) throws IOException {
+            if (failAppend) throw new IOException("disk full");
+        }
+
+        @Override public void flush() { }
+
+        @Override
+        public void force() throws IOException {
+            if (failForce) throw new IOException("fsync failed");
+        }
+
+        @Override public String currentName() { return "flaky"; }
+        @Override public long rotations() { return 0; }
+        @Override public void close() { }
+    }
+
+    private static final WalEventSink.GroupCommit GROUP = new WalEventSink.GroupCommit(64, 16, Duration.ofMillis(1));
+
+    private static void expose(WalEventSink sink, String subject) {
+        sink.enqueueExposure("e", "a", subject, Instant.EPOCH, Map.of());
+    }
+
+    private static void assertLost(WalEventSink sink, String message) {
+        var e = assertThrows(ExecutionException.class, () -> sink.awaitDurable().get(10, TimeUnit.SECONDS));
+        assertInstanceOf(IOException.class, e.getCause());
+        assertEquals(message, e.getCause().getMessage());
+    }
+
+    private long walBytes() throws Exception {
+        try (var s = Files.list(dir)) {
+            return s.filter(WalSegmentWriter::isSegment).mapToLong(p -> p.toFile().length()).sum();
+        }
+    }
+
+    @Test
+    void batchWithAnUnserializableEventIsRejectedWhole() throws Exception {
+        try (var sink = new WalEventSink(dir, 1 << 20, false, null, new Failing(), false)) {
+            var exposures = List.of(
+                    new EventSink.Exposure("e", "a", "u:1", Instant.EPOCH, Map.of()),
+                    new EventSink.Exposure("e", "a", "bad", Instant.EPOCH, Map.of()));
+            var ex = assertThrows(IllegalArgumentException.class, () -> sink.enqueueExposures(exposures));
+            assertTrue(ex.getMessage().startsWith("event 2:"), ex.getMessage());
+
+            var goals = List.of(new EventSink.Goal("e", "a", "bad", "click", null, Instant.EPOCH, Map.of()));
+            assertThrows(IllegalArgumentException.class, () -> sink.enqueueGoals(goals));
+            assertEquals(0, walBytes());
+
+            sink.enqueueExposures(exposures.subList(0, 1));
+            assertTrue(walBytes() > 0);
+        }
+    }
+
+    @Test
+    void failedGroupWriteFailsEveryLaterWaiter() throws Exception {
+        var segments = new Flaky();
+        try (var sink = new WalEventSink(segments, false, GROUP, new NdjsonWalFormat(), new Metrics())) {
+            expose(sink, "u:1");
+            sink.awaitDurable().get(10, TimeUnit.SECONDS);
+
+            segments.failAppend = true;
+            expose(sink, "u:2");
+            assertLost(sink, "disk full");
+
+            segments.failAppend = false;                  // later entries are written and forced...
+            expose(sink, "u:3");
+            assertLost(sink, "disk full");                // ...but u:2 is still missing
+        }
+    }
+
+    @Test
+    void failedGroupFsyncFailsEveryLaterWaiter() throws Exception {
+        var segments = new Flaky();
+        try (var sink = new WalEventSink(segments, true, GROUP, new NdjsonWalFormat(), new Metrics())) {
+            segments.failForce = true;
+            expose(sink, "u:1");
+            assertLost(sink, "fsync failed");
+
+            segments.failForce = false;
+            expose(sink, "u:2");
+            assertLost(sink, "fsync failed");
+        }
+    }
+
+    @Test
+    void failedDirectWriteFailsEveryLaterWaiter() throws Exception {
+        var segments = new Flaky();
+        try (var sink = new WalEventSink(segments, true, null, new NdjsonWalFormat(), new Metrics())) {
+            expose(sink, "u:1");
+            sink.awaitDurable().get();
+
+            segments.failAppend = true;
+            expose(sink, "u:2");
+            segments.failAppend = false;
+            expose(sink, "u:3");
+            assertLost(sink, "disk full");
+        }
+    }
+
+    /** Appending to a sealed, unmapped segment would fault the JVM; late events are dropped instead. */
+    @Test
+    void directAppendsAfterCloseAreDropped() throws Exception {
+        var sink = new WalEventSink(dir, 1 << 20, true, null, new NdjsonWalFormat(), true);
+        expose(sink, "u:1");
+        sink.close();
+        long bytes = walBytes();
+
+        expose(sink, "u:2");
+        sink.enqueueExposures(List.of(new EventSink.Exposure("e", "a", "u:3", Instant.EPOCH, Map.of())));
+        var e = assertThrows(ExecutionException.class, () -> sink.awaitDurable().get());
+        assertEquals("WAL closed", e.getCause().getMessage());
+        sink.close();
+        assertEquals(bytes, walBytes());
+    }
+}
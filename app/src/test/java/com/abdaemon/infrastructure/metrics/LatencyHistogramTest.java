@@ -0,0 +1,47 @@
+package com.abdaemon.infrastructure.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+
+    @Test
+    void bucketBoundsAreContiguous() {
+        for (int i = 1; i < LatencyHistogram.BUCKETS; i++) {
+            long lower = LatencyHistogram.upperBound(i - 1) + 1;
+            assertEquals(i, LatencyHistogram.index(lower), () -> "lower bound " + lower);
+            assertEquals(i, LatencyHistogram.index(LatencyHistogram.upperBound(i)));
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.upperBound(LatencyHistogram.BUCKETS - 1));
+    }
+
+    @Test
+    void countAtOrBelowIncludesTheBucketStraddlingTheBound() {
+        long le = 1_000;                                  // 1µs: inside the 960..1023 bucket
+        int straddling = LatencyHistogram.index(le);
+        assertTrue(LatencyHistogram.upperBound(straddling) > le);
+
+        var h = new LatencyHistogram();
+        h.record(le - 100);
+        h.record(le);
+        h.record(LatencyHistogram.upperBound(straddling));
+        h.record(LatencyHistogram.upperBound(straddling) + 1);
+        var s = h.snapshot();
+
+        assertEquals(3, s.countAtOrBelow(le));
+        assertEquals(1, s.countAtOrBelow(le - 100));
+        assertEquals(4, s.countAtOrBelow(Long.MAX_VALUE));
+        assertEquals(0, s.countAtOrBelow(-1));
+    }
+
+    @Test
+    void exportedBucketsNeverMissAValueUnderTheirBound() {
+        var h = new LatencyHistogram();
+        long[] les = {1_000, 2_500, 5_000, 10_000, 25_000, 50_000, 100_000, 1_000_000, 10_000_000_000L};
+        for (long le : les) h.record(le);
+        var s = h.snapshot();
+        for (int i = 0; i < les.length; i++) assertTrue(s.countAtOrBelow(les[i]) >= i + 1, "le=" + les[i]);
+        assertEquals(s.count(), s.countAtOrBelow(les[les.length - 1]));
+    }
+}
@@ -0,0 +1,114 @@
+package com.abdaemon.infrastructure.server;
+
+import com.abdaemon.application.AssignTreatmentUseCase;
+import com.abdaemon.application.Bucketer;
+import com.abdaemon.domain.ConfigSnapshot;
+import com.abdaemon.domain.Experiment;
+import com.abdaemon.domain.ExperimentKey;
+import com.abdaemon.infrastructure.metrics.Metrics;
+import com.abdaemon.ports.outbound.ConfigRepository;
+import com.abdaemon.ports.outbound.EventSink;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NioAssignmentServerTest {
+    private final AtomicInteger exposures = new AtomicInteger();
+    private NioAssignmentServer server;
+    private int port;
+
+    @BeforeEach
+    void start() throws Exception {
+        var snapshot = ConfigSnapshot.of("v1", List.of());
+        ConfigRepository repo = new ConfigRepository() {
+            @Override public String version() { return snapshot.version(); }
+            @Override public List<Experiment> all() { return List.of(); }
+            @Override public Optional<Experiment> find(ExperimentKey key) { return Optional.empty(); }
+            @Override public ConfigSnapshot snapshot() { return snapshot; }
+        };
+        EventSink sink = new EventSink() {
+            @Override
+            public void enqueueExposure(String experiment, String treatment, String subjectKey, Instant ts, Map<String, String> ctx) {
+                exposures.incrementAndGet();
+            }
+
+            @Override
+            public void enqueueGoal(String experiment, String treatment, String subjectKey, String goal, Double value,
+                                    Instant ts, Map<String, String> ctx) { }
+        };
+        try (var probe = new ServerSocket(0)) { port = probe.getLocalPort(); }
+        server = new NioAssignmentServer(port, new AssignTreatmentUseCase(repo, new Bucketer()), sink, 1, 16, new Metrics());
+        server.start();
+    }
+
+    @AfterEach
+    void stop() {
+        server.close();
+    }
+
+    /** Sends {@code head} and {@code body} (may be shorter than declared) and returns the status line. */
+    private String exchange(String head, byte[] body) throws IOException {
+        try (var s = new Socket("127.0.0.1", port)) {
+            s.setSoTimeout(10_000);
+            var out = s.getOutputStream();
+            out.write(head.getBytes(StandardCharsets.US_ASCII));
+            out.write(body);
+            out.flush();
+            return statusLine(s.getInputStream());
+        }
+    }
+
+    private static String statusLine(InputStream in) throws IOException {
+        var line = new ByteArrayOutputStream();
+        for (int b; (b = in.read()) != '\r'; ) {
+            if (b < 0) throw new IOException("connection closed");
+            line.write(b);
+        }
+        return line.toString(StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    void ingestBodiesLargerThanTheReadBufferAreAccepted() throws Exception {
+        var body = new StringBuilder();
+        int events = 0;
+        while (body.length() < 300 * 1024) {
+            body.append("{\"experiment\":\"e\",\"treatment\":\"a\",\"user\":\"u").append(events++).append("\"}\n");
+        }
+        byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+        var status = exchange("POST /exposures HTTP/1.1\r\nHost: x\r\nContent-Length: " + bytes.length + "\r\n\r\n", bytes);
+        assertEquals("HTTP/1.1 200 OK", status);
+        assertEquals(events, exposures.get());
+    }
+
+    @Test
+    void bodiesBeyondTheEndpointLimitAreRefused() throws Exception {
+        assertEquals("HTTP/1.1 413 Payload Too Large",
+                exchange("GET /assign?exp=e&user=u HTTP/1.1\r\nHost: x\r\nContent-Length: 8192\r\n\r\n", new byte[8192]));
+        assertEquals("HTTP/1.1 413 Payload Too Large",
+                exchange("POST /goals HTTP/1.1\r\nHost: x\r\nContent-Length: " + (EventIngest.MAX_BODY + 1) + "\r\n\r\n", new byte[0]));
+    }
+
+    @Test
+    void aDeclaredLengthIsNotTakenOnTrust() throws Exception {
+        // declares the maximum, sends a little, then hangs up: the connection must still be served
+        try (var s = new Socket("127.0.0.1", port)) {
+            s.getOutputStream().write(("POST /goals HTTP/1.1\r\nHost: x\r\nContent-Length: " + EventIngest.MAX_BODY
+                    + "\r\n\r\n[").getBytes(StandardCharsets.US_ASCII));
+        }
+        assertEquals("HTTP/1.1 200 OK", exchange("GET /health HTTP/1.1\r\nHost: x\r\n\r\n", new byte[0]));
+    }
+}
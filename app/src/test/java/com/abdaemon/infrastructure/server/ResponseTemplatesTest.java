@@ -0,0 +1,190 @@
+package com.abdaemon.infrastructure.server;
+
+import com.abdaemon.application.AssignTreatmentUseCase;
+import com.abdaemon.application.Bucketer;
+import com.abdaemon.domain.AssignmentDecision;
+import com.abdaemon.domain.ConfigSnapshot;
+import com.abdaemon.domain.Experiment;
+import com.abdaemon.domain.ExperimentKey;
+import com.abdaemon.domain.LayerAllocation;
+import com.abdaemon.domain.Targets;
+import com.abdaemon.domain.Variant;
+import com.abdaemon.ports.outbound.ConfigListener;
+import com.abdaemon.ports.outbound.ConfigRepository;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Template output against what Jackson rendered for the same responses before templates existed. */
+class ResponseTemplatesTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final List<String> AWKWARD = List.of(
+            "plain", "quote\"back\\slash", "ctl\u0001\u001f\t\n\r\b\f", "ünïcødé", "日本", "emoji😀", "lone\uD800x", "lo\uDC00w", "end\uD800", "del\u007f", "sep ", "\u0001\uD83D".repeat(300));
+
+    /** Reloadable in-memory repository that notifies like the file repository. */
+    private static final class Repo implements ConfigRepository {
+        volatile ConfigSnapshot snapshot;
+        final List<ConfigListener> listeners = new ArrayList<>();
+
+        Repo(ConfigSnapshot snapshot) { this.snapshot = snapshot; }
+
+        void publish(ConfigSnapshot next) {
+            snapshot = next;
+            for (var l : listeners) l.onChange(next, List.of());
+        }
+
+        @Override public String version() { return snapshot.version(); }
+        @Override public List<Experiment> all() { return List.copyOf(snapshot.experiments().values()); }
+        @Override public Optional<Experiment> find(ExperimentKey key) { return snapshot.find(key); }
+        @Override public ConfigSnapshot snapshot() { return snapshot; }
+        @Override public void addListener(ConfigListener l) { listeners.add(l); }
+    }
+
+    private static ConfigSnapshot snapshot(String version) {
+        var experiments = new ArrayList<Experiment>();
+        for (int i = 0; i < AWKWARD.size(); i++) {
+            String name = AWKWARD.get(i);
+            experiments.add(new Experiment(new ExperimentKey("exp-" + name), "running", "salt", 0.5, 0.0,
+                    List.of(new Variant("v-" + name, 0.5), new Variant("control", 0.5)),
+                    new Targets(List.of("DE"), 3), Instant.EPOCH, Instant.parse("2999-01-01T00:00:00Z"), "sha256",
+                    new LayerAllocation("layer", i * 500, i * 500 + 499)));
+        }
+        experiments.add(new Experiment(new ExperimentKey("paused"), "paused", "salt", 1.0, 0.0,
+                List.of(new Variant("a", 1.0)), null, Instant.EPOCH, Instant.EPOCH, "sha256"));
+        return ConfigSnapshot.of(version, experiments);
+    }
+
+    private static List<AssignmentDecision> decisions(ConfigSnapshot snap) {
+        var out = new ArrayList<AssignmentDecision>();
+        for (var e : snap.compiled().values()) out.addAll(e.outcomes());
+        out.add(new AssignmentDecision(new ExperimentKey("unknown"), "control", AssignmentDecision.Decision.FALLBACK,
+                List.of("not_running_or_missing"), snap.version()));
+        return out;
+    }
+
+    private static String text(JsonBytes json) {
+        return new String(json.buf, 0, json.len, StandardCharsets.UTF_8);
+    }
+
+    /** Compares bytes, as the old handlers sent {@code writeValueAsBytes}; shows text on failure. */
+    private static void assertSameBytes(byte[] expected, JsonBytes actual) {
+        assertEquals(new String(expected, StandardCharsets.UTF_8), text(actual));
+        assertArrayEquals(expected, Arrays.copyOf(actual.buf, actual.len));
+    }
+
+    /** The previous jdk /assign body, with its fields in template order. */
+    private static byte[] jacksonSingle(AssignmentDecision d, Instant ts) throws Exception {
+        var m = new LinkedHashMap<String, Object>();
+        m.put("experiment", d.experiment().value());
+        m.put("treatment", d.treatment());
+        m.put("decision", d.decision().name());
+        m.put("reasons", d.reasons());
+        m.put("configVersion", d.configVersion());
+        m.put("ts", ts.toString());
+        return MAPPER.writeValueAsBytes(m);
+    }
+
+    private static Map<String, Object> jacksonItem(AssignmentDecision d) {
+        var m = new LinkedHashMap<String, Object>();
+        m.put("experiment", d.experiment().value());
+        m.put("treatment", d.treatment());
+        m.put("decision", d.decision().name());
+        m.put("reasons", d.reasons());
+        return m;
+    }
+
+    private static final List<Instant> TIMES = List.of(
+            Instant.EPOCH, Instant.parse("2026-10-18T06:00:00Z"), Instant.parse("2026-10-18T06:00:00.100Z"),
+            Instant.parse("2026-10-18T06:00:00.123450Z"), Instant.parse("2026-10-18T06:00:00.000000001Z"),
+            Instant.parse("9999-12-31T23:59:59.999999999Z"));
+
+    @Test
+    void singleIsByteIdenticalToJackson() throws Exception {
+        var repo = new Repo(snapshot("v1"));
+        var templates = ResponseTemplates.of(new AssignTreatmentUseCase(repo, new Bucketer()));
+        for (var d : decisions(repo.snapshot())) {
+            for (var ts : TIMES) {
+                var json = new JsonBytes();
+                templates.single(json, d);
+                json.instant(ts).raw('"').raw('}');
+                assertSameBytes(jacksonSingle(d, ts), json);
+                // field-for-field equal to the old unordered Map.of rendering
+                assertEquals(MAPPER.readTree(jacksonSingle(d, ts)), MAPPER.readTree(text(json)));
+            }
+        }
+    }
+
+    @Test
+    void batchIsByteIdenticalToJackson() throws Exception {
+        var repo = new Repo(snapshot("v1"));
+        var templates = ResponseTemplates.of(new AssignTreatmentUseCase(repo, new Bucketer()));
+        var all = decisions(repo.snapshot());
+        var ts = TIMES.get(3);
+
+        var json = new JsonBytes().raw('{').field("decisions").raw('[');
+        var items = new ArrayList<Object>();
+        for (int i = 0; i < all.size(); i++) {
+            if (i > 0) json.raw(',');
+            templates.item(json, all.get(i));
+            items.add(jacksonItem(all.get(i)));
+        }
+        json.raw(']').raw(',').field("configVersion").string("v1").raw(',')
+                .field("ts").raw('"').instant(ts).raw('"').raw('}');
+
+        var m = new LinkedHashMap<String, Object>();
+        m.put("decisions", items);
+        m.put("configVersion", "v1");
+        m.put("ts", ts.toString());
+        assertSameBytes(MAPPER.writeValueAsBytes(m), json);
+    }
+
+    @Test
+    void layerMatchesJackson() throws Exception {
+        var repo = new Repo(snapshot("v1"));
+        var templates = ResponseTemplates.of(new AssignTreatmentUseCase(repo, new Bucketer()));
+        var d = repo.snapshot().compiled().values().iterator().next().assigned(0);
+        var ts = TIMES.get(2);
+
+        var json = new JsonBytes();
+        templates.layer(json, new AssignTreatmentUseCase.LayerAssignment("layer", 42, d, "v1", "u:1"), ts);
+        var m = MAPPER.readValue(jacksonSingle(d, ts), new TypeReference<LinkedHashMap<String, Object>>() { });
+        m.put("layer", "layer");
+        m.put("segment", 42);
+        assertSameBytes(MAPPER.writeValueAsBytes(m), json);
+
+        var empty = new JsonBytes();
+        templates.layer(empty, new AssignTreatmentUseCase.LayerAssignment("layer", 9000, null, "v1", "u:1"), ts);
+        var n = new LinkedHashMap<String, Object>();
+        n.put("experiment", null);
+        n.put("configVersion", "v1");
+        n.put("ts", ts.toString());
+        n.put("layer", "layer");
+        n.put("segment", 9000);
+        assertSameBytes(MAPPER.writeValueAsBytes(n), empty);
+    }
+
+    @Test
+    void reloadRendersTheNewSnapshotEagerly() throws Exception {
+        var repo = new Repo(snapshot("v1"));
+        var templates = ResponseTemplates.of(new AssignTreatmentUseCase(repo, new Bucketer()));
+        repo.publish(snapshot("v2"));
+        for (var d : decisions(repo.snapshot())) {
+            var json = new JsonBytes();
+            templates.single(json, d);
+            json.instant(Instant.EPOCH).raw('"').raw('}');
+            assertSameBytes(jacksonSingle(d, Instant.EPOCH), json);
+            assertTrue(text(json).contains("\"configVersion\":\"v2\""));
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.abdaemon.infrastructure.shm;
+
+import com.abdaemon.domain.ConfigSnapshot;
+import com.abdaemon.domain.Experiment;
+import com.abdaemon.domain.ExperimentKey;
+import com.abdaemon.domain.Targets;
+import com.abdaemon.domain.Variant;
+import com.abdaemon.infrastructure.metrics.Metrics;
+import com.abdaemon.ports.outbound.ConfigListener;
+import com.abdaemon.ports.outbound.ConfigRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static com.abdaemon.infrastructure.shm.SharedConfigFile.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class SharedConfigFileTest {
+    @TempDir Path dir;
+
+    private static ConfigSnapshot snapshot(String version, int experiments) {
+        var list = new ArrayList<Experiment>();
+        for (int i = 0; i < experiments; i++) {
+            list.add(new Experiment(new ExperimentKey("exp-" + i), "running", "salt-" + version, 0.5, 0.0,
+                    List.of(new Variant("blue", 0.5), new Variant("control", 0.5)), new Targets(List.of("DE"), 3),
+                    Instant.EPOCH, Instant.parse("2999-01-01T00:00:00Z"), "sha256"));
+        }
+        return ConfigSnapshot.of(version, list);
+    }
+
+    private static void assertSameConfig(ConfigSnapshot expected, ConfigSnapshot actual) {
+        assertEquals(expected.version(), actual.version());
+        assertEquals(expected.experiments(), actual.experiments());
+    }
+
+    private static void write(Path file, long offset, ByteBuffer bytes) throws IOException {
+        try (var ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ch.write(bytes.flip(), offset);
+        }
+    }
+
+    private static long header(Path file, int offset) throws IOException {
+        try (var ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            var b = ByteBuffer.allocate(8);
+            ch.read(b, offset);
+            return b.flip().getLong();
+        }
+    }
+
+    @Test
+    void readerSeesEachPublishedSnapshot() throws Exception {
+        Path file = dir.resolve("ab-config");
+        try (var publisher = new SharedConfigPublisher(file, new Metrics());
+             var reader = new SharedConfigRepository(file)) {
+            assertEquals("0", reader.version());                  // nothing published yet
+            assertTrue(reader.all().isEmpty());
+
+            var v1 = snapshot("v1", 3);
+            publisher.publish(v1);
+            assertSameConfig(v1, reader.snapshot());
+            assertSame(reader.snapshot(), reader.snapshot());      // unchanged sequence: no copy
+
+            var v2 = snapshot("v2", 2);
+            publisher.publish(v2);
+            assertSameConfig(v2, reader.snapshot());
+            assertEquals(Optional.empty(), reader.find(new ExperimentKey("exp-2")));
+            assertEquals(4, header(file, OFF_SEQ));
+        }
+    }
+
+    @Test
+    void readerRemapsWhenTheFileGrows() throws Exception {
+        Path file = dir.resolve("ab-config");
+        try (var publisher = new SharedConfigPublisher(file, new Metrics());
+             var reader = new SharedConfigRepository(file)) {
+            long initial = Files.size(file);
+            var big = snapshot("big", 2000);
+            publisher.publish(big);
+            assertTrue(Files.size(file) > initial, "file should have grown");
+            assertSameConfig(big, reader.snapshot());
+        }
+    }
+
+    @Test
+    void restartedPublisherContinuesTheSequence() throws Exception {
+        Path file = dir.resolve("ab-config");
+        try (var publisher = new SharedConfigPublisher(file, new Metrics())) {
+            publisher.publish(snapshot("v1", 1));
+        }
+        try (var reader = new SharedConfigRepository(file)) {
+            assertEquals("v1", reader.version());                 // kept after the publisher closed
+            try (var publisher = new SharedConfigPublisher(file, new Metrics())) {
+                assertEquals("v1", reader.version());             // reopening alone publishes nothing
+                publisher.publish(snapshot("v2", 1));
+            }
+            assertEquals("v2", reader.version());
+            assertEquals(4, header(file, OFF_SEQ));
+        }
+    }
+
+    @Test
+    void tornWriteKeepsThePreviousSnapshotUntilTheNextPublish() throws Exception {
+        Path file = dir.resolve("ab-config");
+        try (var publisher = new SharedConfigPublisher(file, new Metrics());
+             var reader = new SharedConfigRepository(file)) {
+            publisher.publish(snapshot("v1", 2));
+            assertEquals("v1", reader.version());
+
+            // a writer that died mid-write: odd sequence, half the payload overwritten
+            write(file, OFF_SEQ, ByteBuffer.allocate(8).putLong(3));
+            write(file, HEADER, ByteBuffer.allocate(16));
+            assertEquals("v1", reader.version());
+            try (var late = new SharedConfigRepository(file)) {
+                assertEquals("0", late.version());
+            }
+
+            publisher.publish(snapshot("v2", 2));                 // skips past the odd sequence
+            assertEquals(6, header(file, OFF_SEQ));
+            assertEquals("v2", reader.version());
+        }
+    }
+
+    @Test
+    void badCrcKeepsThePreviousSnapshot() throws Exception {
+        Path file = dir.resolve("ab-config");
+        try (var publisher = new SharedConfigPublisher(file, new Metrics());
+             var reader = new SharedConfigRepository(file)) {
+            publisher.publish(snapshot("v1", 2));
+            assertEquals("v1", reader.version());
+            publisher.publish(snapshot("v2", 2));
+
+            write(file, HEADER + 20, ByteBuffer.allocate(1).put((byte) 0x5A));
+            assertEquals("v1", reader.version());
+
+            publisher.publish(snapshot("v3", 2));
+            assertEquals("v3", reader.version());
+        }
+    }
+
+    @Test
+    void outOfRangeLengthsKeepThePreviousSnapshot() throws Exception {
+        Path file = dir.resolve("ab-config");
+        try (var publisher = new SharedConfigPublisher(file, new Metrics());
+             var reader = new SharedConfigRepository(file)) {
+            publisher.publish(snapshot("v1", 2));
+            assertEquals("v1", reader.version());
+
+            long seq = header(file, OFF_SEQ);
+            for (int len : new int[]{Integer.MAX_VALUE, -1}) {
+                write(file, OFF_LENGTH, ByteBuffer.allocate(4).putInt(len));
+                write(file, OFF_SEQ, ByteBuffer.allocate(8).putLong(seq += 2));
+                assertEquals("v1", reader.version(), "length " + len);
+            }
+
+            publisher.publish(snapshot("v2", 2));
+            assertEquals("v2", reader.version());
+        }
+    }
+
+    @Test
+    void layoutVersionMismatchIsRefusedByReadersAndRewrittenByThePublisher() throws Exception {
+        Path file = dir.resolve("ab-config");
+        try (var publisher = new SharedConfigPublisher(file, new Metrics())) {
+            publisher.publish(snapshot("v1", 1));
+        }
+        write(file, OFF_LAYOUT, ByteBuffer.allocate(4).putInt(LAYOUT + 1));
+        var e = assertThrows(IOException.class, () -> new SharedConfigRepository(file));
+        assertTrue(e.getMessage().startsWith("not a shared config file"), e.getMessage());
+
+        try (var publisher = new SharedConfigPublisher(file, new Metrics())) {
+            publisher.publish(snapshot("v2", 1));
+        }
+        try (var reader = new SharedConfigRepository(file)) {
+            assertEquals("v2", reader.version());
+        }
+
+        Path small = dir.resolve("small");
+        Files.write(small, new byte[HEADER - 1]);
+        assertThrows(IOException.class, () -> new SharedConfigRepository(small));
+    }
+
+    @Test
+    void followPublishesTheCurrentSnapshotThenEveryChange() throws Exception {
+        var listeners = new ArrayList<ConfigListener>();
+        var repo = new ConfigRepository() {
+            volatile ConfigSnapshot snapshot = SharedConfigFileTest.snapshot("v1", 1);
+            @Override public String version() { return snapshot.version(); }
+            @Override public List<Experiment> all() { return List.copyOf(snapshot.experiments().values()); }
+            @Override public Optional<Experiment> find(ExperimentKey key) { return snapshot.find(key); }
+            @Override public ConfigSnapshot snapshot() { return snapshot; }
+            @Override public void addListener(ConfigListener l) { listeners.add(l); }
+        };
+        Path file = dir.resolve("ab-config");
+        try (var publisher = new SharedConfigPublisher(file, new Metrics());
+             var reader = new SharedConfigRepository(file)) {
+            publisher.follow(repo);
+            assertEquals(List.of(publisher), listeners);
+            assertEquals("v1", reader.version());
+
+            repo.snapshot = SharedConfigFileTest.snapshot("v2", 1);
+            for (var l : listeners) l.onChange(repo.snapshot, List.of());
+            assertEquals("v2", reader.version());
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.abdaemon.infrastructure.stats;
+
+import com.abdaemon.domain.AssignmentDecision.Decision;
+import com.abdaemon.domain.ConfigSnapshot;
+import com.abdaemon.domain.Experiment;
+import com.abdaemon.domain.ExperimentKey;
+import com.abdaemon.domain.Variant;
+import com.abdaemon.infrastructure.metrics.Metrics;
+import com.abdaemon.ports.outbound.ConfigRepository;
+import com.abdaemon.ports.outbound.EventSink;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LiveStatsTest {
+    private static final Instant TS = Instant.EPOCH;
+
+    private final Metrics metrics = new Metrics();
+    private final LiveStats stats;
+
+    LiveStatsTest() {
+        var exp = new Experiment(new ExperimentKey("e"), "running", "salt", 1.0, 0.0,
+                List.of(new Variant("a", 0.5), new Variant("b", 0.5)), null,
+                Instant.EPOCH, Instant.parse("2999-01-01T00:00:00Z"), "sha256");
+        var snapshot = ConfigSnapshot.of("v1", List.of(exp));
+        ConfigRepository repo = new ConfigRepository() {
+            @Override public String version() { return "v1"; }
+            @Override public List<Experiment> all() { return List.of(exp); }
+            @Override public Optional<Experiment> find(ExperimentKey key) { return snapshot.find(key); }
+            @Override public ConfigSnapshot snapshot() { return snapshot; }
+        };
+        EventSink discard = new EventSink() {
+            @Override public void enqueueExposure(String e, String t, String s, Instant ts, Map<String, String> ctx) { }
+            @Override public void enqueueGoal(String e, String t, String s, String g, Double v, Instant ts, Map<String, String> ctx) { }
+        };
+        stats = new LiveStats(discard, repo, metrics);
+    }
+
+    private void assign(String variant, String subject) {
+        stats.enqueueExposure("e", variant, Decision.ASSIGNED, subject, TS, Map.of());
+    }
+
+    private LiveStats.VariantReport variant(String name) {
+        return stats.report("e").orElseThrow().variants().stream().filter(v -> v.name().equals(name)).findFirst().orElseThrow();
+    }
+
+    @Test
+    void assignedCountsEachSubjectOnce() {
+        for (int i = 0; i < 3; i++) assign("a", "u:1");
+        assign("a", "u:2");
+        stats.enqueueExposure("e", "a", Decision.TRAFFIC_GATE, "u:3", TS, Map.of());
+        stats.enqueueExposure("e", "a", "u:4", TS, Map.of());    // client-reported
+        stats.enqueueExposures(List.of(new EventSink.Exposure("e", "a", "u:2", TS, Map.of(), Decision.ASSIGNED)));
+
+        var a = variant("a");
+        assertEquals(2, a.assigned());
+        assertEquals(7, a.exposures());
+    }
+
+    @Test
+    void goalRateIsPerAssignedSubject() {
+        for (int i = 0; i < 10; i++) assign("a", "u:" + (i % 4));    // 4 subjects, 10 exposures
+        stats.enqueueGoal("e", "a", "u:0", "click", null, TS, Map.of());
+        stats.enqueueGoal("e", "a", "u:1", "click", 2.0, TS, Map.of());
+
+        var click = variant("a").goals().get("click");
+        assertEquals(2, click.count());
+        assertEquals(0.5, click.rate(), 1e-12);
+    }
+
+    @Test
+    void srmUsesDistinctSubjects() {
+        // 100 subjects per variant, but variant a's subjects come back ten times each
+        for (int i = 0; i < 100; i++) {
+            for (int r = 0; r < 10; r++) assign("a", "a:" + i);
+            assign("b", "b:" + i);
+        }
+        var srm = stats.report("e").orElseThrow().srm();
+        assertEquals(0.0, srm.chiSquare(), 1e-9);
+        assertFalse(srm.mismatch());
+        assertTrue(metrics.scrape().contains("ab_stats_srm_experiments 0"));
+
+        for (int i = 100; i < 400; i++) assign("a", "a:" + i);
+        assertTrue(stats.report("e").orElseThrow().srm().mismatch());
+        assertTrue(metrics.scrape().contains("ab_stats_srm_experiments 1"));
+    }
+
+    @Test
+    void subjectSetRefusesNewSubjectsOnceFull() {
+        var set = new SubjectSet(32);
+        int added = 0;
+        for (int i = 0; i < 1000; i++) if (set.add("u:" + i) == SubjectSet.Added.NEW) added++;
+        assertTrue(added <= 32 && added >= 16, "added " + added);
+        assertEquals(SubjectSet.Added.PRESENT, set.add("u:0"));
+    }
+}
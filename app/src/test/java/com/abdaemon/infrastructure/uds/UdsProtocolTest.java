@@ -0,0 +1,314 @@
+package com.abdaemon.infrastructure.uds;
+
+import com.abdaemon.application.AssignTreatmentUseCase;
+import com.abdaemon.application.Bucketer;
+import com.abdaemon.domain.AssignmentDecision;
+import com.abdaemon.domain.ConfigSnapshot;
+import com.abdaemon.domain.Experiment;
+import com.abdaemon.domain.ExperimentKey;
+import com.abdaemon.domain.Variant;
+import com.abdaemon.infrastructure.metrics.Metrics;
+import com.abdaemon.ports.outbound.ConfigRepository;
+import com.abdaemon.ports.outbound.EventSink;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UdsProtocolTest {
+    @TempDir Path dir;
+
+    private final AtomicInteger exposures = new AtomicInteger();
+    private UdsAssignmentServer server;
+
+    @AfterEach
+    void stop() {
+        if (server != null) server.close();
+    }
+
+    private UdsAssignmentServer start(Path socket) throws IOException {
+        var exp = new Experiment(new ExperimentKey("checkout"), "running", "salt", 1.0, 0.0,
+                List.of(new Variant("blue", 1.0)), null, Instant.EPOCH, Instant.parse("2999-01-01T00:00:00Z"), "sha256");
+        var snapshot = ConfigSnapshot.of("v7", List.of(exp));
+        ConfigRepository repo = new ConfigRepository() {
+            @Override public String version() { return snapshot.version(); }
+            @Override public List<Experiment> all() { return List.of(exp); }
+            @Override public Optional<Experiment> find(ExperimentKey key) { return snapshot.find(key); }
+            @Override public ConfigSnapshot snapshot() { return snapshot; }
+        };
+        EventSink sink = new EventSink() {
+            @Override
+            public void enqueueExposure(String experiment, String treatment, String subjectKey, Instant ts, Map<String, String> ctx) {
+                exposures.incrementAndGet();
+            }
+
+            @Override
+            public void enqueueGoal(String experiment, String treatment, String subjectKey, String goal, Double value,
+                                    Instant ts, Map<String, String> ctx) { }
+        };
+        server = new UdsAssignmentServer(socket, new AssignTreatmentUseCase(repo, new Bucketer()), sink, new Metrics());
+        server.start();
+        return server;
+    }
+
+    /** An assign request frame for {@code exp} and user u:1; {@code extra} bytes are appended to the body. */
+    private static ByteBuffer request(int id, byte op, String exp, byte[] extra) {
+        var b = ByteBuffer.allocate(4 + UdsProtocol.MAX_FRAME).position(4);
+        b.put(op).putInt(id);
+        UdsProtocol.putString(b, exp);
+        b.put((byte) UdsProtocol.SUBJECT_USER);
+        UdsProtocol.putString(b, "u:1");
+        b.put((byte) 0);
+        b.put(extra);
+        return b.putInt(0, b.position() - 4).flip();
+    }
+
+    private static SocketChannel connect(Path socket) throws IOException {
+        var ch = SocketChannel.open(StandardProtocolFamily.UNIX);
+        ch.connect(UnixDomainSocketAddress.of(socket));
+        return ch;
+    }
+
+    /** Reads one response frame: id, status, rest of body; null when the server closed the connection. */
+    private static ByteBuffer response(SocketChannel ch) throws IOException {
+        var len = ByteBuffer.allocate(4);
+        while (len.hasRemaining()) if (ch.read(len) < 0) return null;
+        var body = ByteBuffer.allocate(len.flip().getInt());
+        while (body.hasRemaining()) if (ch.read(body) < 0) throw new IOException("torn response");
+        return body.flip();
+    }
+
+    // ---- codec ----
+
+    @Test
+    void stringsRoundTrip() {
+        var b = ByteBuffer.allocate(3 * 0xFFFF);
+        var values = List.of("", "checkout", "ünïcødé 日本 😀", "x".repeat(0xFFFF));
+        for (String s : values) UdsProtocol.putString(b, s);
+        b.flip();
+        for (String s : values) assertEquals(s, UdsProtocol.getString(b));
+        assertFalse(b.hasRemaining());
+    }
+
+    @Test
+    void oversizedLengthsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> UdsProtocol.putString(ByteBuffer.allocate(0x20000), "x".repeat(0x10000)));
+        assertThrows(IllegalArgumentException.class, () -> UdsProtocol.putString(ByteBuffer.allocate(0x20000), "é".repeat(0x8000)));
+
+        var overrun = ByteBuffer.allocate(8).putShort((short) 7).put("abc".getBytes()).flip();
+        var e = assertThrows(IllegalArgumentException.class, () -> UdsProtocol.getString(overrun));
+        assertEquals("string overruns frame", e.getMessage());
+        var max = ByteBuffer.allocate(2).putShort((short) 0xFFFF).flip();
+        assertThrows(IllegalArgumentException.class, () -> UdsProtocol.getString(max));
+    }
+
+    @Test
+    void tornStringLengthIsATruncatedFrame() {
+        var torn = ByteBuffer.allocate(1).put((byte) 0).flip();
+        var e = assertThrows(IllegalArgumentException.class, () -> UdsProtocol.getString(torn));
+        assertEquals("truncated frame", e.getMessage());
+    }
+
+    @Test
+    void decisionCodesRoundTripAndUnknownCodesAreRejected() {
+        for (var d : AssignmentDecision.Decision.values()) assertEquals(d, UdsProtocol.decision(UdsProtocol.decisionCode(d)));
+        assertThrows(IllegalArgumentException.class, () -> UdsProtocol.decision(AssignmentDecision.Decision.values().length));
+        assertThrows(IllegalArgumentException.class, () -> UdsProtocol.decision(-1));
+    }
+
+    // ---- server ----
+
+    @Test
+    void clientRoundTripAndPipelining() throws Exception {
+        Path socket = dir.resolve("ab.sock");
+        start(socket);
+        try (var client = UdsAssignmentClient.connect(socket)) {
+            var r = client.assign("checkout", "u:1", null, null, Map.of("country", "DE"));
+            assertEquals("blue", r.treatment());
+            assertEquals(AssignmentDecision.Decision.ASSIGNED, r.decision());
+            assertEquals("v7", r.configVersion());
+
+            var missing = client.assign("nope", "u:1", null, null, null);
+            assertEquals(AssignmentDecision.Decision.FALLBACK, missing.decision());
+            assertEquals(List.of("not_running_or_missing"), missing.reasons());
+
+            var futures = new ArrayList<CompletableFuture<UdsAssignmentClient.Result>>();
+            for (int i = 0; i < 2000; i++) futures.add(client.assignAsync(i % 2 == 0 ? "checkout" : "nope", "u:" + i, null, null, null));
+            for (int i = 0; i < futures.size(); i++) {
+                var d = futures.get(i).get(10, TimeUnit.SECONDS).decision();
+                assertEquals(i % 2 == 0 ? AssignmentDecision.Decision.ASSIGNED : AssignmentDecision.Decision.FALLBACK, d);
+            }
+            assertEquals(0, client.inFlight());
+        }
+        assertEquals(2002, exposures.get());
+    }
+
+    @Test
+    void tornFrameIsAnsweredOnceComplete() throws Exception {
+        Path socket = dir.resolve("ab.sock");
+        start(socket);
+        try (var ch = connect(socket)) {
+            var frame = request(41, UdsProtocol.OP_ASSIGN, "checkout", new byte[0]);
+            int cut = frame.limit() - 3;
+            ch.write(frame.duplicate().limit(2));                     // inside the length prefix
+            Thread.sleep(50);
+            ch.write(frame.duplicate().position(2).limit(cut));
+            Thread.sleep(50);
+            ch.write(frame.position(cut));
+            var r = response(ch);
+            assertEquals(41, r.getInt());
+            assertEquals(UdsProtocol.STATUS_OK, r.get());
+        }
+    }
+
+    @Test
+    void malformedBodiesGetAnErrorAndKeepTheConnection() throws Exception {
+        Path socket = dir.resolve("ab.sock");
+        start(socket);
+        try (var ch = connect(socket)) {
+            ch.write(request(1, (byte) 9, "checkout", new byte[0]));               // op from a newer protocol
+            var r = response(ch);
+            assertEquals(1, r.getInt());
+            assertEquals(UdsProtocol.STATUS_UNKNOWN_OP, r.get());
+
+            ch.write(request(2, UdsProtocol.OP_ASSIGN, "checkout", new byte[]{1, 2}));   // trailing bytes
+            r = response(ch);
+            assertEquals(2, r.getInt());
+            assertEquals(UdsProtocol.STATUS_BAD_REQUEST, r.get());
+            assertEquals("trailing bytes in frame", UdsProtocol.getString(r));
+
+            var overrun = ByteBuffer.allocate(64).putInt(0).put(UdsProtocol.OP_ASSIGN).putInt(3).putShort((short) 500).put((byte) 'x');
+            ch.write(overrun.putInt(0, overrun.position() - 4).flip());           // string longer than its frame
+            r = response(ch);
+            assertEquals(3, r.getInt());
+            assertEquals(UdsProtocol.STATUS_BAD_REQUEST, r.get());
+
+            ch.write(request(4, UdsProtocol.OP_ASSIGN, "checkout", new byte[0]));
+            r = response(ch);
+            assertEquals(4, r.getInt());
+            assertEquals(UdsProtocol.STATUS_OK, r.get());
+        }
+    }
+
+    @Test
+    void outOfRangeFrameLengthsCloseTheConnection() throws Exception {
+        Path socket = dir.resolve("ab.sock");
+        start(socket);
+        for (int len : new int[]{UdsProtocol.MAX_FRAME + 1, 4, -1}) {
+            try (var ch = connect(socket)) {
+                ch.write(ByteBuffer.allocate(16).putInt(len).putInt(0).flip());
+                assertNull(response(ch), "length " + len);
+            }
+        }
+    }
+
+    // ---- socket file ----
+
+    @Test
+    void socketFileIsReplacedOnlyWhenStale() throws Exception {
+        Path socket = dir.resolve("ab.sock");
+        var crashed = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        crashed.bind(UnixDomainSocketAddress.of(socket));
+        var live = assertThrows(IOException.class, () -> start(socket));
+        assertTrue(live.getMessage().contains("in use"), live.getMessage());
+        crashed.close();                                       // the file stays behind, as after a crash
+        assertTrue(Files.exists(socket));
+
+        start(socket).close();
+        assertFalse(Files.exists(socket));
+        server = null;
+
+        Files.writeString(socket, "not a socket");
+        var e = assertThrows(IOException.class, () -> start(socket));
+        assertTrue(e.getMessage().contains("not a socket"), e.getMessage());
+        assertEquals("not a socket", Files.readString(socket));
+    }
+
+    @Test
+    void socketIsCreatedWithItsFinalPermissions() throws Exception {
+        Path socket = dir.resolve("ab.sock");
+        start(socket);
+        assertEquals(PosixFilePermissions.fromString("rw-rw----"), Files.getPosixFilePermissions(socket));
+        try (var files = Files.list(dir)) {
+            assertEquals(List.of(socket), files.toList());      // the private bind directory is gone
+        }
+        try (var client = UdsAssignmentClient.connect(socket)) {
+            assertEquals("blue", client.assign("checkout", "u:1", null, null, null).treatment());
+        }
+    }
+
+    @Test
+    void closeLeavesASocketFileItDidNotCreate() throws Exception {
+        Path socket = dir.resolve("ab.sock");
+        start(socket);
+        Files.delete(socket);
+        Files.writeString(socket, "replaced");
+        server.close();
+        server = null;
+        assertEquals("replaced", Files.readString(socket));
+    }
+
+    // ---- client ----
+
+    @Test
+    void timedOutRequestsLeaveThePendingTable() throws Exception {
+        Path socket = dir.resolve("silent.sock");
+        try (var silent = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            silent.bind(UnixDomainSocketAddress.of(socket));
+            try (var client = UdsAssignmentClient.connect(socket, Duration.ofMillis(100));
+                 var accepted = silent.accept()) {
+                assertTrue(accepted.isConnected());         // held open, never answered
+                var e = assertThrows(IOException.class, () -> client.assign("checkout", "u:1", null, null, null));
+                assertTrue(e.getMessage().startsWith("no response"), e.getMessage());
+                assertEquals(0, client.inFlight());
+
+                var f = client.assignAsync("checkout", "u:1", null, null, null);
+                assertEquals(1, client.inFlight());
+                f.cancel(false);
+                assertEquals(0, client.inFlight());
+            }
+        }
+    }
+
+    @Test
+    void aFailedConnectionFailsPendingAndLaterRequests() throws Exception {
+        Path socket = dir.resolve("closing.sock");
+        try (var peer = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            peer.bind(UnixDomainSocketAddress.of(socket));
+            try (var client = UdsAssignmentClient.connect(socket, Duration.ofSeconds(5))) {
+                var accepted = peer.accept();
+                var pending = new ArrayList<CompletableFuture<UdsAssignmentClient.Result>>();
+                for (int i = 0; i < 10; i++) pending.add(client.assignAsync("checkout", "u:" + i, null, null, null));
+                accepted.close();
+                for (var f : pending) {
+                    var e = assertThrows(ExecutionException.class, () -> f.get(5, TimeUnit.SECONDS));
+                    assertInstanceOf(IOException.class, e.getCause());
+                }
+                assertEquals(0, client.inFlight());
+                assertThrows(IOException.class, () -> client.assign("checkout", "u:1", null, null, null));
+                assertEquals(0, client.inFlight());
+            }
+        }
+    }
+}
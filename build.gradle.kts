@@ -23,8 +23,19 @@ sourceSets {
             setSrcDirs(listOf("app/src/test/java"))
         }
     }
+    // JMH microbenchmarks; may use package-private hot-path classes
+    create("jmh") {
+        java {
+            setSrcDirs(listOf("app/src/jmh/java"))
+        }
+        compileClasspath += sourceSets["main"].output
+        runtimeClasspath += sourceSets["main"].output
+    }
 }
 
+configurations["jmhImplementation"].extendsFrom(configurations["implementation"])
+configurations["jmhRuntimeOnly"].extendsFrom(configurations["runtimeOnly"])
+
 
 tasks.withType<JavaCompile>().configureEach {
   // Reproducible, strict builds
@@ -36,6 +47,64 @@ application {
     mainClass.set("com.abdaemon.infrastructure.Main")
 }
 
+// ./gradlew walConvert --args="wal"   (binary or NDJSON segments -> NDJSON on stdout)
+tasks.register<JavaExec>("walConvert") {
+    group = "application"
+    description = "Converts WAL segments to NDJSON"
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("com.abdaemon.infrastructure.logging.WalConvert")
+}
+
+// ./gradlew walTail --args="wal wal.checkpoint --follow --purge"
+tasks.register<JavaExec>("walTail") {
+    group = "application"
+    description = "Streams WAL records as NDJSON from a durable checkpoint"
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("com.abdaemon.infrastructure.logging.WalTail")
+}
+
+// ./gradlew walAnalyze --args="wal --threads 8 --json report.json"
+tasks.register<JavaExec>("walAnalyze") {
+    group = "application"
+    description = "Per-variant counts, conversion rates and confidence intervals from WAL segments"
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("com.abdaemon.infrastructure.logging.WalAnalyze")
+}
+
+// ./gradlew loadgen --args="--rate 5000 --duration 30 --max-p99-ms 5"   (against a running daemon)
+tasks.register<JavaExec>("loadgen") {
+    group = "application"
+    description = "Drives a local daemon with /assign traffic and reports latency percentiles"
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("com.abdaemon.infrastructure.loadgen.LoadGenerator")
+}
+
+// ./gradlew jmh                                  (all benchmarks -> build/jmh/results.json)
+// ./gradlew jmh -PjmhArgs="Bucketer -f 1 -wi 2"   (extra JMH args, e.g. a name filter)
+tasks.register<JavaExec>("jmh") {
+    group = "benchmark"
+    description = "Runs JMH benchmarks"
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    val results = layout.buildDirectory.file("jmh/results.json")
+    doFirst { results.get().asFile.parentFile.mkdirs() }
+    args = listOf("-rf", "json", "-rff", results.get().asFile.path) +
+        (findProperty("jmhArgs")?.toString()?.split(" ")?.filter { it.isNotBlank() } ?: emptyList())
+}
+
+// ./gradlew jmhCheck -PjmhThreshold=0.10   (fails when a benchmark regressed beyond the threshold)
+tasks.register<JavaExec>("jmhCheck") {
+    group = "benchmark"
+    description = "Compares build/jmh/results.json against app/src/jmh/baseline.json"
+    mustRunAfter("jmh")
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("com.abdaemon.bench.RegressionCheck")
+    args = listOf(
+        layout.projectDirectory.file("app/src/jmh/baseline.json").asFile.path,
+        layout.buildDirectory.file("jmh/results.json").get().asFile.path,
+        findProperty("jmhThreshold")?.toString() ?: "0.10")
+}
+
 repositories {
   mavenCentral()
 }
@@ -52,6 +121,10 @@ dependencies {
     implementation("ch.qos.logback:logback-classic:1.5.7")
     implementation("ch.qos.logback:logback-core:1.5.7")
 
+    // Benchmarks
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:1.37")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.37")
+
     // Testing
     testImplementation("org.junit.jupiter:junit-jupiter:5.11.0")
 }